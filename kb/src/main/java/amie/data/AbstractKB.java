@@ -1,5 +1,6 @@
 package amie.data;
 
+import amie.data.remote.Compression;
 import amie.data.tuple.IntArrays;
 import it.unimi.dsi.fastutil.ints.*;
 import amie.data.javatools.datatypes.Pair;
@@ -24,6 +25,9 @@ public abstract class AbstractKB {
     public static int Port = DEFAULT_PORT ;
     public static final String DEFAULT_SERVER_ADDRESS = "localhost:" + DEFAULT_PORT ;
     public static String ServerAddress = DEFAULT_SERVER_ADDRESS ;
+    public static final int DEFAULT_CONNECTIONS = Runtime.getRuntime().availableProcessors() ;
+    public static int Connections = DEFAULT_CONNECTIONS ;
+    public static int CompressionThreshold = Compression.DEFAULT_THRESHOLD ;
 
     private static final String WS_LAYER = "WS"  ;
 
@@ -48,6 +52,23 @@ public abstract class AbstractKB {
         System.out.println("Set port to "+port);
     }
 
+    /**
+     * Sets the number of connections a client shares among the threads that query the server.
+     */
+    public static void SetConnections(int connections){
+        if (connections < 1)
+            throw new IllegalArgumentException("The number of connections must be positive");
+        Connections = connections ;
+    }
+
+    /**
+     * Sets the size in bytes from which the messages between the server and the clients are compressed, negative to
+     * disable compression. Compression is only used if both the server and the client enable it.
+     */
+    public static void SetCompressionThreshold(int threshold){
+        CompressionThreshold = threshold ;
+    }
+
     public static void EnableLiveMetrics() {
         enableLiveMetrics = true ;
     }
@@ -166,6 +187,10 @@ public abstract class AbstractKB {
         delimiter = newDelimiter;
     }
 
+    public String getDelimiter() {
+        return delimiter;
+    }
+
     protected boolean optimConnectedComponent = true;
     protected boolean optimExistentialDetection = true;
 
@@ -496,6 +521,32 @@ public abstract class AbstractKB {
      **/
     public abstract Int2IntMap countProjectionBindings(int[] projectionTriple, List<int[]> otherTriples, int variable) ;
 
+    /**
+     * For each candidate instantiation of variable, it returns the number of
+     * distinct instantiations of joinVariable that satisfy the query. This
+     * implementation runs one query per candidate.
+     *
+     * @param candidates Instantiations of variable to count, e.g., those with
+     *                   enough support
+     * @return IntHashMap A map of the form {string : number of distinct bindings}
+     */
+    public Int2IntMap countJoinBindings(List<int[]> query, int variable, int joinVariable, IntCollection candidates) {
+        Int2IntMap result = new Int2IntOpenHashMap();
+        for (int constant : candidates) {
+            List<int[]> instantiated = new ArrayList<>(query.size());
+            for (int[] triple : query) {
+                int[] copy = triple.clone();
+                for (int i = 0; i < copy.length; ++i) {
+                    if (copy[i] == variable)
+                        copy[i] = constant;
+                }
+                instantiated.add(copy);
+            }
+            result.put(constant, (int) countDistinct(joinVariable, instantiated));
+        }
+        return result;
+    }
+
 
     /** returns the number of instances that fulfill a certain condition */
     public abstract long countDistinct(int variable, List<int[]> query) ;
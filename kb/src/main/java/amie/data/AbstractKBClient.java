@@ -1,5 +1,6 @@
 package amie.data;
 
+import amie.data.remote.Caching;
 import amie.data.remote.Queries;
 import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
@@ -50,20 +51,84 @@ public abstract class AbstractKBClient extends AbstractKB {
         return response;
     }
 
-    public static class IntSetDeserializer implements JsonDeserializer<IntSet> {
+    /**
+     * @return The first of the sorted values followed by the difference of each value with the previous one.
+     */
+    private static JsonArray deltaEncode(int[] sorted) {
+        JsonArray deltas = new JsonArray(sorted.length);
+        long previous = 0;
+        for (int value : sorted) {
+            deltas.add(value - previous);
+            previous = value;
+        }
+        return deltas;
+    }
+
+    private static int[] deltaDecode(JsonArray deltas) {
+        int[] values = new int[deltas.size()];
+        long value = 0;
+        for (int i = 0; i < values.length; i++) {
+            value += deltas.get(i).getAsLong();
+            values[i] = (int) value;
+        }
+        return values;
+    }
+
+    /**
+     * Sets are sent as their sorted elements delta-encoded, {"d": [...]}, which takes fewer digits than the elements.
+     * Plain arrays, as in the responses cached by previous versions, are also read.
+     */
+    public static class IntSetAdapter implements JsonSerializer<IntSet>, JsonDeserializer<IntSet> {
+        @Override
+        public JsonElement serialize(IntSet set, Type typeOfSrc, JsonSerializationContext context) {
+            int[] sorted = set.toIntArray();
+            IntArrays.quickSort(sorted);
+            JsonObject json = new JsonObject();
+            json.add("d", deltaEncode(sorted));
+            return json;
+        }
+
         @Override
         public IntSet deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
                 throws JsonParseException {
+            if (json.isJsonObject())
+                return new IntOpenHashSet(deltaDecode(json.getAsJsonObject().getAsJsonArray("d")));
             Gson gson = new Gson();
             int[] arr = gson.fromJson(json, int[].class);
             return new IntOpenHashSet(arr);
         }
     }
 
-    public static class Int2IntMapDeserializer implements JsonDeserializer<Int2IntMap> {
+    /**
+     * Maps are sent as their sorted keys delta-encoded and the values in the same order, {"dk": [...], "v": [...]}.
+     * Plain objects, as in the responses cached by previous versions, are also read.
+     */
+    public static class Int2IntMapAdapter implements JsonSerializer<Int2IntMap>, JsonDeserializer<Int2IntMap> {
+        @Override
+        public JsonElement serialize(Int2IntMap map, Type typeOfSrc, JsonSerializationContext context) {
+            int[] keys = map.keySet().toIntArray();
+            IntArrays.quickSort(keys);
+            JsonArray values = new JsonArray(keys.length);
+            for (int key : keys)
+                values.add(map.get(key));
+            JsonObject json = new JsonObject();
+            json.add("dk", deltaEncode(keys));
+            json.add("v", values);
+            return json;
+        }
+
         @Override
         public Int2IntMap deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
                 throws JsonParseException {
+            JsonObject object = json.getAsJsonObject();
+            if (object.has("dk") && object.get("dk").isJsonArray()) {
+                int[] keys = deltaDecode(object.getAsJsonArray("dk"));
+                JsonArray values = object.getAsJsonArray("v");
+                Int2IntMap map = new Int2IntOpenHashMap(keys.length);
+                for (int i = 0; i < keys.length; i++)
+                    map.put(keys[i], values.get(i).getAsInt());
+                return map;
+            }
             Gson gson = new Gson();
             Type mapType = new TypeToken<Map<Integer, Integer>>() {
             }.getType();
@@ -73,11 +138,16 @@ public abstract class AbstractKBClient extends AbstractKB {
         }
     }
 
+    /**
+     * Collections keep their order, unless the server sent a set (see {@link IntSetAdapter}).
+     */
     public static class IntCollectionDeserializer implements JsonDeserializer<IntCollection> {
 
         @Override
         public IntCollection deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
                 throws JsonParseException {
+            if (json.isJsonObject())
+                return new IntArrayList(deltaDecode(json.getAsJsonObject().getAsJsonArray("d")));
             Gson gson = new Gson();
             int[] arr = gson.fromJson(json, int[].class);
             return new IntArrayList(arr);
@@ -85,6 +155,55 @@ public abstract class AbstractKBClient extends AbstractKB {
 
     }
 
+    /**
+     * Sends a batch of facts to add to and remove from the KB of the server. The removals are applied first. The
+     * cached responses that depend on the relations of the facts are invalidated, those that depend on facts updated
+     * by other clients are not: clients that cache responses should pin a snapshot (see {@link #pinSnapshot()}).
+     *
+     * @param additions
+     * @param removals
+     * @return The version of the KB that contains the batch.
+     */
+    public long update(List<int[]> additions, List<int[]> removals) {
+        UpdateQuery query = new UpdateQuery(additions, removals);
+        long version = runRemoteQuery(query, UpdateQueryName, Long.class);
+        if (version < 0)
+            throw new IllegalArgumentException("The server rejected the update, facts must be triples of constants");
+        IntSet relations = new IntOpenHashSet();
+        for (List<int[]> facts : List.of(additions, removals)) {
+            for (int[] fact : facts) {
+                relations.add(fact[1]);
+            }
+        }
+        Caching.InvalidateRelations(relations);
+        return version;
+    }
+
+    /**
+     * The server defers the updates until the snapshot is released with {@link #releaseSnapshot()}, so that the
+     * following queries of every client see the same version of the KB. The server releases the snapshot if the
+     * client disconnects or does not release it within the lease of the server; pinning it again renews the lease.
+     *
+     * @return The version of the KB.
+     */
+    public long pinSnapshot() {
+        return runRemoteQuery(new PinSnapshotQuery(), PinSnapshotQueryName, Long.class);
+    }
+
+    /**
+     * @return The current version of the KB, which includes the updates deferred by the snapshot.
+     */
+    public long releaseSnapshot() {
+        return runRemoteQuery(new ReleaseSnapshotQuery(), ReleaseSnapshotQueryName, Long.class);
+    }
+
+    /**
+     * @return The number of batches of updates applied to the KB of the server.
+     */
+    public long getVersion() {
+        return runRemoteQuery(new VersionQuery(), VersionQueryName, Long.class);
+    }
+
     @Override
     public String getServerConfiguration() {
         GetServerConfigurationQuery query = new GetServerConfigurationQuery() ;
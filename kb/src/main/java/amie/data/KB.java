@@ -18,7 +18,6 @@ import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -28,7 +27,6 @@ import java.util.regex.Matcher;
 import amie.data.javatools.administrative.Announce;
 
 import amie.data.javatools.datatypes.IntHashMap;
-import amie.data.javatools.datatypes.Pair;
 import amie.data.javatools.filehandlers.FileLines;
 import org.eclipse.rdf4j.rio.RDFFormat;
 import org.eclipse.rdf4j.rio.RDFParser;
@@ -85,19 +83,35 @@ public class KB extends AbstractKB {
 	// ---------------------------------------------------------------------------
 
 	/**
-	 * Subject-subject overlaps
+	 * Subject-subject, subject-object and object-object overlaps between relations,
+	 * null until the tables are built
 	 */
-	public final Int2ObjectMap<Int2IntMap> subject2subjectOverlap = new Int2ObjectOpenHashMap<Int2IntMap>();
+	protected volatile OverlapTables overlapTables;
 
 	/**
-	 * Subject-object overlaps
+	 * Histograms of the number of objects per subject of each relation, see
+	 * {@link #buildHistogram(Int2ObjectMap)}
 	 */
-	public final Int2ObjectMap<Int2IntMap> subject2objectOverlap = new Int2ObjectOpenHashMap<Int2IntMap>();
+	private final Int2ObjectMap<CachedHistogram> subjectHistograms = new Int2ObjectOpenHashMap<>();
 
 	/**
-	 * Object-object overlaps
+	 * Histograms of the number of subjects per object of each relation
 	 */
-	public final Int2ObjectMap<Int2IntMap> object2objectOverlap = new Int2ObjectOpenHashMap<Int2IntMap>();
+	private final Int2ObjectMap<CachedHistogram> objectHistograms = new Int2ObjectOpenHashMap<>();
+
+	/**
+	 * A histogram and the size of the relation when it was computed. The
+	 * histogram is stale if the size of the relation changed since then.
+	 */
+	private static class CachedHistogram {
+		final int relationSize;
+		final IntHashMap<Integer> histogram;
+
+		CachedHistogram(int relationSize, IntHashMap<Integer> histogram) {
+			this.relationSize = relationSize;
+			this.histogram = histogram;
+		}
+	}
 
 	/** Number of facts */
 	protected long size;
@@ -339,6 +353,8 @@ public class KB extends AbstractKB {
 		add(relation, subject, object, relation2subject2object);
 		add(object, relation, subject, object2relation2subject);
 		add(subject, object, relation, subject2object2relation);
+		if (relation == this.schema.subClassRelationBS)
+			this.schema.addSubClassOf(this, subject, object);
 		synchronized (subjectSize) {
 			increase(subjectSize, subject);
 		}
@@ -349,33 +365,6 @@ public class KB extends AbstractKB {
 			increase(objectSize, object);
 		}
 
-		synchronized (subject2subjectOverlap) {
-			Int2IntMap overlaps = subject2subjectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				subject2subjectOverlap.put(relation,
-						new Int2IntOpenHashMap());
-			}
-		}
-
-		synchronized (subject2objectOverlap) {
-			Int2IntMap overlaps = subject2objectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				subject2objectOverlap.put(relation,
-						new Int2IntOpenHashMap());
-			}
-		}
-
-		synchronized (object2objectOverlap) {
-			Int2IntMap overlaps = object2objectOverlap
-					.get(relation);
-			if (overlaps == null) {
-				object2objectOverlap.put(relation,
-						new Int2IntOpenHashMap());
-			}
-		}
-
 		size++;
 		return (true);
 	}
@@ -448,21 +437,7 @@ public class KB extends AbstractKB {
 	 * It clears all overlap tables.
 	 */
 	private void resetOverlapTables() {
-		resetMap(subject2subjectOverlap);
-		resetMap(subject2objectOverlap);
-		resetMap(object2objectOverlap);
-
-	}
-
-	/**
-	 * It resets an overlap index.
-	 * 
-	 * @param map
-	 */
-	private void resetMap(Int2ObjectMap<Int2IntMap> map) {
-		for (int key : map.keySet()) {
-			map.put(key, new Int2IntOpenHashMap());
-		}
+		overlapTables = null;
 	}
 
 	/**
@@ -472,165 +447,17 @@ public class KB extends AbstractKB {
 	 * cardinality estimation.
 	 */
 	public void buildOverlapTables() {
-		for (int r1 : relationSize.keySet()) {
-			IntSet subjects1 = relation2subject2object.get(r1)
-					.keySet();
-			IntSet objects1 = relation2object2subject.get(r1)
-					.keySet();
-			for (int r2 : relationSize.keySet()) {
-				IntSet subjects2 = relation2subject2object.get(r2)
-						.keySet();
-				IntSet objects2 = relation2object2subject.get(r2)
-						.keySet();
-
-				if (r1 != r2) {
-					int ssoverlap = computeOverlap(subjects1, subjects2);
-					subject2subjectOverlap.get(r1).put(r2, ssoverlap);
-					subject2subjectOverlap.get(r2).put(r1, ssoverlap);
-				} else {
-					subject2subjectOverlap.get(r1).put(r1, subjects2.size());
-				}
-
-				int soverlap1 = computeOverlap(subjects1, objects2);
-				subject2objectOverlap.get(r1).put(r2, soverlap1);
-				int soverlap2 = computeOverlap(subjects2, objects1);
-				subject2objectOverlap.get(r2).put(r1, soverlap2);
-
-				if (r1 != r2) {
-					int oooverlap = computeOverlap(objects1, objects2);
-					object2objectOverlap.get(r1).put(r2, oooverlap);
-					object2objectOverlap.get(r2).put(r1, oooverlap);
-				} else {
-					object2objectOverlap.get(r1).put(r1, objects2.size());
-				}
-			}
-		}
+		buildOverlapTables(1);
 	}
 
 	public void buildOverlapTables(int nThread) {
 		try {
-			OverlapTableComputation.compute(this, nThread);
+			overlapTables = OverlapTables.build(this, nThread);
 		} catch (InterruptedException ex) {
 			Logger.getLogger(KB.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 
-	protected static class OverlapTableComputation extends Thread {
-
-		public static LinkedList<Pair<SignedPredicate, SignedPredicate>> initQueue(KB db, int nThread) {
-			LinkedList<Pair<SignedPredicate, SignedPredicate>> queue = new LinkedList<>();
-			SignedPredicate sp1, sp1i, sp2, sp2i;
-			for (int r1 : db.relationSize.keySet()) {
-				sp1 = new SignedPredicate(r1, true, db);
-				sp1i = new SignedPredicate(r1, false, db);
-				db.subject2subjectOverlap.put(r1, new Int2IntOpenHashMap());
-				db.subject2objectOverlap.put(r1, new Int2IntOpenHashMap());
-				db.object2objectOverlap.put(r1, new Int2IntOpenHashMap());
-
-				for (int r2 : db.relationSize.keySet()) {
-
-					if (r1 < r2) {
-						continue;
-					}
-
-					sp2 = new SignedPredicate(r2, true, db);
-					sp2i = new SignedPredicate(r2, false, db);
-					queue.add(new Pair<>(sp1, sp2));
-					queue.add(new Pair<>(sp1i, sp2i));
-					queue.add(new Pair<>(sp1, sp2i));
-					queue.add(new Pair<>(sp1i, sp2));
-				}
-			}
-
-			for (int i = 0; i < nThread; i++) {
-				queue.add(new Pair<>(null, null));
-			}
-			return queue;
-		}
-
-		public static void compute(KB db, int nThread) throws InterruptedException {
-			Thread[] threadList = new Thread[nThread];
-			LinkedList<Pair<SignedPredicate, SignedPredicate>> queue = initQueue(db, nThread);
-
-			for (int i = 0; i < nThread; i++) {
-				threadList[i] = (new OverlapTableComputation(db, queue));
-			}
-
-			for (int i = 0; i < nThread; i++) {
-				threadList[i].start();
-			}
-
-			for (int i = 0; i < nThread; i++) {
-				threadList[i].join();
-			}
-		}
-
-		public static void set(KB db, SignedPredicate sp1, SignedPredicate sp2, int overlap) {
-			Int2IntMap e;
-			if (sp1.subject && sp2.subject) {
-				e = db.subject2subjectOverlap.get(sp1.predicate);
-				synchronized (e) {
-					e.put(sp2.predicate, overlap);
-				}
-				if (sp1.predicate != sp2.predicate) {
-					e = db.subject2subjectOverlap.get(sp2.predicate);
-					synchronized (e) {
-						e.put(sp1.predicate, overlap);
-					}
-				}
-			} else if (!sp1.subject && !sp2.subject) {
-				e = db.object2objectOverlap.get(sp1.predicate);
-				synchronized (e) {
-					e.put(sp2.predicate, overlap);
-				}
-				if (sp1.predicate != sp2.predicate) {
-					e = db.object2objectOverlap.get(sp2.predicate);
-					synchronized (e) {
-						e.put(sp1.predicate, overlap);
-					}
-				}
-			} else if (sp1.subject) {
-				e = db.subject2objectOverlap.get(sp1.predicate);
-				synchronized (e) {
-					e.put(sp2.predicate, overlap);
-				}
-			} else { // if (sp2.subject)
-				e = db.subject2objectOverlap.get(sp2.predicate);
-				synchronized (e) {
-					e.put(sp1.predicate, overlap);
-				}
-			}
-		}
-
-		final LinkedList<Pair<SignedPredicate, SignedPredicate>> queue;
-		KB db;
-
-		public OverlapTableComputation(KB db, LinkedList<Pair<SignedPredicate, SignedPredicate>> queue) {
-			this.queue = queue;
-			this.db = db;
-		}
-
-		public void run() {
-			Pair<SignedPredicate, SignedPredicate> q;
-			int overlap;
-			while (true) {
-				synchronized (queue) {
-					q = queue.pollFirst();
-				}
-				if (q == null || q.first == null) {
-					break;
-				}
-
-				if (q.first.equals(q.second)) {
-					overlap = db.getMap(q.first).keySet().size();
-				} else {
-					overlap = (int) SetU.countIntersection(db.getMap(q.first).keySet(), db.getMap(q.second).keySet());
-				}
-				set(db, q.first, q.second, overlap);
-			}
-		}
-	}
-
 	/**
 	 * Calculates the number of elements in the intersection of two sets of Strings.
 	 * 
@@ -775,18 +602,15 @@ public class KB extends AbstractKB {
 	 */
 	@Override
 	public int overlap(int relation1, int relation2, int overlap) {
-		switch (overlap) {
-			case SUBJECT2SUBJECT:
-				return subject2subjectOverlap.get(relation1).get(relation2);
-			case SUBJECT2OBJECT:
-				return subject2objectOverlap.get(relation1).get(relation2);
-			case OBJECT2OBJECT:
-				return object2objectOverlap.get(relation1).get(relation2);
-			default:
+		OverlapTables tables = overlapTables;
+		if (tables == null) {
+			if (overlap != SUBJECT2SUBJECT && overlap != SUBJECT2OBJECT && overlap != OBJECT2OBJECT)
 				throw new IllegalArgumentException(
 						"The argument map must be either 0 (subject-subject overlap), "
 								+ "2 (subject-object overlap) or 4 (object to object overlap)");
+			return 0;
 		}
+		return tables.get(relation1, relation2, overlap);
 	}
 
 	/**
@@ -1219,7 +1043,7 @@ public class KB extends AbstractKB {
 					/*
 					 * Return a map from all types to all entities of sub-classes
 					 */
-					IntSet allTypes = (Schema.isTaxonomyMaterialized()) ? Schema.getAllDefinedTypes()
+					IntSet allTypes = this.schema.isTaxonomyMaterialized(this) ? this.schema.getAllDefinedTypes(this)
 							: get(relation2object2subject, this.schema.typeRelationBS).keySet();
 					for (int type : allTypes) {
 						result.put(type, resultsOneVariable(triple(this.schema.map("?s"), TRANSITIVETYPEbs, type)));
@@ -1858,7 +1682,14 @@ public class KB extends AbstractKB {
 	/** returns the number of instances that fulfill a certain condition */
 	@Override
 	public long countDistinct(int variable, List<int[]> query) {
-		return (long) (selectDistinct(variable, query).size());
+		long start = Profiler.enterQuery();
+		long result = 0;
+		try {
+			result = selectDistinct(variable, query).size();
+			return result;
+		} finally {
+			Profiler.exitQuery("countDistinct", query, start, result);
+		}
 	}
 
 	// ---------------------------------------------------------------------------
@@ -1875,6 +1706,18 @@ public class KB extends AbstractKB {
 	@Override
 	public IntSet selectDistinct(int variable,
 			List<int[]> query) {
+		long start = Profiler.enterQuery();
+		IntSet result = null;
+		try {
+			result = selectDistinctUnprofiled(variable, query);
+			return result;
+		} finally {
+			Profiler.exitQuery("selectDistinct", query, start, result == null ? 0 : result.size());
+		}
+	}
+
+	private IntSet selectDistinctUnprofiled(int variable,
+			List<int[]> query) {
 		// Only one triple
 		if (query.size() == 1) {
 			int[] triple = query.get(0);
@@ -2388,6 +2231,18 @@ public class KB extends AbstractKB {
 	@Override
 	public Int2IntMap frequentBindingsOf(int variable,
 			int projectionVariable, List<int[]> query) {
+		long start = Profiler.enterQuery();
+		Int2IntMap result = null;
+		try {
+			result = frequentBindingsOfUnprofiled(variable, projectionVariable, query);
+			return result;
+		} finally {
+			Profiler.exitQuery("frequentBindingsOf", query, start, result == null ? 0 : result.size());
+		}
+	}
+
+	private Int2IntMap frequentBindingsOfUnprofiled(int variable,
+			int projectionVariable, List<int[]> query) {
 		// If only one triple
 		Int2IntMap result = new Int2IntOpenHashMap();
 		if (query.size() == 1) {
@@ -2651,6 +2506,19 @@ public class KB extends AbstractKB {
 	public Int2IntMap countProjectionBindings(
 			int[] projectionTriple, List<int[]> otherTriples,
 			int variable) {
+		long start = Profiler.enterQuery();
+		Int2IntMap result = null;
+		try {
+			result = countProjectionBindingsUnprofiled(projectionTriple, otherTriples, variable);
+			return result;
+		} finally {
+			Profiler.exitQuery("countProjectionBindings", projectionTriple, otherTriples, start, result == null ? 0 : result.size());
+		}
+	}
+
+	private Int2IntMap countProjectionBindingsUnprofiled(
+			int[] projectionTriple, List<int[]> otherTriples,
+			int variable) {
 		int pos = varpos(variable, projectionTriple);
 
 		// If the other triples are empty, count all bindings
@@ -2785,6 +2653,58 @@ public class KB extends AbstractKB {
 		return (result);
 	}
 
+	/**
+	 * For each candidate instantiation of variable, it returns the number of
+	 * distinct instantiations of joinVariable that satisfy the query. If variable
+	 * occurs in a single atom r(joinVariable, variable) (or r(variable,
+	 * joinVariable)), the query is evaluated once: every binding j of joinVariable
+	 * is looked up in the index of r and counted for each candidate c such that
+	 * r(j, c) holds. Otherwise it runs one query per candidate.
+	 *
+	 * @return IntHashMap A map of the form {string : number of distinct bindings}
+	 */
+	@Override
+	public Int2IntMap countJoinBindings(List<int[]> query, int variable, int joinVariable, IntCollection candidates) {
+		long start = Profiler.enterQuery();
+		Int2IntMap result = null;
+		try {
+			result = countJoinBindingsUnprofiled(query, variable, joinVariable, candidates);
+			return result;
+		} finally {
+			Profiler.exitQuery("countJoinBindings", query, start, result == null ? 0 : result.size());
+		}
+	}
+
+	private Int2IntMap countJoinBindingsUnprofiled(List<int[]> query, int variable, int joinVariable,
+			IntCollection candidates) {
+		if (candidates.isEmpty())
+			return new Int2IntOpenHashMap();
+		int[] danglingAtom = null;
+		for (int[] triple : query) {
+			if (varpos(variable, triple) != -1) {
+				if (danglingAtom != null)
+					return super.countJoinBindings(query, variable, joinVariable, candidates);
+				danglingAtom = triple;
+			}
+		}
+		if (danglingAtom == null || numVariables(danglingAtom) != 2
+				|| varpos(joinVariable, danglingAtom) == -1)
+			return super.countJoinBindings(query, variable, joinVariable, candidates);
+
+		IntSet candidateSet = candidates instanceof IntSet ? (IntSet) candidates : new IntOpenHashSet(candidates);
+		int joinPos = varpos(joinVariable, danglingAtom);
+		int[] lookup = danglingAtom.clone();
+		Int2IntMap result = new Int2IntOpenHashMap();
+		for (int joinValue : selectDistinct(joinVariable, query)) {
+			lookup[joinPos] = joinValue;
+			for (int constant : resultsOneVariable(lookup)) {
+				if (candidateSet.contains(constant))
+					result.put(constant, result.get(constant) + 1);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Returns the in the first atom, of the first variable that is found on the
 	 * second atom.
@@ -2865,6 +2785,18 @@ public class KB extends AbstractKB {
 	@Override
 	public long countProjection(int[] projectionTriple,
 			List<int[]> otherTriples) {
+		long start = Profiler.enterQuery();
+		long result = 0;
+		try {
+			result = countProjectionUnprofiled(projectionTriple, otherTriples);
+			return result;
+		} finally {
+			Profiler.exitQuery("countProjection", projectionTriple, otherTriples, start, result);
+		}
+	}
+
+	private long countProjectionUnprofiled(int[] projectionTriple,
+			List<int[]> otherTriples) {
 		if (otherTriples.isEmpty())
 			return (count(projectionTriple));
 		switch (numVariables(projectionTriple)) {
@@ -3063,6 +2995,18 @@ public class KB extends AbstractKB {
 	@Override
 	public long countDistinctPairs(int var1, int var2,
 			List<int[]> query) {
+		long start = Profiler.enterQuery();
+		long result = 0;
+		try {
+			result = countDistinctPairsUnprofiled(var1, var2, query);
+			return result;
+		} finally {
+			Profiler.exitQuery("countDistinctPairs", query, start, result);
+		}
+	}
+
+	private long countDistinctPairsUnprofiled(int var1, int var2,
+			List<int[]> query) {
 
 		long result = 0;
 
@@ -3110,6 +3054,18 @@ public class KB extends AbstractKB {
 	@Override
 	public long countDistinctPairsUpTo(long upperBound, int var1, int var2,
 			List<int[]> query) {
+		long start = Profiler.enterQuery();
+		long result = 0;
+		try {
+			result = countDistinctPairsUpToUnprofiled(upperBound, var1, var2, query);
+			return result;
+		} finally {
+			Profiler.exitQuery("countDistinctPairsUpTo", query, start, result);
+		}
+	}
+
+	private long countDistinctPairsUpToUnprofiled(long upperBound, int var1, int var2,
+			List<int[]> query) {
 
 		long result = 0;
 
@@ -3162,6 +3118,18 @@ public class KB extends AbstractKB {
 	@Override
 	public long countDistinctPairsUpToWithIterator(long upperBound, int var1,
 			int var2, List<int[]> query) {
+		long start = Profiler.enterQuery();
+		long result = 0;
+		try {
+			result = countDistinctPairsUpToWithIteratorUnprofiled(upperBound, var1, var2, query);
+			return result;
+		} finally {
+			Profiler.exitQuery("countDistinctPairsUpToWithIterator", query, start, result);
+		}
+	}
+
+	private long countDistinctPairsUpToWithIteratorUnprofiled(long upperBound, int var1,
+			int var2, List<int[]> query) {
 
 		// Go for the standard plan
 		long result = 0;
@@ -3894,8 +3862,7 @@ public class KB extends AbstractKB {
 	 */
 	@Override
 	public int maximalRightCumulativeCardinality(int relation, long threshold, int limit) {
-		Int2ObjectMap<IntSet> map = get(relation2subject2object, relation);
-		return maximalRightCumulativeCardinality(relation, threshold, map, limit);
+		return maximalRightCumulativeCardinality(relation, threshold, getHistogram(relation, true), limit);
 	}
 
 	/**
@@ -3916,13 +3883,12 @@ public class KB extends AbstractKB {
 	 */
 	@Override
 	public int maximalRightCumulativeCardinalityInv(int relation, long threshold, int limit) {
-		Int2ObjectMap<IntSet> map = get(relation2object2subject, relation);
-		return maximalRightCumulativeCardinality(relation, threshold, map, limit);
+		return maximalRightCumulativeCardinality(relation, threshold, getHistogram(relation, false), limit);
 	}
 
 	private int maximalRightCumulativeCardinality(int relation, long threshold,
-			Int2ObjectMap<IntSet> map, int iMaxThreshold) {
-		IntHashMap<Integer> histogram = buildCumulativeHistogram(map);
+			IntHashMap<Integer> valuesHistogram, int iMaxThreshold) {
+		IntHashMap<Integer> histogram = buildCumulativeHistogram(valuesHistogram);
 		List<Integer> keys = histogram.decreasingKeys();
 		Collections.sort(keys);
 		int maxThreshold = histogram.get(iMaxThreshold);
@@ -3945,14 +3911,16 @@ public class KB extends AbstractKB {
 	 * resulting map means that there are 20 keys in the map that have at most 2
 	 * values associated to them.
 	 * 
-	 * @param map
+	 * @param valuesHistogram The histogram of the number of values of the map,
+	 *                        see {@link #buildHistogram(Int2ObjectMap)}
 	 * @return
 	 */
-	private IntHashMap<Integer> buildCumulativeHistogram(Int2ObjectMap<IntSet> map) {
+	private IntHashMap<Integer> buildCumulativeHistogram(IntHashMap<Integer> valuesHistogram) {
 		IntHashMap<Integer> histogram = new IntHashMap<>();
-		for (int subject : map.keySet()) {
-			for (int i = 0; i < map.get(subject).size(); ++i) {
-				histogram.increase(i);
+		for (Integer nValues : valuesHistogram) {
+			int nKeys = valuesHistogram.get(nValues);
+			for (int i = 0; i < nValues; ++i) {
+				histogram.add(i, nKeys);
 			}
 		}
 		return histogram;
@@ -3985,8 +3953,7 @@ public class KB extends AbstractKB {
 	 */
 	@Override
 	public int maximalCardinality(int relation) {
-		Int2ObjectMap<IntSet> map = get(relation2subject2object, relation);
-		return maximalCardinality(relation, map);
+		return maximalCardinality(relation, getHistogram(relation, true));
 	}
 
 	/**
@@ -3998,13 +3965,11 @@ public class KB extends AbstractKB {
 	 */
 	@Override
 	public int maximalCardinality(int relation, int limit) {
-		Int2ObjectMap<IntSet> map = get(relation2subject2object, relation);
-		return maximalCardinality(relation, map, limit);
+		return maximalCardinality(relation, getHistogram(relation, true), limit);
 	}
 
 	private int maximalCardinality(int relation,
-			Int2ObjectMap<IntSet> map, int limit) {
-		IntHashMap<Integer> histogram = buildHistogram(map);
+			IntHashMap<Integer> histogram, int limit) {
 		List<Integer> keys = histogram.decreasingKeys();
 		Collections.sort(keys);
 		Object[] keysArray = keys.toArray();
@@ -4024,24 +3989,80 @@ public class KB extends AbstractKB {
 
 	@Override
 	public int maximalCardinalityInv(int relation) {
-		Int2ObjectMap<IntSet> map = get(relation2object2subject, relation);
-		return maximalCardinality(relation, map);
+		return maximalCardinality(relation, getHistogram(relation, false));
 	}
 
 	@Override
 	public int maximalCardinalityInv(int relation, int limit) {
-		Int2ObjectMap<IntSet> map = get(relation2object2subject, relation);
-		return maximalCardinality(relation, map, limit);
+		return maximalCardinality(relation, getHistogram(relation, false), limit);
 	}
 
-	private int maximalCardinality(int relation, Int2ObjectMap<IntSet> map) {
-		IntHashMap<Integer> histogram = buildHistogram(map);
+	private int maximalCardinality(int relation, IntHashMap<Integer> histogram) {
 		List<Integer> keys = histogram.decreasingKeys();
 		Collections.sort(keys);
 		Collections.reverse(keys);
 		return keys.get(0);
 	}
 
+	/**
+	 * It returns the histogram of the number of objects per subject (or subjects per
+	 * object) of the relation. Histograms are computed once and reused as long as the
+	 * size of the relation does not change.
+	 *
+	 * @param relation
+	 * @param subjects If true, the histogram of the number of objects per subject
+	 * @return
+	 */
+	public IntHashMap<Integer> getHistogram(int relation, boolean subjects) {
+		Int2ObjectMap<CachedHistogram> cache = subjects ? subjectHistograms : objectHistograms;
+		int currentSize = relationSize.get(relation);
+		synchronized (cache) {
+			CachedHistogram cached = cache.get(relation);
+			if (cached != null && cached.relationSize == currentSize)
+				return cached.histogram;
+		}
+		IntHashMap<Integer> histogram = buildHistogram(
+				get(subjects ? relation2subject2object : relation2object2subject, relation));
+		setHistogram(relation, subjects, histogram);
+		return histogram;
+	}
+
+	/**
+	 * It sets the histogram of the number of values of a relation, e.g., when it is
+	 * read from a statistics file.
+	 */
+	void setHistogram(int relation, boolean subjects, IntHashMap<Integer> histogram) {
+		Int2ObjectMap<CachedHistogram> cache = subjects ? subjectHistograms : objectHistograms;
+		synchronized (cache) {
+			cache.put(relation, new CachedHistogram(relationSize.get(relation), histogram));
+		}
+	}
+
+	/**
+	 * It discards the histograms of a relation. They are recomputed on demand, e.g.,
+	 * after facts were both added to and removed from the relation, which leaves
+	 * its size unchanged.
+	 */
+	void resetHistograms(int relation) {
+		synchronized (subjectHistograms) {
+			subjectHistograms.remove(relation);
+		}
+		synchronized (objectHistograms) {
+			objectHistograms.remove(relation);
+		}
+	}
+
+	/**
+	 * @return The overlap tables, or null if they have not been built
+	 */
+	public OverlapTables getOverlapTables() {
+		return overlapTables;
+	}
+
+	void setOverlapTables(OverlapTables overlapTables) {
+		this.overlapTables = overlapTables;
+	}
+
 	// ---------------------------------------------------------------------------
 	// Utilities
 	// ---------------------------------------------------------------------------
@@ -4099,6 +4120,8 @@ public class KB extends AbstractKB {
 			removeFromIndex(object, subject, predicate, object2subject2relation);
 			removeFromIndex(object, predicate, subject, object2relation2subject);
 			--size;
+			if (predicate == this.schema.subClassRelationBS)
+				this.schema.removeSubClassOf(this, subject, object);
 			return true;
 		}
 
@@ -0,0 +1,163 @@
+package amie.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * A set of facts added to and removed from a KB. In a file, every line is a fact
+ * preceded by a sign, + for an addition and - for a removal, separated by tabs:
+ *
+ * <pre>
+ * +	&lt;Ana&gt;	&lt;livesIn&gt;	&lt;Paris&gt;
+ * -	&lt;Luis&gt;	&lt;livesIn&gt;	&lt;Paris&gt;
+ * </pre>
+ *
+ * The removals are applied before the additions. Applying the delta records the
+ * effective changes, that is, the additions that were not in the KB and the removals
+ * that were, so that the delta can be reverted.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBDelta {
+
+	private final List<int[]> additions;
+
+	private final List<int[]> removals;
+
+	private final List<int[]> added = new ArrayList<>();
+
+	private final List<int[]> removed = new ArrayList<>();
+
+	/**
+	 * Difference between the size of each relation after and before the delta
+	 */
+	private final Int2IntOpenHashMap sizeChanges = new Int2IntOpenHashMap();
+
+	private boolean applied = false;
+
+	public KBDelta(List<int[]> additions, List<int[]> removals) {
+		this.additions = additions;
+		this.removals = removals;
+	}
+
+	/**
+	 * @param file
+	 * @param kb Used to map the entities and relations of the facts
+	 * @return
+	 * @throws IOException
+	 */
+	public static KBDelta read(File file, KB kb) throws IOException {
+		List<int[]> additions = new ArrayList<>();
+		List<int[]> removals = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				++lineNumber;
+				if (line.trim().isEmpty())
+					continue;
+				String[] parts = line.split("\t");
+				if (parts.length != 4 || !(parts[0].equals("+") || parts[0].equals("-"))) {
+					throw new IOException("Line " + lineNumber + " of " + file
+							+ " is not of the form +|-<tab>subject<tab>relation<tab>object");
+				}
+				int[] fact = new int[] { kb.map(parts[1].trim()), kb.map(parts[2].trim()), kb.map(parts[3].trim()) };
+				if (parts[0].equals("+")) {
+					additions.add(fact);
+				} else {
+					removals.add(fact);
+				}
+			}
+		}
+		return new KBDelta(additions, removals);
+	}
+
+	/**
+	 * It removes and adds the facts of the delta to the KB.
+	 * @param kb
+	 */
+	public void apply(KB kb) {
+		if (applied)
+			throw new IllegalStateException("The delta has already been applied");
+		added.clear();
+		removed.clear();
+		sizeChanges.clear();
+		for (int[] fact : removals) {
+			if (kb.delete(fact[0], fact[1], fact[2])) {
+				removed.add(fact);
+				sizeChanges.addTo(fact[1], -1);
+			}
+		}
+		for (int[] fact : additions) {
+			if (kb.add(fact)) {
+				added.add(fact);
+				sizeChanges.addTo(fact[1], 1);
+			}
+		}
+		applied = true;
+	}
+
+	/**
+	 * It brings the KB back to its state before {@link #apply(KB)}.
+	 * @param kb
+	 */
+	public void revert(KB kb) {
+		if (!applied)
+			throw new IllegalStateException("The delta has not been applied");
+		for (int[] fact : added) {
+			kb.delete(fact[0], fact[1], fact[2]);
+		}
+		for (int[] fact : removed) {
+			kb.add(fact);
+		}
+		applied = false;
+	}
+
+	public boolean isApplied() {
+		return applied;
+	}
+
+	/**
+	 * @return The facts added by the last application of the delta
+	 */
+	public List<int[]> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * @return The facts removed by the last application of the delta
+	 */
+	public List<int[]> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	/**
+	 * @param relation
+	 * @return The number of facts of the relation after the delta minus the number
+	 * of facts before
+	 */
+	public int getSizeChange(int relation) {
+		return sizeChanges.get(relation);
+	}
+
+	public Int2IntMap getSizeChanges() {
+		return sizeChanges;
+	}
+
+	/**
+	 * @return The number of facts of the delta, whether they change the KB or not
+	 */
+	public int size() {
+		return additions.size() + removals.size();
+	}
+}
@@ -0,0 +1,289 @@
+package amie.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import amie.data.javatools.datatypes.IntHashMap;
+
+/**
+ * Statistics of a KB that are expensive to compute and only depend on its
+ * contents: the overlap tables between relations and the histograms of the number
+ * of values per subject and object of each relation. They are stored in a file named
+ * after a hash of the contents of the input files, so that later runs on the same
+ * files can load them instead of computing them again.
+ *
+ * The file also contains the size and column sizes of each relation. They are not
+ * expensive to compute, but they are used to check that the file matches the loaded
+ * KB. The functionalities are not stored: the KB computes them in constant time from
+ * its indexes.
+ *
+ * @author lgalarra
+ *
+ */
+public class KBStatistics {
+
+	private static final String MAGIC = "AMIE-KB-STATISTICS";
+
+	private static final int VERSION = 2;
+
+	private static final String EXTENSION = ".stats";
+
+	/**
+	 * Names of the relations, ids are not stable across runs
+	 */
+	private final String[] relations;
+
+	private final int[] relationSizes;
+
+	private final int[] subjectCounts;
+
+	private final int[] objectCounts;
+
+	/**
+	 * For each relation, pairs [number of values, number of subjects]
+	 */
+	private final int[][] subjectHistograms;
+
+	/**
+	 * For each relation, pairs [number of values, number of objects]
+	 */
+	private final int[][] objectHistograms;
+
+	/**
+	 * Overlap matrices in the order of the relations, null if the
+	 * overlap tables were not built.
+	 */
+	private final int[][] overlaps;
+
+	private KBStatistics(int nRelations, boolean withOverlaps) {
+		relations = new String[nRelations];
+		relationSizes = new int[nRelations];
+		subjectCounts = new int[nRelations];
+		objectCounts = new int[nRelations];
+		subjectHistograms = new int[nRelations][];
+		objectHistograms = new int[nRelations][];
+		overlaps = withOverlaps ? new int[3][] : null;
+	}
+
+	/**
+	 * It collects the statistics of the KB. The overlap tables are included
+	 * only if they have been built.
+	 * @param kb
+	 * @return
+	 */
+	public static KBStatistics compute(KB kb) {
+		OverlapTables tables = kb.getOverlapTables();
+		int[] ids;
+		if (tables != null) {
+			ids = tables.getRelations();
+		} else {
+			ids = kb.relationSize.keySet().toIntArray();
+			Arrays.sort(ids);
+		}
+		KBStatistics statistics = new KBStatistics(ids.length, tables != null);
+		for (int i = 0; i < ids.length; ++i) {
+			int relation = ids[i];
+			statistics.relations[i] = kb.unmap(relation);
+			statistics.relationSizes[i] = kb.relationSize(relation);
+			statistics.subjectCounts[i] = kb.relationColumnSize(relation, KB.Column.Subject);
+			statistics.objectCounts[i] = kb.relationColumnSize(relation, KB.Column.Object);
+			statistics.subjectHistograms[i] = toPairs(kb.getHistogram(relation, true));
+			statistics.objectHistograms[i] = toPairs(kb.getHistogram(relation, false));
+		}
+		if (tables != null) {
+			statistics.overlaps[0] = tables.getMatrix(AbstractKB.SUBJECT2SUBJECT);
+			statistics.overlaps[1] = tables.getMatrix(AbstractKB.SUBJECT2OBJECT);
+			statistics.overlaps[2] = tables.getMatrix(AbstractKB.OBJECT2OBJECT);
+		}
+		return statistics;
+	}
+
+	private static int[] toPairs(IntHashMap<Integer> histogram) {
+		int[] pairs = new int[histogram.size() * 2];
+		int i = 0;
+		for (Integer key : histogram) {
+			pairs[i++] = key;
+			pairs[i++] = histogram.get(key);
+		}
+		return pairs;
+	}
+
+	private static IntHashMap<Integer> fromPairs(int[] pairs) {
+		IntHashMap<Integer> histogram = new IntHashMap<>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			histogram.put(pairs[i], pairs[i + 1]);
+		}
+		return histogram;
+	}
+
+	public boolean hasOverlapTables() {
+		return overlaps != null;
+	}
+
+	/**
+	 * @return True if the KB has the same relations, with the same sizes and
+	 * column sizes, as the KB the statistics were computed on.
+	 */
+	public boolean matches(KB kb) {
+		if (kb.relationSize.size() != relations.length)
+			return false;
+		for (int i = 0; i < relations.length; ++i) {
+			// The relations of stale statistics must not enter the dictionary
+			int relation = kb.schema.lookup(relations[i]);
+			if (relation == -1 || !kb.relationSize.containsKey(relation)
+					|| kb.relationSize(relation) != relationSizes[i]
+					|| kb.relationColumnSize(relation, KB.Column.Subject) != subjectCounts[i]
+					|| kb.relationColumnSize(relation, KB.Column.Object) != objectCounts[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * It installs the histograms and, if present, the overlap tables in the KB.
+	 * @param kb
+	 */
+	public void applyTo(KB kb) {
+		int[] ids = new int[relations.length];
+		for (int i = 0; i < relations.length; ++i) {
+			ids[i] = kb.map(relations[i]);
+			kb.setHistogram(ids[i], true, fromPairs(subjectHistograms[i]));
+			kb.setHistogram(ids[i], false, fromPairs(objectHistograms[i]));
+		}
+		if (overlaps != null) {
+			kb.setOverlapTables(new OverlapTables(ids, overlaps[0], overlaps[1], overlaps[2]));
+		}
+	}
+
+	public void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(relations.length);
+			for (int i = 0; i < relations.length; ++i) {
+				out.writeUTF(relations[i]);
+				out.writeInt(relationSizes[i]);
+				out.writeInt(subjectCounts[i]);
+				out.writeInt(objectCounts[i]);
+				writeArray(out, subjectHistograms[i]);
+				writeArray(out, objectHistograms[i]);
+			}
+			out.writeBoolean(overlaps != null);
+			if (overlaps != null) {
+				for (int[] matrix : overlaps)
+					writeArray(out, matrix);
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * It reads statistics written by {@link #write(File)}.
+	 * @param file
+	 * @return
+	 * @throws IOException If the file cannot be read or is not a statistics file
+	 */
+	public static KBStatistics read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION)
+				throw new IOException(file + " is not a statistics file of this version");
+			int nRelations = in.readInt();
+			KBStatistics statistics = null;
+			String[] names = new String[nRelations];
+			int[][] ints = new int[nRelations][];
+			int[][][] histograms = new int[nRelations][][];
+			for (int i = 0; i < nRelations; ++i) {
+				names[i] = in.readUTF();
+				ints[i] = new int[] { in.readInt(), in.readInt(), in.readInt() };
+				histograms[i] = new int[][] { readArray(in), readArray(in) };
+			}
+			boolean withOverlaps = in.readBoolean();
+			statistics = new KBStatistics(nRelations, withOverlaps);
+			for (int i = 0; i < nRelations; ++i) {
+				statistics.relations[i] = names[i];
+				statistics.relationSizes[i] = ints[i][0];
+				statistics.subjectCounts[i] = ints[i][1];
+				statistics.objectCounts[i] = ints[i][2];
+				statistics.subjectHistograms[i] = histograms[i][0];
+				statistics.objectHistograms[i] = histograms[i][1];
+			}
+			if (withOverlaps) {
+				for (int k = 0; k < 3; ++k)
+					statistics.overlaps[k] = readArray(in);
+			}
+			return statistics;
+		}
+	}
+
+	private static void writeArray(DataOutputStream out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int value : array)
+			out.writeInt(value);
+	}
+
+	private static int[] readArray(DataInputStream in) throws IOException {
+		int[] array = new int[in.readInt()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = in.readInt();
+		return array;
+	}
+
+	/**
+	 * It returns a SHA-256 hash of the contents of the files, in the given order,
+	 * and of a string describing how they are parsed (e.g., the delimiter).
+	 * @param files
+	 * @param parsingConfiguration
+	 * @return
+	 * @throws IOException
+	 */
+	public static String contentHash(List<File> files, String parsingConfiguration) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update(parsingConfiguration.getBytes(StandardCharsets.UTF_8));
+		byte[] buffer = new byte[1 << 16];
+		for (File file : files) {
+			digest.update((byte) 0);
+			try (InputStream in = new FileInputStream(file)) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	/**
+	 * @return The statistics file for the given hash in the directory
+	 */
+	public static File getFile(File directory, String hash) {
+		return new File(directory, hash + EXTENSION);
+	}
+}
@@ -1,29 +1,51 @@
 package amie.data;
 
 import amie.data.remote.Caching;
+import amie.data.remote.Compression;
 import amie.data.remote.Queries;
 import amie.data.remote.Queries.Payload;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static amie.data.remote.Queries.PayloadId;
 import static amie.data.remote.Queries.UnmarhsalPayload;
 import static amie.data.remote.Queries.gson;
 
+/**
+ * Client of a {@link KBWebSocketServer}. The threads that query the server share a fixed number of connections
+ * ({@link AbstractKB#Connections}): every request gets an identifier, which the server sends back with the response,
+ * so that any number of requests can be in flight on a connection. The number of threads mining against the server
+ * is thus not bound by the number of connections, and a thread waiting for a response does not hold one.
+ */
 public class KBWebSocketClient extends AbstractKBClient {
 
-    static private final ConcurrentHashMap<Long, CompletableFuture<KBWSClient>> OpenSockets = new ConcurrentHashMap<>();
+    /**
+     * Connections to the server, by slot
+     */
+    static private final ConcurrentHashMap<Integer, CompletableFuture<KBWSClient>> OpenSockets = new ConcurrentHashMap<>();
+
+    static private final AtomicLong NextRequestId = new AtomicLong();
+
+    static private final AtomicInteger InFlight = new AtomicInteger();
 
     static private final int RESPONSE_WAITING_TIME_MS = 5_000;
 
+    static private final long RESPONSE_TIMEOUT_MS = 10 * 60_000;
+
     public KBWebSocketClient(String args) {
         initClient(args);
         this.schema = new Schema();
@@ -43,23 +65,27 @@ public class KBWebSocketClient extends AbstractKBClient {
     }
 
     static private class KBWSClient extends WebSocketClient {
-        private CompletableFuture<String> futureResponse;
+        /**
+         * Responses expected on this connection, by request identifier
+         */
+        private final ConcurrentHashMap<Long, CompletableFuture<String>> pendingResponses = new ConcurrentHashMap<>();
 
-        private long parentgetId;
+        private final CompletableFuture<KBWSClient> opened;
 
-        public KBWSClient(URI serverUri, long parentgetId) {
-            super(serverUri);
-            this.parentgetId = parentgetId;
+        public KBWSClient(URI serverUri, CompletableFuture<KBWSClient> opened) {
+            super(serverUri, new Compression(CompressionThreshold));
+            this.opened = opened;
         }
 
         /**
          * Send JSON payload and set futureResponse for completion
          *
+         * @param id Identifier of the request in the payload
          * @param payload
          * @param futureResponse
          */
-        public void sendPayload(String payload, CompletableFuture<String> futureResponse) {
-            this.futureResponse = futureResponse;
+        public void sendPayload(long id, String payload, CompletableFuture<String> futureResponse) {
+            pendingResponses.put(id, futureResponse);
             this.send(payload);
         }
 
@@ -68,12 +94,14 @@ public class KBWebSocketClient extends AbstractKBClient {
 //            System.out.format("[%s] Connection opened with %s",
 //                    Thread.currentThread().getName(),
 //                    getURI());
-            OpenSockets.get(parentgetId).complete(this);
+            opened.complete(this);
         }
 
         @Override
         public void onMessage(String jsonPayload) {
-            futureResponse.complete(jsonPayload);
+            CompletableFuture<String> futureResponse = pendingResponses.remove(PayloadId(jsonPayload));
+            if (futureResponse != null)
+                futureResponse.complete(jsonPayload);
         }
 
         @Override
@@ -82,6 +110,10 @@ public class KBWebSocketClient extends AbstractKBClient {
                     Thread.currentThread().getName(),
                     getURI(),
                     reason);
+            IOException closed = new IOException("Connection closed to " + getURI());
+            opened.completeExceptionally(closed);
+            for (CompletableFuture<String> futureResponse : pendingResponses.values())
+                futureResponse.completeExceptionally(closed);
         }
 
         @Override
@@ -153,9 +185,10 @@ public class KBWebSocketClient extends AbstractKBClient {
 
     static private String getStats() {
 
-        return String.format("NT:%s threads, CM: %s q, CH: %s q, T: %s q, CFT: %s ms, KB FT: %s ms, GFT: %s ms, " +
-                        "CR: %s q/s, KB R: %s q/s, GR: %s q/s",
+        return String.format("NT:%s threads, IF: %s q, CM: %s q, CH: %s q, T: %s q, CFT: %s ms, KB FT: %s ms, " +
+                        "GFT: %s ms, CR: %s q/s, KB R: %s q/s, GR: %s q/s, %s",
                 Thread.activeCount(),
+                InFlight.get(),
                 nCacheMiss[0],
                 nCacheHit[0],
                 nTotal[0],
@@ -164,10 +197,45 @@ public class KBWebSocketClient extends AbstractKBClient {
                 globalFetchTimesRollingAvg[0],
                 cacheFetchTimesRollingRate[0],
                 KBFetchTimesRollingRate[0],
-                globalFetchTimesRollingRate[0]);
+                globalFetchTimesRollingRate[0],
+                Compression.GetStats());
     }
 
 
+    /**
+     * @return The connection of the given slot, opened on first use
+     */
+    static private CompletableFuture<KBWSClient> connection(int slot) {
+        return OpenSockets.computeIfAbsent(slot, s -> {
+            CompletableFuture<KBWSClient> opened = new CompletableFuture<>();
+            try {
+                new KBWSClient(new URI(baseURL), opened).connect();
+            } catch (URISyntaxException e) {
+                opened.completeExceptionally(e);
+            }
+            return opened;
+        });
+    }
+
+    /**
+     * Waits for a response as long as its connection is open, up to {@link #RESPONSE_TIMEOUT_MS}: with many requests
+     * in flight, the server may take longer than the waiting time to answer.
+     */
+    static private String awaitResponse(KBWSClient webSocketClient, long id, CompletableFuture<String> futureResponse)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MS;
+        while (true) {
+            try {
+                return futureResponse.get(RESPONSE_WAITING_TIME_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (!webSocketClient.isOpen() || System.currentTimeMillis() >= deadline) {
+                    webSocketClient.pendingResponses.remove(id);
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * Run query:
      * - If query is found in cache, un-cache
@@ -181,7 +249,9 @@ public class KBWebSocketClient extends AbstractKBClient {
         String cacheKey = Queries.GenerateCacheKey(queryType, jsonQuery);
         long globalStartTime = System.currentTimeMillis();
 
-        String responsePayloadJSON = Caching.GetResultFromCache(cacheKey);
+        boolean cached = !Queries.UncachedQueryList.contains(queryType);
+        String responsePayloadJSON = cached ? Caching.GetResultFromCache(cacheKey) : null;
+        Payload responsePayload = null;
 
         long cacheFetchTime = System.currentTimeMillis() - globalStartTime;
 
@@ -190,22 +260,28 @@ public class KBWebSocketClient extends AbstractKBClient {
             try {
                 // Fetching KB response
                 CompletableFuture<String> futureResponse = new CompletableFuture<>();
-                long parentgetId = Thread.currentThread().getId();
-                if (!OpenSockets.containsKey(parentgetId)) {
-                    // New web socket will put itself in map once open
-                    OpenSockets.putIfAbsent(parentgetId, new CompletableFuture<>());
-                    new KBWSClient(new URI(baseURL), parentgetId).connect();
+                long id = NextRequestId.incrementAndGet();
+
+                // Waiting for socket to be open. Snapshots belong to the connection that pins them, so they are
+                // pinned and released on the first one
+                boolean snapshotQuery = queryType.equals(Queries.PinSnapshotQueryName)
+                        || queryType.equals(Queries.ReleaseSnapshotQueryName);
+                KBWSClient webSocketClient = connection(snapshotQuery ? 0 : (int) (id % Connections)).get();
+
+                // The expectation is registered before sending, so that the response cannot arrive first
+                String jsonPayload = gson.toJson(new Payload(id, cacheKey, queryType, jsonQuery));
+                InFlight.incrementAndGet();
+                try {
+                    webSocketClient.sendPayload(id, jsonPayload, futureResponse);
+                    responsePayloadJSON = awaitResponse(webSocketClient, id, futureResponse);
+                } finally {
+                    InFlight.decrementAndGet();
                 }
-
-                // Waiting for socket to be open
-                KBWSClient webSocketClient = OpenSockets.get(parentgetId).get();
-
-                // Setting expectations in WebSocket (synchronously with Cache thread to avoid late execution and more
-                // recent expectations being overwritten)
-                String jsonPayload = gson.toJson(new Payload(cacheKey, queryType, jsonQuery));
-                webSocketClient.sendPayload(jsonPayload, futureResponse);
-                responsePayloadJSON = futureResponse.get(RESPONSE_WAITING_TIME_MS, TimeUnit.MILLISECONDS);
-                Caching.CacheResponse(responsePayloadJSON, cacheKey);
+                responsePayload = UnmarhsalPayload(responsePayloadJSON);
+                if (responsePayload.error != null)
+                    throw new IllegalStateException("The server failed to run the query: " + responsePayload.error);
+                if (cached && Caching.IsEnabled())
+                    Caching.CacheResponse(responsePayloadJSON, cacheKey, Queries.RelationsOf(queryType, jsonQuery));
 
             } catch (Exception e) {
                 System.err.println("Failed to send query.");
@@ -226,17 +302,17 @@ public class KBWebSocketClient extends AbstractKBClient {
         if (enableLiveMetrics)
             System.out.format("%s\r", getStats());
 
-        Payload responsePayload = UnmarhsalPayload(
-                responsePayloadJSON
-        );
+        if (responsePayload == null)
+            responsePayload = UnmarhsalPayload(responsePayloadJSON);
         return responsePayload.jsonContent;
     }
 
     public void shutdown() {
         // Closing sockets
-        for (Map.Entry<Long, CompletableFuture<KBWSClient>> completableWebSocketClientEntry : OpenSockets.entrySet()) {
+        for (Map.Entry<Integer, CompletableFuture<KBWSClient>> completableWebSocketClientEntry : OpenSockets.entrySet()) {
             try {
-                if (completableWebSocketClientEntry.getValue().isDone())
+                if (completableWebSocketClientEntry.getValue().isDone()
+                        && !completableWebSocketClientEntry.getValue().isCompletedExceptionally())
                     completableWebSocketClientEntry.getValue().get().close();
             } catch (Exception e) {
                 System.err.println("Failed to shutdown socket entry " + completableWebSocketClientEntry);
@@ -1,10 +1,13 @@
 package amie.data;
 
 import amie.data.remote.Caching;
+import amie.data.remote.Coalescing;
+import amie.data.remote.Compression;
 import amie.data.remote.QueryProcessing;
 import amie.data.remote.Utils;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 //import org.eclipse.jetty.websocket.api.Session;
 //import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
@@ -15,21 +18,103 @@ import org.java_websocket.server.WebSocketServer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static amie.data.remote.Queries.*;
 import static java.util.Map.entry;
 //import static spark.Spark.*;
 
 
+/**
+ * Serves a KB to remote clients. Besides queries, clients can send batches of facts to add to and remove from the KB
+ * (see {@link #update(List, List)}). Every query runs on a single version of the KB, and a client that needs the same
+ * version across several queries pins a snapshot: the batches received meanwhile are applied when the last snapshot
+ * is released. A snapshot belongs to the connection that pinned it, is released when the connection closes, and
+ * expires after a lease (see {@link #setSnapshotLease(long)}), so that a client that fails cannot block the updates.
+ * Applying a batch invalidates only the cached responses that depend on the relations of its facts.
+ * Identical queries received while one of them is running wait for it and share its response.
+ * The requests run on a pool of threads and their responses are sent as soon as they are ready, tagged with the
+ * identifier of the request, so that a slow query does not delay the other requests of its connection. A request
+ * that fails gets a response with an error instead of a content.
+ */
 public class KBWebSocketServer extends KB {
 
     public AbstractKB kb;
 
+    /**
+     * Queries hold the read lock, batches of updates are applied under the write lock.
+     */
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * Batches received and not applied yet. Also guards the pinned snapshots and the number of batches received.
+     */
+    private final List<KBDelta> pendingUpdates = new ArrayList<>();
+
+    private long nReceivedBatches = 0;
+
+    /**
+     * Applies the batches one application at a time, in the order they were received. It is taken before the monitor
+     * of pendingUpdates, which is never held while waiting for the write lock.
+     */
+    private final Object applyLock = new Object();
+
+    /**
+     * Number of batches applied to the KB since startup. Read without locks, since queries read it while holding the
+     * read lock.
+     */
+    private volatile long version = 0;
+
+    /**
+     * Times at which the pinned snapshots were pinned, by owner, the oldest first.
+     */
+    private final Map<Object, ArrayDeque<Long>> pinnedSnapshots = new HashMap<>();
+
+    private int nPinnedSnapshots = 0;
+
+    public static final long DEFAULT_SNAPSHOT_LEASE_MS = 10 * 60_000;
+
+    private long snapshotLeaseMillis = DEFAULT_SNAPSHOT_LEASE_MS;
+
+    private final ScheduledExecutorService snapshotExpiration = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "kb-server-snapshots");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queries being run. A query is only running while it holds the read lock, so the queries that share its response
+     * see the same version of the KB.
+     */
+    private final Coalescing runningQueries = new Coalescing();
+
+    /**
+     * More threads than cores, so that cheap queries do not wait behind slow joins or behind the queries waiting for
+     * an identical running query.
+     */
+    private static final int QUERY_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+    private final ExecutorService queryPool = Executors.newFixedThreadPool(QUERY_THREADS, r -> {
+        Thread thread = new Thread(r, "kb-server-query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public KBWebSocketServer(String args) {
         super();
         this.kb = this;
@@ -37,6 +122,177 @@ public class KBWebSocketServer extends KB {
         setupServer();
     }
 
+    /**
+     * The version is part of the configuration so that clients do not reuse responses saved for another version.
+     */
+    @Override
+    public String getServerConfiguration() {
+        long currentVersion = getVersion();
+        return currentVersion == 0 ? config : config + "-v" + currentVersion;
+    }
+
+    /**
+     * Queues a batch of facts to add to and remove from the KB. The removals are applied first. The batch is applied
+     * at once if no snapshot is pinned.
+     *
+     * @param additions
+     * @param removals
+     * @return The version of the KB that contains the batch, or -1 if the batch is not made of triples of constants.
+     */
+    public long update(List<int[]> additions, List<int[]> removals) {
+        additions = additions == null ? new ArrayList<>() : additions;
+        removals = removals == null ? new ArrayList<>() : removals;
+        for (List<int[]> facts : Arrays.asList(additions, removals)) {
+            for (int[] fact : facts) {
+                if (fact == null || fact.length != 3 || isVariable(fact[0]) || isVariable(fact[1])
+                        || isVariable(fact[2])) {
+                    System.err.println("Rejected update with invalid fact " + Arrays.toString(fact));
+                    return -1;
+                }
+            }
+        }
+        long batchVersion;
+        synchronized (pendingUpdates) {
+            pendingUpdates.add(new KBDelta(additions, removals));
+            batchVersion = ++nReceivedBatches;
+            expireSnapshots();
+        }
+        applyPendingUpdates();
+        return batchVersion;
+    }
+
+    /**
+     * Applies the pending updates unless a snapshot is pinned. Must be called without holding the monitor of
+     * pendingUpdates.
+     */
+    private void applyPendingUpdates() {
+        synchronized (applyLock) {
+            List<KBDelta> batches;
+            synchronized (pendingUpdates) {
+                if (nPinnedSnapshots > 0 || pendingUpdates.isEmpty())
+                    return;
+                batches = new ArrayList<>(pendingUpdates);
+                pendingUpdates.clear();
+            }
+            apply(batches);
+        }
+    }
+
+    private void apply(List<KBDelta> batches) {
+        IntSet changedRelations = new IntOpenHashSet();
+        snapshotLock.writeLock().lock();
+        try {
+            for (KBDelta delta : batches) {
+                delta.apply(this);
+                for (int[] fact : delta.getAdded())
+                    changedRelations.add(fact[1]);
+                for (int[] fact : delta.getRemoved())
+                    changedRelations.add(fact[1]);
+            }
+            for (int relation : changedRelations)
+                resetHistograms(relation);
+            // Still under the write lock, so no query computed on the previous version can be cached afterwards
+            Caching.InvalidateRelations(changedRelations);
+            version += batches.size();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Defers the updates until the snapshot is released or its lease expires. An owner that needs the snapshot for
+     * longer than the lease pins it again before releasing it.
+     *
+     * @param owner Connection that pins the snapshot
+     * @return The version of the KB seen until the snapshot is released.
+     */
+    public long pinSnapshot(Object owner) {
+        // Waits for the batches being applied, so that the KB does not change once the snapshot is pinned
+        synchronized (applyLock) {
+            synchronized (pendingUpdates) {
+                pinnedSnapshots.computeIfAbsent(owner, o -> new ArrayDeque<>()).add(System.currentTimeMillis());
+                ++nPinnedSnapshots;
+                return version;
+            }
+        }
+    }
+
+    /**
+     * Releases the oldest snapshot pinned by the owner with {@link #pinSnapshot(Object)}. The pending updates are
+     * applied if it was the last one.
+     *
+     * @param owner Connection that pinned the snapshot
+     * @return The current version of the KB.
+     */
+    public long releaseSnapshot(Object owner) {
+        synchronized (pendingUpdates) {
+            ArrayDeque<Long> pins = pinnedSnapshots.get(owner);
+            if (pins == null) {
+                System.err.println("Attempt to release a snapshot while none is pinned");
+            } else {
+                pins.poll();
+                if (pins.isEmpty())
+                    pinnedSnapshots.remove(owner);
+                --nPinnedSnapshots;
+            }
+        }
+        applyPendingUpdates();
+        return version;
+    }
+
+    /**
+     * Releases every snapshot pinned by the owner, e.g., when its connection closes.
+     *
+     * @param owner
+     */
+    public void releaseSnapshots(Object owner) {
+        synchronized (pendingUpdates) {
+            ArrayDeque<Long> pins = pinnedSnapshots.remove(owner);
+            if (pins == null)
+                return;
+            nPinnedSnapshots -= pins.size();
+        }
+        applyPendingUpdates();
+    }
+
+    /**
+     * Sets the time after which a pinned snapshot is released even if its owner did not release it.
+     *
+     * @param millis
+     */
+    public void setSnapshotLease(long millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("The lease of the snapshots must be positive");
+        synchronized (pendingUpdates) {
+            snapshotLeaseMillis = millis;
+        }
+    }
+
+    /**
+     * Releases the snapshots whose lease expired. Must be called while holding the monitor of pendingUpdates, the
+     * pending updates are then applied by the caller once it released the monitor.
+     */
+    private void expireSnapshots() {
+        if (nPinnedSnapshots == 0)
+            return;
+        long expiration = System.currentTimeMillis() - snapshotLeaseMillis;
+        Iterator<ArrayDeque<Long>> owners = pinnedSnapshots.values().iterator();
+        while (owners.hasNext()) {
+            ArrayDeque<Long> pins = owners.next();
+            while (!pins.isEmpty() && pins.peek() <= expiration) {
+                pins.poll();
+                --nPinnedSnapshots;
+                System.err.println("Snapshot lease expired, the snapshot is released");
+            }
+            if (pins.isEmpty())
+                owners.remove();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
 
 
     private interface WebSocketHandlerInterface {
@@ -366,21 +622,38 @@ public class KBWebSocketServer extends KB {
                                         );
                                 return (QueryProcessing.processQuery(req, queryFunction,
                                         TripleArrayQuery.class));
+                            }),
+                    entry(UpdateQueryName,
+                            (req) ->
+                            {
+                                QueryProcessing.IQueryFunction<UpdateQuery, Long> queryFunction =
+                                        (requestClass) -> update(
+                                                requestClass.additions,
+                                                requestClass.removals
+                                        );
+                                return (QueryProcessing.processQuery(req, queryFunction,
+                                        UpdateQuery.class));
+                            }),
+                    entry(VersionQueryName,
+                            (req) ->
+                            {
+                                QueryProcessing.IQueryFunction<VersionQuery, Long> queryFunction =
+                                        (requestClass) -> getVersion();
+                                return (QueryProcessing.processQuery(req, queryFunction,
+                                        VersionQuery.class));
                             }))
 
     );
 
 
     private String route(String request, WebSocketHandlerInterface handlerMethod) {
-        String responseBody = "";
         try {
-            responseBody = handlerMethod.webSocketHandler(request);
+            return handlerMethod.webSocketHandler(request);
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            System.err.format("Failed to process query: %s\n", request);
-            e.printStackTrace();
-            System.exit(1);
+            throw new IllegalStateException(e);
         }
-        return responseBody;
     }
 
     // TODO put in separate thread (create stat logger class) with a refresh rate. set metrics to zero after a while
@@ -443,51 +716,67 @@ public class KBWebSocketServer extends KB {
         }
     }
 
-    static private String getStats() {
-        return String.format("NT:%s threads, CM: %s q, CH: %s q, T: %s q, CFT: %s ms, KB FT: %s ms, GFT: %s ms, " +
-                        "CR: %s q/s, KB R: %s q/s, GR: %s q/s",
+    private String getStats() {
+        return String.format("NT:%s threads, CM: %s q, CH: %s q, CO: %s q, T: %s q, CFT: %s ms, KB FT: %s ms, " +
+                        "GFT: %s ms, CR: %s q/s, KB R: %s q/s, GR: %s q/s, %s",
                 Thread.activeCount(),
                 nCacheMiss[0],
                 nCacheHit[0],
+                runningQueries.getCoalesced(),
                 nTotal[0],
                 cacheFetchTimesRollingAvg[0],
                 KBFetchTimesRollingAvg[0],
                 globalFetchTimesRollingAvg[0],
                 cacheFetchTimesRollingRate[0],
                 KBFetchTimesRollingRate[0],
-                globalFetchTimesRollingRate[0]);
+                globalFetchTimesRollingRate[0],
+                Compression.GetStats());
     }
 
     private class KBWSServer extends WebSocketServer {
 
         public KBWSServer(int port) {
-            super(new InetSocketAddress(port));
+            super(new InetSocketAddress(port), Collections.singletonList(new Compression(CompressionThreshold)));
         }
 
         @Override
         public void onMessage(WebSocket session, String jsonQuery) {
+            queryPool.execute(() -> answer(session, jsonQuery));
+        }
+
+        /**
+         * Runs a request and sends its response, or an error if the request failed, so that the client never waits
+         * for a response that will not come.
+         */
+        private void answer(WebSocket session, String jsonQuery) {
             long globalStartTime = System.currentTimeMillis();
             Payload queryPayload = UnmarhsalPayload(jsonQuery);
-            String responseJSON = Caching.GetResultFromCache(queryPayload.cacheKey);
-            long cacheFetchTime = System.currentTimeMillis() - globalStartTime;
-
-            if (responseJSON == null) {
-                long KBFetchTime = System.currentTimeMillis();
-
-                // Running KB query
-                WebSocketHandlerInterface handler = handlers.get(queryPayload.queryType);
-                responseJSON = route(queryPayload.jsonContent, handler);
-                Caching.CacheResponse(responseJSON, queryPayload.cacheKey);
-                KBFetchTime = System.currentTimeMillis() -  KBFetchTime;
-                logStat(KBFetchMillis, KBFetchTimes, KBFetchTime, globalStartTime, KBFetchTimesRollingIndex,
-                        KBFetchTimesInitFlag, nCacheMiss, KBFetchTimesRollingRate, KBFetchTimesRollingAvg);
-            } else {
-                logStat(cacheFetchMillis, cacheFetchTimes, cacheFetchTime, globalStartTime, cacheFetchTimesRollingIndex,
-                        cacheFetchTimesInitFlag, nCacheHit, cacheFetchTimesRollingRate, cacheFetchTimesRollingAvg);
+            Payload responsePayload;
+            try {
+                String responseJSON;
+                if (queryPayload.queryType.equals(PinSnapshotQueryName)) {
+                    // Snapshots belong to the connection that pins them
+                    responseJSON = QueryProcessing.processQuery(queryPayload.jsonContent,
+                            (PinSnapshotQuery query) -> pinSnapshot(session), PinSnapshotQuery.class);
+                } else if (queryPayload.queryType.equals(ReleaseSnapshotQueryName)) {
+                    responseJSON = QueryProcessing.processQuery(queryPayload.jsonContent,
+                            (ReleaseSnapshotQuery query) -> releaseSnapshot(session), ReleaseSnapshotQuery.class);
+                } else if (UncachedQueryList.contains(queryPayload.queryType)) {
+                    // Updates take the write lock themselves
+                    responseJSON = route(queryPayload.jsonContent, handlers.get(queryPayload.queryType));
+                } else {
+                    responseJSON = runQuery(queryPayload, globalStartTime);
+                }
+                responsePayload = new Payload(queryPayload.id, queryPayload.cacheKey, queryPayload.queryType,
+                        responseJSON);
+            } catch (RuntimeException e) {
+                System.err.format("Failed to process query: %s\n", queryPayload.jsonContent);
+                e.printStackTrace();
+                responsePayload = new Payload(queryPayload.id, queryPayload.cacheKey, queryPayload.queryType, null);
+                responsePayload.error = e.toString();
             }
-            String responsePayloadJSON =
-                    MarhsalPayload(new Payload(queryPayload.cacheKey, queryPayload.queryType, responseJSON));
-            session.send(responsePayloadJSON);
+            if (session.isOpen())
+                session.send(MarhsalPayload(responsePayload));
             long globalFetchTime = System.currentTimeMillis() - globalStartTime ;
             logStat(globalFetchMillis, globalFetchTimes, globalFetchTime, globalStartTime, globalFetchTimesRollingIndex,
                     globalFetchTimesInitFlag, nTotal, globalFetchTimesRollingRate, globalFetchTimesRollingAvg);
@@ -496,6 +785,44 @@ public class KBWebSocketServer extends KB {
                 System.out.format("%s\r", getStats());
         }
 
+        /**
+         * Fetches the response from the cache or runs the query on the KB. The response is cached under the same
+         * read lock, so that a response computed before an update is never cached after it. If the same query is
+         * already running, the response of that query is awaited instead.
+         */
+        private String runQuery(Payload queryPayload, long globalStartTime) {
+            snapshotLock.readLock().lock();
+            try {
+                String responseJSON = Caching.GetResultFromCache(queryPayload.cacheKey);
+                long cacheFetchTime = System.currentTimeMillis() - globalStartTime;
+
+                if (responseJSON == null) {
+                    responseJSON = runningQueries.run(queryPayload.cacheKey, () -> {
+                        long KBFetchTime = System.currentTimeMillis();
+
+                        // Running KB query
+                        WebSocketHandlerInterface handler = handlers.get(queryPayload.queryType);
+                        String KBResponseJSON = route(queryPayload.jsonContent, handler);
+                        if (Caching.IsEnabled()) {
+                            Caching.CacheResponse(KBResponseJSON, queryPayload.cacheKey,
+                                    RelationsOf(queryPayload.queryType, queryPayload.jsonContent));
+                        }
+                        KBFetchTime = System.currentTimeMillis() -  KBFetchTime;
+                        logStat(KBFetchMillis, KBFetchTimes, KBFetchTime, globalStartTime, KBFetchTimesRollingIndex,
+                                KBFetchTimesInitFlag, nCacheMiss, KBFetchTimesRollingRate, KBFetchTimesRollingAvg);
+                        return KBResponseJSON;
+                    });
+                } else {
+                    logStat(cacheFetchMillis, cacheFetchTimes, cacheFetchTime, globalStartTime,
+                            cacheFetchTimesRollingIndex, cacheFetchTimesInitFlag, nCacheHit,
+                            cacheFetchTimesRollingRate, cacheFetchTimesRollingAvg);
+                }
+                return responseJSON;
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+
         @Override
         public void onError(WebSocket conn, Exception ex) {
 
@@ -516,7 +843,7 @@ public class KBWebSocketServer extends KB {
 
         @Override
         public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-
+            releaseSnapshots(conn);
         }
 
     }
@@ -530,6 +857,12 @@ public class KBWebSocketServer extends KB {
         Caching.LoadCache(config);
         server = new KBWSServer(Port);
         server.start();
+        snapshotExpiration.scheduleAtFixedRate(() -> {
+            synchronized (pendingUpdates) {
+                expireSnapshots();
+            }
+            applyPendingUpdates();
+        }, 1, 1, TimeUnit.SECONDS);
         System.out.println("WebSocket Server listening on " + Port);
 
     }
@@ -537,14 +870,20 @@ public class KBWebSocketServer extends KB {
     public void shutdown() {
         // Closing socket
         System.out.println("Stopping WebSocket Server");
+        queryPool.shutdownNow();
+        snapshotExpiration.shutdownNow();
         try {
             server.stop();
         } catch (InterruptedException e) {
             System.err.println("Exception caught while attempting to shut down server.");
             e.printStackTrace();
         }
-        // Saving cache to file
-        Caching.SaveCache();
+        // Saving cache to file, unless it contains responses of an updated KB
+        if (getVersion() == 0) {
+            Caching.SaveCache();
+        } else {
+            System.out.println("KB updated since startup, cache not saved");
+        }
     }
 
     class ShutdownSequenceThread extends Thread {
@@ -0,0 +1,261 @@
+package amie.data;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Number of entities in common between the columns of every pair of relations
+ * of a KB. They are used for join cardinality estimation.
+ *
+ * The subjects and objects of each relation are extracted once into sorted arrays
+ * and intersected with a merge, or with a galloping search when one array is much
+ * shorter than the other. The overlaps are stored in dense R x R matrices indexed by
+ * the position of the relations in the sorted list of relations of the KB.
+ *
+ * @author lgalarra
+ *
+ */
+public class OverlapTables {
+
+	/**
+	 * Size ratio above which intersections use galloping search instead of a merge
+	 */
+	private static final int GALLOPING_RATIO = 32;
+
+	private final Int2IntMap relationIds;
+
+	private final int nRelations;
+
+	private final int[] subject2subject;
+
+	private final int[] subject2object;
+
+	private final int[] object2object;
+
+	private OverlapTables(int[] relations) {
+		this.nRelations = relations.length;
+		this.relationIds = new Int2IntOpenHashMap(nRelations);
+		this.relationIds.defaultReturnValue(-1);
+		for (int i = 0; i < nRelations; ++i) {
+			relationIds.put(relations[i], i);
+		}
+		this.subject2subject = new int[nRelations * nRelations];
+		this.subject2object = new int[nRelations * nRelations];
+		this.object2object = new int[nRelations * nRelations];
+	}
+
+	/**
+	 * It builds the tables from precomputed matrices, e.g., read from a file.
+	 * @param relations The relations in the order of the rows and columns of the matrices
+	 */
+	OverlapTables(int[] relations, int[] subject2subject, int[] subject2object, int[] object2object) {
+		int n = relations.length;
+		if (subject2subject.length != n * n || subject2object.length != n * n || object2object.length != n * n)
+			throw new IllegalArgumentException("The overlap matrices must have " + n + "x" + n + " cells");
+		this.nRelations = n;
+		this.relationIds = new Int2IntOpenHashMap(n);
+		this.relationIds.defaultReturnValue(-1);
+		for (int i = 0; i < n; ++i) {
+			relationIds.put(relations[i], i);
+		}
+		this.subject2subject = subject2subject;
+		this.subject2object = subject2object;
+		this.object2object = object2object;
+	}
+
+	/**
+	 * It computes the overlap tables of the KB.
+	 * @param kb
+	 * @param nThreads
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static OverlapTables build(KB kb, int nThreads) throws InterruptedException {
+		int[] relations = kb.relationSize.keySet().toIntArray();
+		Arrays.sort(relations);
+		OverlapTables tables = new OverlapTables(relations);
+		int n = relations.length;
+		int[][] subjects = new int[n][];
+		int[][] objects = new int[n][];
+
+		nThreads = Math.max(1, Math.min(nThreads, n));
+		// Extraction of the columns, relations are dealt round-robin
+		Thread[] threads = new Thread[nThreads];
+		for (int t = 0; t < nThreads; ++t) {
+			final int offset = t;
+			final int step = nThreads;
+			threads[t] = new Thread(() -> {
+				for (int i = offset; i < n; i += step) {
+					subjects[i] = sortedKeys(kb.relation2subject2object.get(relations[i]));
+					objects[i] = sortedKeys(kb.relation2object2subject.get(relations[i]));
+				}
+			});
+		}
+		runAll(threads);
+
+		// Row i covers the pairs (i, j) with j <= i. Rows are split in ranges
+		// containing roughly the same number of pairs.
+		long totalPairs = (long) n * (n + 1) / 2;
+		int[] boundaries = new int[nThreads + 1];
+		long pairs = 0;
+		int range = 1;
+		for (int i = 0; i < n && range < nThreads; ++i) {
+			pairs += i + 1;
+			if (pairs >= totalPairs * range / nThreads)
+				boundaries[range++] = i + 1;
+		}
+		while (range <= nThreads)
+			boundaries[range++] = n;
+
+		for (int t = 0; t < nThreads; ++t) {
+			final int from = boundaries[t];
+			final int to = boundaries[t + 1];
+			threads[t] = new Thread(() -> tables.computeRows(from, to, subjects, objects));
+		}
+		runAll(threads);
+		return tables;
+	}
+
+	private static void runAll(Thread[] threads) throws InterruptedException {
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+	}
+
+	private static int[] sortedKeys(Int2ObjectMap<IntSet> map) {
+		if (map == null)
+			return new int[0];
+		int[] keys = map.keySet().toIntArray();
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * It fills the cells of the pairs (i, j) and (j, i) for j <= i and i in [from, to).
+	 * Different rows write disjoint cells.
+	 */
+	private void computeRows(int from, int to, int[][] subjects, int[][] objects) {
+		for (int i = from; i < to; ++i) {
+			for (int j = 0; j <= i; ++j) {
+				int ij = i * nRelations + j;
+				int ji = j * nRelations + i;
+				if (i == j) {
+					subject2subject[ij] = subjects[i].length;
+					object2object[ij] = objects[i].length;
+					subject2object[ij] = countIntersection(subjects[i], objects[i]);
+				} else {
+					subject2subject[ij] = subject2subject[ji] = countIntersection(subjects[i], subjects[j]);
+					object2object[ij] = object2object[ji] = countIntersection(objects[i], objects[j]);
+					subject2object[ij] = countIntersection(subjects[i], objects[j]);
+					subject2object[ji] = countIntersection(subjects[j], objects[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Size of the intersection of two sorted arrays without duplicates.
+	 */
+	public static int countIntersection(int[] a, int[] b) {
+		if (a.length > b.length)
+			return countIntersection(b, a);
+		if (a.length == 0)
+			return 0;
+		if (b.length / a.length >= GALLOPING_RATIO)
+			return countIntersectionGalloping(a, b);
+		int i = 0, j = 0, count = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				++i;
+			} else if (a[i] > b[j]) {
+				++j;
+			} else {
+				++count;
+				++i;
+				++j;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Each element of the short array is searched in the long one by doubling the
+	 * step from the last match and then searching the last interval.
+	 */
+	private static int countIntersectionGalloping(int[] small, int[] large) {
+		int count = 0;
+		int low = 0;
+		for (int value : small) {
+			int step = 1;
+			int high = low;
+			while (high < large.length && large[high] < value) {
+				low = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			int pos = Arrays.binarySearch(large, low, Math.min(high + 1, large.length), value);
+			if (pos >= 0) {
+				++count;
+				low = pos + 1;
+			} else {
+				low = -pos - 1;
+			}
+			if (low >= large.length)
+				break;
+		}
+		return count;
+	}
+
+	/**
+	 * Given two relations, it returns the number of entities in common between
+	 * two of their columns. Relations unknown when the tables were built have no overlap.
+	 *
+	 * @param relation1
+	 * @param relation2
+	 * @param overlap 0 = Subject-Subject, 2 = Subject-Object, 4 = Object-Object
+	 * @return
+	 */
+	public int get(int relation1, int relation2, int overlap) {
+		int[] table = getMatrix(overlap);
+		int i = relationIds.get(relation1);
+		int j = relationIds.get(relation2);
+		if (i == -1 || j == -1)
+			return 0;
+		return table[i * nRelations + j];
+	}
+
+	public int getNumberOfRelations() {
+		return nRelations;
+	}
+
+	/**
+	 * @return The relations in the order of the rows and columns of the matrices
+	 */
+	int[] getRelations() {
+		int[] relations = new int[nRelations];
+		for (Int2IntMap.Entry entry : relationIds.int2IntEntrySet()) {
+			relations[entry.getIntValue()] = entry.getIntKey();
+		}
+		return relations;
+	}
+
+	int[] getMatrix(int overlap) {
+		switch (overlap) {
+			case AbstractKB.SUBJECT2SUBJECT:
+				return subject2subject;
+			case AbstractKB.SUBJECT2OBJECT:
+				return subject2object;
+			case AbstractKB.OBJECT2OBJECT:
+				return object2object;
+			default:
+				throw new IllegalArgumentException(
+						"The argument map must be either 0 (subject-subject overlap), "
+								+ "2 (subject-object overlap) or 4 (object to object overlap)");
+		}
+	}
+}
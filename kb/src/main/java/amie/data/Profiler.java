@@ -0,0 +1,440 @@
+package amie.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * Instrumentation of a mining run. It keeps timers (number of calls, total time,
+ * total and maximal result size and a latency histogram), counters and gauges, all
+ * identified by name. The profiler is disabled by default, in which case the
+ * instrumented code only pays the cost of reading a static flag.
+ *
+ * KB queries are recorded once per method and once per query shape (number of atoms,
+ * number of variables and whether the query graph has cycles). Queries issued while
+ * answering another query are not recorded, so the time of a query includes the
+ * time of the queries it triggers.
+ *
+ * The state of the profiler can be written as JSON at any time.
+ *
+ * @author lgalarra
+ *
+ */
+public final class Profiler {
+
+	private static volatile boolean enabled = false;
+
+	/**
+	 * If false, KB queries are only recorded per method
+	 */
+	private static volatile boolean recordQueryShapes = false;
+
+	private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	/**
+	 * Timers of the KB query methods indexed by method name, so that recording
+	 * a query does not build the name of the timer.
+	 */
+	private static final Map<String, Timer> queryTimers = new ConcurrentHashMap<>();
+
+	/**
+	 * Nesting level of KB queries in the current thread
+	 */
+	private static final ThreadLocal<int[]> queryDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+	private static final long startTime = System.nanoTime();
+
+	private static ScheduledExecutorService dumper;
+
+	private Profiler() {
+	}
+
+	/**
+	 * Histogram of non-negative values with logarithmic buckets. Each power of two
+	 * is divided in {@value #SUB_BUCKETS} linear sub-buckets, so percentiles are
+	 * accurate up to 1 / {@value #SUB_BUCKETS} of the value.
+	 */
+	public static final class Histogram {
+
+		private static final int SUB_BUCKET_BITS = 3;
+
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) Math.max(0, value);
+			int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			int sub = (int) (value >>> magnitude) - SUB_BUCKETS;
+			return (magnitude + 1) * SUB_BUCKETS + sub;
+		}
+
+		/**
+		 * @return The largest value that falls in the bucket
+		 */
+		private static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int magnitude = bucket / SUB_BUCKETS - 1;
+			long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+			return ((sub + 1) << magnitude) - 1;
+		}
+
+		public void record(long value) {
+			buckets.incrementAndGet(bucket(value));
+		}
+
+		public long count() {
+			long count = 0;
+			for (int i = 0; i < buckets.length(); ++i)
+				count += buckets.get(i);
+			return count;
+		}
+
+		/**
+		 * @param quantile A number between 0 and 1
+		 * @return An upper bound of the value at the given quantile, 0 if the
+		 * histogram is empty.
+		 */
+		public long percentile(double quantile) {
+			long count = count();
+			if (count == 0)
+				return 0;
+			long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); ++i) {
+				seen += buckets.get(i);
+				if (seen >= rank && seen > 0)
+					return upperBound(i);
+			}
+			return upperBound(buckets.length() - 1);
+		}
+	}
+
+	public static final class Timer {
+
+		private final LongAdder calls = new LongAdder();
+
+		private final LongAdder nanos = new LongAdder();
+
+		private final LongAdder results = new LongAdder();
+
+		private final LongAccumulator maxResult = new LongAccumulator(Math::max, 0);
+
+		private final Histogram latencies = new Histogram();
+
+		/**
+		 * @param elapsedNanos
+		 * @param resultSize Number of results of the call, e.g., the number of
+		 * refinements produced by an operator.
+		 */
+		public void record(long elapsedNanos, long resultSize) {
+			calls.increment();
+			nanos.add(elapsedNanos);
+			results.add(resultSize);
+			maxResult.accumulate(resultSize);
+			latencies.record(elapsedNanos / 1000);
+		}
+
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+
+		public long getResults() {
+			return results.sum();
+		}
+
+		/**
+		 * @return The histogram of the latencies in microseconds
+		 */
+		public Histogram getLatencies() {
+			return latencies;
+		}
+
+		private void toJSON(StringBuilder json) {
+			long n = calls.sum();
+			json.append("{\"calls\":").append(n);
+			json.append(",\"totalMs\":").append(nanos.sum() / 1000000);
+			json.append(",\"results\":").append(results.sum());
+			json.append(",\"maxResult\":").append(maxResult.get());
+			json.append(",\"latencyUs\":{\"p50\":").append(latencies.percentile(0.5));
+			json.append(",\"p90\":").append(latencies.percentile(0.9));
+			json.append(",\"p99\":").append(latencies.percentile(0.99));
+			json.append(",\"max\":").append(latencies.percentile(1.0)).append("}}");
+		}
+	}
+
+	/**
+	 * It enables the profiler, KB queries are recorded per method and per query shape.
+	 */
+	public static void enable() {
+		recordQueryShapes = true;
+		enabled = true;
+	}
+
+	/**
+	 * It enables the profiler without recording the shapes of KB queries, which is
+	 * cheaper and enough to follow the query throughput of a run. It does not
+	 * disable the shapes if they were already enabled.
+	 */
+	public static void enableWithoutQueryShapes() {
+		enabled = true;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * It removes all the recorded values.
+	 */
+	public static void reset() {
+		timers.clear();
+		queryTimers.clear();
+		counters.clear();
+	}
+
+	public static Timer timer(String name) {
+		return timers.computeIfAbsent(name, k -> new Timer());
+	}
+
+	/**
+	 * It records a call that started at the given time (as returned by
+	 * {@link System#nanoTime()}).
+	 * @param name
+	 * @param startNanos
+	 * @param resultSize
+	 */
+	public static void record(String name, long startNanos, long resultSize) {
+		if (enabled)
+			timer(name).record(System.nanoTime() - startNanos, resultSize);
+	}
+
+	public static void increment(String counter, long delta) {
+		if (enabled)
+			counters.computeIfAbsent(counter, k -> new LongAdder()).add(delta);
+	}
+
+	/**
+	 * It registers a value that is read every time the profiler is dumped, e.g., the
+	 * size of a queue.
+	 * @param name
+	 * @param gauge
+	 */
+	public static void registerGauge(String name, LongSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * It must be called at the beginning of a KB query method, followed by
+	 * {@link #exitQuery(String, List, long, long)} when the method returns.
+	 * @return The start time of the query, 0 if the profiler is disabled.
+	 */
+	public static long enterQuery() {
+		if (!enabled)
+			return 0;
+		++queryDepth.get()[0];
+		return System.nanoTime();
+	}
+
+	/**
+	 * It records a KB query unless it was issued while answering another query.
+	 * @param method Name of the KB method
+	 * @param query The atoms of the query
+	 * @param startNanos Value returned by {@link #enterQuery()}
+	 * @param resultSize
+	 */
+	public static void exitQuery(String method, List<int[]> query, long startNanos, long resultSize) {
+		if (!enabled || startNanos == 0)
+			return;
+		if (--queryDepth.get()[0] > 0)
+			return;
+		long elapsed = System.nanoTime() - startNanos;
+		queryTimers.computeIfAbsent(method, m -> timer("query." + m)).record(elapsed, resultSize);
+		if (recordQueryShapes)
+			timer("shape." + method + "[" + shape(query) + "]").record(elapsed, resultSize);
+	}
+
+	/**
+	 * @return The timers of the KB query methods indexed by method name
+	 */
+	public static Map<String, Timer> getQueryTimers() {
+		return queryTimers;
+	}
+
+	/**
+	 * Variant of {@link #exitQuery(String, List, long, long)} for queries given as a
+	 * projection atom and the other atoms.
+	 */
+	public static void exitQuery(String method, int[] atom, List<int[]> otherAtoms, long startNanos, long resultSize) {
+		if (!enabled || startNanos == 0)
+			return;
+		if (queryDepth.get()[0] > 1 || !recordQueryShapes) {
+			exitQuery(method, otherAtoms, startNanos, resultSize);
+			return;
+		}
+		List<int[]> query = new ArrayList<>(otherAtoms.size() + 1);
+		query.add(atom);
+		query.addAll(otherAtoms);
+		exitQuery(method, query, startNanos, resultSize);
+	}
+
+	/**
+	 * @return A description of the query of the form "atoms=3,vars=3,cyclic"
+	 */
+	public static String shape(List<int[]> query) {
+		Int2IntMap parents = new Int2IntOpenHashMap();
+		boolean cyclic = false;
+		for (int[] triple : query) {
+			if (KB.isVariable(triple[0]) && KB.isVariable(triple[2])) {
+				int subject = find(parents, triple[0]);
+				int object = find(parents, triple[2]);
+				if (subject == object) {
+					cyclic = true;
+				} else {
+					parents.put(subject, object);
+				}
+			} else if (KB.isVariable(triple[0])) {
+				find(parents, triple[0]);
+			} else if (KB.isVariable(triple[2])) {
+				find(parents, triple[2]);
+			}
+		}
+		for (int[] triple : query) {
+			if (KB.isVariable(triple[1]))
+				find(parents, triple[1]);
+		}
+		return "atoms=" + query.size() + ",vars=" + parents.size() + (cyclic ? ",cyclic" : ",acyclic");
+	}
+
+	/**
+	 * Union-find lookup, variables are added as singletons the first time they are seen.
+	 */
+	private static int find(Int2IntMap parents, int variable) {
+		if (!parents.containsKey(variable)) {
+			parents.put(variable, variable);
+			return variable;
+		}
+		int root = variable;
+		while (parents.get(root) != root)
+			root = parents.get(root);
+		return root;
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * @return The current state of the profiler in JSON format. Entries are sorted by name.
+	 */
+	public static String toJSON() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"elapsedMs\":").append((System.nanoTime() - startTime) / 1000000);
+		json.append(",\n\"timers\":{");
+		boolean first = true;
+		for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+			json.append(first ? "\n" : ",\n");
+			appendString(json, entry.getKey());
+			json.append(':');
+			entry.getValue().toJSON(json);
+			first = false;
+		}
+		json.append("},\n\"counters\":{");
+		first = true;
+		Map<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet())
+			values.put(entry.getKey(), entry.getValue().sum());
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet())
+			values.put(entry.getKey(), entry.getValue().getAsLong());
+		for (Map.Entry<String, Long> entry : values.entrySet()) {
+			json.append(first ? "\n" : ",\n");
+			appendString(json, entry.getKey());
+			json.append(':').append(entry.getValue());
+			first = false;
+		}
+		json.append("}}\n");
+		return json.toString();
+	}
+
+	/**
+	 * It writes the state of the profiler in the file. The file is replaced
+	 * atomically, so readers never see a partial dump.
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void dump(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (PrintWriter writer = new PrintWriter(tmp, "UTF-8")) {
+			writer.print(toJSON());
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * It writes the state of the profiler in the file every given number of seconds,
+	 * until {@link #stopPeriodicDump()} is called.
+	 * @param file
+	 * @param periodSeconds
+	 */
+	public static synchronized void startPeriodicDump(File file, long periodSeconds) {
+		stopPeriodicDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "profiler-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> {
+			try {
+				dump(file);
+			} catch (IOException e) {
+				System.err.println("Could not write the profile: " + e.getMessage());
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	public static synchronized void stopPeriodicDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+}
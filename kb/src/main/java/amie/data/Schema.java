@@ -61,13 +61,17 @@ public class Schema {
 	public static List<String> schemaRelations = Arrays.asList(typeRelation, subClassRelation,
 			subPropertyRelation, domainRelation, rangeRelation);
 
-	private static boolean taxonomyMaterialized = false;
-
-	private static IntSet allDefinedTypesMaterialized = new IntOpenHashSet();
-
-	private static Int2ObjectMap<IntSet> subClassMaterialized = new Int2ObjectOpenHashMap<>();
+	/**
+	 * Index of the subclass hierarchy of each KB this schema has been used with.
+	 */
+	private final Map<AbstractKB, TaxonomyIndex> taxonomies = Collections.synchronizedMap(new WeakHashMap<>());
 
-	private static Int2ObjectMap<IntSet> superClassMaterialized = new Int2ObjectOpenHashMap<>();
+	/**
+	 * KBs whose taxonomy was materialized with {@link #materializeTaxonomy(AbstractKB)}.
+	 * The indexes built on first use by the other methods do not count.
+	 */
+	private final Set<AbstractKB> materializedTaxonomies = Collections
+			.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 
 	protected ArrayList<String> idToEntity = new ArrayList<>(Arrays.asList("null"));
 	protected Lock mappingLock = new ReentrantLock();
@@ -326,6 +330,24 @@ public class Schema {
 		return r;
 	}
 
+	/**
+	 * Same as {@link #map(CharSequence)} for entities, but it does not add the entity
+	 * to the dictionary.
+	 *
+	 * @param cs
+	 * @return The identifier of the entity, or -1 if it is not in the dictionary
+	 */
+	public int lookup(CharSequence cs) {
+		String b = _compress(cs);
+		int r = -1;
+		mappingLock.lock();
+		if (entityToId.containsKey(b)) {
+			r = entityToId.getInt(b);
+		}
+		mappingLock.unlock();
+		return r;
+	}
+
 	/** Compresses a string to an internal string */
 	private static String _compress(CharSequence s) {
 		if (s instanceof String) {
@@ -338,23 +360,82 @@ public class Schema {
 		return str;
 	}
 
+	/**
+	 * It builds the index of the subclass hierarchy of the given KB, if it
+	 * has not been built yet. The type-related methods of this class build it
+	 * on first use.
+	 *
+	 * @param source
+	 */
 	public void materializeTaxonomy(AbstractKB source) {
-		List<int[]> query = KB.triples(source.triple("?x", subClassRelation, "?y"));
-		allDefinedTypesMaterialized.addAll(source.selectDistinct(map("?x"), query));
-		allDefinedTypesMaterialized.addAll(source.selectDistinct(map("?y"), query));
-		for (int type : allDefinedTypesMaterialized) {
-			subClassMaterialized.put(type, getAllSubTypes(source, type));
-			superClassMaterialized.put(type, getAllSuperTypes(source, type));
+		getTaxonomy(source);
+		materializedTaxonomies.add(source);
+	}
+
+	/**
+	 * It returns the index of the subclass hierarchy of the given KB. The index is
+	 * built the first time it is requested for a KB.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public TaxonomyIndex getTaxonomy(AbstractKB source) {
+		TaxonomyIndex taxonomy = taxonomies.get(source);
+		if (taxonomy == null) {
+			synchronized (taxonomies) {
+				taxonomy = taxonomies.get(source);
+				if (taxonomy == null) {
+					taxonomy = TaxonomyIndex.build(source, this);
+					taxonomies.put(source, taxonomy);
+				}
+			}
 		}
-		taxonomyMaterialized = true;
+		return taxonomy;
 	}
 
-	public static boolean isTaxonomyMaterialized() {
-		return taxonomyMaterialized;
+	/**
+	 * @param source
+	 * @return True if {@link #materializeTaxonomy(AbstractKB)} was called for the KB,
+	 * whether or not the index has been built since.
+	 */
+	public boolean isTaxonomyMaterialized(AbstractKB source) {
+		return materializedTaxonomies.contains(source);
 	}
 
-	public static IntSet getAllDefinedTypes() {
-		return IntSets.unmodifiable(allDefinedTypesMaterialized);
+	/**
+	 * It returns all the types occurring in subclass facts of the given KB.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public IntSet getAllDefinedTypes(AbstractKB source) {
+		return IntSets.unmodifiable(getTaxonomy(source).getAllTypes());
+	}
+
+	/**
+	 * It keeps the index of the subclass hierarchy of the KB up to date
+	 * after the addition of a subclass fact.
+	 *
+	 * @param source
+	 * @param subType
+	 * @param superType
+	 */
+	public void addSubClassOf(AbstractKB source, int subType, int superType) {
+		TaxonomyIndex taxonomy = taxonomies.get(source);
+		if (taxonomy != null)
+			taxonomy.addSubClassOf(subType, superType);
+	}
+
+	/**
+	 * It drops the index of the subclass hierarchy of the KB after the removal of
+	 * a subclass fact. The index is built again on next use.
+	 *
+	 * @param source
+	 * @param subType
+	 * @param superType
+	 */
+	public void removeSubClassOf(AbstractKB source, int subType, int superType) {
+		taxonomies.remove(source);
 	}
 
 	public void loadSchemaConf() {
@@ -478,12 +559,7 @@ public class Schema {
 	 * @return
 	 */
 	public boolean isLeafDatatype(AbstractKB source, int type) {
-		if (taxonomyMaterialized) {
-			IntSet subTypes = subClassMaterialized.get(type);
-			return subTypes == null || subTypes.isEmpty();
-		}
-		List<int[]> query = KB.triples(KB.triple(map("?x"), subClassRelationBS, type));
-		return source.countDistinct(map("?x"), query) == 0;
+		return getTaxonomy(source).isLeaf(type);
 	}
 
 	/**
@@ -517,11 +593,7 @@ public class Schema {
 	 */
 	public IntSet getAllTypesForEntity(AbstractKB source, int entity) {
 		IntSet leafTypes = getMaterializedTypesForEntity(source, entity);
-		IntSet resultTypes = new IntOpenHashSet(leafTypes);
-		for (int leafType : leafTypes) {
-			resultTypes.addAll(getAllSuperTypes(source, leafType));
-		}
-		return resultTypes;
+		return getTaxonomy(source).getAllSuperTypes(leafTypes);
 	}
 
 	/**
@@ -532,6 +604,17 @@ public class Schema {
 	 * @return
 	 */
 	public IntSet getSuperTypes(AbstractKB source, int type) {
+		return getTaxonomy(source).getSuperTypes(type);
+	}
+
+	/**
+	 * It queries the KB for the immediate super-types of a given type.
+	 *
+	 * @param source
+	 * @param type
+	 * @return
+	 */
+	IntSet queryDirectSuperTypes(AbstractKB source, int type) {
 		List<int[]> query = KB.triples(KB.triple(type, subClassRelationBS, map("?x")));
 		return source.selectDistinct(map("?x"), query);
 	}
@@ -544,31 +627,7 @@ public class Schema {
 	 * @return
 	 */
 	public IntSet getAllSuperTypes(AbstractKB source, int type) {
-
-		if (taxonomyMaterialized) {
-			return superClassMaterialized.get(type);
-		}
-
-		IntSet resultSet = new IntOpenHashSet();
-		Queue<Integer> queue = new LinkedList<>();
-		IntSet seenTypes = new IntOpenHashSet();
-		IntSet superTypes = getSuperTypes(source, type);
-		queue.addAll(superTypes);
-		seenTypes.addAll(superTypes);
-
-		while (!queue.isEmpty()) {
-			int currentType = queue.poll();
-			resultSet.add(currentType);
-			superTypes = getSuperTypes(source, currentType);
-			for (int st : superTypes) {
-				if (!seenTypes.contains(st)) {
-					seenTypes.add(st);
-					queue.add(st);
-				}
-			}
-		}
-
-		return resultSet;
+		return getTaxonomy(source).getAllSuperTypes(type);
 	}
 
 	/**
@@ -647,8 +706,7 @@ public class Schema {
 	 * @return
 	 */
 	public IntSet getSubTypes(AbstractKB source, int type) {
-		List<int[]> query = KB.triples(KB.triple(map("?x"), subClassRelationBS, type));
-		return new IntOpenHashSet(source.selectDistinct(map("?x"), query));
+		return getTaxonomy(source).getSubTypes(type);
 	}
 
 	public IntSet getSubtypes(AbstractKB source, int type) {
@@ -663,31 +721,7 @@ public class Schema {
 	 * @return
 	 */
 	public IntSet getAllSubTypes(AbstractKB source, int type) {
-
-		if (taxonomyMaterialized) {
-			return subClassMaterialized.get(type);
-		}
-
-		IntSet resultSet = new IntOpenHashSet();
-		Queue<Integer> queue = new LinkedList<>();
-		IntSet seenTypes = new IntOpenHashSet();
-		IntSet subTypes = getSubTypes(source, type);
-		queue.addAll(subTypes);
-		seenTypes.addAll(subTypes);
-
-		while (!queue.isEmpty()) {
-			int currentType = queue.poll();
-			resultSet.add(currentType);
-			subTypes = getSubtypes(source, currentType);
-			for (int st : subTypes) {
-				if (!seenTypes.contains(st)) {
-					seenTypes.add(st);
-					queue.add(st);
-				}
-			}
-		}
-
-		return resultSet;
+		return getTaxonomy(source).getAllSubTypes(type);
 	}
 
 	/**
@@ -943,8 +977,7 @@ public class Schema {
 	}
 
 	public boolean isTransitiveSuperType(AbstractKB kb, int parentType, int childType) {
-		IntSet st1 = getAllSuperTypes(kb, childType);
-		return st1.contains(parentType);
+		return getTaxonomy(kb).isSubTypeOf(childType, parentType);
 	}
 
 	public void main(String args[]) throws IOException {
@@ -0,0 +1,387 @@
+package amie.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Compact index of the rdfs:subClassOf hierarchy of a knowledge base. Types are
+ * assigned dense identifiers and the transitive closure is stored as sorted arrays
+ * of dense identifiers (ancestors and descendants of every type).
+ *
+ * Types are additionally labelled with their pre-order and post-order ranks in a
+ * spanning forest of the hierarchy. If the hierarchy is a forest, i.e., no type has
+ * more than one super-type, subsumption is decided in constant time by comparing
+ * the labels. Otherwise the labels only give a positive answer and the closure is
+ * used as a fallback.
+ *
+ * The index is built once per KB, the closure is computed in parallel. New subclass
+ * facts can be added incrementally with {@link #addSubClassOf(int, int)}; the labels
+ * are then recomputed on the next subsumption test, once for the whole batch. The index
+ * does not support removals: the schema drops it when a subclass fact is removed
+ * (see {@link Schema#removeSubClassOf(AbstractKB, int, int)}).
+ *
+ * @author lgalarra
+ *
+ */
+public class TaxonomyIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * Type to dense identifier
+	 */
+	private final Int2IntMap denseIds;
+
+	/**
+	 * Dense identifier to type
+	 */
+	private int[] types;
+
+	private int nTypes;
+
+	private IntArrayList[] parents;
+
+	private IntArrayList[] children;
+
+	/**
+	 * Sorted dense identifiers of the transitive super-types of each type
+	 */
+	private int[][] ancestors;
+
+	/**
+	 * Sorted dense identifiers of the transitive sub-types of each type
+	 */
+	private int[][] descendants;
+
+	private int[] pre;
+
+	private int[] post;
+
+	/**
+	 * True if no type has more than one super-type and there are no cycles
+	 */
+	private boolean forest;
+
+	/**
+	 * False if subclass facts were added since the labels were computed
+	 */
+	private volatile boolean labelled;
+
+	private TaxonomyIndex(int[] types) {
+		this.types = types;
+		this.nTypes = types.length;
+		this.denseIds = new Int2IntOpenHashMap(types.length);
+		this.denseIds.defaultReturnValue(-1);
+		for (int i = 0; i < types.length; ++i) {
+			denseIds.put(types[i], i);
+		}
+		this.parents = new IntArrayList[nTypes];
+		this.children = new IntArrayList[nTypes];
+		for (int i = 0; i < nTypes; ++i) {
+			parents[i] = new IntArrayList(1);
+			children[i] = new IntArrayList(0);
+		}
+	}
+
+	/**
+	 * It builds the index of the subclass hierarchy of the given KB.
+	 * @param source
+	 * @param schema Used to query the direct super-types of each type
+	 * @return
+	 */
+	public static TaxonomyIndex build(AbstractKB source, Schema schema) {
+		List<int[]> query = KB.triples(KB.triple(schema.map("?x"), schema.subClassRelationBS, schema.map("?y")));
+		IntSet allTypes = new IntOpenHashSet(source.selectDistinct(schema.map("?x"), query));
+		allTypes.addAll(source.selectDistinct(schema.map("?y"), query));
+		int[] types = allTypes.toIntArray();
+		Arrays.sort(types);
+		TaxonomyIndex index = new TaxonomyIndex(types);
+
+		int[][] directParents = new int[types.length][];
+		IntStream.range(0, types.length).parallel().forEach(i -> {
+			directParents[i] = schema.queryDirectSuperTypes(source, types[i]).toIntArray();
+		});
+		for (int i = 0; i < types.length; ++i) {
+			for (int parent : directParents[i]) {
+				int p = index.denseIds.get(parent);
+				index.parents[i].add(p);
+				index.children[p].add(i);
+			}
+		}
+		index.computeClosure();
+		index.computeLabels();
+		return index;
+	}
+
+	/**
+	 * It computes the ancestors of every type in parallel and derives the descendants.
+	 */
+	private void computeClosure() {
+		ancestors = new int[nTypes][];
+		IntStream.range(0, nTypes).parallel().forEach(i -> ancestors[i] = reachable(i, parents));
+		int[] sizes = new int[nTypes];
+		for (int i = 0; i < nTypes; ++i) {
+			for (int a : ancestors[i])
+				++sizes[a];
+		}
+		descendants = new int[nTypes][];
+		for (int i = 0; i < nTypes; ++i) {
+			descendants[i] = sizes[i] == 0 ? EMPTY : new int[sizes[i]];
+		}
+		Arrays.fill(sizes, 0);
+		// Types are visited in increasing order, so the arrays come out sorted
+		for (int i = 0; i < nTypes; ++i) {
+			for (int a : ancestors[i])
+				descendants[a][sizes[a]++] = i;
+		}
+	}
+
+	/**
+	 * Types reachable in at least one step. The type itself is included only if it
+	 * lies on a cycle.
+	 */
+	private int[] reachable(int start, IntArrayList[] edges) {
+		if (edges[start].isEmpty())
+			return EMPTY;
+		BitSet seen = new BitSet(nTypes);
+		IntArrayList stack = new IntArrayList(edges[start]);
+		while (!stack.isEmpty()) {
+			int current = stack.popInt();
+			if (seen.get(current))
+				continue;
+			seen.set(current);
+			for (int next : edges[current]) {
+				if (!seen.get(next))
+					stack.push(next);
+			}
+		}
+		return seen.stream().toArray();
+	}
+
+	/**
+	 * It labels the types with their pre-order and post-order ranks in a depth-first
+	 * traversal that starts at the roots of the hierarchy.
+	 */
+	private void computeLabels() {
+		pre = new int[nTypes];
+		post = new int[nTypes];
+		Arrays.fill(pre, -1);
+		forest = true;
+		for (int i = 0; i < nTypes; ++i) {
+			if (parents[i].size() > 1 || Arrays.binarySearch(ancestors[i], i) >= 0) {
+				forest = false;
+				break;
+			}
+		}
+		int[] counters = new int[2];
+		for (int i = 0; i < nTypes; ++i) {
+			if (parents[i].isEmpty())
+				label(i, counters);
+		}
+		// Types on cycles without a root
+		for (int i = 0; i < nTypes; ++i) {
+			if (pre[i] == -1)
+				label(i, counters);
+		}
+		labelled = true;
+	}
+
+	private synchronized void relabel() {
+		if (!labelled)
+			computeLabels();
+	}
+
+	private void label(int root, int[] counters) {
+		IntArrayList stack = new IntArrayList();
+		IntArrayList childPositions = new IntArrayList();
+		pre[root] = counters[0]++;
+		stack.push(root);
+		childPositions.push(0);
+		while (!stack.isEmpty()) {
+			int top = stack.topInt();
+			int position = childPositions.popInt();
+			if (position < children[top].size()) {
+				childPositions.push(position + 1);
+				int child = children[top].getInt(position);
+				if (pre[child] == -1) {
+					pre[child] = counters[0]++;
+					stack.push(child);
+					childPositions.push(0);
+				}
+			} else {
+				post[top] = counters[1]++;
+				stack.popInt();
+			}
+		}
+	}
+
+	private IntSet toTypes(int[] dense) {
+		IntSet result = new IntOpenHashSet(dense.length);
+		for (int d : dense) {
+			result.add(types[d]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return True if the type occurs in a subclass fact
+	 */
+	public boolean contains(int type) {
+		return denseIds.get(type) != -1;
+	}
+
+	/**
+	 * @return All the types that occur in subclass facts
+	 */
+	public IntSet getAllTypes() {
+		return toTypes(IntStream.range(0, nTypes).toArray());
+	}
+
+	public IntSet getSuperTypes(int type) {
+		int d = denseIds.get(type);
+		return d == -1 ? new IntOpenHashSet() : toTypes(parents[d].toIntArray());
+	}
+
+	public IntSet getSubTypes(int type) {
+		int d = denseIds.get(type);
+		return d == -1 ? new IntOpenHashSet() : toTypes(children[d].toIntArray());
+	}
+
+	public IntSet getAllSuperTypes(int type) {
+		int d = denseIds.get(type);
+		return d == -1 ? new IntOpenHashSet() : toTypes(ancestors[d]);
+	}
+
+	public IntSet getAllSubTypes(int type) {
+		int d = denseIds.get(type);
+		return d == -1 ? new IntOpenHashSet() : toTypes(descendants[d]);
+	}
+
+	/**
+	 * @return The given types and all their super-types
+	 */
+	public IntSet getAllSuperTypes(IntCollection types) {
+		BitSet closure = new BitSet(nTypes);
+		IntSet result = new IntOpenHashSet(types);
+		for (int type : types) {
+			int d = denseIds.get(type);
+			if (d == -1)
+				continue;
+			for (int a : ancestors[d])
+				closure.set(a);
+		}
+		for (int d = closure.nextSetBit(0); d >= 0; d = closure.nextSetBit(d + 1)) {
+			result.add(this.types[d]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return True if the type has no sub-types
+	 */
+	public boolean isLeaf(int type) {
+		int d = denseIds.get(type);
+		return d == -1 || children[d].isEmpty();
+	}
+
+	/**
+	 * @return True if superType is a direct or transitive super-type of subType
+	 */
+	public boolean isSubTypeOf(int subType, int superType) {
+		int sub = denseIds.get(subType);
+		int sup = denseIds.get(superType);
+		if (sub == -1 || sup == -1)
+			return false;
+		if (!labelled)
+			relabel();
+		if (sub != sup && pre[sup] <= pre[sub] && post[sub] <= post[sup])
+			return true;
+		if (forest)
+			return false;
+		return Arrays.binarySearch(ancestors[sub], sup) >= 0;
+	}
+
+	private int ensureType(int type) {
+		int d = denseIds.get(type);
+		if (d != -1)
+			return d;
+		if (nTypes == types.length) {
+			int capacity = Math.max(4, nTypes * 2);
+			types = Arrays.copyOf(types, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			children = Arrays.copyOf(children, capacity);
+			ancestors = Arrays.copyOf(ancestors, capacity);
+			descendants = Arrays.copyOf(descendants, capacity);
+		}
+		d = nTypes++;
+		types[d] = type;
+		parents[d] = new IntArrayList(1);
+		children[d] = new IntArrayList(0);
+		ancestors[d] = EMPTY;
+		descendants[d] = EMPTY;
+		denseIds.put(type, d);
+		return d;
+	}
+
+	/**
+	 * It updates the index after the addition of the fact subType rdfs:subClassOf superType.
+	 * Every type that reaches subType gets the ancestors of superType and vice versa.
+	 * This method must not be called concurrently with queries on the index.
+	 * @param subType
+	 * @param superType
+	 */
+	public synchronized void addSubClassOf(int subType, int superType) {
+		int sub = ensureType(subType);
+		int sup = ensureType(superType);
+		if (parents[sub].contains(sup))
+			return;
+		parents[sub].add(sup);
+		children[sup].add(sub);
+
+		int[] newAncestors = union(ancestors[sup], new int[] { sup });
+		int[] newDescendants = union(descendants[sub], new int[] { sub });
+		for (int d : newDescendants) {
+			ancestors[d] = union(ancestors[d], newAncestors);
+		}
+		for (int a : newAncestors) {
+			descendants[a] = union(descendants[a], newDescendants);
+		}
+		labelled = false;
+	}
+
+	/**
+	 * Union of two sorted arrays without duplicates
+	 */
+	private static int[] union(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[k++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[k++] = b[j++];
+			} else {
+				result[k++] = a[i++];
+				++j;
+			}
+		}
+		while (i < a.length)
+			result[k++] = a[i++];
+		while (j < b.length)
+			result[k++] = b[j++];
+		return k == result.length ? result : Arrays.copyOf(result, k);
+	}
+
+	public int size() {
+		return nTypes;
+	}
+}
@@ -1,5 +1,7 @@
 package amie.data.remote;
 
+import it.unimi.dsi.fastutil.ints.IntSet;
+
 /**
  * Cache interface for implementing custom cache policies.
  * Cache policies are to be implemented in the cachepolicies sub package.
@@ -9,6 +11,8 @@ public interface Cache {
         void SetScale(int scale) ;
         String GetResultFromCache(String cacheKey) ;
         void CacheResponse(String JSONResponse, String cacheKey) ;
+        void CacheResponse(String JSONResponse, String cacheKey, IntSet relations) ;
+        void InvalidateRelations(IntSet relations) ;
         void SaveCache() ;
         void LoadCache(String config) ;
 }
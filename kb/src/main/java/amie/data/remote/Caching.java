@@ -2,6 +2,7 @@ package amie.data.remote;
 
 import amie.data.AbstractKB;
 import amie.data.remote.cachepolicies.LRU;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.util.Arrays;
 import java.util.List;
@@ -110,6 +111,27 @@ public abstract class Caching {
         cache.CacheResponse(JSONResponse, cacheKey);
     }
 
+    /**
+     * Puts response in cache along with the relations it depends on.
+     * @param JSONResponse Response to put in cache.
+     * @param cacheKey Cache key generated from the query.
+     * @param relations Relations the response depends on, null if it may depend on any fact of the KB.
+     */
+    public static void CacheResponse(String JSONResponse, String cacheKey, IntSet relations) {
+        if (cache == null) {return;}
+        cache.CacheResponse(JSONResponse, cacheKey, relations);
+    }
+
+    /**
+     * Removes the responses that depend on the given relations, e.g., after facts of those relations have been
+     * added or removed.
+     * @param relations Relations whose facts changed.
+     */
+    public static void InvalidateRelations(IntSet relations) {
+        if (cache == null) {return;}
+        cache.InvalidateRelations(relations);
+    }
+
     /**
      * If it exists, locally saved cache content from a previous execution will be ignored and overwritten by a
      * newer version.
@@ -0,0 +1,58 @@
+package amie.data.remote;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs identical queries once: a query received while an identical one is running waits for it and gets its
+ * response. If the running query fails, the queries waiting for it fail too, and the next identical query is run
+ * again.
+ */
+public class Coalescing {
+
+    /**
+     * Responses of the queries being run, by cache key
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> runningQueries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nCoalesced = new AtomicInteger();
+
+    /**
+     * @param cacheKey Key of the query
+     * @param query Runs the query
+     * @return The response of the query, or of the identical query that was running.
+     * @throws IllegalStateException If the identical query that was running failed.
+     */
+    public String run(String cacheKey, Supplier<String> query) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CompletableFuture<String> runningResponse = runningQueries.putIfAbsent(cacheKey, response);
+        if (runningResponse != null) {
+            nCoalesced.incrementAndGet();
+            try {
+                return runningResponse.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("The identical running query failed", e.getCause());
+            }
+        }
+        try {
+            String responseJSON = query.get();
+            response.complete(responseJSON);
+            return responseJSON;
+        } catch (RuntimeException | Error e) {
+            response.completeExceptionally(e);
+            throw e;
+        } finally {
+            runningQueries.remove(cacheKey, response);
+        }
+    }
+
+    /**
+     * @return The number of queries that got the response of an identical running query.
+     */
+    public int getCoalesced() {
+        return nCoalesced.get();
+    }
+}
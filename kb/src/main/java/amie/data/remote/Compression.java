@@ -0,0 +1,92 @@
+package amie.data.remote;
+
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket protocol with per-message compression (permessage-deflate) of the messages between the KB server and its
+ * clients. The peers negotiate the compression during the handshake, and fall back to uncompressed messages if one of
+ * them does not offer it. Messages smaller than the threshold are sent uncompressed.
+ * The protocol also counts the bytes of the messages and the bytes on the wire, frame headers included.
+ */
+public class Compression extends Draft_6455 {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    static private final AtomicLong MessageBytesSent = new AtomicLong();
+    static private final AtomicLong WireBytesSent = new AtomicLong();
+    static private final AtomicLong MessageBytesReceived = new AtomicLong();
+    static private final AtomicLong WireBytesReceived = new AtomicLong();
+
+    private final int threshold;
+
+    /**
+     * @param threshold Size in bytes from which messages are compressed, negative to disable compression.
+     */
+    public Compression(int threshold) {
+        super(threshold < 0 ? Collections.emptyList() : Collections.singletonList(new Deflate(threshold)));
+        this.threshold = threshold;
+    }
+
+    /**
+     * Deflate extension whose copies keep the threshold, those of the parent class would not.
+     */
+    static private class Deflate extends PerMessageDeflateExtension {
+
+        Deflate(int threshold) {
+            setThreshold(threshold);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new Deflate(getThreshold());
+        }
+    }
+
+    /**
+     * Every connection gets its own copy of the protocol.
+     */
+    @Override
+    public Draft copyInstance() {
+        return new Compression(threshold);
+    }
+
+    @Override
+    public ByteBuffer createBinaryFrame(Framedata framedata) {
+        if (framedata instanceof DataFrame)
+            MessageBytesSent.addAndGet(framedata.getPayloadData().remaining());
+        ByteBuffer frame = super.createBinaryFrame(framedata);
+        WireBytesSent.addAndGet(frame.remaining());
+        return frame;
+    }
+
+    @Override
+    public List<Framedata> translateFrame(ByteBuffer buffer) throws InvalidDataException {
+        WireBytesReceived.addAndGet(buffer.remaining());
+        List<Framedata> frames = super.translateFrame(buffer);
+        for (Framedata frame : frames) {
+            if (frame instanceof DataFrame)
+                MessageBytesReceived.addAndGet(frame.getPayloadData().remaining());
+        }
+        return frames;
+    }
+
+    /**
+     * @return Kilobytes of the messages sent and received, and on the wire.
+     */
+    public static String GetStats() {
+        return String.format("TX: %s/%s KB, RX: %s/%s KB",
+                MessageBytesSent.get() / 1024, WireBytesSent.get() / 1024,
+                MessageBytesReceived.get() / 1024, WireBytesReceived.get() / 1024);
+    }
+}
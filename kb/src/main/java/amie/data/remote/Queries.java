@@ -4,10 +4,14 @@ import amie.data.AbstractKBClient;
 import amie.data.KB;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -54,15 +58,66 @@ public abstract class Queries {
      */
     public interface IQuerySchema {
 
+        /**
+         * Used to invalidate cached responses selectively when the KB is updated.
+         *
+         * @return The relations the response depends on, or null if it may depend on any fact of the KB.
+         */
+        default IntSet relations() {
+            return null;
+        }
+    }
+
+    /**
+     * @return The relations of the triples and the given relations, or null if one of them is a variable.
+     */
+    private static IntSet relationsOf(List<int[]> triples, int... relations) {
+        IntSet result = new IntOpenHashSet(relations);
+        if (triples != null) {
+            for (int[] triple : triples) {
+                result.add(triple[1]);
+            }
+        }
+        for (int relation : result) {
+            if (KB.isVariable(relation))
+                return null;
+        }
+        return result;
+    }
+
+    /**
+     * @param queryType Name of the query.
+     * @param jsonQuery JSON query.
+     * @return The relations the response of the query depends on, or null if it may depend on any fact of the KB.
+     */
+    public static IntSet RelationsOf(String queryType, String jsonQuery) {
+        Class<? extends IQuerySchema> queryClass = QueriesLinkedHashMap.get(queryType);
+        if (queryClass == null)
+            return null;
+        return gson.fromJson(jsonQuery, queryClass).relations();
     }
 
     /**
      * Wraps content along with query type and cache key, ready to be serialized to JSON and sent over network.
+     * The identifier of a request is sent back with its response, so that several requests can be in flight on
+     * the same connection.
      */
     static public class Payload {
+        public long id;
+
         public String cacheKey, queryType, jsonContent = null;
 
+        /**
+         * Set instead of the content in the response to a request that failed on the server.
+         */
+        public String error = null;
+
         public Payload(String cacheKey, String queryType, String jsonContent) {
+            this(0, cacheKey, queryType, jsonContent);
+        }
+
+        public Payload(long id, String cacheKey, String queryType, String jsonContent) {
+            this.id = id;
             this.cacheKey = cacheKey;
             this.queryType = queryType;
             this.jsonContent = jsonContent;
@@ -70,12 +125,12 @@ public abstract class Queries {
     }
 
     /**
-     * Used to serialize/deserialize queries, responses and payloads to/from JSON.
+     * Used to serialize/deserialize queries, responses and payloads to/from JSON. The JSON is compact and the sets and
+     * maps of integers are delta-encoded to save bandwidth (see {@link AbstractKBClient.IntSetAdapter}).
      */
     public static Gson gson = new GsonBuilder()
-            .setPrettyPrinting()
-            .registerTypeAdapter(IntSet.class, new AbstractKBClient.IntSetDeserializer())
-            .registerTypeAdapter(Int2IntMap.class, new AbstractKBClient.Int2IntMapDeserializer())
+            .registerTypeHierarchyAdapter(IntSet.class, new AbstractKBClient.IntSetAdapter())
+            .registerTypeHierarchyAdapter(Int2IntMap.class, new AbstractKBClient.Int2IntMapAdapter())
             .registerTypeAdapter(IntCollection.class, new AbstractKBClient.IntCollectionDeserializer())
             .create();
 
@@ -89,6 +144,26 @@ public abstract class Queries {
         return gson.fromJson(jsonPayload, Payload.class);
     }
 
+    /**
+     * Reads the identifier of a payload without deserializing its content.
+     *
+     * @param jsonPayload JSON of a Payload instance.
+     * @return The identifier, 0 if it is missing
+     */
+    static public long PayloadId(String jsonPayload) {
+        try (JsonReader reader = new JsonReader(new StringReader(jsonPayload))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("id"))
+                    return reader.nextLong();
+                reader.skipValue();
+            }
+            return 0;
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Malformed payload", e);
+        }
+    }
+
     /**
      * Generated JSON String from Payload instance.
      *
@@ -114,6 +189,11 @@ public abstract class Queries {
             this.otherTriples = otherTriples;
             this.variable = variable;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(otherTriples, projectionTriple[1]);
+        }
     }
 
     static public class CountProjectionQuery implements IQuerySchema {
@@ -124,6 +204,11 @@ public abstract class Queries {
             this.projectionTriple = projectionTriple;
             this.otherTriples = otherTriples;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(otherTriples, projectionTriple[1]);
+        }
     }
 
     static public class CountDistinctQuery implements IQuerySchema {
@@ -134,6 +219,11 @@ public abstract class Queries {
             this.variable = variable;
             this.query = query;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
     static public class CountDistinctPairsQuery implements IQuerySchema {
@@ -146,6 +236,11 @@ public abstract class Queries {
             this.var2 = var2;
             this.query = query;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
 
@@ -158,6 +253,11 @@ public abstract class Queries {
             this.variable = variable;
             this.query = query;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
     static public class CountDistinctPairsUpToQuery implements IQuerySchema {
@@ -172,6 +272,11 @@ public abstract class Queries {
             this.var2 = var2;
             this.query = query;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
     static public class CountDistinctPairsUpToWithIteratorQuery implements IQuerySchema {
@@ -187,6 +292,10 @@ public abstract class Queries {
             this.query = query;
         }
 
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
     static public class GetRelationsQuery implements IQuerySchema {
@@ -199,6 +308,11 @@ public abstract class Queries {
         public CountQuery(int... triple) {
             this.triple = triple;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, triple[1]);
+        }
     }
 
     static public class FrequentBindingsOfQuery implements IQuerySchema {
@@ -211,6 +325,11 @@ public abstract class Queries {
             this.projectionVariable = projectionVariable;
             this.query = query;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(query);
+        }
     }
 
     static public class IsFunctionalQuery implements IQuerySchema {
@@ -219,6 +338,11 @@ public abstract class Queries {
         public IsFunctionalQuery(int relation) {
             this.relation = relation;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class FunctionalityQuery implements IQuerySchema {
@@ -227,6 +351,11 @@ public abstract class Queries {
         public FunctionalityQuery(int relation) {
             this.relation = relation;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class InverseFunctionalityQuery implements IQuerySchema {
@@ -235,6 +364,11 @@ public abstract class Queries {
         public InverseFunctionalityQuery(int relation) {
             this.relation = relation;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class RelationColumnSizeQuery implements IQuerySchema {
@@ -245,6 +379,11 @@ public abstract class Queries {
             this.relation = relation;
             this.column = column;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class OverlapQuery implements IQuerySchema {
@@ -257,6 +396,11 @@ public abstract class Queries {
             this.relation2 = relation2;
             this.overlap = overlap;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation1, relation2);
+        }
     }
 
     static public class CountOneVariableQuery implements IQuerySchema {
@@ -265,6 +409,11 @@ public abstract class Queries {
         public CountOneVariableQuery(int[] triple) {
             this.triple = triple;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, triple[1]);
+        }
     }
 
     static public class RelationSizeQuery implements IQuerySchema {
@@ -273,6 +422,11 @@ public abstract class Queries {
         public RelationSizeQuery(int relation) {
             this.relation = relation;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
 
@@ -286,6 +440,11 @@ public abstract class Queries {
             this.threshold = threshold;
             this.limit = limit;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MaximalRightCumulativeCardinalityInvQuery implements IQuerySchema {
@@ -298,6 +457,11 @@ public abstract class Queries {
             this.threshold = threshold;
             this.limit = limit;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MaximalCardinalityWithLimitQuery implements IQuerySchema {
@@ -308,6 +472,11 @@ public abstract class Queries {
             this.relation = relation;
             this.limit = limit;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MaximalCardinalityQuery implements IQuerySchema {
@@ -316,6 +485,11 @@ public abstract class Queries {
         public MaximalCardinalityQuery(int relation) {
             this.relation = relation;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MaximalCardinalityInvWithLimitQuery implements IQuerySchema {
@@ -326,6 +500,11 @@ public abstract class Queries {
             this.relation = relation;
             this.limit = limit;
         }
+
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MaximalCardinalityInvQuery implements IQuerySchema {
@@ -335,6 +514,10 @@ public abstract class Queries {
             this.relation = relation;
         }
 
+        @Override
+        public IntSet relations() {
+            return relationsOf(null, relation);
+        }
     }
 
     static public class MapQuery implements IQuerySchema {
@@ -343,6 +526,11 @@ public abstract class Queries {
         public MapQuery(String e) {
             this.e = e;
         }
+
+        @Override
+        public IntSet relations() {
+            return new IntOpenHashSet();
+        }
     }
 
     // TODO check if compatible with MapQuery
@@ -352,6 +540,11 @@ public abstract class Queries {
         public MapCharSequenceQuery(CharSequence e) {
             this.e = e;
         }
+
+        @Override
+        public IntSet relations() {
+            return new IntOpenHashSet();
+        }
     }
 
     static public class UnmapQuery implements IQuerySchema {
@@ -360,6 +553,11 @@ public abstract class Queries {
         public UnmapQuery(int e) {
             this.e = e;
         }
+
+        @Override
+        public IntSet relations() {
+            return new IntOpenHashSet();
+        }
     }
 
     static public class TripleQuery implements IQuerySchema {
@@ -372,6 +570,11 @@ public abstract class Queries {
             this.p = p;
             this.o = o;
         }
+
+        @Override
+        public IntSet relations() {
+            return new IntOpenHashSet();
+        }
     }
 
     static public class TripleArrayQuery implements IQuerySchema {
@@ -380,8 +583,36 @@ public abstract class Queries {
         public TripleArrayQuery(CharSequence... triple) {
             this.triple = triple;
         }
+
+        @Override
+        public IntSet relations() {
+            return new IntOpenHashSet();
+        }
+    }
+
+    /**
+     * Batch of facts to add to and remove from the KB of the server. The removals are applied first.
+     */
+    static public class UpdateQuery implements IQuerySchema {
+        public List<int[]> additions;
+        public List<int[]> removals;
+
+        public UpdateQuery(List<int[]> additions, List<int[]> removals) {
+            this.additions = additions;
+            this.removals = removals;
+        }
     }
 
+    /**
+     * Defers the updates of the KB until the snapshot is released, so that a client sees the same version of the KB
+     * across queries.
+     */
+    static public class PinSnapshotQuery implements IQuerySchema { }
+
+    static public class ReleaseSnapshotQuery implements IQuerySchema { }
+
+    static public class VersionQuery implements IQuerySchema { }
+
     // Query names
     static public String SizeQueryName = "Size" ;
     static public String GetServerConfigurationQueryName = "GetServerConfiguration" ;
@@ -413,6 +644,10 @@ public abstract class Queries {
     static public String UnmapQueryName = "Unmap";
     static public String TripleQueryName = "Triple";
     static public String TripleArrayQueryName = "TripleArray";
+    static public String UpdateQueryName = "Update";
+    static public String PinSnapshotQueryName = "PinSnapshot";
+    static public String ReleaseSnapshotQueryName = "ReleaseSnapshot";
+    static public String VersionQueryName = "Version";
 
     static public final List<String> QueryList = List.of(
             SizeQueryName, GetServerConfigurationQueryName, CountProjectionBindingsQueryName, CountProjectionQueryName,
@@ -423,7 +658,15 @@ public abstract class Queries {
             RelationSizeQueryName, MaximalRightCumulativeCardinalityQueryName,
             MaximalRightCumulativeCardinalityInvQueryName, MaximalCardinalityWithLimitQueryName,
             MaximalCardinalityQueryName, MaximalCardinalityInvWithLimitQueryName, MaximalCardinalityInvQueryName,
-            MapQueryName, MapCharSequenceQueryName, UnmapQueryName, TripleQueryName, TripleArrayQueryName
+            MapQueryName, MapCharSequenceQueryName, UnmapQueryName, TripleQueryName, TripleArrayQueryName,
+            UpdateQueryName, PinSnapshotQueryName, ReleaseSnapshotQueryName, VersionQueryName
+    );
+
+    /**
+     * Queries whose response depends on the state of the server rather than on the query, they are never cached.
+     */
+    static public final List<String> UncachedQueryList = List.of(
+            UpdateQueryName, PinSnapshotQueryName, ReleaseSnapshotQueryName, VersionQueryName
     );
 
     // Response topic names
@@ -460,7 +703,11 @@ public abstract class Queries {
                     entry(MapCharSequenceQueryName, MapCharSequenceQuery.class),
                     entry(UnmapQueryName, UnmapQuery.class),
                     entry(TripleQueryName, TripleQuery.class),
-                    entry(TripleArrayQueryName, TripleArrayQuery.class)
+                    entry(TripleArrayQueryName, TripleArrayQuery.class),
+                    entry(UpdateQueryName, UpdateQuery.class),
+                    entry(PinSnapshotQueryName, PinSnapshotQuery.class),
+                    entry(ReleaseSnapshotQueryName, ReleaseSnapshotQuery.class),
+                    entry(VersionQueryName, VersionQuery.class)
             )
     );
 
@@ -3,6 +3,7 @@ package amie.data.remote.cachepolicies;
 import amie.data.javatools.datatypes.Pair;
 import amie.data.remote.Cache;
 import amie.data.remote.Caching;
+import it.unimi.dsi.fastutil.ints.IntSet;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -17,6 +18,8 @@ public class LRU implements Cache {
     private final Lock lock = new ReentrantLock();
     private final HashMap<String, String> Cache = new HashMap<>();
     private final LinkedList<String> CacheKeys = new LinkedList<String>(); // replace by heap?
+    // Relations each response depends on, responses without entry may depend on any relation
+    private final HashMap<String, IntSet> CacheRelations = new HashMap<>();
     private int maxCacheSize = Caching.DEFAULT_CACHE_SIZE;
 
     // Cache saving
@@ -76,20 +79,70 @@ public class LRU implements Cache {
      */
     @Override
     public void CacheResponse(String JSONResponse, String cacheKey) {
+        CacheResponse(JSONResponse, cacheKey, null);
+    }
+
+    /**
+     * Adds response to cache at highest position.
+     *
+     * @param JSONResponse
+     * @param cacheKey
+     * @param relations Relations the response depends on, null if it may depend on any relation.
+     */
+    @Override
+    public void CacheResponse(String JSONResponse, String cacheKey, IntSet relations) {
 
         if (maxCacheSize > 0) {
             lock.lock();
             if (Cache.size() >= maxCacheSize) {
                 String popped = CacheKeys.pop();
                 Cache.remove(popped);
+                CacheRelations.remove(popped);
             }
             CacheKeys.remove(cacheKey);
             CacheKeys.add(cacheKey);
             Cache.put(cacheKey, JSONResponse);
+            if (relations == null) {
+                CacheRelations.remove(cacheKey);
+            } else {
+                CacheRelations.put(cacheKey, relations);
+            }
             lock.unlock();
         }
     }
 
+    /**
+     * Removes the responses that depend on any of the relations, keeping the order of the others.
+     *
+     * @param relations
+     */
+    @Override
+    public void InvalidateRelations(IntSet relations) {
+        if (relations.isEmpty())
+            return;
+        lock.lock();
+        Iterator<String> cacheKeyIterator = CacheKeys.iterator();
+        while (cacheKeyIterator.hasNext()) {
+            String key = cacheKeyIterator.next();
+            IntSet dependencies = CacheRelations.get(key);
+            boolean invalid = dependencies == null;
+            if (!invalid) {
+                for (int relation : relations) {
+                    if (dependencies.contains(relation)) {
+                        invalid = true;
+                        break;
+                    }
+                }
+            }
+            if (invalid) {
+                cacheKeyIterator.remove();
+                Cache.remove(key);
+                CacheRelations.remove(key);
+            }
+        }
+        lock.unlock();
+    }
+
     @Override
     public void InvalidateCache() {
         INVALIDATE_CACHE = true ;
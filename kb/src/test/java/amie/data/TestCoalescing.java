@@ -0,0 +1,86 @@
+package amie.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import amie.data.remote.Coalescing;
+import junit.framework.TestCase;
+
+public class TestCoalescing extends TestCase {
+
+	private static final int FOLLOWERS = 3;
+
+	/**
+	 * It starts a query that waits for the latch and identical queries that wait for it.
+	 */
+	private List<Future<String>> startQueries(ExecutorService pool, Coalescing coalescing, CountDownLatch latch,
+			boolean fail) throws InterruptedException {
+		List<Future<String>> responses = new ArrayList<>();
+		CountDownLatch started = new CountDownLatch(1);
+		responses.add(pool.submit(() -> coalescing.run("q", () -> {
+			started.countDown();
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			if (fail)
+				throw new IllegalArgumentException("Failing query");
+			return "response";
+		})));
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		int coalesced = coalescing.getCoalesced();
+		for (int i = 0; i < FOLLOWERS; ++i) {
+			responses.add(pool.submit(() -> coalescing.run("q", () -> "rerun")));
+		}
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (coalescing.getCoalesced() < coalesced + FOLLOWERS && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(coalesced + FOLLOWERS, coalescing.getCoalesced());
+		return responses;
+	}
+
+	public void testSharedResponse() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(FOLLOWERS + 1);
+		try {
+			Coalescing coalescing = new Coalescing();
+			CountDownLatch latch = new CountDownLatch(1);
+			List<Future<String>> responses = startQueries(pool, coalescing, latch, false);
+			latch.countDown();
+			for (Future<String> response : responses) {
+				assertEquals("response", response.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public void testFailingLeader() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(FOLLOWERS + 1);
+		try {
+			Coalescing coalescing = new Coalescing();
+			CountDownLatch latch = new CountDownLatch(1);
+			List<Future<String>> responses = startQueries(pool, coalescing, latch, true);
+			latch.countDown();
+			// Every query fails instead of waiting forever
+			for (Future<String> response : responses) {
+				try {
+					response.get(10, TimeUnit.SECONDS);
+					fail("The query must fail with the running one");
+				} catch (java.util.concurrent.ExecutionException e) {
+					assertTrue(e.getCause() instanceof RuntimeException);
+				}
+			}
+			// The failed query is not running anymore, so the next one is run again
+			assertEquals("rerun", coalescing.run("q", () -> "rerun"));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
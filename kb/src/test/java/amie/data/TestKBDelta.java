@@ -0,0 +1,62 @@
+package amie.data;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+import junit.framework.TestCase;
+
+public class TestKBDelta extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<speaks>", "<French>"));
+	}
+
+	public void testApplyAndRevert() throws Exception {
+		File file = File.createTempFile("amie", ".delta");
+		file.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("+\t<Luis>\t<speaks>\t<Spanish>");
+			// Already in the KB
+			out.println("+\t<Ana>\t<speaks>\t<French>");
+			out.println("-\t<Luis>\t<livesIn>\t<Paris>");
+			// Not in the KB
+			out.println("-\t<Luis>\t<livesIn>\t<Lyon>");
+		}
+		KBDelta delta = KBDelta.read(file, kb);
+		assertEquals(4, delta.size());
+
+		delta.apply(kb);
+		assertEquals(1, delta.getAdded().size());
+		assertEquals(1, delta.getRemoved().size());
+		assertTrue(kb.contains(kb.triple("<Luis>", "<speaks>", "<Spanish>")));
+		assertFalse(kb.contains(kb.triple("<Luis>", "<livesIn>", "<Paris>")));
+		assertEquals(1, delta.getSizeChange(kb.map("<speaks>")));
+		assertEquals(-1, delta.getSizeChange(kb.map("<livesIn>")));
+		assertEquals(2, kb.relationSize(kb.map("<speaks>")));
+		assertEquals(1, kb.relationSize(kb.map("<livesIn>")));
+
+		delta.revert(kb);
+		assertFalse(kb.contains(kb.triple("<Luis>", "<speaks>", "<Spanish>")));
+		assertTrue(kb.contains(kb.triple("<Luis>", "<livesIn>", "<Paris>")));
+		assertTrue(kb.contains(kb.triple("<Ana>", "<speaks>", "<French>")));
+		assertEquals(3, kb.size());
+	}
+
+	public void testMalformedLine() throws Exception {
+		File file = File.createTempFile("amie", ".delta");
+		file.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("<Luis>\t<speaks>\t<Spanish>");
+		}
+		try {
+			KBDelta.read(file, kb);
+			fail("A line without sign must be rejected");
+		} catch (java.io.IOException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package amie.data;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class TestKBStatistics extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		kb.add(kb.triple("<Ana>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<wasBornIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<speaks>", "<French>"));
+		kb.add(kb.triple("<Ana>", "<speaks>", "<Spanish>"));
+		kb.buildOverlapTables();
+	}
+
+	public void testRoundTrip() throws Exception {
+		File file = File.createTempFile("amie", ".stats");
+		file.deleteOnExit();
+		KBStatistics.compute(kb).write(file);
+
+		// A KB with the same facts loaded in a different order, hence different ids
+		KB other = new KB();
+		other.add(other.triple("<Ana>", "<speaks>", "<Spanish>"));
+		other.add(other.triple("<Ana>", "<speaks>", "<French>"));
+		other.add(other.triple("<Ana>", "<wasBornIn>", "<Paris>"));
+		other.add(other.triple("<Ana>", "<livesIn>", "<Paris>"));
+		other.add(other.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		other.add(other.triple("<Luis>", "<livesIn>", "<Paris>"));
+
+		KBStatistics statistics = KBStatistics.read(file);
+		assertTrue(statistics.matches(other));
+		assertTrue(statistics.hasOverlapTables());
+		statistics.applyTo(other);
+
+		String[] relations = { "<livesIn>", "<wasBornIn>", "<speaks>" };
+		int[] overlaps = { AbstractKB.SUBJECT2SUBJECT, AbstractKB.SUBJECT2OBJECT, AbstractKB.OBJECT2OBJECT };
+		for (String r1 : relations) {
+			assertEquals(kb.getHistogram(kb.map(r1), true), other.getHistogram(other.map(r1), true));
+			assertEquals(kb.getHistogram(kb.map(r1), false), other.getHistogram(other.map(r1), false));
+			for (String r2 : relations) {
+				for (int overlap : overlaps) {
+					assertEquals(kb.overlap(kb.map(r1), kb.map(r2), overlap),
+							other.overlap(other.map(r1), other.map(r2), overlap));
+				}
+			}
+		}
+	}
+
+	public void testMismatch() throws Exception {
+		KB other = new KB();
+		other.add(other.triple("<Luis>", "<livesIn>", "<Paris>"));
+		assertFalse(KBStatistics.compute(kb).matches(other));
+	}
+
+	public void testMismatchKeepsDictionary() throws Exception {
+		// Same number of relations, but one of them is not in the other KB
+		KB other = new KB();
+		other.add(other.triple("<Luis>", "<livesIn>", "<Paris>"));
+		other.add(other.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+		other.add(other.triple("<Ana>", "<knows>", "<Luis>"));
+		assertFalse(KBStatistics.compute(kb).matches(other));
+		assertEquals(-1, other.schema.lookup("<speaks>"));
+	}
+}
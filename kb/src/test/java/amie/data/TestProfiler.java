@@ -0,0 +1,58 @@
+package amie.data;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestProfiler extends TestCase {
+	KB kb = new KB();
+
+	public void testHistogram() {
+		Profiler.Histogram histogram = new Profiler.Histogram();
+		for (int i = 1; i <= 1000; ++i)
+			histogram.record(i);
+		assertEquals(1000, histogram.count());
+		long median = histogram.percentile(0.5);
+		assertTrue(median >= 500 && median < 500 * 9 / 8 + 1);
+		long max = histogram.percentile(1.0);
+		assertTrue(max >= 1000 && max < 1000 * 9 / 8 + 1);
+		assertEquals(0, new Profiler.Histogram().percentile(0.5));
+	}
+
+	public void testShape() {
+		List<int[]> path = KB.triples(kb.triple("?a", "<livesIn>", "?b"), kb.triple("?b", "<locatedIn>", "?c"));
+		assertEquals("atoms=2,vars=3,acyclic", Profiler.shape(path));
+		List<int[]> cycle = KB.triples(kb.triple("?a", "<livesIn>", "?b"), kb.triple("?a", "<wasBornIn>", "?b"));
+		assertEquals("atoms=2,vars=2,cyclic", Profiler.shape(cycle));
+		List<int[]> constant = KB.triples(kb.triple("?a", "<livesIn>", "<Paris>"));
+		assertEquals("atoms=1,vars=1,acyclic", Profiler.shape(constant));
+	}
+
+	public void testNestedQueriesAreNotRecorded() {
+		Profiler.enable();
+		Profiler.reset();
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<livesIn>", "<Paris>"));
+		List<int[]> query = KB.triples(kb.triple("?a", "<livesIn>", "?b"));
+		assertEquals(2, kb.countDistinct(kb.map("?a"), query));
+		assertEquals(1, Profiler.timer("query.countDistinct").getCalls());
+		assertEquals(2, Profiler.timer("query.countDistinct").getResults());
+		assertEquals(0, Profiler.timer("query.selectDistinct").getCalls());
+	}
+
+	public void testFailedQueryIsRecorded() {
+		Profiler.enable();
+		Profiler.reset();
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Paris>"));
+		try {
+			kb.countDistinct(kb.map("?a"), null);
+			fail("The query must fail");
+		} catch (NullPointerException e) {
+		}
+		assertEquals(1, Profiler.timer("query.countDistinct").getCalls());
+		// The failed query does not hide the next ones
+		List<int[]> query = KB.triples(kb.triple("?a", "<livesIn>", "?b"));
+		kb.countDistinct(kb.map("?a"), query);
+		assertEquals(2, Profiler.timer("query.countDistinct").getCalls());
+	}
+}
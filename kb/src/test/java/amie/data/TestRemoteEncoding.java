@@ -0,0 +1,37 @@
+package amie.data;
+
+import amie.data.remote.Queries;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import junit.framework.TestCase;
+
+public class TestRemoteEncoding extends TestCase {
+
+	public void testIntSet() {
+		IntSet set = new IntOpenHashSet(new int[] { 42, -7, 3, Integer.MAX_VALUE, Integer.MIN_VALUE });
+		String json = Queries.gson.toJson(set, IntSet.class);
+		assertEquals(set, Queries.gson.fromJson(json, IntSet.class));
+		// A set can be read as a collection
+		IntCollection collection = Queries.gson.fromJson(json, IntCollection.class);
+		assertEquals(set, new IntOpenHashSet(collection));
+	}
+
+	public void testInt2IntMap() {
+		Int2IntMap map = new Int2IntOpenHashMap();
+		map.put(10, 1);
+		map.put(-3, 5);
+		map.put(7, -2);
+		String json = Queries.gson.toJson(map, Int2IntMap.class);
+		assertEquals(map, Queries.gson.fromJson(json, Int2IntMap.class));
+	}
+
+	public void testPreviousEncoding() {
+		assertEquals(new IntOpenHashSet(new int[] { 1, 5 }), Queries.gson.fromJson("[5, 1]", IntSet.class));
+		Int2IntMap map = Queries.gson.fromJson("{\"4\": 2, \"1\": 3}", Int2IntMap.class);
+		assertEquals(2, map.get(4));
+		assertEquals(3, map.get(1));
+	}
+}
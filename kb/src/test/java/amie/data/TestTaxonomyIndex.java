@@ -0,0 +1,105 @@
+package amie.data;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import junit.framework.TestCase;
+
+public class TestTaxonomyIndex extends TestCase {
+	Schema schema = new Schema();
+	KB kb = new KB(schema);
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		addSubClass(kb, "<Student>", "<Person>");
+		addSubClass(kb, "<Person>", "<Agent>");
+		addSubClass(kb, "<Student>", "<Learner>");
+		addSubClass(kb, "<Learner>", "<Agent>");
+		addSubClass(kb, "<Organization>", "<Agent>");
+		kb.add(kb.triple("<Luis>", Schema.typeRelation, "<Student>"));
+	}
+
+	private void addSubClass(KB target, String subType, String superType) {
+		target.add(target.triple(subType, Schema.subClassRelation, superType));
+	}
+
+	private IntSet types(String... types) {
+		IntSet result = new IntOpenHashSet();
+		for (String type : types)
+			result.add(kb.map(type));
+		return result;
+	}
+
+	public void testClosure() {
+		assertEquals(types("<Person>", "<Learner>", "<Agent>"),
+				schema.getAllSuperTypes(kb, kb.map("<Student>")));
+		assertEquals(types("<Student>", "<Person>", "<Learner>", "<Organization>"),
+				schema.getAllSubTypes(kb, kb.map("<Agent>")));
+		assertEquals(types("<Student>", "<Person>", "<Learner>", "<Agent>"),
+				schema.getAllTypesForEntity(kb, kb.map("<Luis>")));
+		assertTrue(schema.getAllSuperTypes(kb, kb.map("<Unknown>")).isEmpty());
+	}
+
+	public void testSubsumption() {
+		assertTrue(schema.isTransitiveSuperType(kb, kb.map("<Agent>"), kb.map("<Student>")));
+		assertTrue(schema.isTransitiveSuperType(kb, kb.map("<Learner>"), kb.map("<Student>")));
+		assertFalse(schema.isTransitiveSuperType(kb, kb.map("<Organization>"), kb.map("<Student>")));
+		assertFalse(schema.isTransitiveSuperType(kb, kb.map("<Student>"), kb.map("<Agent>")));
+		assertTrue(schema.isLeafDatatype(kb, kb.map("<Student>")));
+		assertFalse(schema.isLeafDatatype(kb, kb.map("<Person>")));
+	}
+
+	public void testIncrementalUpdate() {
+		schema.materializeTaxonomy(kb);
+		addSubClass(kb, "<PhDStudent>", "<Student>");
+		addSubClass(kb, "<Agent>", "<Thing>");
+		assertEquals(types("<Student>", "<Person>", "<Learner>", "<Agent>", "<Thing>"),
+				schema.getAllSuperTypes(kb, kb.map("<PhDStudent>")));
+		assertTrue(schema.getAllSubTypes(kb, kb.map("<Thing>")).contains(kb.map("<PhDStudent>")));
+		assertTrue(schema.isTransitiveSuperType(kb, kb.map("<Thing>"), kb.map("<Organization>")));
+	}
+
+	public void testIncrementalForest() {
+		KB forest = new KB(schema);
+		addSubClass(forest, "<Cat>", "<Mammal>");
+		assertTrue(schema.isTransitiveSuperType(forest, forest.map("<Mammal>"), forest.map("<Cat>")));
+		// The labels are recomputed once, on the next subsumption test
+		addSubClass(forest, "<Mammal>", "<Animal>");
+		addSubClass(forest, "<Bird>", "<Animal>");
+		addSubClass(forest, "<Kitten>", "<Cat>");
+		assertTrue(schema.isTransitiveSuperType(forest, forest.map("<Animal>"), forest.map("<Kitten>")));
+		assertTrue(schema.isTransitiveSuperType(forest, forest.map("<Animal>"), forest.map("<Bird>")));
+		assertFalse(schema.isTransitiveSuperType(forest, forest.map("<Mammal>"), forest.map("<Bird>")));
+		assertFalse(schema.isTransitiveSuperType(forest, forest.map("<Kitten>"), forest.map("<Cat>")));
+	}
+
+	public void testRemoval() {
+		schema.materializeTaxonomy(kb);
+		kb.delete(kb.map("<Student>"), kb.map(Schema.subClassRelation), kb.map("<Person>"));
+		assertEquals(types("<Learner>", "<Agent>"), schema.getAllSuperTypes(kb, kb.map("<Student>")));
+		assertFalse(schema.isTransitiveSuperType(kb, kb.map("<Person>"), kb.map("<Student>")));
+		assertEquals(types("<Student>", "<Learner>", "<Agent>"),
+				schema.getAllTypesForEntity(kb, kb.map("<Luis>")));
+	}
+
+	public void testOneIndexPerKB() {
+		KB other = new KB(schema);
+		addSubClass(other, "<Person>", "<Mammal>");
+		assertEquals(types("<Agent>"), schema.getAllSuperTypes(kb, kb.map("<Person>")));
+		assertEquals(types("<Mammal>"), schema.getAllSuperTypes(other, kb.map("<Person>")));
+	}
+
+	public void testLazyIndexKeepsInstanceTypes() {
+		kb.add(kb.triple("<Ana>", Schema.typeRelation, "<Robot>"));
+		// Builds the index on first use, without materializing the taxonomy
+		assertTrue(schema.getAllSuperTypes(kb, kb.map("<Student>")).contains(kb.map("<Agent>")));
+		assertFalse(schema.isTaxonomyMaterialized(kb));
+		Int2ObjectMap<IntSet> entities = kb.resultsTwoVariables("?t", "?s",
+				new String[] { "?s", AbstractKB.TRANSITIVETYPEstr, "?t" });
+		assertTrue(entities.containsKey(kb.map("<Robot>")));
+		assertTrue(entities.containsKey(kb.map("<Student>")));
+		schema.materializeTaxonomy(kb);
+		assertTrue(schema.isTaxonomyMaterialized(kb));
+	}
+}
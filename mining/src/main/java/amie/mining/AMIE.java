@@ -5,7 +5,6 @@
 package amie.mining;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
@@ -14,9 +13,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -26,14 +27,22 @@ import amie.mining.utils.AMIEOptions;
 import org.apache.commons.cli.*;
 
 import amie.mining.assistant.MiningAssistant;
+import amie.mining.assistant.OperatorPipeline;
+import amie.mining.assistant.SubsumptionIndex;
 import amie.mining.assistant.MiningAssistantFactory;
 import amie.mining.assistant.DefaultMiningAssistantWithOrder;
 import amie.mining.assistant.variableorder.AppearanceOrder;
 import amie.mining.assistant.variableorder.FunctionalOrder;
 import amie.mining.assistant.variableorder.InverseOrder;
 import amie.mining.assistant.variableorder.VariableOrder;
+import amie.rules.AMIEParser;
 import amie.rules.PruningMetric;
+import amie.rules.QueryEquivalenceChecker;
 import amie.rules.Rule;
+import amie.rules.format.BinaryRules;
+import amie.rules.inference.Aggregation;
+import amie.rules.inference.Predictions;
+import amie.rules.inference.Predictor;
 import it.unimi.dsi.fastutil.ints.IntCollection;
 import amie.data.javatools.administrative.Announce;
 
@@ -101,6 +110,11 @@ public class AMIE {
      */
     protected int nThreads;
 
+    /**
+     * If true, the mining jobs run on virtual threads when the JVM supports them
+     */
+    protected boolean virtualThreads;
+
     /**
      * If true, print the rules as they are discovered.
      */
@@ -116,6 +130,126 @@ public class AMIE {
      */
     protected PrintStream rulesOutputStream;
 
+    /**
+     * File for the rules, if not null it is used instead of the output stream
+     */
+    protected File rulesOutputFile;
+
+    /**
+     * If true, the rules are written to the output file in the binary format of
+     * {@link BinaryRules}.
+     */
+    protected boolean binaryOutput;
+
+    /**
+     * Writer of the rules, opened on the first use
+     */
+    protected RuleWriter ruleWriter;
+
+    /**
+     * File where the profile of the run is written, null if the run is not profiled.
+     */
+    protected File profileFile;
+
+    /**
+     * Seconds between two writes of the profile during the run, 0 to write it only at the end.
+     */
+    protected long profileInterval;
+
+    /**
+     * Live metrics of the run, null if they are not served.
+     */
+    protected MiningMetrics metrics;
+
+    /**
+     * File where the state of the run is checkpointed, null to disable checkpoints.
+     */
+    protected File checkpointFile;
+
+    /**
+     * Seconds between two checkpoints
+     */
+    protected long checkpointInterval;
+
+    /**
+     * Description of the mining parameters stored in the checkpoints
+     */
+    protected String configuration = "";
+
+    /**
+     * Checkpoint the run continues from, null to start from the seed rules.
+     */
+    protected Checkpoint resumeFrom;
+
+    /**
+     * Directory where the rules of the next generation are spilled, null to keep
+     * them in memory.
+     */
+    protected File spillDirectory;
+
+    /**
+     * Maximum number of rules of the next generation kept in memory when they are
+     * spilled to disk
+     */
+    protected int spillBufferSize;
+
+    /**
+     * File where the facts predicted by the mined rules are written, null to
+     * skip the prediction
+     */
+    protected File predictionsFile;
+
+    /**
+     * How the confidences of the rules that predict the same fact are combined
+     */
+    protected Aggregation predictionAggregation = Aggregation.MAX;
+
+    /**
+     * Rules of a previous run that the next call to {@link #mine()} updates
+     * with the delta instead of mining from scratch, null for a full run
+     */
+    protected List<Rule> previousRules;
+
+    /**
+     * Facts added and removed since the previous run, already applied to the KB
+     */
+    protected KBDelta delta;
+
+    /**
+     * Generation given to the rules kept from a previous run, so that they can
+     * be parents of the rules re-mined from the seeds of the incremental run
+     */
+    private static final int PREVIOUS_RULES_GENERATION = 2;
+
+    /**
+     * Number of worker processes the head relations are split into, 0 to mine
+     * in this process
+     */
+    protected int partitions;
+
+    /**
+     * Arguments of the worker processes, see {@link PartitionedMining}
+     */
+    protected List<String> workerArguments;
+
+    /**
+     * File with the costs of the head relations observed in previous runs, updated
+     * at the end of the run, may be null
+     */
+    protected File costsFile;
+
+    /**
+     * Whether the rules of each generation are refined by decreasing estimated
+     * cost
+     */
+    protected boolean longestFirst;
+
+    /**
+     * Estimates and records the time spent on the rules during {@link #mine()},
+     * null if the costs are neither used nor recorded
+     */
+    protected RuleCostModel costModel;
+
     /**
      * @param assistant         An object that implements the logic of the mining
      *                          operators.
@@ -157,6 +291,305 @@ public class AMIE {
         this.realTime = realTime;
     }
 
+    /**
+     * It makes the mining jobs run on virtual threads, so that a client of a
+     * remote KB can have many more jobs (see the constructor) than cores, most of
+     * them waiting for the server. Platform threads are used if the JVM does not
+     * support virtual threads.
+     *
+     * @param virtualThreads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return Whether the JVM supports virtual threads (Java 21)
+     */
+    public static boolean isVirtualThreadsSupported() {
+        // The first element is the feature release, major() is deprecated
+        return Runtime.version().version().get(0) >= 21;
+    }
+
+    /**
+     * It creates the thread of a mining job. The module targets a release without
+     * virtual threads, so they are created by reflection.
+     */
+    private Thread newJobThread(Runnable job) {
+        if (virtualThreads && isVirtualThreadsSupported()) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class)
+                        .invoke(builder, job);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Could not create a virtual thread, using platform threads: " + e.getMessage());
+                virtualThreads = false;
+            }
+        }
+        return new Thread(job);
+    }
+
+    /**
+     * It enables the {@link Profiler} and writes its state in the given file
+     * periodically and at the end of the mining phase.
+     *
+     * @param profileFile
+     * @param intervalSeconds 0 to write the profile only at the end
+     */
+    public void setProfile(File profileFile, long intervalSeconds) {
+        this.profileFile = profileFile;
+        this.profileInterval = intervalSeconds;
+        Profiler.enable();
+    }
+
+    public void setMetrics(MiningMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * It enables periodic checkpoints of the state of the run.
+     *
+     * @param checkpointFile
+     * @param intervalSeconds
+     * @param configuration Description of the mining parameters, a run can only
+     *                      be resumed with the same parameters.
+     */
+    public void setCheckpoint(File checkpointFile, long intervalSeconds, String configuration) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = intervalSeconds;
+        this.configuration = configuration;
+    }
+
+    /**
+     * The next call to {@link #mine()} continues the run saved in the checkpoint
+     * instead of starting from the seed rules.
+     *
+     * @param checkpoint
+     */
+    public void resume(Checkpoint checkpoint) {
+        this.resumeFrom = checkpoint;
+    }
+
+    /**
+     * It bounds the memory used by the queue: when more than the given number of
+     * rules are queued for the next generation, they are written to the directory.
+     *
+     * @param directory
+     * @param bufferSize
+     */
+    public void setSpill(File directory, int bufferSize) {
+        this.spillDirectory = directory;
+        this.spillBufferSize = bufferSize;
+    }
+
+    /**
+     * It applies the mined rules to the KB after the mining, and writes the
+     * predicted facts to the given file.
+     *
+     * @param file
+     * @param aggregation
+     */
+    public void setPredictions(File file, Aggregation aggregation) {
+        this.predictionsFile = file;
+        this.predictionAggregation = aggregation;
+    }
+
+    public File getPredictionsFile() {
+        return predictionsFile;
+    }
+
+    /**
+     * It applies the rules to the KB of the mining assistant, scoring them with the
+     * confidence metric of the assistant, and writes the predicted facts to the
+     * predictions file.
+     *
+     * @param rules
+     * @return
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public Predictions predict(List<Rule> rules) throws InterruptedException, IOException {
+        if (!(assistant.getKb() instanceof KB)) {
+            throw new IllegalStateException("Predictions require a local KB");
+        }
+        Predictor predictor = new Predictor((KB) assistant.getKb(), predictionAggregation,
+                assistant.getConfidenceMetric());
+        Predictions predictions = predictor.predict(rules, nThreads);
+        if (predictionsFile != null) {
+            predictions.write(predictionsFile);
+        }
+        return predictions;
+    }
+
+    /**
+     * The next call to {@link #mine()} updates the rules of a previous run
+     * instead of mining from scratch. The support, head coverage and confidences
+     * of the rules are updated by evaluating only the instantiations touched by
+     * the delta, and the search space is only explored again below the rules
+     * whose support increased or whose support threshold decreased. The rules
+     * are output at the end of the mining.
+     *
+     * @param previousRules The rules output by the previous run, with their metrics
+     * @param delta         The facts added and removed since the previous run,
+     *                      applied to the KB before the assistant was created
+     */
+    public void setIncremental(List<Rule> previousRules, KBDelta delta) {
+        if (!delta.isApplied()) {
+            throw new IllegalArgumentException("The delta must be applied to the KB");
+        }
+        this.previousRules = previousRules;
+        this.delta = delta;
+        // Kept and re-mined rules are only merged at the end
+        this.realTime = false;
+    }
+
+    /**
+     * It makes {@link #mine()} split the head relations into partitions mined by
+     * worker processes, see {@link PartitionedMining}. The rules are output at the
+     * end of the mining, sorted by decreasing confidence.
+     *
+     * @param partitions      Number of worker processes
+     * @param workerArguments Options and input files of the workers, without the
+     *                        head relations, the number of threads or the output
+     */
+    public void setPartitions(int partitions, List<String> workerArguments) {
+        this.partitions = partitions;
+        this.workerArguments = workerArguments;
+        this.realTime = false;
+    }
+
+    /**
+     * It sets the file where the time spent on each head relation is recorded
+     * from one run to the next, see {@link RuleCostModel}. The recorded costs
+     * order the seed rules and balance the partitions.
+     *
+     * @param costsFile May be null
+     */
+    public void setCostsFile(File costsFile) {
+        this.costsFile = costsFile;
+    }
+
+    public File getCostsFile() {
+        return costsFile;
+    }
+
+    /**
+     * It makes the mining threads refine the rules of each generation by
+     * decreasing estimated cost (longest-processing-time first), so that the most
+     * expensive rules do not delay the end of the generation. It cannot be used
+     * when the queue is spilled to disk.
+     *
+     * @param longestFirst
+     */
+    public void setLongestFirst(boolean longestFirst) {
+        this.longestFirst = longestFirst;
+    }
+
+    /**
+     * It updates the metrics of the rules of the previous run and adds those that
+     * still pass the thresholds to the output.
+     *
+     * @return The rules below which the search space must be explored again
+     * @throws InterruptedException
+     */
+    protected List<Rule> updatePreviousRules(List<Rule> output, MultiMap<Integer, Rule> indexedOutput,
+            SubsumptionIndex subsumptionIndex) throws InterruptedException {
+        if (!(assistant.getKb() instanceof KB)) {
+            throw new IllegalStateException("Incremental mining requires a local KB");
+        }
+        long time = System.currentTimeMillis();
+        double[] previousSupports = new double[previousRules.size()];
+        for (int i = 0; i < previousSupports.length; ++i) {
+            previousSupports[i] = previousRules.get(i).getSupport();
+        }
+        new IncrementalUpdate((KB) assistant.getKb(), delta).update(previousRules, nThreads);
+
+        // Shorter rules first, so that the parents of a rule are known when it is tested
+        Integer[] order = new Integer[previousRules.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(previousRules.get(a).getLength(),
+                previousRules.get(b).getLength()));
+        List<Rule> seedRules = new ArrayList<>();
+        for (int i : order) {
+            Rule rule = previousRules.get(i);
+            double threshold = getCountThreshold(rule);
+            if (rule.getSupport() < threshold) {
+                continue;
+            }
+            boolean belowPerfectRule = false;
+            for (Rule parent : subsumptionIndex.getCandidateParents(rule)) {
+                if (parent.subsumes(rule)) {
+                    rule.addParent(parent);
+                    belowPerfectRule |= parent.isPerfect();
+                }
+            }
+            double previousThreshold = threshold;
+            if (pruningMetric == PruningMetric.HeadCoverage) {
+                previousThreshold = Math.ceil(minSignificanceThreshold
+                        * (assistant.getHeadCardinality(rule) - delta.getSizeChange(rule.getHead()[1])));
+            }
+            // Perfect rules are not refined, and the rules below them may only be
+            // reachable through them
+            boolean refinable = !assistant.isEnablePerfectRules() || !(rule.isPerfect() || belowPerfectRule);
+            if ((rule.getSupport() > previousSupports[i] || threshold < previousThreshold) && refinable) {
+                Rule seed = new Rule(rule, rule.getSupport(), assistant.getKb());
+                seed.setHeadCoverage(rule.getHeadCoverage());
+                seed.setSupportRatio(rule.getSupport() / assistant.getKb().size());
+                seedRules.add(seed);
+            }
+            if (assistant.testConfidenceThresholds(rule)) {
+                rule.setGeneration(PREVIOUS_RULES_GENERATION);
+                output.add(rule);
+                indexedOutput.put(rule.alternativeParentHashCode(), rule);
+                subsumptionIndex.add(rule);
+            }
+        }
+        System.out.println(output.size() + " of " + previousRules.size() + " previous rules kept, "
+                + seedRules.size() + " to refine again, updated in "
+                + (System.currentTimeMillis() - time) + " ms");
+        return seedRules;
+    }
+
+    /**
+     * It removes from the output the rules kept from the previous run that were
+     * also re-mined, and the rules re-mined twice from different seeds.
+     */
+    private static void removeDuplicates(List<Rule> output) {
+        // Re-mined rules first
+        List<Rule> rules = new ArrayList<>(output.size());
+        for (Rule rule : output) {
+            if (rule.getGeneration() != PREVIOUS_RULES_GENERATION) {
+                rules.add(rule);
+            }
+        }
+        for (Rule rule : output) {
+            if (rule.getGeneration() == PREVIOUS_RULES_GENERATION) {
+                rules.add(rule);
+            }
+        }
+        MultiMap<Integer, Rule> index = new MultiMap<>();
+        output.clear();
+        for (Rule rule : rules) {
+            int key = 31 * rule.getHead()[1] + rule.getLength();
+            Set<Rule> candidates = index.get(key);
+            boolean duplicate = false;
+            if (candidates != null) {
+                for (Rule other : candidates) {
+                    if (QueryEquivalenceChecker.areEquivalent(other.getTriples(), rule.getTriples())) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+            }
+            if (!duplicate) {
+                output.add(rule);
+                index.put(key, rule);
+            }
+        }
+    }
+
     public IntCollection getSeeds() {
         return seeds;
     }
@@ -174,41 +607,120 @@ public class AMIE {
      * @throws Exception
      */
     public List<Rule> mine() throws Exception {
+        if (partitions > 0) {
+            return new PartitionedMining(this, partitions, workerArguments).mine();
+        }
+
         List<Rule> result = new ArrayList<>();
         MultiMap<Integer, Rule> indexedResult = new MultiMap<>();
-        RuleConsumer consumerObj = null;
-        Thread consumerThread = null;
+        SubsumptionIndex subsumptionIndex = new SubsumptionIndex();
+        RuleWriter writer = null;
         Lock resultsLock = new ReentrantLock();
-        Condition resultsCondVar = resultsLock.newCondition();
         Collection<Rule> seedRules = new ArrayList<>();
-
-        // Queue initialization
-        if (seeds == null || seeds.isEmpty()) {
-            seedRules = assistant.getInitialAtoms(minInitialSupport);
+        AMIEQueue queue;
+        Frontier frontier = spillDirectory == null ? new InMemoryFrontier()
+                : new SpillingFrontier(assistant.getKb(), spillDirectory, spillBufferSize);
+        costModel = longestFirst || costsFile != null ? RuleCostModel.read(assistant.getKb(), costsFile) : null;
+
+        if (resumeFrom != null) {
+            estimateCosts(resumeFrom.getRemaining());
+            estimateCosts(resumeFrom.getNext());
+            queue = new AMIEQueue(resumeFrom.getGeneration(), resumeFrom.getRemaining(), resumeFrom.getNext(),
+                    nThreads, frontier);
+            for (Rule rule : resumeFrom.getOutput()) {
+                result.add(rule);
+                indexedResult.put(rule.alternativeParentHashCode(), rule);
+                subsumptionIndex.add(rule);
+            }
+            System.out.println("Resuming from generation " + resumeFrom.getGeneration() + " with "
+                    + resumeFrom.getOutput().size() + " rules already output");
+            resumeFrom = null;
+        } else if (previousRules != null) {
+            seedRules = updatePreviousRules(result, indexedResult, subsumptionIndex);
+            for (Rule rule : seedRules) {
+                rule.setGeneration(PREVIOUS_RULES_GENERATION + 1);
+            }
+            estimateCosts(seedRules);
+            // The generation of the queue is the one of the refinements of the current rules
+            queue = new AMIEQueue(PREVIOUS_RULES_GENERATION + 2, seedRules, new ArrayList<>(), nThreads, frontier);
         } else {
-            seedRules = assistant.getInitialAtomsFromSeeds(seeds, minInitialSupport);
+            // Queue initialization
+            if (seeds == null || seeds.isEmpty()) {
+                seedRules = assistant.getInitialAtoms(minInitialSupport);
+            } else {
+                seedRules = assistant.getInitialAtomsFromSeeds(seeds, minInitialSupport);
+            }
+            estimateCosts(seedRules);
+            queue = new AMIEQueue(seedRules, nThreads, frontier);
+        }
+        if (longestFirst) {
+            queue.setOrder(RuleCostModel.longestFirst());
         }
 
-        AMIEQueue queue = new AMIEQueue(seedRules, nThreads);
+        ScheduledExecutorService checkpointTimer = null;
+        if (checkpointFile != null) {
+            queue.setCheckpointWriter((generation, remaining, next) -> {
+                List<Rule> output;
+                resultsLock.lock();
+                try {
+                    output = new ArrayList<>(result);
+                } finally {
+                    resultsLock.unlock();
+                }
+                long time = System.currentTimeMillis();
+                new Checkpoint(configuration, generation, remaining, next, output)
+                        .write(checkpointFile, assistant.getKb());
+                if (assistant.isVerbose()) {
+                    System.err.println("Checkpoint written to " + checkpointFile + " in "
+                            + (System.currentTimeMillis() - time) + " ms");
+                }
+            });
+            checkpointTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "checkpoint-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointTimer.scheduleAtFixedRate(queue::requestCheckpoint, checkpointInterval,
+                    checkpointInterval, TimeUnit.SECONDS);
+        }
+
+        if (Profiler.isEnabled()) {
+            Profiler.registerGauge("queue.generation", queue::getGeneration);
+            Profiler.registerGauge("queue.next", queue::getNextSize);
+            Profiler.registerGauge("queue.generationCalls", queue::getGenerationCalls);
+            Profiler.registerGauge("queue.output", () -> result.size());
+            Profiler.registerGauge("kb.mrtCalls", KB.STAT_NUMBER_OF_CALL_TO_MRT::get);
+        }
+        if (metrics != null) {
+            metrics.setQueue(queue);
+        }
 
         if (realTime) {
-            consumerObj = new RuleConsumer(result, resultsLock, resultsCondVar, this.rulesOutputStream);
-            consumerThread = new Thread(consumerObj);
-            consumerThread.start();
+            writer = getRuleWriter();
+            writer.write(assistant.getFormatter().header());
+            // Rules restored from a checkpoint
+            writer.writeAll(result);
+            writer.start();
         }
 
-        System.out.println("Using " + nThreads + " threads");
+        System.out.println("Using " + nThreads + (virtualThreads && isVirtualThreadsSupported() ? " virtual" : "")
+                + " threads");
         // Create as many threads as available cores
         ArrayList<Thread> currentJobs = new ArrayList<>();
         ArrayList<RDFMinerJob> jobObjects = new ArrayList<>();
         for (int i = 0; i < nThreads; ++i) {
-            RDFMinerJob jobObject = new RDFMinerJob(queue, result, resultsLock, resultsCondVar, indexedResult);
-            Thread job = new Thread(jobObject);
+            RDFMinerJob jobObject = new RDFMinerJob(queue, result, resultsLock, writer, indexedResult,
+                    subsumptionIndex);
+            Thread job = newJobThread(jobObject);
             currentJobs.add(job);
             jobObjects.add(jobObject);
 
         }
 
+        if (profileFile != null && profileInterval > 0) {
+            Profiler.startPeriodicDump(profileFile, profileInterval);
+        }
+
         for (Thread job : currentJobs) {
             job.start();
         }
@@ -217,14 +729,41 @@ public class AMIE {
             job.join();
         }
 
+        if (profileFile != null) {
+            Profiler.stopPeriodicDump();
+            try {
+                Profiler.dump(profileFile);
+                System.out.println("Profile written to " + profileFile);
+            } catch (IOException e) {
+                System.err.println("Could not write the profile to " + profileFile + ": " + e.getMessage());
+            }
+        }
+
+        if (metrics != null) {
+            metrics.stop();
+        }
+
+        if (checkpointTimer != null) {
+            checkpointTimer.shutdownNow();
+        }
+
         if (realTime) {
-            consumerObj.terminate();
-            consumerThread.join();
+            writer.finish();
+            writer.flush();
         }
 
         if (assistant.isVerbose())
             queue.printStats();
 
+        if (previousRules != null) {
+            removeDuplicates(result);
+            previousRules = null;
+        }
+
+        if (costsFile != null) {
+            costModel.write(costsFile);
+        }
+
         for (Rule rule : result) {
             for (int[] triple : rule.getTriples()) {
                 String subject = rule.kb.unmap(triple[0]);
@@ -238,85 +777,47 @@ public class AMIE {
         return result;
     }
 
-    private void printRulePrefix(String input) {
-        List<String> prefixList = Arrays.asList(input.split(":"));
-        for (String s : prefixList) {
-            if (!rulePrefixes.contains(s) && StringUtils.isNotBlank(assistant.kb.schema.prefixMap.get(s))) {
-                System.out.println(s + ":" + assistant.kb.schema.prefixMap.get(s));
-
-                synchronized (rulePrefixes) {
-                    rulePrefixes.add(s);
-                }
+    /**
+     * It estimates the cost of rules whose parent was not refined in this run.
+     */
+    private void estimateCosts(Collection<Rule> rules) {
+        if (costModel != null) {
+            for (Rule rule : rules) {
+                rule.setEstimatedCost(costModel.estimate(rule));
             }
         }
     }
 
     /**
-     * It removes and prints rules from a shared list (a list accessed by
-     * multiple threads).
+     * Based on AMIE's configuration, it returns the absolute support
+     * threshold that should be applied to the rule.
      *
-     * @author galarrag
+     * @param query
+     * @return
      */
-    protected class RuleConsumer implements Runnable {
-
-        protected List<Rule> consumeList;
-
-        protected int lastConsumedIndex;
-
-        protected Lock consumeLock;
-
-        protected Condition conditionVariable;
-
-        protected PrintStream outStream;
-
-        public RuleConsumer(List<Rule> consumeList, Lock consumeLock, Condition conditionVariable,
-                PrintStream outStream) {
-            this.consumeList = consumeList;
-            this.lastConsumedIndex = -1;
-            this.consumeLock = consumeLock;
-            this.conditionVariable = conditionVariable;
-            this.outStream = outStream;
+    protected double getCountThreshold(Rule query) {
+        switch (pruningMetric) {
+            case Support:
+                return minSignificanceThreshold;
+            case HeadCoverage:
+                return Math.ceil((minSignificanceThreshold
+                        * (double) assistant.getHeadCardinality(query)));
+            default:
+                return 0;
         }
+    }
 
-        @Override
-        public void run() {
-            this.outStream.print(assistant.getFormatter().header());
-            while (!Thread.currentThread().isInterrupted()) {
-                consumeLock.lock();
-                try {
-                    while (lastConsumedIndex == consumeList.size() - 1) {
-                        conditionVariable.await();
-                        for (int i = lastConsumedIndex + 1; i < consumeList.size(); ++i) {
-                            String outputStr = assistant.formatRule(consumeList.get(i));
-                            this.outStream.println(outputStr);
-                        }
-                        lastConsumedIndex = consumeList.size() - 1;
-                        if (done) {
-                            consumeLock.unlock();
-                            return;
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    consumeLock.unlock();
-                    this.outStream.flush();
-                    break;
+    private void printRulePrefix(String input) {
+        List<String> prefixList = Arrays.asList(input.split(":"));
+        for (String s : prefixList) {
+            if (!rulePrefixes.contains(s) && StringUtils.isNotBlank(assistant.kb.schema.prefixMap.get(s))) {
+                System.out.println(s + ":" + assistant.kb.schema.prefixMap.get(s));
+
+                synchronized (rulePrefixes) {
+                    rulePrefixes.add(s);
                 }
             }
         }
-
-        private boolean done = false;
-
-        /**
-         * Use to nicely terminate reader thread.
-         */
-        public void terminate() {
-            consumeLock.lock();
-            done = true;
-            conditionVariable.signalAll();
-            consumeLock.unlock();
-            this.outStream.flush();
-
-        }
     }
 
     /**
@@ -331,30 +832,36 @@ public class AMIE {
         // A version of the output set thought for search.
         protected MultiMap<Integer, Rule> indexedOutputSet;
 
+        // Output rules indexed by body relations, used to find the parents of a rule
+        protected SubsumptionIndex subsumptionIndex;
+
         protected AMIEQueue queryPool;
 
         protected Lock resultsLock;
 
-        protected Condition resultsCondition;
+        protected RuleWriter ruleWriter;
 
         /**
          * @param seedsPool
          * @param outputSet
          * @param resultsLock      Lock associated to the output buffer were mined
          *                         rules are added
-         * @param resultsCondition Condition variable associated to the results
-         *                         lock
+         * @param ruleWriter       Writer the output rules are submitted to, null if
+         *                         they are not printed as they are mined
          * @param indexedOutputSet
+         * @param subsumptionIndex
          */
         public RDFMinerJob(AMIEQueue seedsPool,
                 List<Rule> outputSet, Lock resultsLock,
-                Condition resultsCondition,
-                MultiMap<Integer, Rule> indexedOutputSet) {
+                RuleWriter ruleWriter,
+                MultiMap<Integer, Rule> indexedOutputSet,
+                SubsumptionIndex subsumptionIndex) {
             this.queryPool = seedsPool;
             this.outputSet = outputSet;
             this.resultsLock = resultsLock;
-            this.resultsCondition = resultsCondition;
+            this.ruleWriter = ruleWriter;
             this.indexedOutputSet = indexedOutputSet;
+            this.subsumptionIndex = subsumptionIndex;
         }
 
         @Override
@@ -371,18 +878,28 @@ public class AMIE {
                     this.queryPool.decrementMaxThreads();
                     break;
                 } else {
+                    long ruleStart = System.nanoTime();
+                    int nRefinements = 0;
                     // Check if the rule meets the language bias and confidence thresholds and
                     // decide whether to output it.
                     boolean outputRule = false;
+                    Profiler.increment("rules.dequeued", 1);
+                    if (metrics != null) {
+                        metrics.ruleDequeued(currentRule);
+                    }
                     if (assistant.shouldBeOutput(currentRule)) {
+                        long start = System.nanoTime();
                         boolean ruleSatisfiesConfidenceBounds = assistant
                                 .calculateConfidenceBoundsAndApproximations(currentRule);
+                        Profiler.record("mining.confidenceBounds", start, ruleSatisfiesConfidenceBounds ? 1 : 0);
                         if (ruleSatisfiesConfidenceBounds) {
-                            this.resultsLock.lock();
-                            assistant.setAdditionalParents(currentRule, indexedOutputSet);
-                            this.resultsLock.unlock();
+                            start = System.nanoTime();
+                            assistant.setAdditionalParents(currentRule, subsumptionIndex);
+                            Profiler.record("mining.parents", start, currentRule.getAncestors().size());
                             // Calculate the metrics
+                            start = System.nanoTime();
                             assistant.calculateConfidenceMetrics(currentRule);
+                            Profiler.record("mining.confidenceMetrics", start, 1);
                             // Check the confidence threshold and skyline technique.
                             outputRule = assistant.testConfidenceThresholds(currentRule);
                         } else {
@@ -401,30 +918,37 @@ public class AMIE {
                         double threshold = getCountThreshold(currentRule);
 
                         // Application of the mining operators
-                        Map<String, Collection<Rule>> temporalOutputMap = null;
-                        try {
-                            temporalOutputMap = assistant.applyMiningOperators(currentRule, threshold);
-                        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                            e.printStackTrace();
+                        OperatorPipeline.Results refinements = assistant.applyOperatorPipeline(currentRule, threshold);
+                        int danglingOperator = assistant.getOperatorPipeline().indexOf("dangling");
+                        long elapsed = System.nanoTime() - ruleStart;
+                        for (int i = 0; i < refinements.size(); ++i) {
+                            nRefinements += refinements.get(i).size();
+                            if (costModel != null) {
+                                for (Rule refinement : refinements.get(i)) {
+                                    refinement.setEstimatedCost(costModel.estimate(refinement, elapsed));
+                                }
+                            }
                         }
-
-                        for (Map.Entry<String, Collection<Rule>> entry : temporalOutputMap.entrySet()) {
-                            String operator = entry.getKey();
-                            Collection<Rule> items = entry.getValue();
-                            if (!operator.equals("dangling")) {
-                                queryPool.queueAll(items);
+                        for (int i = 0; i < refinements.size(); ++i) {
+                            if (i != danglingOperator) {
+                                queryPool.queueAll(refinements.get(i));
                             }
                         }
 
                         // Addition of the specializations to the queue
                         // queryPool.queueAll(temporalOutput);
                         if (currentRule.getRealLength() < assistant.getMaxDepth() - 1) {
-                            if (temporalOutputMap.containsKey("dangling")) {
-                                queryPool.queueAll(temporalOutputMap.get("dangling"));
+                            if (danglingOperator != -1) {
+                                queryPool.queueAll(refinements.get(danglingOperator));
                             }
                         }
                     }
 
+                    if (costModel != null) {
+                        costModel.record(currentRule, System.nanoTime() - ruleStart);
+                    }
+                    Profiler.record("mining.rule", ruleStart, nRefinements);
+
                     // Output the rule
                     if (outputRule) {
                         this.resultsLock.lock();
@@ -440,31 +964,18 @@ public class AMIE {
                             this.outputSet.add(currentRule);
                             this.indexedOutputSet.put(currentRule.alternativeParentHashCode(), currentRule);
                         }
-                        this.resultsCondition.signal();
                         this.resultsLock.unlock();
+                        if (ruleWriter != null) {
+                            ruleWriter.submit(currentRule);
+                        }
+                        this.subsumptionIndex.add(currentRule);
+                        if (metrics != null) {
+                            metrics.ruleOutput(currentRule);
+                        }
                     }
                 }
             }
         }
-
-        /**
-         * Based on AMIE's configuration, it returns the absolute support
-         * threshold that should be applied to the rule.
-         *
-         * @param query
-         * @return
-         */
-        protected double getCountThreshold(Rule query) {
-            switch (pruningMetric) {
-                case Support:
-                    return minSignificanceThreshold;
-                case HeadCoverage:
-                    return Math.ceil((minSignificanceThreshold
-                            * (double) assistant.getHeadCardinality(query)));
-                default:
-                    return 0;
-            }
-        }
     }
 
     private static class InitElements {
@@ -730,7 +1241,8 @@ public class AMIE {
                 System.exit(1);
             }
 
-            if (nThreads > nProcessors) {
+            // The threads of a remote KB client mostly wait for the server
+            if (nThreads > nProcessors && !AMIEOptions.isClientMode(cli)) {
                 nThreads = nProcessors;
             }
         }
@@ -777,6 +1289,10 @@ public class AMIE {
                 && cli.hasOption(AMIEOptions.INVALIDATE_CACHE.getOpt()))
             Caching.InvalidateCache();
 
+        if (cli.hasOption(AMIEOptions.COMPRESSION.getOpt()))
+            AbstractKB.SetCompressionThreshold(Integer.parseInt(cli.getOptionValue(AMIEOptions.COMPRESSION.getOpt())));
+
+        KBDelta delta = null;
         // Client
         if (AMIEOptions.isClientMode(cli)) {
             try {
@@ -787,6 +1303,9 @@ public class AMIE {
                     System.out.println("Unspecified server address ; using default " +
                             AbstractKB.DEFAULT_SERVER_ADDRESS);
 
+                if (cli.hasOption(AMIEOptions.CONNECTIONS.getOpt()))
+                    AbstractKB.SetConnections(Integer.parseInt(cli.getOptionValue(AMIEOptions.CONNECTIONS.getOpt())));
+
                 // See AbstractKB.NewKBClient description
                 dataSource = AbstractKB.NewKBClient(config);
             } catch (Exception e) {
@@ -821,6 +1340,13 @@ public class AMIE {
                 }
             }
             ((KB) dataSource).load(dataFiles);
+            if (cli.hasOption(AMIEOptions.DELTA_FILE.getOpt())) {
+                File deltaFile = new File(cli.getOptionValue(AMIEOptions.DELTA_FILE.getOpt()));
+                delta = KBDelta.read(deltaFile, (KB) dataSource);
+                delta.apply((KB) dataSource);
+                System.out.println("Delta " + deltaFile + " applied: " + delta.getAdded().size() + " facts added, "
+                        + delta.getRemoved().size() + " removed");
+            }
             KB targetSource;
             if (!targetFiles.isEmpty()) {
                 targetSource = new KB();
@@ -929,18 +1455,44 @@ public class AMIE {
             enableFunctionalityHeuristic = false;
         }
 
+        boolean binaryOutput = false;
         if (cli.hasOption(AMIEOptions.OUTPUT_FORMAT.getOpt())) {
             outputFormat = cli.getOptionValue(AMIEOptions.OUTPUT_FORMAT.getOpt());
+            if (outputFormat.equalsIgnoreCase("binary")) {
+                if (!cli.hasOption(AMIEOptions.OUTPUT_FILE.getOpt())) {
+                    System.err.println("The binary output format (-ofmt binary) requires an output file (-ofile)");
+                    System.exit(1);
+                }
+                binaryOutput = true;
+                outputFormat = "default";
+            }
+        }
+
+        File statisticsFile = null;
+        if (cli.hasOption(AMIEOptions.STATISTICS_DIR.getOpt())) {
+            if (dataSource instanceof KB && !dataFiles.isEmpty()) {
+                statisticsFile = loadStatistics((KB) dataSource, dataFiles,
+                        new File(cli.getOptionValue(AMIEOptions.STATISTICS_DIR.getOpt())),
+                        enableFunctionalityHeuristic);
+            } else {
+                System.err.println("The option -sdir (statistics directory) requires a local KB "
+                        + "loaded from files, ignoring it.");
+            }
         }
 
         if (enableFunctionalityHeuristic) {
             System.out.println("Enabling functionality heuristic with ratio "
                     + "for pruning of low confident rules");
-            Announce.doing("Building overlap tables for confidence approximation...");
-            long time = System.currentTimeMillis();
-            ((KB) dataSource).buildOverlapTables(nThreads);
-            Announce.done("Overlap tables computed in " + formatDuration(System.currentTimeMillis() - time)
-                    + " using " + nThreads + " threads.");
+            if (((KB) dataSource).getOverlapTables() == null) {
+                Announce.doing("Building overlap tables for confidence approximation...");
+                long time = System.currentTimeMillis();
+                ((KB) dataSource).buildOverlapTables(nThreads);
+                Announce.done("Overlap tables computed in " + formatDuration(System.currentTimeMillis() - time)
+                        + " using " + nThreads + " threads.");
+                if (statisticsFile != null) {
+                    saveStatistics((KB) dataSource, statisticsFile);
+                }
+            }
         }
 
         // Setup Mining assistant
@@ -970,6 +1522,11 @@ public class AMIE {
         mineAssistant.setUseSkylinePruning(!cli.hasOption(AMIEOptions.NO_SKYLINE.getOpt()));
         mineAssistant.setFormatter(outputFormat);
 
+        if (cli.hasOption(AMIEOptions.PARALLEL_OPERATORS.getOpt())) {
+            mineAssistant.setOperatorPool(new ForkJoinPool(nProcessors));
+            System.out.println("Evaluating the queries of each rule in parallel using " + nProcessors + " workers");
+        }
+
         if (cli.hasOption(AMIEOptions.OUTPUT_FILE.getOpt())) {
             outputFilePath = cli.getOptionValue(AMIEOptions.OUTPUT_FILE.getOpt());
         }
@@ -980,6 +1537,186 @@ public class AMIE {
         miner.setRealTime(realTime);
         miner.setSeeds(headTargetRelations);
 
+        if (cli.hasOption(AMIEOptions.VIRTUAL_THREADS.getOpt())) {
+            if (!isVirtualThreadsSupported()) {
+                System.err.println("Virtual threads require Java 21, the mining jobs run on platform threads");
+            }
+            miner.setVirtualThreads(true);
+        }
+
+        if (cli.hasOption(AMIEOptions.PROFILE.getOpt())) {
+            long interval = 60;
+            if (cli.hasOption(AMIEOptions.PROFILE_INTERVAL.getOpt())) {
+                try {
+                    interval = Long.parseLong(cli.getOptionValue(AMIEOptions.PROFILE_INTERVAL.getOpt()));
+                } catch (NumberFormatException e) {
+                    System.err.println("The argument for option -profi (profile interval) must be an integer");
+                    System.exit(1);
+                }
+            }
+            miner.setProfile(new File(cli.getOptionValue(AMIEOptions.PROFILE.getOpt())), interval);
+            System.out.println("Profiling the run, the profile is written to "
+                    + cli.getOptionValue(AMIEOptions.PROFILE.getOpt())
+                    + (interval > 0 ? " every " + interval + " s" : " at the end"));
+        }
+
+        if (cli.hasOption(AMIEOptions.CHECKPOINT_FILE.getOpt())) {
+            File checkpointFile = new File(cli.getOptionValue(AMIEOptions.CHECKPOINT_FILE.getOpt()));
+            double interval = 30;
+            if (cli.hasOption(AMIEOptions.CHECKPOINT_INTERVAL.getOpt())) {
+                try {
+                    interval = Double.parseDouble(cli.getOptionValue(AMIEOptions.CHECKPOINT_INTERVAL.getOpt()));
+                } catch (NumberFormatException e) {
+                    System.err.println("The argument for option -chki (checkpoint interval) must be a number");
+                    System.exit(1);
+                }
+            }
+            miner.setCheckpoint(checkpointFile, Math.max(1, Math.round(interval * 60)), config);
+            System.out.println("Checkpointing the run to " + checkpointFile + " every " + interval + " min");
+            if (cli.hasOption(AMIEOptions.RESUME.getOpt())) {
+                if (checkpointFile.exists()) {
+                    try {
+                        Checkpoint checkpoint = Checkpoint.read(checkpointFile, dataSource);
+                        if (!checkpoint.getConfiguration().equals(config)) {
+                            System.err.println("The checkpoint " + checkpointFile + " was written with "
+                                    + "different parameters: " + checkpoint.getConfiguration());
+                            System.exit(1);
+                        }
+                        miner.resume(checkpoint);
+                    } catch (IOException e) {
+                        System.err.println("Could not read the checkpoint " + checkpointFile + ": "
+                                + e.getMessage());
+                        System.exit(1);
+                    }
+                } else {
+                    System.out.println("No checkpoint found in " + checkpointFile + ", starting from scratch");
+                }
+            }
+        } else if (cli.hasOption(AMIEOptions.RESUME.getOpt())) {
+            System.err.println("The option -resume requires a checkpoint file (-chk)");
+            System.exit(1);
+        }
+
+        if (cli.hasOption(AMIEOptions.SPILL_DIRECTORY.getOpt())) {
+            File spillDirectory = new File(cli.getOptionValue(AMIEOptions.SPILL_DIRECTORY.getOpt()));
+            int bufferSize = 1000000;
+            if (cli.hasOption(AMIEOptions.SPILL_BUFFER.getOpt())) {
+                try {
+                    bufferSize = Integer.parseInt(cli.getOptionValue(AMIEOptions.SPILL_BUFFER.getOpt()));
+                } catch (NumberFormatException e) {
+                    System.err.println("The argument for option -spillb (spill buffer) must be an integer");
+                    System.exit(1);
+                }
+                if (bufferSize <= 0) {
+                    System.err.println("The argument for option -spillb (spill buffer) must be positive");
+                    System.exit(1);
+                }
+            }
+            miner.setSpill(spillDirectory, bufferSize);
+            System.out.println("Spilling the queue to " + spillDirectory + " beyond " + bufferSize + " rules");
+        }
+
+        if (cli.hasOption(AMIEOptions.PREDICTIONS_FILE.getOpt())) {
+            if (!(dataSource instanceof KB)) {
+                System.err.println("The option -pred requires a local KB");
+                System.exit(1);
+            }
+            Aggregation aggregation = Aggregation.MAX;
+            if (cli.hasOption(AMIEOptions.PREDICTION_AGGREGATION.getOpt())) {
+                try {
+                    aggregation = Aggregation.parse(cli.getOptionValue(AMIEOptions.PREDICTION_AGGREGATION.getOpt()));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("The argument for option -predagg (prediction aggregation) must be "
+                            + "max or noisyor");
+                    System.exit(1);
+                }
+            }
+            File predictionsFile = new File(cli.getOptionValue(AMIEOptions.PREDICTIONS_FILE.getOpt()));
+            miner.setPredictions(predictionsFile, aggregation);
+            System.out.println("Writing the facts predicted by the rules to " + predictionsFile
+                    + " (" + aggregation.name().toLowerCase() + " aggregation)");
+        }
+
+        if (cli.hasOption(AMIEOptions.INCREMENTAL.getOpt())) {
+            if (delta == null) {
+                System.err.println("The option -incr requires a local KB and a delta (-delta)");
+                System.exit(1);
+            }
+            File previousFile = new File(cli.getOptionValue(AMIEOptions.INCREMENTAL.getOpt()));
+            List<Rule> previousRules = AMIEParser.rulesWithMetrics(previousFile, dataSource);
+            miner.setIncremental(previousRules, delta);
+            System.out.println("Updating the " + previousRules.size() + " rules of " + previousFile
+                    + " incrementally, the rules are output at the end");
+        }
+
+        if (cli.hasOption(AMIEOptions.PARTITIONS.getOpt())) {
+            int partitions = 0;
+            try {
+                partitions = Integer.parseInt(cli.getOptionValue(AMIEOptions.PARTITIONS.getOpt()));
+            } catch (NumberFormatException e) {
+                System.err.println("The argument for option -parts (partitions) must be an integer");
+                System.exit(1);
+            }
+            if (partitions <= 0) {
+                System.err.println("The argument for option -parts (partitions) must be positive");
+                System.exit(1);
+            }
+            if (AMIEOptions.isServerMode(cli) || cli.hasOption(AMIEOptions.INCREMENTAL.getOpt())
+                    || cli.hasOption(AMIEOptions.CHECKPOINT_FILE.getOpt())) {
+                System.err.println("The option -parts (partitions) cannot be combined with -server, -incr or -chk");
+                System.exit(1);
+            }
+            // The workers get the options of this run, except those the coordinator handles
+            List<Option> coordinatorOptions = List.of(AMIEOptions.PARTITIONS, AMIEOptions.HEAD_COSTS,
+                    AMIEOptions.HEAD_TARGET_RELATIONS, AMIEOptions.HEAD_EXCLUDED, AMIEOptions.N_THREADS,
+                    AMIEOptions.OUTPUT_FILE, AMIEOptions.OUTPUT_FORMAT, AMIEOptions.OUTPUT_AT_END,
+                    AMIEOptions.PREDICTIONS_FILE, AMIEOptions.PREDICTION_AGGREGATION, AMIEOptions.METRICS_PORT,
+                    AMIEOptions.PROFILE, AMIEOptions.PROFILE_INTERVAL);
+            List<String> workerArguments = new ArrayList<>();
+            for (Option option : cli.getOptions()) {
+                if (coordinatorOptions.stream().anyMatch(o -> o.getOpt().equals(option.getOpt())))
+                    continue;
+                workerArguments.add("-" + option.getOpt());
+                if (option.hasArg())
+                    workerArguments.add(option.getValue());
+            }
+            workerArguments.addAll(Arrays.asList(cli.getArgs()));
+            miner.setPartitions(partitions, workerArguments);
+            System.out.println("Mining the head relations in " + partitions + " worker processes"
+                    + ", the rules are output at the end");
+        }
+
+        if (cli.hasOption(AMIEOptions.HEAD_COSTS.getOpt())) {
+            File costsFile = new File(cli.getOptionValue(AMIEOptions.HEAD_COSTS.getOpt()));
+            miner.setCostsFile(costsFile);
+            System.out.println("Recording the costs of the head relations in " + costsFile);
+        }
+
+        if (cli.hasOption(AMIEOptions.LONGEST_FIRST.getOpt())) {
+            if (cli.hasOption(AMIEOptions.SPILL_DIRECTORY.getOpt())) {
+                System.err.println("The option -lpt (longest-first) cannot be combined with -spill");
+                System.exit(1);
+            }
+            miner.setLongestFirst(true);
+            System.out.println("Refining the rules of each generation by decreasing estimated cost");
+        }
+
+        if (cli.hasOption(AMIEOptions.METRICS_PORT.getOpt())) {
+            MiningMetrics metrics = new MiningMetrics(dataSource);
+            try {
+                int port = Integer.parseInt(cli.getOptionValue(AMIEOptions.METRICS_PORT.getOpt()));
+                metrics.start(port);
+                Profiler.enableWithoutQueryShapes();
+                miner.setMetrics(metrics);
+                System.out.println("Serving live metrics on http://localhost:" + port + "/metrics");
+            } catch (NumberFormatException e) {
+                System.err.println("The argument for option -mport (metrics port) must be an integer");
+                System.exit(1);
+            } catch (IOException e) {
+                System.err.println("Could not start the metrics endpoint: " + e.getMessage());
+            }
+        }
+
         if (minStdConf > 0.0 && enableStdConfidence) {
             System.out.println("Filtering on standard confidence with minimum threshold " + minStdConf);
         } else {
@@ -1022,10 +1759,17 @@ public class AMIE {
         }
 
         if (outputFilePath != null) {
-            try {
-                miner.setRulesOutputStream(new PrintStream(outputFilePath));
-                System.out.println("Writing rules to file " + outputFilePath);
-            } catch (FileNotFoundException e) {
+            File outputFile = new File(outputFilePath);
+            File parent = outputFile.getAbsoluteFile().getParentFile();
+            if (parent != null && parent.isDirectory() && (!outputFile.exists() || outputFile.canWrite())) {
+                miner.setRulesOutputFile(outputFile);
+                miner.setBinaryOutput(binaryOutput);
+                System.out.println("Writing rules to file " + outputFilePath
+                        + (binaryOutput ? " in the binary format" : ""));
+            } else if (binaryOutput) {
+                System.err.println("The output file " + outputFilePath + " cannot be written");
+                System.exit(1);
+            } else {
                 System.err.println("The output file " + outputFilePath + " could not be found. Outputting" +
                         " the rules to stdout");
             }
@@ -1044,21 +1788,109 @@ public class AMIE {
         this.rulesOutputStream = outStream;
     }
 
-    public void outputHeader() {
-        this.rulesOutputStream.println();
-        this.rulesOutputStream.print(assistant.getFormatter().header());
+    /**
+     * It defines the file where the mined rules will be written. It takes
+     * precedence over the output stream.
+     *
+     * @param file
+     */
+    public void setRulesOutputFile(File file) {
+        this.rulesOutputFile = file;
+    }
+
+    /**
+     * It writes the rules in the binary format of {@link BinaryRules}. It
+     * requires an output file.
+     *
+     * @param binaryOutput
+     */
+    public void setBinaryOutput(boolean binaryOutput) {
+        this.binaryOutput = binaryOutput;
     }
 
-    public void outputRule(Rule rule) {
-        this.rulesOutputStream.println(assistant.formatRule(rule));
+    protected RuleWriter getRuleWriter() throws IOException {
+        if (ruleWriter == null) {
+            if (binaryOutput) {
+                ruleWriter = RuleWriter.binary(assistant.getKb(), rulesOutputFile);
+            } else if (rulesOutputFile != null) {
+                ruleWriter = new RuleWriter(assistant.getFormatter(), assistant.getKb(), rulesOutputFile);
+            } else {
+                ruleWriter = new RuleWriter(assistant.getFormatter(), assistant.getKb(), rulesOutputStream);
+            }
+        }
+        return ruleWriter;
     }
 
-    public void closeOutput() {
+    public void outputHeader() throws IOException {
+        getRuleWriter().write(System.lineSeparator() + assistant.getFormatter().header());
+    }
+
+    public void outputRule(Rule rule) throws IOException {
+        getRuleWriter().write(rule);
+    }
+
+    public void closeOutput() throws IOException {
+        if (ruleWriter != null) {
+            ruleWriter.close();
+        }
         if (this.rulesOutputStream != System.out) {
             this.rulesOutputStream.close();
         }
     }
 
+    /**
+     * It loads the statistics of the KB stored in the given directory for the
+     * given input files, if there are any and they match the KB.
+     *
+     * @param kb
+     * @param dataFiles
+     * @param directory
+     * @param needOverlapTables If true, statistics without overlap tables are not loaded
+     * @return The file where the statistics of the KB are stored, or null if the
+     * statistics cannot be stored.
+     */
+    private static File loadStatistics(KB kb, List<File> dataFiles, File directory, boolean needOverlapTables) {
+        File statisticsFile;
+        try {
+            String hash = KBStatistics.contentHash(dataFiles,
+                    kb.getClass().getName() + kb.getDelimiter());
+            statisticsFile = KBStatistics.getFile(directory, hash);
+        } catch (IOException e) {
+            System.err.println("Could not hash the input files: " + e.getMessage());
+            return null;
+        }
+        if (!statisticsFile.exists())
+            return statisticsFile;
+
+        try {
+            KBStatistics statistics = KBStatistics.read(statisticsFile);
+            if (!statistics.matches(kb)) {
+                System.err.println("The statistics in " + statisticsFile + " do not match the KB, "
+                        + "they will be computed again.");
+            } else if (!needOverlapTables || statistics.hasOverlapTables()) {
+                statistics.applyTo(kb);
+                System.out.println("KB statistics loaded from " + statisticsFile);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read the statistics in " + statisticsFile + ": " + e.getMessage());
+        }
+        return statisticsFile;
+    }
+
+    private static void saveStatistics(KB kb, File statisticsFile) {
+        File directory = statisticsFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            System.err.println("Could not create the statistics directory " + directory);
+            return;
+        }
+        try {
+            KBStatistics.compute(kb).write(statisticsFile);
+            System.out.println("KB statistics stored in " + statisticsFile);
+        } catch (IOException e) {
+            System.err.println("Could not write the statistics in " + statisticsFile + ": " + e.getMessage());
+        }
+    }
+
     private static String formatDuration(long durationInMillis) {
         final long millisInSecond = 1000;
         final long millisInMinute = millisInSecond * 60;
@@ -1145,6 +1977,14 @@ public class AMIE {
         System.out.println("Mining done in " + formatDuration(miningTime));
         Announce.done("Total time " + formatDuration(miningTime + loadingTime));
         System.out.println(rules.size() + " rules mined.");
+
+        if (miner.getPredictionsFile() != null) {
+            time = System.currentTimeMillis();
+            Predictions predictions = miner.predict(rules);
+            System.out.println(predictions.size() + " facts predicted in "
+                    + formatDuration(System.currentTimeMillis() - time) + ", written to "
+                    + miner.getPredictionsFile());
+        }
     }
 
 }
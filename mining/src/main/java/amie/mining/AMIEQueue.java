@@ -1,10 +1,12 @@
 package amie.mining;
 
-import static amie.data.U.increase;
-
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -20,28 +22,83 @@ import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
  * search strategy are always dequeued and refined before any rule corresponding
  * to the (n+1)th-round.
  *
+ * Rules of the next round are deduplicated by a {@link Frontier}. By default it
+ * is a concurrent set keyed by the canonical hash code of the rules, so that mining
+ * threads can enqueue rules without a global lock. A {@link SpillingFrontier}
+ * bounds the memory used by the next round by writing rules to disk.
+ *
+ * The rules of a round are dequeued in the order of the frontier, or sorted with
+ * the order given to {@link #setOrder(Comparator)}, e.g., by decreasing estimated
+ * cost so that the longest rules do not delay the end of the round.
+ *
  * @author galarrag
  */
 public final class AMIEQueue {
 	private final Lock lock = new ReentrantLock();
-	private final Lock qlock = new ReentrantLock();
 
 	private final Condition empty = lock.newCondition();
 
+	private final Condition checkpointDone = lock.newCondition();
+
 	private Iterator<Rule> current;
 
-	private LinkedHashSet<Rule> next;
+	/**
+	 * Rules of the next round. It is only drained when all threads
+	 * wait in dequeue, i.e., when no thread can be adding rules.
+	 */
+	private final Frontier next;
+
+	private volatile int generation;
 
-	private int generation;
+	private volatile int maxThreads;
 
-	private int maxThreads;
+	private volatile int waitingThreads = 0;
 
-	private int waitingThreads = 0;
+	/**
+	 * Number of rules of the current round and number of them already dequeued
+	 */
+	private volatile int currentSize;
+
+	private volatile int polled;
+
+	/**
+	 * Order of the rules of a round, null for the order of the frontier
+	 */
+	private Comparator<Rule> order;
+
+	/**
+	 * Receives the state of the queue when a checkpoint is taken.
+	 */
+	public interface CheckpointWriter {
+		/**
+		 * @param generation The current generation
+		 * @param remaining Rules of the current generation not dequeued yet
+		 * @param next Rules of the next generation
+		 * @throws IOException
+		 */
+		void write(int generation, List<Rule> remaining, List<Rule> next) throws IOException;
+	}
+
+	private CheckpointWriter checkpointWriter;
+
+	private volatile boolean checkpointRequested = false;
+
+	/**
+	 * Number of threads waiting for a checkpoint to be taken
+	 */
+	private int pausedThreads = 0;
 
 	private Int2IntMap queueCalls = new Int2IntOpenHashMap();
 	private Int2IntMap queueAdded = new Int2IntOpenHashMap();
 
+	private final AtomicInteger generationCalls = new AtomicInteger();
+	private final AtomicInteger generationAdded = new AtomicInteger();
+
 	public void printStats() {
+		lock.lock();
+		queueCalls.put(this.generation, generationCalls.get());
+		queueAdded.put(this.generation, generationAdded.get());
+		lock.unlock();
 		System.err.println("AMIE Queue statistics:");
 		int gen = 1;
 		while (queueCalls.containsKey(gen)) {
@@ -51,32 +108,80 @@ public final class AMIEQueue {
 	}
 
 	public AMIEQueue(Collection<Rule> seeds, int maxThreads) {
+		this(seeds, maxThreads, new InMemoryFrontier());
+	}
+
+	/**
+	 * @param seeds
+	 * @param maxThreads
+	 * @param frontier Holds the rules of the next generation
+	 */
+	public AMIEQueue(Collection<Rule> seeds, int maxThreads, Frontier frontier) {
 		this.generation = 1;
 		this.queueCalls.put(this.generation, 0);
 		this.queueAdded.put(this.generation, 0);
 		this.maxThreads = maxThreads;
 		this.waitingThreads = 0;
-		this.next = new LinkedHashSet<>();
+		this.next = frontier;
 		this.queueAll(seeds);
 		this.nextGeneration();
 		this.done = false;
 	}
 
+	/**
+	 * It rebuilds a queue from a checkpoint.
+	 *
+	 * @param generation
+	 * @param remaining Rules of the current generation that had not been dequeued
+	 * @param next Rules already queued for the next generation
+	 * @param maxThreads
+	 */
+	public AMIEQueue(int generation, Collection<Rule> remaining, Collection<Rule> next, int maxThreads) {
+		this(generation, remaining, next, maxThreads, new InMemoryFrontier());
+	}
+
+	/**
+	 * It rebuilds a queue from a checkpoint.
+	 *
+	 * @param generation
+	 * @param remaining Rules of the current generation that had not been dequeued
+	 * @param next Rules already queued for the next generation
+	 * @param maxThreads
+	 * @param frontier Holds the rules of the next generation
+	 */
+	public AMIEQueue(int generation, Collection<Rule> remaining, Collection<Rule> next, int maxThreads,
+			Frontier frontier) {
+		this.generation = generation;
+		this.queueCalls.put(this.generation, 0);
+		this.queueAdded.put(this.generation, 0);
+		this.maxThreads = maxThreads;
+		this.waitingThreads = 0;
+		List<Rule> rules = new ArrayList<>(remaining);
+		this.current = rules.iterator();
+		this.currentSize = rules.size();
+		this.next = frontier;
+		for (Rule r : next) {
+			this.next.add(r);
+		}
+		this.done = false;
+	}
+
 	/**
 	 * Adds a collection of items to the queue.
 	 *
 	 * @param rules
 	 */
 	public void queueAll(Collection<Rule> rules) {
-		qlock.lock();
+		int gen = generation;
+		int added = 0;
 		for (Rule r : rules) {
-			increase(queueCalls, this.generation);
-			r.setGeneration(generation);
+			r.setGeneration(gen);
 			if (next.add(r)) {
-				increase(queueAdded, this.generation);
+				++added;
 			}
 		}
-		qlock.unlock();
+		generationCalls.addAndGet(rules.size());
+		generationAdded.addAndGet(added);
 	}
 
 	private boolean done = false;
@@ -84,6 +189,9 @@ public final class AMIEQueue {
 	public Rule dequeue() throws InterruptedException {
 		lock.lock();
 		Rule item = null;
+		if (checkpointRequested && !done) {
+			awaitCheckpoint();
+		}
 		while (!current.hasNext() && !done) {
 			++waitingThreads;
 			if (waitingThreads < maxThreads) {
@@ -108,21 +216,154 @@ public final class AMIEQueue {
 		return item;
 	}
 
+	/**
+	 * It makes the calling thread wait until all threads have finished refining
+	 * their current rule. The last thread to arrive writes the checkpoint. At that
+	 * point every dequeued rule has been fully processed, so the remaining rules of
+	 * the current generation and the rules of the next one describe the state
+	 * of the search. It must be called with the lock held.
+	 */
+	private void awaitCheckpoint() throws InterruptedException {
+		++pausedThreads;
+		if (pausedThreads + waitingThreads >= maxThreads) {
+			List<Rule> remaining = new ArrayList<>(Math.max(0, currentSize - polled));
+			current.forEachRemaining(remaining::add);
+			current = remaining.iterator();
+			currentSize = remaining.size();
+			polled = 0;
+			List<Rule> nextRules = next.snapshot();
+			try {
+				checkpointWriter.write(generation, remaining, nextRules);
+			} catch (IOException e) {
+				System.err.println("Could not write the checkpoint: " + e.getMessage());
+			} finally {
+				checkpointRequested = false;
+				checkpointDone.signalAll();
+			}
+		} else {
+			while (checkpointRequested) {
+				checkpointDone.await();
+			}
+		}
+		--pausedThreads;
+	}
+
+	/**
+	 * It asks the mining threads to pause and write a checkpoint with the given
+	 * writer before they dequeue their next rule.
+	 */
+	public void requestCheckpoint() {
+		lock.lock();
+		if (checkpointWriter != null && !done) {
+			checkpointRequested = true;
+		}
+		lock.unlock();
+	}
+
+	/**
+	 * It sets the order in which the rules of each round are dequeued. The rules
+	 * of the current round are sorted if none has been dequeued yet. Sorting a
+	 * round keeps all its rules in memory.
+	 *
+	 * @param order null for the order of the frontier
+	 */
+	public void setOrder(Comparator<Rule> order) {
+		lock.lock();
+		try {
+			this.order = order;
+			if (order != null && polled == 0) {
+				sortCurrent();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void sortCurrent() {
+		List<Rule> rules = new ArrayList<>(currentSize);
+		current.forEachRemaining(rules::add);
+		rules.sort(order);
+		current = rules.iterator();
+	}
+
+	public void setCheckpointWriter(CheckpointWriter checkpointWriter) {
+		lock.lock();
+		this.checkpointWriter = checkpointWriter;
+		lock.unlock();
+	}
+
 	/**
 	 * Retrieves and removes an item from the current queue.
 	 *
 	 * @return
 	 */
 	private Rule poll() {
+		++polled;
 		return current.next();
 	}
 
 	private void nextGeneration() {
+		Frontier.Drained rules = next.drain();
+		generationAdded.set(0);
+		// Duplicates may only be detected when the frontier is drained
+		this.queueCalls.put(this.generation, generationCalls.getAndSet(0));
+		this.queueAdded.put(this.generation, rules.size);
 		generation++;
 		this.queueCalls.put(this.generation, 0);
 		this.queueAdded.put(this.generation, 0);
-		current = next.iterator();
-		next = new LinkedHashSet<>();
+		current = rules.rules;
+		currentSize = rules.size;
+		polled = 0;
+		if (order != null) {
+			sortCurrent();
+		}
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return The number of rules queued for the next generation. Rules spilled to
+	 * disk are counted before removing duplicates.
+	 */
+	public int getNextSize() {
+		return next.size();
+	}
+
+	/**
+	 * @return The number of rules of the current generation that have not been dequeued yet
+	 */
+	public int getCurrentRemaining() {
+		return Math.max(0, currentSize - polled);
+	}
+
+	/**
+	 * @return The number of threads that are not waiting for the next generation
+	 */
+	public int getActiveThreads() {
+		return Math.max(0, maxThreads - waitingThreads);
+	}
+
+	/**
+	 * @return For each finished generation, the number of distinct rules it produced
+	 */
+	public Int2IntMap getGenerationSizes() {
+		lock.lock();
+		try {
+			Int2IntMap sizes = new Int2IntOpenHashMap(queueAdded);
+			sizes.remove(generation);
+			return sizes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of rules queued in the current generation, including duplicates
+	 */
+	public int getGenerationCalls() {
+		return generationCalls.get();
 	}
 
 	public void decrementMaxThreads() {
@@ -0,0 +1,232 @@
+package amie.mining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * State of an interrupted mining run: the rules of the current generation that
+ * had not been dequeued, the rules queued for the next generation and the rules
+ * output so far. The parents of all these rules are stored too, since they are
+ * used by the skyline pruning.
+ *
+ * Rules are stored in a compact binary file. Their constants, relations and variables
+ * are replaced by indexes in a dictionary of strings, so that a checkpoint can be
+ * loaded in a KB where the strings have different identifiers.
+ *
+ * @author lgalarra
+ *
+ */
+public class Checkpoint {
+
+	private static final String MAGIC = "AMIE-CHECKPOINT";
+
+	private static final int VERSION = 1;
+
+	private final String configuration;
+
+	private final int generation;
+
+	private final List<Rule> remaining;
+
+	private final List<Rule> next;
+
+	private final List<Rule> output;
+
+	/**
+	 * @param configuration Description of the mining parameters, a checkpoint should
+	 * only be resumed with the same parameters.
+	 * @param generation
+	 * @param remaining
+	 * @param next
+	 * @param output
+	 */
+	public Checkpoint(String configuration, int generation, List<Rule> remaining, List<Rule> next,
+			List<Rule> output) {
+		this.configuration = configuration;
+		this.generation = generation;
+		this.remaining = remaining;
+		this.next = next;
+		this.output = output;
+	}
+
+	public String getConfiguration() {
+		return configuration;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public List<Rule> getRemaining() {
+		return remaining;
+	}
+
+	public List<Rule> getNext() {
+		return next;
+	}
+
+	public List<Rule> getOutput() {
+		return output;
+	}
+
+	/**
+	 * It assigns consecutive identifiers to the given rules and to all their
+	 * ancestors.
+	 */
+	private static Map<Rule, Integer> collectRules(List<Collection<Rule>> roots, List<Rule> rules) {
+		Map<Rule, Integer> ids = new IdentityHashMap<>();
+		Deque<Rule> stack = new ArrayDeque<>();
+		for (Collection<Rule> collection : roots) {
+			stack.addAll(collection);
+		}
+		while (!stack.isEmpty()) {
+			Rule rule = stack.pop();
+			if (ids.containsKey(rule))
+				continue;
+			ids.put(rule, rules.size());
+			rules.add(rule);
+			for (Rule parent : rule.getAncestors()) {
+				// Seed rules may have a null parent
+				if (parent != null)
+					stack.push(parent);
+			}
+		}
+		return ids;
+	}
+
+	private static void writeIds(DataOutputStream out, List<Rule> rules, Map<Rule, Integer> ids) throws IOException {
+		out.writeInt(rules.size());
+		for (Rule rule : rules) {
+			out.writeInt(ids.get(rule));
+		}
+	}
+
+	private static List<Rule> readIds(DataInputStream in, Rule[] rules) throws IOException {
+		int size = in.readInt();
+		List<Rule> result = new ArrayList<>(size);
+		for (int i = 0; i < size; ++i) {
+			result.add(rules[in.readInt()]);
+		}
+		return result;
+	}
+
+	/**
+	 * It writes the checkpoint. The file is replaced atomically, so an interruption
+	 * while writing leaves the previous checkpoint intact.
+	 * @param file
+	 * @param kb Used to translate the identifiers of the rules into strings
+	 * @throws IOException
+	 */
+	public void write(File file, AbstractKB kb) throws IOException {
+		List<Rule> rules = new ArrayList<>();
+		List<Collection<Rule>> roots = new ArrayList<>();
+		roots.add(remaining);
+		roots.add(next);
+		roots.add(output);
+		Map<Rule, Integer> ids = collectRules(roots, rules);
+
+		Int2IntMap dictionary = new Int2IntOpenHashMap();
+		List<String> strings = new ArrayList<>();
+		for (Rule rule : rules) {
+			for (int[] triple : rule.getTriples()) {
+				for (int value : triple) {
+					if (!dictionary.containsKey(value)) {
+						dictionary.put(value, strings.size());
+						strings.add(kb.unmap(value));
+					}
+				}
+			}
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+			out.writeUTF(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(configuration);
+			out.writeInt(generation);
+			out.writeInt(strings.size());
+			for (String string : strings) {
+				out.writeUTF(string);
+			}
+			out.writeInt(rules.size());
+			for (Rule rule : rules) {
+				rule.writeState(out, dictionary::get);
+			}
+			for (Rule rule : rules) {
+				int nParents = 0;
+				for (Rule parent : rule.getAncestors()) {
+					if (parent != null)
+						++nParents;
+				}
+				out.writeInt(nParents);
+				for (Rule parent : rule.getAncestors()) {
+					if (parent != null)
+						out.writeInt(ids.get(parent));
+				}
+			}
+			writeIds(out, remaining, ids);
+			writeIds(out, next, ids);
+			writeIds(out, output, ids);
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * It reads a checkpoint written by {@link #write(File, AbstractKB)}.
+	 * @param file
+	 * @param kb The KB the rules are mined from
+	 * @return
+	 * @throws IOException If the file cannot be read or is not a checkpoint
+	 */
+	public static Checkpoint read(File file, AbstractKB kb) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (!MAGIC.equals(in.readUTF()) || in.readInt() != VERSION)
+				throw new IOException(file + " is not a checkpoint of this version");
+			String configuration = in.readUTF();
+			int generation = in.readInt();
+			int[] dictionary = new int[in.readInt()];
+			for (int i = 0; i < dictionary.length; ++i) {
+				dictionary[i] = kb.map(in.readUTF());
+			}
+			Rule[] rules = new Rule[in.readInt()];
+			for (int i = 0; i < rules.length; ++i) {
+				rules[i] = Rule.readState(in, index -> dictionary[index], kb);
+			}
+			for (Rule rule : rules) {
+				int nParents = in.readInt();
+				for (int i = 0; i < nParents; ++i) {
+					rule.addParent(rules[in.readInt()]);
+				}
+			}
+			List<Rule> remaining = readIds(in, rules);
+			List<Rule> next = readIds(in, rules);
+			List<Rule> output = readIds(in, rules);
+			return new Checkpoint(configuration, generation, remaining, next, output);
+		}
+	}
+}
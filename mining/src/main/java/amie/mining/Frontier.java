@@ -0,0 +1,58 @@
+package amie.mining;
+
+import java.util.Iterator;
+import java.util.List;
+
+import amie.rules.Rule;
+
+/**
+ * Set of the rules queued for the next generation of the breadth-first search
+ * of {@link AMIEQueue}. Rules can be added concurrently by the mining threads;
+ * the other methods are only called when no thread is adding rules.
+ *
+ * @author lgalarra
+ *
+ */
+public interface Frontier {
+
+	/**
+	 * Rules of a generation, in the order they are dequeued.
+	 */
+	final class Drained {
+		public final Iterator<Rule> rules;
+
+		public final int size;
+
+		public Drained(Iterator<Rule> rules, int size) {
+			this.rules = rules;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * It adds a rule unless an equal rule has been added before. It can be called
+	 * by several threads at the same time.
+	 * @param rule
+	 * @return False if the rule was known to be a duplicate
+	 */
+	boolean add(Rule rule);
+
+	/**
+	 * @return The number of rules added since the last call to {@link #drain()}.
+	 * Duplicates that have not been detected yet may be counted.
+	 */
+	int size();
+
+	boolean isEmpty();
+
+	/**
+	 * It returns the distinct rules added since the last call and empties the frontier.
+	 */
+	Drained drain();
+
+	/**
+	 * @return The distinct rules added since the last call to {@link #drain()}, the
+	 * frontier is not modified.
+	 */
+	List<Rule> snapshot();
+}
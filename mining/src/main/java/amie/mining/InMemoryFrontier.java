@@ -0,0 +1,67 @@
+package amie.mining;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import amie.rules.Rule;
+
+/**
+ * Frontier that keeps the rules in a concurrent set keyed by their canonical hash
+ * code, so that mining threads can add rules without a global lock and rules are
+ * only compared with {@link Rule#equals(Object)} when their canonical hash codes
+ * collide.
+ *
+ * @author galarrag
+ */
+public class InMemoryFrontier implements Frontier {
+
+	/**
+	 * The set is only replaced when no thread can be adding rules.
+	 */
+	private volatile Set<QueuedRule> rules = ConcurrentHashMap.newKeySet();
+
+	@Override
+	public boolean add(Rule rule) {
+		return rules.add(new QueuedRule(rule));
+	}
+
+	@Override
+	public int size() {
+		return rules.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return rules.isEmpty();
+	}
+
+	/**
+	 * It returns the rules added so far and empties the frontier.
+	 */
+	Set<QueuedRule> swap() {
+		Set<QueuedRule> old = rules;
+		rules = ConcurrentHashMap.newKeySet();
+		return old;
+	}
+
+	@Override
+	public Drained drain() {
+		Set<QueuedRule> old = swap();
+		List<Rule> result = new ArrayList<>(old.size());
+		for (QueuedRule queued : old) {
+			result.add(queued.rule);
+		}
+		return new Drained(result.iterator(), result.size());
+	}
+
+	@Override
+	public List<Rule> snapshot() {
+		List<Rule> result = new ArrayList<>(rules.size());
+		for (QueuedRule queued : rules) {
+			result.add(queued.rule);
+		}
+		return result;
+	}
+}
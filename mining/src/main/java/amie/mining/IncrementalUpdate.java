@@ -0,0 +1,307 @@
+package amie.mining;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import amie.data.KB;
+import amie.data.KBDelta;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ByteMap;
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+/**
+ * Updates the metrics of rules mined on a KB after a {@link KBDelta} has been
+ * applied to the KB, without evaluating the rules on the whole KB.
+ *
+ * The support, body size and PCA body size of a rule count distinct instantiations
+ * of the variables of the head (the keys). Only the keys that have a derivation using
+ * a fact of the delta can change: the facts added by the delta are matched with the
+ * atoms of the rule in the current KB, and the removed facts in the KB before the delta.
+ * For each such key the rule is evaluated before and after the delta, and the
+ * difference is added to the metrics. The metrics follow the definitions of the
+ * default mining assistant.
+ *
+ * @author lgalarra
+ *
+ */
+public class IncrementalUpdate {
+
+	private static final byte HEAD = 1;
+
+	private static final byte BODY = 2;
+
+	private static final byte PCA_BODY = 4;
+
+	private final KB kb;
+
+	private final KBDelta delta;
+
+	/**
+	 * Variable used by the mining assistant for the existential atom of the PCA
+	 */
+	private final int existentialVariable;
+
+	/**
+	 * @param kb
+	 * @param delta A delta applied to the KB
+	 */
+	public IncrementalUpdate(KB kb, KBDelta delta) {
+		this.kb = kb;
+		this.delta = delta;
+		this.existentialVariable = kb.map("?x9");
+	}
+
+	/**
+	 * State of the update of a single rule.
+	 */
+	private class RuleUpdate {
+
+		final Rule rule;
+
+		final int[] head;
+
+		final List<int[]> body;
+
+		/**
+		 * Existential version of the head used by the PCA, null if the PCA body size
+		 * is not computed.
+		 */
+		final int[] existential;
+
+		/**
+		 * The variables of the head, the second one is 0 if the head has only one
+		 * variable. If there are two, the first one is the subject.
+		 */
+		final int firstVariable;
+
+		final int secondVariable;
+
+		final int firstPosition;
+
+		final LongSet keys = new LongOpenHashSet();
+
+		final Long2ByteMap previousStatus = new Long2ByteOpenHashMap();
+
+		RuleUpdate(Rule rule) {
+			this.rule = rule;
+			this.head = rule.getHead();
+			this.body = rule.getBody();
+			this.firstPosition = KB.isVariable(head[0]) ? 0 : 2;
+			this.firstVariable = head[firstPosition];
+			int second = KB.isVariable(head[0]) && KB.isVariable(head[2]) && head[0] != head[2] ? head[2] : 0;
+			this.secondVariable = second;
+			if (rule.isPcaConfidenceComputed()) {
+				int[] existential = head.clone();
+				int freeVarPos;
+				if (second == 0) {
+					freeVarPos = KB.firstVariablePos(head) == 0 ? 2 : 0;
+				} else {
+					freeVarPos = head[0] == rule.getFunctionalVariable() ? 2 : 0;
+				}
+				existential[freeVarPos] = existentialVariable;
+				this.existential = existential;
+			} else {
+				this.existential = null;
+			}
+		}
+
+		long key(int firstValue, int secondValue) {
+			return secondVariable == 0 ? firstValue : ((long) firstValue << 32) | (secondValue & 0xFFFFFFFFL);
+		}
+
+		int[] bindings(long key) {
+			if (secondVariable == 0)
+				return new int[] { firstVariable, (int) key };
+			return new int[] { firstVariable, (int) (key >>> 32), secondVariable, (int) key };
+		}
+
+		/**
+		 * It adds the keys of the instantiations of the rule that match the fact with
+		 * the given atom.
+		 */
+		void collect(int[] atom, int[] fact) {
+			int[] bindings = Rule.unify(atom, fact);
+			if (bindings == null)
+				return;
+			int[] boundHead = Rule.substitute(head, bindings);
+			boolean firstBound = !KB.isVariable(boundHead[firstPosition]);
+			boolean secondBound = secondVariable == 0 || !KB.isVariable(boundHead[2]);
+			if (firstBound && secondBound) {
+				keys.add(key(boundHead[firstPosition], boundHead[2]));
+				return;
+			}
+			List<int[]> boundBody = new ArrayList<>(body.size());
+			for (int[] bodyAtom : body) {
+				boundBody.add(Rule.substitute(bodyAtom, bindings));
+			}
+			if (firstBound) {
+				for (int value : kb.selectDistinct(secondVariable, boundBody)) {
+					keys.add(key(boundHead[firstPosition], value));
+				}
+			} else if (secondBound) {
+				for (int value : kb.selectDistinct(firstVariable, boundBody)) {
+					keys.add(key(value, secondVariable == 0 ? 0 : boundHead[2]));
+				}
+			} else {
+				for (Int2ObjectMap.Entry<IntSet> entry : kb.selectDistinct(firstVariable, secondVariable, boundBody)
+						.int2ObjectEntrySet()) {
+					for (int value : entry.getValue()) {
+						keys.add(key(entry.getIntKey(), value));
+					}
+				}
+			}
+		}
+
+		void collect(Int2ObjectMap<List<int[]>> facts) {
+			collect(head, facts);
+			for (int[] atom : body) {
+				collect(atom, facts);
+			}
+			if (existential != null)
+				collect(existential, facts);
+		}
+
+		private void collect(int[] atom, Int2ObjectMap<List<int[]>> facts) {
+			if (KB.isVariable(atom[1])) {
+				for (List<int[]> relationFacts : facts.values()) {
+					for (int[] fact : relationFacts) {
+						collect(atom, fact);
+					}
+				}
+			} else if (facts.containsKey(atom[1])) {
+				for (int[] fact : facts.get(atom[1])) {
+					collect(atom, fact);
+				}
+			}
+		}
+
+		/**
+		 * @return Whether the head, the body and the PCA body hold for the key in the
+		 * current state of the KB
+		 */
+		byte status(long key) {
+			int[] bindings = bindings(key);
+			List<int[]> boundBody = new ArrayList<>(body.size());
+			for (int[] atom : body) {
+				boundBody.add(Rule.substitute(atom, bindings));
+			}
+			byte status = 0;
+			if (kb.count(Rule.substitute(head, bindings)) > 0)
+				status |= HEAD;
+			if (kb.existsBS1(boundBody)) {
+				status |= BODY;
+				if (existential != null && kb.count(Rule.substitute(existential, bindings)) > 0)
+					status |= PCA_BODY;
+			}
+			return status;
+		}
+
+		void recordPreviousStatus() {
+			for (long key : keys) {
+				previousStatus.put(key, status(key));
+			}
+		}
+
+		void updateMetrics() {
+			long support = 0, bodySize = 0, pcaBodySize = 0;
+			for (long key : keys) {
+				byte before = previousStatus.get(key);
+				byte after = status(key);
+				support += holds(after, HEAD | BODY) - holds(before, HEAD | BODY);
+				bodySize += holds(after, BODY) - holds(before, BODY);
+				pcaBodySize += holds(after, PCA_BODY) - holds(before, PCA_BODY);
+			}
+			rule.setSupport(rule.getSupport() + support);
+			if (rule.isStdConfidenceComputed())
+				rule.setBodySize(rule.getBodySize() + bodySize);
+			if (existential != null)
+				rule.setPcaBodySize(rule.getPcaBodySize() + pcaBodySize);
+			rule.setSupportRatio(rule.getSupport() / kb.size());
+			if (!KB.isVariable(head[1])) {
+				int relationSize = kb.relationSize(head[1]);
+				rule.setHeadCoverage(relationSize == 0 ? 0.0 : rule.getSupport() / relationSize);
+			}
+		}
+	}
+
+	private static int holds(byte status, int flags) {
+		return (status & flags) == flags ? 1 : 0;
+	}
+
+	private static Int2ObjectMap<List<int[]>> byRelation(List<int[]> facts) {
+		Int2ObjectMap<List<int[]>> result = new Int2ObjectOpenHashMap<>();
+		for (int[] fact : facts) {
+			List<int[]> relationFacts = result.get(fact[1]);
+			if (relationFacts == null) {
+				relationFacts = new ArrayList<>();
+				result.put(fact[1], relationFacts);
+			}
+			relationFacts.add(fact);
+		}
+		return result;
+	}
+
+	/**
+	 * It runs the task on every rule and waits for all of them, the KB must not
+	 * change in the meantime.
+	 */
+	private static void forEach(ExecutorService pool, List<RuleUpdate> updates,
+			Consumer<RuleUpdate> task) throws InterruptedException {
+		List<Future<?>> results = new ArrayList<>(updates.size());
+		for (RuleUpdate update : updates) {
+			results.add(pool.submit(() -> task.accept(update)));
+		}
+		for (int i = 0; i < results.size(); ++i) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Could not update the rule " + updates.get(i).rule, e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * It updates the support, head coverage, body size and PCA body size of the rules.
+	 * The KB is temporarily brought back to its state before the delta, so no
+	 * other thread may use it during the update.
+	 *
+	 * @param rules Rules whose metrics were computed before the delta was applied
+	 * @param nThreads
+	 * @throws InterruptedException
+	 */
+	public void update(List<Rule> rules, int nThreads) throws InterruptedException {
+		if (!delta.isApplied())
+			throw new IllegalStateException("The delta must be applied to the KB");
+		List<RuleUpdate> updates = new ArrayList<>(rules.size());
+		for (Rule rule : rules) {
+			if (!rule.getBody().isEmpty())
+				updates.add(new RuleUpdate(rule));
+		}
+		Int2ObjectMap<List<int[]>> added = byRelation(delta.getAdded());
+		Int2ObjectMap<List<int[]>> removed = byRelation(delta.getRemoved());
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			forEach(pool, updates, update -> update.collect(added));
+			delta.revert(kb);
+			try {
+				forEach(pool, updates, update -> update.collect(removed));
+				forEach(pool, updates, RuleUpdate::recordPreviousStatus);
+			} finally {
+				delta.apply(kb);
+			}
+			forEach(pool, updates, RuleUpdate::updateMetrics);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package amie.mining;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import amie.data.AbstractKB;
+import amie.data.Profiler;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+
+/**
+ * Live metrics of a mining run, served in the Prometheus text format over HTTP
+ * at /metrics. The mining threads only update a few counters; the rest of the
+ * metrics are read from the queue, the {@link Profiler} and the JVM when the
+ * endpoint is scraped.
+ *
+ * @author lgalarra
+ *
+ */
+public class MiningMetrics {
+
+	private final AbstractKB kb;
+
+	private final long startTime = System.nanoTime();
+
+	private final LongAdder dequeued = new LongAdder();
+
+	private final LongAdder output = new LongAdder();
+
+	/**
+	 * For each head relation, the number of rules dequeued and output
+	 */
+	private final Map<Integer, LongAdder[]> headProgress = new ConcurrentHashMap<>();
+
+	private volatile AMIEQueue queue;
+
+	private HttpServer server;
+
+	public MiningMetrics(AbstractKB kb) {
+		this.kb = kb;
+	}
+
+	/**
+	 * It starts serving the metrics on the given port of the loopback interface in a
+	 * background thread.
+	 * @param port
+	 * @throws IOException
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] body = format().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "metrics-server");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	public void setQueue(AMIEQueue queue) {
+		this.queue = queue;
+	}
+
+	private LongAdder[] progress(Rule rule) {
+		return headProgress.computeIfAbsent(rule.getHead()[1], k -> new LongAdder[] { new LongAdder(), new LongAdder() });
+	}
+
+	public void ruleDequeued(Rule rule) {
+		dequeued.increment();
+		progress(rule)[0].increment();
+	}
+
+	public void ruleOutput(Rule rule) {
+		output.increment();
+		progress(rule)[1].increment();
+	}
+
+	private static void header(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static String label(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * @return The current metrics in the Prometheus text format
+	 */
+	public String format() {
+		StringBuilder text = new StringBuilder();
+		double uptime = (System.nanoTime() - startTime) / 1e9;
+		header(text, "amie_uptime_seconds", "gauge", "Seconds since the metrics endpoint was started");
+		text.append("amie_uptime_seconds ").append(uptime).append('\n');
+
+		header(text, "amie_rules_dequeued_total", "counter", "Rules dequeued by the mining threads");
+		text.append("amie_rules_dequeued_total ").append(dequeued.sum()).append('\n');
+		header(text, "amie_rules_output_total", "counter", "Rules output");
+		text.append("amie_rules_output_total ").append(output.sum()).append('\n');
+
+		AMIEQueue q = queue;
+		if (q != null) {
+			header(text, "amie_queue_generation", "gauge", "Current generation of the queue");
+			text.append("amie_queue_generation ").append(q.getGeneration()).append('\n');
+			header(text, "amie_queue_current_remaining", "gauge", "Rules of the current generation not yet dequeued");
+			text.append("amie_queue_current_remaining ").append(q.getCurrentRemaining()).append('\n');
+			header(text, "amie_queue_next_size", "gauge", "Distinct rules queued for the next generation");
+			text.append("amie_queue_next_size ").append(q.getNextSize()).append('\n');
+			header(text, "amie_queue_generation_size", "gauge", "Distinct rules produced by each finished generation");
+			for (Int2IntMap.Entry entry : q.getGenerationSizes().int2IntEntrySet()) {
+				text.append("amie_queue_generation_size{generation=\"").append(entry.getIntKey()).append("\"} ")
+						.append(entry.getIntValue()).append('\n');
+			}
+			header(text, "amie_active_threads", "gauge", "Mining threads not waiting for the next generation");
+			text.append("amie_active_threads ").append(q.getActiveThreads()).append('\n');
+		}
+
+		header(text, "amie_head_rules_dequeued_total", "counter", "Rules dequeued per head relation");
+		for (Map.Entry<Integer, LongAdder[]> entry : headProgress.entrySet()) {
+			text.append("amie_head_rules_dequeued_total{relation=\"").append(label(kb.unmap(entry.getKey())))
+					.append("\"} ").append(entry.getValue()[0].sum()).append('\n');
+		}
+		header(text, "amie_head_rules_output_total", "counter", "Rules output per head relation");
+		for (Map.Entry<Integer, LongAdder[]> entry : headProgress.entrySet()) {
+			text.append("amie_head_rules_output_total{relation=\"").append(label(kb.unmap(entry.getKey())))
+					.append("\"} ").append(entry.getValue()[1].sum()).append('\n');
+		}
+
+		header(text, "amie_kb_queries_total", "counter", "KB queries per method");
+		for (Map.Entry<String, Profiler.Timer> entry : Profiler.getQueryTimers().entrySet()) {
+			text.append("amie_kb_queries_total{method=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue().getCalls()).append('\n');
+		}
+		header(text, "amie_kb_query_seconds_total", "counter", "Time spent in KB queries per method");
+		for (Map.Entry<String, Profiler.Timer> entry : Profiler.getQueryTimers().entrySet()) {
+			text.append("amie_kb_query_seconds_total{method=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue().getNanos() / 1e9).append('\n');
+		}
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		header(text, "amie_heap_used_bytes", "gauge", "Used heap memory");
+		text.append("amie_heap_used_bytes ").append(heap.getUsed()).append('\n');
+		header(text, "amie_heap_max_bytes", "gauge", "Maximum heap memory");
+		text.append("amie_heap_max_bytes ").append(heap.getMax()).append('\n');
+		return text.toString();
+	}
+}
@@ -0,0 +1,243 @@
+package amie.mining;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import amie.data.AbstractKB;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import amie.rules.format.BinaryRules;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Splits the head relations of a run into partitions and mines each partition in
+ * a separate worker process. Rules with different head relations do not interact
+ * during the mining, so the union of the outputs of the workers is the output of
+ * a single run with the same parameters.
+ *
+ * The partitions are balanced with the longest-processing-time-first heuristic:
+ * relations are assigned, from the most to the least expensive, to the partition
+ * with the lowest total cost. The cost of a relation is given by the
+ * {@link RuleCostModel} of the costs file of the miner. Every worker loads the KB,
+ * writes its rules in the binary format to a temporary file and records the time
+ * spent on each of its relations, which updates the costs file. A worker that fails is started
+ * once more, and if it fails again its head relations are reported and the rules
+ * of the other partitions are returned.
+ *
+ * @author lgalarra
+ *
+ */
+public class PartitionedMining {
+
+	private final AMIE miner;
+
+	private final AbstractKB kb;
+
+	private final int nPartitions;
+
+	/**
+	 * Options and input files passed to every worker, besides the head relations,
+	 * the number of threads and the output
+	 */
+	private final List<String> workerArguments;
+
+	/**
+	 * @param miner
+	 * @param nPartitions
+	 * @param workerArguments Arguments of the workers, which must not set the head
+	 *                        relations, the number of threads, the output or the
+	 *                        costs file
+	 */
+	public PartitionedMining(AMIE miner, int nPartitions, List<String> workerArguments) {
+		if (nPartitions < 1)
+			throw new IllegalArgumentException("The number of partitions must be positive");
+		this.miner = miner;
+		this.kb = miner.getAssistant().getKb();
+		this.nPartitions = nPartitions;
+		this.workerArguments = workerArguments;
+	}
+
+	/**
+	 * @return The head relations of the run, those of the seed rules of the
+	 * assistant
+	 */
+	private IntSet headRelations() {
+		IntCollection seeds = miner.getSeeds();
+		Collection<Rule> seedRules = seeds == null || seeds.isEmpty()
+				? miner.getAssistant().getInitialAtoms(miner.minInitialSupport)
+				: miner.getAssistant().getInitialAtomsFromSeeds(seeds, miner.minInitialSupport);
+		IntSet relations = new IntLinkedOpenHashSet();
+		for (Rule rule : seedRules) {
+			relations.add(rule.getHead()[1]);
+		}
+		return relations;
+	}
+
+	/**
+	 * It assigns the relations, from the most to the least expensive, to the
+	 * partition with the lowest cost.
+	 *
+	 * @return The non-empty partitions
+	 */
+	static List<IntList> partition(Int2DoubleMap costs, int nPartitions) {
+		IntList relations = new IntArrayList(costs.keySet());
+		relations.sort((r1, r2) -> Double.compare(costs.get(r2), costs.get(r1)));
+		double[] load = new double[nPartitions];
+		List<IntList> partitions = new ArrayList<>(nPartitions);
+		PriorityQueue<Integer> lightest = new PriorityQueue<>(nPartitions,
+				Comparator.<Integer>comparingDouble(i -> load[i]).thenComparingInt(i -> i));
+		for (int i = 0; i < nPartitions; ++i) {
+			partitions.add(new IntArrayList());
+			lightest.add(i);
+		}
+		for (int relation : relations) {
+			int i = lightest.poll();
+			partitions.get(i).add(relation);
+			load[i] += costs.get(relation);
+			lightest.add(i);
+		}
+		partitions.removeIf(IntList::isEmpty);
+		return partitions;
+	}
+
+	private Process startWorker(IntList relations, int nThreads, File output, File costs, File log)
+			throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		// Memory settings and system properties, but no agents or debugging options
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if ((argument.startsWith("-X") && !argument.startsWith("-Xrunjdwp")) || argument.startsWith("-D"))
+				command.add(argument);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(AMIE.class.getName());
+		StringBuilder names = new StringBuilder();
+		for (int relation : relations) {
+			if (names.length() > 0)
+				names.append(',');
+			names.append(kb.unmap(relation));
+		}
+		command.add("-htr");
+		command.add(names.toString());
+		command.add("-nc");
+		command.add(String.valueOf(nThreads));
+		command.add("-ofmt");
+		command.add("binary");
+		command.add("-ofile");
+		command.add(output.getAbsolutePath());
+		command.add("-hcost");
+		command.add(costs.getAbsolutePath());
+		command.addAll(workerArguments);
+		return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+	}
+
+	/**
+	 * It mines the partitions in parallel and merges their rules.
+	 *
+	 * @return The rules of all partitions sorted by decreasing confidence and
+	 * support
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public List<Rule> mine() throws IOException, InterruptedException {
+		RuleCostModel costModel = RuleCostModel.read(kb, miner.getCostsFile());
+		Int2DoubleMap costs = new Int2DoubleOpenHashMap();
+		for (int relation : headRelations()) {
+			costs.put(relation, costModel.headCost(relation));
+		}
+		List<IntList> partitions = partition(costs, nPartitions);
+		int nThreads = Math.max(1, miner.nThreads / Math.max(1, partitions.size()));
+		File directory = Files.createTempDirectory("amie-partitions").toFile();
+		System.out.println("Mining " + costs.size() + " head relations in " + partitions.size()
+				+ " worker processes, " + nThreads + " threads per worker");
+
+		Process[] workers = new Process[partitions.size()];
+		long[] start = new long[partitions.size()];
+		long[] time = new long[partitions.size()];
+		boolean[] failed = new boolean[partitions.size()];
+		for (int attempt = 0; attempt < 2; ++attempt) {
+			for (int i = 0; i < partitions.size(); ++i) {
+				if (attempt == 0 || failed[i]) {
+					start[i] = System.currentTimeMillis();
+					workers[i] = startWorker(partitions.get(i), nThreads, new File(directory, i + ".rules"),
+							new File(directory, i + ".costs"), new File(directory, i + ".log"));
+				}
+			}
+			for (int i = 0; i < partitions.size(); ++i) {
+				if (attempt == 0 || failed[i]) {
+					int status = workers[i].waitFor();
+					time[i] = System.currentTimeMillis() - start[i];
+					failed[i] = status != 0 || !new File(directory, i + ".rules").exists();
+					if (failed[i]) {
+						System.err.println("The worker of partition " + i + " failed with status " + status
+								+ (attempt == 0 ? ", starting it again" : ""));
+					}
+				}
+			}
+		}
+
+		List<Rule> result = new ArrayList<>();
+		boolean complete = true;
+		for (int i = 0; i < partitions.size(); ++i) {
+			IntList relations = partitions.get(i);
+			File rules = new File(directory, i + ".rules");
+			if (failed[i]) {
+				complete = false;
+				StringBuilder names = new StringBuilder();
+				for (int relation : relations) {
+					names.append(' ').append(kb.unmap(relation));
+				}
+				System.err.println("No rules for the head relations" + names + ", see the log of the worker in "
+						+ new File(directory, i + ".log"));
+				continue;
+			}
+			result.addAll(BinaryRules.read(rules).toRules(kb));
+			File workerCosts = new File(directory, i + ".costs");
+			RuleCostModel observed = RuleCostModel.read(kb, workerCosts);
+			// Without the costs of the worker, the time of the partition is shared among its
+			// relations in proportion to their estimated costs
+			double estimated = 0;
+			for (int relation : relations) {
+				estimated += costs.get(relation);
+			}
+			for (int relation : relations) {
+				if (observed.isRecorded(relation)) {
+					costModel.setCost(relation, observed.headCost(relation));
+				} else {
+					costModel.setCost(relation, estimated > 0 ? time[i] * costs.get(relation) / estimated
+							: (double) time[i] / relations.size());
+				}
+			}
+			System.out.println("Partition " + i + ": " + relations.size() + " head relations, "
+					+ time[i] + " ms");
+			rules.delete();
+			workerCosts.delete();
+			new File(directory, i + ".log").delete();
+		}
+		if (complete)
+			directory.delete();
+		if (miner.getCostsFile() != null)
+			costModel.write(miner.getCostsFile());
+
+		ConfidenceMetric metric = miner.getAssistant().getConfidenceMetric();
+		Comparator<Rule> byConfidence = Comparator.comparingDouble(
+				rule -> metric == ConfidenceMetric.PCAConfidence ? rule.getPcaConfidence() : rule.getStdConfidence());
+		result.sort(byConfidence.thenComparingDouble(Rule::getSupport).reversed());
+		return result;
+	}
+}
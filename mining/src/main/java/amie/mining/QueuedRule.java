@@ -0,0 +1,37 @@
+package amie.mining;
+
+import amie.rules.Rule;
+
+/**
+ * Wrapper of a rule in the queue, hashed by the canonical hash code of the rule.
+ *
+ * @author galarrag
+ */
+final class QueuedRule {
+	final Rule rule;
+	final long hash;
+
+	QueuedRule(Rule rule) {
+		this(rule, rule.canonicalHashCode());
+	}
+
+	QueuedRule(Rule rule, long hash) {
+		this.rule = rule;
+		this.hash = hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof QueuedRule))
+			return false;
+		QueuedRule other = (QueuedRule) obj;
+		return hash == other.hash && rule.equals(other.rule);
+	}
+}
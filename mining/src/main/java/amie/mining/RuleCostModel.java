@@ -0,0 +1,230 @@
+package amie.mining;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+
+/**
+ * Estimates the time needed to refine a rule, so that the mining threads can
+ * start with the most expensive rules of a generation (longest-processing-time
+ * first) instead of finishing it with a few long rules refined by a single thread.
+ *
+ * A rule is estimated from the observed time of its parent, multiplied by the
+ * number of bindings its last atom adds for each binding of the variable it
+ * shares with the rest of the rule: the inverse of the functionality of the
+ * relation for a dangling atom, and 1 for closing, instantiated and special
+ * atoms. Seed rules, and rules whose parent was not observed in this run, get
+ * the cost of their head relation, that is, the time spent on its rules in a
+ * previous run if it is recorded, and otherwise its size scaled to the recorded
+ * times.
+ *
+ * The time spent on the rules of each head relation is accumulated during the
+ * run and can be written to a file, one relation per line followed by its cost in
+ * milliseconds, separated by a tab, which later runs read.
+ *
+ * @author lgalarra
+ *
+ */
+public class RuleCostModel {
+
+	private final AbstractKB kb;
+
+	/**
+	 * Cost of the head relations in previous runs, in milliseconds
+	 */
+	private final Int2DoubleMap recorded = new Int2DoubleOpenHashMap();
+
+	/**
+	 * Milliseconds per fact for the relations without recorded cost
+	 */
+	private double scale = 1.0;
+
+	/**
+	 * Time spent on the rules of each head relation in this run, in nanoseconds
+	 */
+	private final Map<Integer, LongAdder> observed = new ConcurrentHashMap<>();
+
+	/**
+	 * Average number of objects per subject and of subjects per object of the
+	 * relations of the refined atoms
+	 */
+	private final Map<Integer, double[]> fanouts = new ConcurrentHashMap<>();
+
+	public RuleCostModel(AbstractKB kb) {
+		this.kb = kb;
+	}
+
+	/**
+	 * @param kb
+	 * @param file File with the costs of the head relations, may be null or not
+	 *             exist
+	 * @return A model with the costs recorded in the file, or none if the file
+	 * cannot be read
+	 */
+	public static RuleCostModel read(AbstractKB kb, File file) {
+		RuleCostModel model = new RuleCostModel(kb);
+		if (file == null || !file.exists())
+			return model;
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int separator = line.lastIndexOf('\t');
+				if (separator <= 0)
+					continue;
+				// Relations that are not in the KB must not enter the dictionary
+				int relation = kb.schema.lookup(line.substring(0, separator));
+				if (relation == -1)
+					continue;
+				model.recorded.put(relation, Double.parseDouble(line.substring(separator + 1)));
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Could not read the costs in " + file + ": " + e.getMessage());
+			model.recorded.clear();
+		}
+		model.updateScale();
+		return model;
+	}
+
+	private void updateScale() {
+		double recordedCost = 0, recordedSize = 0;
+		for (Int2DoubleMap.Entry entry : recorded.int2DoubleEntrySet()) {
+			int size = kb.relationSize(entry.getIntKey());
+			if (size > 0) {
+				recordedCost += entry.getDoubleValue();
+				recordedSize += size;
+			}
+		}
+		scale = recordedCost > 0 && recordedSize > 0 ? recordedCost / recordedSize : 1.0;
+	}
+
+	/**
+	 * It writes the costs of the head relations, those observed in this run
+	 * replacing the recorded ones.
+	 * @param file
+	 */
+	public void write(File file) {
+		Int2DoubleMap costs = new Int2DoubleOpenHashMap(recorded);
+		for (Map.Entry<Integer, LongAdder> entry : observed.entrySet()) {
+			costs.put(entry.getKey().intValue(), entry.getValue().sum() / 1e6);
+		}
+		try (PrintStream out = new PrintStream(file, "UTF-8")) {
+			for (Int2DoubleMap.Entry entry : costs.int2DoubleEntrySet()) {
+				out.println(kb.unmap(entry.getIntKey()) + "\t" + Math.round(entry.getDoubleValue()));
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write the costs in " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param relation
+	 * @return The cost of the head relation in milliseconds, recorded or scaled
+	 * from its size
+	 */
+	public double headCost(int relation) {
+		return recorded.containsKey(relation) ? recorded.get(relation) : kb.relationSize(relation) * scale;
+	}
+
+	public boolean isRecorded(int relation) {
+		return recorded.containsKey(relation);
+	}
+
+	/**
+	 * It sets the recorded cost of a head relation.
+	 * @param relation
+	 * @param millis
+	 */
+	public void setCost(int relation, double millis) {
+		recorded.put(relation, millis);
+	}
+
+	/**
+	 * @param rule
+	 * @return The estimated cost of a rule whose parent was not observed, in
+	 * nanoseconds
+	 */
+	public double estimate(Rule rule) {
+		int relation = rule.getHead()[1];
+		return AbstractKB.isVariable(relation) ? 0.0 : headCost(relation) * 1e6;
+	}
+
+	/**
+	 * @param rule
+	 * @param parentNanos Time spent on the parent of the rule
+	 * @return The estimated cost of the rule in nanoseconds
+	 */
+	public double estimate(Rule rule, long parentNanos) {
+		return parentNanos * fanout(rule);
+	}
+
+	/**
+	 * @return The number of bindings the last atom of the rule adds for each
+	 * binding of the rest of the rule
+	 */
+	private double fanout(Rule rule) {
+		List<int[]> triples = rule.getTriples();
+		if (triples.size() < 2)
+			return 1.0;
+		int[] last = triples.get(triples.size() - 1);
+		if (AbstractKB.isVariable(last[1]))
+			return 1.0;
+		boolean subjectShared = isShared(last[0], triples);
+		boolean objectShared = isShared(last[2], triples);
+		if (subjectShared == objectShared)
+			return 1.0;
+		// Special relations, such as differentFrom, have no facts
+		double[] relationFanouts = fanouts.computeIfAbsent(last[1], relation -> kb.relationSize(relation) == 0
+				? new double[] { 1.0, 1.0 }
+				: new double[] { inverse(kb.functionality(relation)), inverse(kb.inverseFunctionality(relation)) });
+		return subjectShared ? relationFanouts[0] : relationFanouts[1];
+	}
+
+	private static double inverse(double functionality) {
+		return functionality > 0 ? 1.0 / functionality : 1.0;
+	}
+
+	/**
+	 * @return Whether the term is a variable of an atom other than the last one
+	 */
+	private static boolean isShared(int term, List<int[]> triples) {
+		if (!AbstractKB.isVariable(term))
+			return false;
+		for (int i = 0; i < triples.size() - 1; ++i) {
+			int[] atom = triples.get(i);
+			if (atom[0] == term || atom[2] == term)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * It adds the time spent on a rule to the cost of its head relation.
+	 * @param rule
+	 * @param nanos
+	 */
+	public void record(Rule rule, long nanos) {
+		int relation = rule.getHead()[1];
+		if (!AbstractKB.isVariable(relation))
+			observed.computeIfAbsent(relation, r -> new LongAdder()).add(nanos);
+	}
+
+	/**
+	 * @return The rules by decreasing estimated cost
+	 */
+	public static Comparator<Rule> longestFirst() {
+		return Comparator.comparingDouble(Rule::getEstimatedCost).reversed();
+	}
+}
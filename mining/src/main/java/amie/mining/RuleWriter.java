@@ -0,0 +1,313 @@
+package amie.mining;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+import amie.rules.format.BinaryRules;
+import amie.rules.format.RuleFormatter;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Writes the rules output by the mining threads. The mining threads hand the rules
+ * over to a writer thread through a lock-free queue. The writer takes all the rules
+ * available at once, formats them into a reused buffer and writes the buffer in a
+ * single call, either to a print stream or to a file channel. Rules can also be
+ * written in the binary format of {@link BinaryRules}.
+ *
+ * The names of the constants and relations are cached, so that they are only
+ * unmapped once.
+ *
+ * @author lgalarra
+ *
+ */
+public class RuleWriter implements Runnable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private final ConcurrentLinkedQueue<Rule> queue = new ConcurrentLinkedQueue<>();
+
+	private final RuleFormatter formatter;
+
+	private final IntFunction<String> names;
+
+	private final StringBuilder text = new StringBuilder(BUFFER_SIZE);
+
+	/**
+	 * Destination of the rules if they are not written to a file
+	 */
+	private final PrintStream out;
+
+	private final FileChannel channel;
+
+	private final CharsetEncoder encoder;
+
+	private final ByteBuffer bytes;
+
+	/**
+	 * Writer of the binary format, null if the rules are written as text
+	 */
+	private final BinaryRules.Writer binary;
+
+	private Thread thread;
+
+	/**
+	 * True while the writer thread waits for rules
+	 */
+	private volatile boolean parked = false;
+
+	private volatile boolean finished = false;
+
+	private IOException error;
+
+	private RuleWriter(RuleFormatter formatter, AbstractKB kb, PrintStream out, FileChannel channel,
+			BinaryRules.Writer binary) {
+		this.formatter = formatter;
+		this.binary = binary;
+		Int2ObjectOpenHashMap<String> cache = new Int2ObjectOpenHashMap<>();
+		this.names = id -> {
+			String name = cache.get(id);
+			if (name == null) {
+				name = kb.unmap(id);
+				cache.put(id, name);
+			}
+			return name;
+		};
+		this.out = out;
+		this.channel = channel;
+		if (channel != null) {
+			// Same behavior as a PrintStream on malformed strings
+			this.encoder = Charset.defaultCharset().newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		} else {
+			this.encoder = null;
+			this.bytes = null;
+		}
+	}
+
+	/**
+	 * @param formatter
+	 * @param kb The KB of the rules
+	 * @param out
+	 */
+	public RuleWriter(RuleFormatter formatter, AbstractKB kb, PrintStream out) {
+		this(formatter, kb, out, null, null);
+	}
+
+	/**
+	 * @param formatter
+	 * @param kb The KB of the rules
+	 * @param file The file is truncated
+	 * @throws IOException
+	 */
+	public RuleWriter(RuleFormatter formatter, AbstractKB kb, File file) throws IOException {
+		this(formatter, kb, null, new FileOutputStream(file).getChannel(), null);
+	}
+
+	/**
+	 * @param kb The KB of the rules
+	 * @param file The file is truncated
+	 * @return A writer of rules in the binary format of {@link BinaryRules}
+	 * @throws IOException
+	 */
+	public static RuleWriter binary(AbstractKB kb, File file) throws IOException {
+		return new RuleWriter(null, kb, null, null,
+				new BinaryRules.Writer(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), kb));
+	}
+
+	/**
+	 * It writes the text as it is, e.g., a header. The text is ignored by the binary
+	 * format. It must not be called while the writer thread runs.
+	 * @param str
+	 * @throws IOException
+	 */
+	public void write(String str) throws IOException {
+		if (binary != null)
+			return;
+		text.append(str);
+		flush();
+	}
+
+	/**
+	 * It formats and writes a rule in the calling thread. It must not be called
+	 * while the writer thread runs.
+	 * @param rule
+	 * @throws IOException
+	 */
+	public void write(Rule rule) throws IOException {
+		append(rule);
+		if (text.length() >= BUFFER_SIZE)
+			flush();
+	}
+
+	/**
+	 * It writes the rules in the calling thread.
+	 * @param rules
+	 * @throws IOException
+	 */
+	public void writeAll(Collection<Rule> rules) throws IOException {
+		for (Rule rule : rules)
+			write(rule);
+		flush();
+	}
+
+	private void append(Rule rule) throws IOException {
+		if (binary != null) {
+			// The binary writer writes full blocks by itself
+			binary.add(rule);
+			return;
+		}
+		formatter.fullFormat(rule, names, text);
+		text.append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * It writes the buffered text to the destination.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (binary != null) {
+			binary.flush();
+			return;
+		}
+		if (text.length() == 0)
+			return;
+		if (channel == null) {
+			out.append(text);
+			out.flush();
+		} else {
+			CharBuffer chars = CharBuffer.wrap(text);
+			encoder.reset();
+			CoderResult result;
+			do {
+				result = encoder.encode(chars, bytes, true);
+				if (result.isError())
+					result.throwException();
+				writeBytes();
+			} while (result.isOverflow());
+			while (encoder.flush(bytes).isOverflow())
+				writeBytes();
+			writeBytes();
+		}
+		text.setLength(0);
+	}
+
+	private void writeBytes() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining())
+			channel.write(bytes);
+		bytes.clear();
+	}
+
+	/**
+	 * It starts the writer thread. Afterwards, rules are written with
+	 * {@link #submit(Rule)}.
+	 */
+	public void start() {
+		thread = new Thread(this, "rule-writer");
+		thread.start();
+	}
+
+	/**
+	 * It queues a rule for the writer thread. It can be called by several threads
+	 * at the same time and it does not block.
+	 * @param rule
+	 */
+	public void submit(Rule rule) {
+		queue.add(rule);
+		if (parked)
+			LockSupport.unpark(thread);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Rule rule = queue.poll();
+			if (rule == null) {
+				if (text.length() > 0) {
+					flushOrRecord();
+					continue;
+				}
+				if (finished && queue.isEmpty())
+					return;
+				parked = true;
+				// A rule submitted before parked was set is seen here
+				if (queue.isEmpty() && !finished)
+					LockSupport.park(this);
+				parked = false;
+				continue;
+			}
+			try {
+				append(rule);
+			} catch (IOException e) {
+				record(e);
+			}
+			if (text.length() >= BUFFER_SIZE)
+				flushOrRecord();
+		}
+	}
+
+	private void flushOrRecord() {
+		try {
+			flush();
+		} catch (IOException e) {
+			record(e);
+			text.setLength(0);
+		}
+	}
+
+	private void record(IOException e) {
+		if (error == null) {
+			System.err.println("Could not write the rules: " + e.getMessage());
+			error = e;
+		}
+	}
+
+	/**
+	 * It waits until the writer thread has written all the submitted rules and
+	 * stops it.
+	 * @throws InterruptedException
+	 */
+	public void finish() throws InterruptedException {
+		finished = true;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+			thread = null;
+		}
+	}
+
+	/**
+	 * It flushes the buffer and closes the file, if any. Print streams are
+	 * flushed but not closed.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (binary != null) {
+			binary.close();
+			return;
+		}
+		flush();
+		if (channel != null)
+			channel.close();
+	}
+}
@@ -0,0 +1,355 @@
+package amie.mining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+
+/**
+ * Frontier that keeps at most a given number of rules in memory. When the buffer
+ * is full, its rules are sorted by canonical hash code and written to a run file in
+ * the spill directory. When the next generation starts, the runs are merged into a
+ * single file without duplicates, and the rules are read back from it one at a time
+ * as they are dequeued.
+ *
+ * The parents of the spilled rules, used by the skyline pruning, stay in memory.
+ * They belong to the generation being refined or to earlier ones, so they are
+ * referenced anyway; only the arrays pointing to them are added per rule.
+ *
+ * @author lgalarra
+ *
+ */
+public class SpillingFrontier implements Frontier {
+
+	private static final Rule[] NO_PARENTS = new Rule[0];
+
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+
+	private final AbstractKB kb;
+
+	private final File directory;
+
+	private final int bufferSize;
+
+	/**
+	 * Adding a rule takes the read lock, emptying the buffer takes the write lock.
+	 */
+	private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+
+	private final InMemoryFrontier buffer = new InMemoryFrontier();
+
+	/**
+	 * Runs written since the last drain, in the order they were written
+	 */
+	private final List<Run> runs = new ArrayList<>();
+
+	/**
+	 * Parents of the spilled rules, indexed by the position of the rules in the runs
+	 */
+	private List<Rule[]> parents = new ArrayList<>();
+
+	private final AtomicInteger spilled = new AtomicInteger();
+
+	/**
+	 * Parents of the rules of the generation being dequeued
+	 */
+	private List<Rule[]> currentParents;
+
+	private RunReader current;
+
+	private static final class Run {
+		final File file;
+
+		final int size;
+
+		Run(File file, int size) {
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Sequential reader of the records of a run.
+	 */
+	private final class RunReader {
+		final Run run;
+
+		final int order;
+
+		final DataInputStream in;
+
+		int read = 0;
+
+		long hash;
+
+		int parentsIndex;
+
+		Rule rule;
+
+		RunReader(Run run, int order) throws IOException {
+			this.run = run;
+			this.order = order;
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), IO_BUFFER_SIZE));
+		}
+
+		/**
+		 * It reads the next record. The stream is closed after the last one.
+		 * @return False if there are no more records
+		 * @throws IOException
+		 */
+		boolean advance() throws IOException {
+			if (read == run.size) {
+				in.close();
+				rule = null;
+				return false;
+			}
+			hash = in.readLong();
+			parentsIndex = in.readInt();
+			rule = Rule.readState(in, IntUnaryOperator.identity(), kb);
+			++read;
+			return true;
+		}
+	}
+
+	/**
+	 * @param kb The KB of the rules
+	 * @param directory Directory for the temporary files, it is created if needed
+	 * @param bufferSize Maximum number of rules kept in memory
+	 */
+	public SpillingFrontier(AbstractKB kb, File directory, int bufferSize) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("The size of the buffer must be positive");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Could not create the directory " + directory);
+		this.kb = kb;
+		this.directory = directory;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public boolean add(Rule rule) {
+		boolean added;
+		int size;
+		bufferLock.readLock().lock();
+		try {
+			added = buffer.add(rule);
+			size = buffer.size();
+		} finally {
+			bufferLock.readLock().unlock();
+		}
+		if (size >= bufferSize) {
+			spill();
+		}
+		return added;
+	}
+
+	private void spill() {
+		Set<QueuedRule> rules;
+		bufferLock.writeLock().lock();
+		try {
+			// Another thread may have emptied the buffer in the meantime
+			if (buffer.size() < bufferSize)
+				return;
+			rules = buffer.swap();
+		} finally {
+			bufferLock.writeLock().unlock();
+		}
+		// Other threads keep adding rules to the new buffer while the run is written
+		try {
+			writeRun(rules);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not spill the queue to " + directory, e);
+		}
+	}
+
+	private File createFile(String suffix) throws IOException {
+		File file = File.createTempFile("amie-frontier-", suffix, directory);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static DataOutputStream openOutput(File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE));
+	}
+
+	private static void writeRecord(DataOutputStream out, long hash, int parentsIndex, Rule rule)
+			throws IOException {
+		out.writeLong(hash);
+		out.writeInt(parentsIndex);
+		rule.writeState(out, IntUnaryOperator.identity());
+	}
+
+	private synchronized void writeRun(Set<QueuedRule> rules) throws IOException {
+		QueuedRule[] sorted = rules.toArray(new QueuedRule[0]);
+		Arrays.sort(sorted, (a, b) -> Long.compare(a.hash, b.hash));
+		File file = createFile(".run");
+		try (DataOutputStream out = openOutput(file)) {
+			for (QueuedRule queued : sorted) {
+				Set<Rule> ancestors = queued.rule.getAncestors();
+				parents.add(ancestors.isEmpty() ? NO_PARENTS : ancestors.toArray(NO_PARENTS));
+				writeRecord(out, queued.hash, parents.size() - 1, queued.rule);
+			}
+		}
+		runs.add(new Run(file, sorted.length));
+		spilled.addAndGet(sorted.length);
+	}
+
+	@Override
+	public int size() {
+		return buffer.size() + spilled.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return buffer.isEmpty() && spilled.get() == 0;
+	}
+
+	/**
+	 * It merges the runs by canonical hash code and writes the distinct rules to a
+	 * new run. If the same rule was spilled several times, the copy of the first run
+	 * is kept.
+	 */
+	private Run merge() throws IOException {
+		PriorityQueue<RunReader> heap = new PriorityQueue<>(Math.max(1, runs.size()),
+				(a, b) -> a.hash != b.hash ? Long.compare(a.hash, b.hash) : Integer.compare(a.order, b.order));
+		for (int i = 0; i < runs.size(); ++i) {
+			RunReader reader = new RunReader(runs.get(i), i);
+			if (reader.advance())
+				heap.add(reader);
+		}
+		File file = createFile(".gen");
+		int size = 0;
+		List<Rule> group = new ArrayList<>();
+		try (DataOutputStream out = openOutput(file)) {
+			while (!heap.isEmpty()) {
+				long hash = heap.peek().hash;
+				group.clear();
+				while (!heap.isEmpty() && heap.peek().hash == hash) {
+					RunReader reader = heap.poll();
+					if (!group.contains(reader.rule)) {
+						group.add(reader.rule);
+						writeRecord(out, hash, reader.parentsIndex, reader.rule);
+						++size;
+					}
+					if (reader.advance())
+						heap.add(reader);
+				}
+			}
+		} finally {
+			for (RunReader reader : heap)
+				reader.in.close();
+		}
+		for (Run run : runs)
+			run.file.delete();
+		runs.clear();
+		return new Run(file, size);
+	}
+
+	private void releaseCurrent() {
+		if (current != null) {
+			try {
+				current.in.close();
+			} catch (IOException e) {
+				// The file is deleted anyway
+			}
+			current.run.file.delete();
+			current = null;
+		}
+		currentParents = null;
+	}
+
+	private boolean advanceCurrent() {
+		try {
+			if (current.advance())
+				return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read the queue from " + current.run.file, e);
+		}
+		releaseCurrent();
+		return false;
+	}
+
+	@Override
+	public synchronized Drained drain() {
+		releaseCurrent();
+		if (runs.isEmpty())
+			return buffer.drain();
+
+		Run merged;
+		try {
+			Set<QueuedRule> tail = buffer.swap();
+			if (!tail.isEmpty())
+				writeRun(tail);
+			merged = merge();
+			current = new RunReader(merged, 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not merge the queue in " + directory, e);
+		}
+		currentParents = parents;
+		parents = new ArrayList<>();
+		spilled.set(0);
+
+		Iterator<Rule> rules = new Iterator<Rule>() {
+			private boolean ready = advanceCurrent();
+
+			@Override
+			public boolean hasNext() {
+				return ready;
+			}
+
+			@Override
+			public Rule next() {
+				if (!ready)
+					throw new NoSuchElementException();
+				Rule rule = current.rule;
+				for (Rule parent : currentParents.get(current.parentsIndex))
+					rule.addParent(parent);
+				ready = advanceCurrent();
+				return rule;
+			}
+		};
+		return new Drained(rules, merged.size);
+	}
+
+	/**
+	 * {@inheritDoc} The spilled rules are read into memory.
+	 */
+	@Override
+	public synchronized List<Rule> snapshot() {
+		InMemoryFrontier all = new InMemoryFrontier();
+		try {
+			for (int i = 0; i < runs.size(); ++i) {
+				RunReader reader = new RunReader(runs.get(i), i);
+				while (reader.advance()) {
+					for (Rule parent : parents.get(reader.parentsIndex))
+						reader.rule.addParent(parent);
+					all.add(reader.rule);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read the queue from " + directory, e);
+		}
+		for (Rule rule : buffer.snapshot())
+			all.add(rule);
+		return all.snapshot();
+	}
+}
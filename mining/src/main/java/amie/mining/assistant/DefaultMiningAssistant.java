@@ -6,13 +6,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import amie.data.AbstractKB;
 import amie.data.KB;
 import static amie.data.U.decreasingKeys;
 import amie.data.tuple.IntPair;
+import amie.rules.CompactRule;
 import amie.rules.Rule;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntCollection;
 import it.unimi.dsi.fastutil.ints.IntList;
 
@@ -153,95 +156,142 @@ public class DefaultMiningAssistant extends MiningAssistant {
 	 */
 	protected void getClosingAtoms(Rule rule, double minSupportThreshold, IntList sourceVariables,
 			IntList targetVariables, Collection<Rule> output) {
-		int nPatterns = rule.getTriples().size();
 		IntPair[] varSetups = new IntPair[2];
 		varSetups[0] = new IntPair(0, 2);
 		varSetups[1] = new IntPair(2, 0);
 		int[] newEdge = rule.fullyUnboundTriplePattern();
-		int relationVariable = newEdge[1];
 
+		// Each combination of variables defines an independent projection query
+		List<int[]> newEdges = new ArrayList<>();
+		IntList closeCirclePositions = new IntArrayList();
 		for (IntPair varSetup : varSetups) {
 			int joinPosition = varSetup.first;
 			int closeCirclePosition = varSetup.second;
-			int joinVariable = newEdge[joinPosition];
-			int closeCircleVariable = newEdge[closeCirclePosition];
 
 			for (int sourceVariable : sourceVariables) {
-				newEdge[joinPosition] = sourceVariable;
-
 				for (int variable : targetVariables) {
 					if (variable != sourceVariable) {
-						newEdge[closeCirclePosition] = variable;
-
-						rule.getTriples().add(newEdge);
-						Int2IntMap promisingRelations = null;
-						if (this.enabledFunctionalityHeuristic && this.enableQueryRewriting) {
-							Rule rewrittenQuery = rewriteProjectionQuery(rule, nPatterns, closeCirclePosition);
-							if (rewrittenQuery == null) {
-								long t1 = System.currentTimeMillis();
-								promisingRelations = kb.countProjectionBindings(rule.getHead(), rule.getAntecedent(),
-										newEdge[1]);
-								long t2 = System.currentTimeMillis();
-								if ((t2 - t1) > 20000 && this.verbose)
-									System.err.println("countProjectionBindings var=" + kb.unmap(newEdge[1]) + " "
-											+ rule + " has taken " + (t2 - t1) + " ms");
-							} else {
-								System.out.println(rewrittenQuery + " is a rewrite of " + rule);
-								long t1 = System.currentTimeMillis();
-								promisingRelations = kb.countProjectionBindings(rewrittenQuery.getHead(),
-										rewrittenQuery.getAntecedent(), newEdge[1]);
-								long t2 = System.currentTimeMillis();
-								if ((t2 - t1) > 20000 && this.verbose)
-									System.err.println(
-											"countProjectionBindings on rewritten query var=" + kb.unmap(newEdge[1])
-													+ " " + rewrittenQuery + " has taken " + (t2 - t1) + " ms");
-							}
-						} else {
-							promisingRelations = this.kb.countProjectionBindings(rule.getHead(), rule.getAntecedent(),
-									newEdge[1]);
-						}
-						rule.getTriples().remove(nPatterns);
-						IntList listOfPromisingRelations = decreasingKeys(promisingRelations);
-						for (int relation : listOfPromisingRelations) {
-							int cardinality = promisingRelations.get(relation);
-							if (cardinality < minSupportThreshold) {
-								break;
-							}
+						int[] edge = newEdge.clone();
+						edge[joinPosition] = sourceVariable;
+						edge[closeCirclePosition] = variable;
+						newEdges.add(edge);
+						closeCirclePositions.add(closeCirclePosition);
+					}
+				}
+			}
+		}
 
-							// Language bias test
-							if (rule.cardinalityForRelation(relation) >= this.recursivityLimit) {
-								continue;
-							}
+		List<Int2IntMap> promisingRelationsList = countPromisingRelations(rule, newEdges, closeCirclePositions,
+				this.enabledFunctionalityHeuristic && this.enableQueryRewriting);
+		// Candidates are screened on the compact form of the rule and built only if they pass
+		CompactRule compactRule = CompactRule.of(rule);
+
+		for (int i = 0; i < newEdges.size(); ++i) {
+			int[] edge = newEdges.get(i);
+			Int2IntMap promisingRelations = promisingRelationsList.get(i);
+			IntList listOfPromisingRelations = decreasingKeys(promisingRelations);
+			for (int relation : listOfPromisingRelations) {
+				int cardinality = promisingRelations.get(relation);
+				if (cardinality < minSupportThreshold) {
+					break;
+				}
 
-							if (this.bodyExcludedRelations != null
-									&& this.bodyExcludedRelations.contains(relation)) {
-								continue;
-							}
+				// Language bias test
+				if (compactRule.cardinalityForRelation(relation) >= this.recursivityLimit) {
+					continue;
+				}
 
-							if (this.bodyTargetRelations != null
-									&& !this.bodyTargetRelations.contains(relation)) {
-								continue;
-							}
+				if (this.bodyExcludedRelations != null
+						&& this.bodyExcludedRelations.contains(relation)) {
+					continue;
+				}
 
-							// Here we still have to make a redundancy check
-							newEdge[1] = relation;
-							Rule candidate = rule.addAtom(newEdge, cardinality);
-							if (!candidate.isRedundantRecursive()) {
-								candidate.setHeadCoverage((double) cardinality / getHeadCardinality(candidate));
-								candidate.setSupportRatio((double) cardinality / (double) this.kb.size());
-								candidate.addParent(rule);
-								output.add(candidate);
-							}
-						}
-					}
-					newEdge[1] = relationVariable;
+				if (this.bodyTargetRelations != null
+						&& !this.bodyTargetRelations.contains(relation)) {
+					continue;
 				}
-				newEdge[closeCirclePosition] = closeCircleVariable;
-				newEdge[joinPosition] = joinVariable;
+
+				// Here we still have to make a redundancy check
+				edge[1] = relation;
+				if (compactRule.isRedundantWith(edge)) {
+					continue;
+				}
+				Rule candidate = rule.addAtom(edge, cardinality);
+				candidate.setHeadCoverage((double) cardinality / getHeadCardinality(candidate));
+				candidate.setSupportRatio((double) cardinality / (double) this.kb.size());
+				candidate.addParent(rule);
+				output.add(candidate);
 			}
 		}
 	}
 
+	/**
+	 * For each of the given atoms, it computes the support of the rule obtained by
+	 * adding the atom for every binding of the atom's relation variable. The queries
+	 * are independent: if there is an operator pool they are evaluated in parallel,
+	 * each on its own copy of the rule, otherwise each atom is temporarily added to the
+	 * rule.
+	 * 
+	 * @param rule
+	 * @param newEdges Atoms whose relation is a fresh variable
+	 * @param bindingVarPositions For each atom, the position of the variable
+	 * used to look for a query rewriting.
+	 * @param rewrite If true, the method tries to rewrite the queries.
+	 * @return A list with one map relation -&gt; support per atom
+	 */
+	protected List<Int2IntMap> countPromisingRelations(Rule rule, List<int[]> newEdges, IntList bindingVarPositions,
+			boolean rewrite) {
+		boolean inPlace = !useOperatorPool(newEdges.size());
+		List<Callable<Int2IntMap>> tasks = new ArrayList<>(newEdges.size());
+		for (int i = 0; i < newEdges.size(); ++i) {
+			int[] edge = newEdges.get(i);
+			int bindingVarPos = bindingVarPositions.getInt(i);
+			tasks.add(() -> countPromisingRelations(rule, edge, bindingVarPos, rewrite, inPlace));
+		}
+		return invokeAll(tasks);
+	}
+
+	private Int2IntMap countPromisingRelations(Rule rule, int[] newEdge, int bindingVarPos,
+			boolean rewrite, boolean inPlace) {
+		int nPatterns = rule.getTriples().size();
+		Rule query = rule;
+		if (inPlace) {
+			rule.getTriples().add(newEdge);
+		} else {
+			query = rule.addAtom(newEdge, rule.getSupport());
+		}
+
+		Int2IntMap promisingRelations = null;
+		Rule rewrittenQuery = null;
+		if (rewrite) {
+			rewrittenQuery = rewriteProjectionQuery(query, nPatterns, bindingVarPos);
+		}
+
+		if (rewrittenQuery == null) {
+			long t1 = System.currentTimeMillis();
+			promisingRelations = this.kb.countProjectionBindings(query.getHead(), query.getAntecedent(),
+					newEdge[1]);
+			long t2 = System.currentTimeMillis();
+			if ((t2 - t1) > 20000 && this.verbose) {
+				System.err.println("countProjectionBindings var=" + kb.unmap(newEdge[1]) + " " + query
+						+ " has taken " + (t2 - t1) + " ms");
+			}
+		} else {
+			long t1 = System.currentTimeMillis();
+			promisingRelations = this.kb.countProjectionBindings(rewrittenQuery.getHead(),
+					rewrittenQuery.getAntecedent(), newEdge[1]);
+			long t2 = System.currentTimeMillis();
+			if ((t2 - t1) > 20000 && this.verbose)
+				System.err.println("countProjectionBindings on rewritten query var=" + kb.unmap(newEdge[1])
+						+ " " + rewrittenQuery + " has taken " + (t2 - t1) + " ms");
+		}
+
+		if (inPlace) {
+			rule.getTriples().remove(nPatterns);
+		}
+		return promisingRelations;
+	}
+
 	/**
 	 * Returns all candidates obtained by adding a new triple pattern to the query
 	 * 
@@ -299,108 +349,94 @@ public class DefaultMiningAssistant extends MiningAssistant {
 	 */
 	protected void getDanglingAtoms(Rule rule, int[] edge, double minSupportThreshold, IntList joinVariables,
 			int[] joinPositions, Collection<Rule> output) {
-		int nPatterns = rule.getLength();
-
+		// Each combination of join position and variable defines an independent projection query
+		List<int[]> newEdges = new ArrayList<>();
+		IntList edgeJoinPositions = new IntArrayList();
+		IntList bindingPositions = new IntArrayList();
 		for (int joinPosition : joinPositions) {
 			for (int joinVariable : joinVariables) {
 				int[] newEdge = edge.clone();
-
 				newEdge[joinPosition] = joinVariable;
-				rule.getTriples().add(newEdge);
-				Int2IntMap promisingRelations = null;
-				Rule rewrittenQuery = null;
-				if (this.enableQueryRewriting) {
-					rewrittenQuery = rewriteProjectionQuery(rule, nPatterns, joinPosition == 0 ? 0 : 2);
-				}
+				newEdges.add(newEdge);
+				edgeJoinPositions.add(joinPosition);
+				bindingPositions.add(joinPosition == 0 ? 0 : 2);
+			}
+		}
 
-				if (rewrittenQuery == null) {
-					long t1 = System.currentTimeMillis();
-					promisingRelations = this.kb.countProjectionBindings(rule.getHead(), rule.getAntecedent(),
-							newEdge[1]);
-					long t2 = System.currentTimeMillis();
-					if ((t2 - t1) > 20000 && this.verbose) {
-						System.err.println("countProjectionBindings var=" + kb.unmap(newEdge[1]) + " " + rule
-								+ " has taken " + (t2 - t1) + " ms");
-					}
-				} else {
-					long t1 = System.currentTimeMillis();
-					promisingRelations = this.kb.countProjectionBindings(rewrittenQuery.getHead(),
-							rewrittenQuery.getAntecedent(), newEdge[1]);
-					long t2 = System.currentTimeMillis();
-					if ((t2 - t1) > 20000 && this.verbose)
-						System.err.println("countProjectionBindings on rewritten query var=" + kb.unmap(newEdge[1])
-								+ " " + rewrittenQuery + " has taken " + (t2 - t1) + " ms");
+		List<Int2IntMap> promisingRelationsList = countPromisingRelations(rule, newEdges, bindingPositions,
+				this.enableQueryRewriting);
+
+		for (int i = 0; i < newEdges.size(); ++i) {
+			int[] newEdge = newEdges.get(i);
+			int joinPosition = edgeJoinPositions.getInt(i);
+			Int2IntMap promisingRelations = promisingRelationsList.get(i);
+			int danglingPosition = (joinPosition == 0 ? 2 : 0);
+			boolean boundHead = !KB.isVariable(rule.getTriples().get(0)[danglingPosition]);
+			IntList listOfPromisingRelations = decreasingKeys(promisingRelations);
+			// The relations are sorted by support, therefore we can stop once we have
+			// reached
+			// the minimum support.
+			for (int relation : listOfPromisingRelations) {
+				int cardinality = promisingRelations.get(relation);
+
+				if (cardinality < minSupportThreshold) {
+					break;
 				}
 
-				rule.getTriples().remove(nPatterns);
-				int danglingPosition = (joinPosition == 0 ? 2 : 0);
-				boolean boundHead = !KB.isVariable(rule.getTriples().get(0)[danglingPosition]);
-				IntList listOfPromisingRelations = decreasingKeys(promisingRelations);
-				// The relations are sorted by support, therefore we can stop once we have
-				// reached
-				// the minimum support.
-				for (int relation : listOfPromisingRelations) {
-					int cardinality = promisingRelations.get(relation);
-
-					if (cardinality < minSupportThreshold) {
-						break;
-					}
-
-					// Language bias test
-					if (rule.cardinalityForRelation(relation) >= recursivityLimit) {
-						continue;
-					}
+				// Language bias test
+				if (rule.cardinalityForRelation(relation) >= recursivityLimit) {
+					continue;
+				}
 
-					if (bodyExcludedRelations != null
-							&& bodyExcludedRelations.contains(relation)) {
-						continue;
-					}
+				if (bodyExcludedRelations != null
+						&& bodyExcludedRelations.contains(relation)) {
+					continue;
+				}
 
-					if (bodyTargetRelations != null
-							&& !bodyTargetRelations.contains(relation)) {
-						continue;
-					}
+				if (bodyTargetRelations != null
+						&& !bodyTargetRelations.contains(relation)) {
+					continue;
+				}
 
-					newEdge[1] = relation;
-					// Before adding the edge, verify whether it leads to the hard case
-					// if(containsHardCase(query, newEdge))
-					// continue;
-
-					Rule candidate = rule.addAtom(newEdge, cardinality);
-					List<int[]> recursiveAtoms = candidate.getRedundantAtoms();
-					if (!recursiveAtoms.isEmpty()) {
-						if (canAddInstantiatedAtoms()) {
-							for (int[] triple : recursiveAtoms) {
-								if (!KB.isVariable(triple[danglingPosition])) {
-									candidate.getTriples().add(
-											KB.triple(newEdge[danglingPosition],
-													kb.DIFFERENTFROMbs,
-													triple[danglingPosition]));
-								}
-							}
-							long finalCardinality;
-							if (boundHead) {
-								// Single variable in head
-								finalCardinality = this.kb.countDistinct(candidate.getFunctionalVariable(),
-										candidate.getTriples());
-							} else {
-								// Still pending
-								finalCardinality = this.kb.countProjection(candidate.getHead(),
-										candidate.getAntecedent());
+				newEdge[1] = relation;
+				// Before adding the edge, verify whether it leads to the hard case
+				// if(containsHardCase(query, newEdge))
+				// continue;
+
+				Rule candidate = rule.addAtom(newEdge, cardinality);
+				List<int[]> recursiveAtoms = candidate.getRedundantAtoms();
+				if (!recursiveAtoms.isEmpty()) {
+					if (canAddInstantiatedAtoms()) {
+						for (int[] triple : recursiveAtoms) {
+							if (!KB.isVariable(triple[danglingPosition])) {
+								candidate.getTriples().add(
+										KB.triple(newEdge[danglingPosition],
+												kb.DIFFERENTFROMbs,
+												triple[danglingPosition]));
 							}
+						}
+						long finalCardinality;
+						if (boundHead) {
+							// Single variable in head
+							finalCardinality = this.kb.countDistinct(candidate.getFunctionalVariable(),
+									candidate.getTriples());
+						} else {
+							// Still pending
+							finalCardinality = this.kb.countProjection(candidate.getHead(),
+									candidate.getAntecedent());
+						}
 
-							if (finalCardinality < minSupportThreshold)
-								continue;
+						if (finalCardinality < minSupportThreshold)
+							continue;
 
-							candidate.setSupport(finalCardinality);
-						}
+						candidate.setSupport(finalCardinality);
 					}
-
-					candidate.setHeadCoverage(candidate.getSupport() / getHeadCardinality(candidate));
-					candidate.setSupportRatio(candidate.getSupport() / this.kb.size());
-					candidate.addParent(rule);
-					output.add(candidate);
 				}
+
+				candidate.setHeadCoverage(candidate.getSupport() / getHeadCardinality(candidate));
+				candidate.setSupportRatio(candidate.getSupport() / this.kb.size());
+				candidate.addParent(rule);
+				output.add(candidate);
 			}
 		}
 	}
@@ -494,22 +530,27 @@ public class DefaultMiningAssistant extends MiningAssistant {
 		}
 
 		int joinPosition = (danglingPosition == 0 ? 2 : 0);
+		// Number of distinct bindings of the join variable for each constant with enough support
+		Int2IntMap joinBindings = null;
+		if (!query.isEmpty()) {
+			IntList candidates = new IntArrayList();
+			for (int constant : constants.keySet()) {
+				if (constants.get(constant) >= minSupportThreshold)
+					candidates.add(constant);
+			}
+			joinBindings = this.kb.countJoinBindings(query.getTriples(), danglingEdge[danglingPosition],
+					danglingEdge[joinPosition], candidates);
+		}
+
 		for (int constant : constants.keySet()) {
 			int cardinality = constants.get(constant);
 			if (cardinality >= minSupportThreshold) {
-				int[] targetEdge = danglingEdge.clone();
-				targetEdge[danglingPosition] = constant;
-				assert (KB.isVariable(targetEdge[joinPosition]));
-
-				Rule candidate = query.instantiateConstant(bindingTriplePos, danglingPosition, constant, cardinality);
 				// Do this checking only for non-empty queries
 				// If the new edge does not contribute with anything
-				if (!query.isEmpty()) {
-					long cardLastEdge = this.kb.countDistinct(targetEdge[joinPosition], candidate.getTriples());
-					if (cardLastEdge < 2)
-						continue;
-				}
+				if (joinBindings != null && joinBindings.get(constant) < 2)
+					continue;
 
+				Rule candidate = query.instantiateConstant(bindingTriplePos, danglingPosition, constant, cardinality);
 				if (candidate.getRedundantAtoms().isEmpty()) {
 					candidate.setHeadCoverage((double) cardinality / (double) getHeadCardinality(candidate));
 					candidate.setSupportRatio((double) cardinality / (double) kb.size());
@@ -1,8 +1,13 @@
 package amie.mining.assistant;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import java.io.PrintStream;
 
@@ -210,6 +215,18 @@ public class MiningAssistant {
 	 */
 	private LinkedList<Method> miningOperators;
 
+	/**
+	 * The mining operators bound to this assistant, in order of application.
+	 */
+	private OperatorPipeline operatorPipeline;
+
+	/**
+	 * Pool shared by all mining threads to evaluate the independent queries issued
+	 * by the operators on a single rule. If null, those queries are evaluated sequentially
+	 * by the thread that refines the rule.
+	 */
+	protected ForkJoinPool operatorPool;
+
 	/**
 	 * If true, AMIE prunes instantiated rules that decrease to much
 	 * the support of their parent rule (ratio 0.2).
@@ -358,6 +375,142 @@ public class MiningAssistant {
 		}
 
 		opTree.traverse(this.miningOperators);
+
+		List<String> names = new ArrayList<>();
+		List<String> dependencies = new ArrayList<>();
+		List<RuleOperator> operators = new ArrayList<>();
+		for (Method m : this.miningOperators) {
+			MiningOperator annotInstance = m.getAnnotation(MiningOperator.class);
+			names.add(annotInstance.name());
+			dependencies.add(annotInstance.dependency());
+			operators.add(bindOperator(m));
+		}
+		this.operatorPipeline = new OperatorPipeline(names, dependencies, operators);
+	}
+
+	/**
+	 * It binds an annotated method to a typed operator. The standard operators
+	 * are called directly (subject to virtual dispatch as any other call); other methods
+	 * are invoked through a method handle resolved once.
+	 * 
+	 * @param m
+	 * @return
+	 */
+	private RuleOperator bindOperator(Method m) {
+		int nParams = m.getParameterCount();
+		switch (m.getName()) {
+		case "getClosingAtoms":
+			if (nParams == 3)
+				return (rule, minSup, input, output) -> getClosingAtoms(rule, minSup, output);
+			break;
+		case "getDanglingAtoms":
+			if (nParams == 3)
+				return (rule, minSup, input, output) -> getDanglingAtoms(rule, minSup, output);
+			break;
+		case "getInstantiatedAtoms":
+			if (nParams == 4)
+				return (rule, minSup, input, output) -> getInstantiatedAtoms(rule, minSup, input, output);
+			break;
+		case "getTypeSpecializedAtoms":
+			if (nParams == 3)
+				return (rule, minSup, input, output) -> getTypeSpecializedAtoms(rule, minSup, output);
+			break;
+		default:
+			break;
+		}
+
+		final MethodHandle handle;
+		try {
+			m.setAccessible(true);
+			handle = MethodHandles.lookup().unreflect(m).bindTo(this);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("The mining operator " + m + " is not accessible", e);
+		}
+		if (nParams == 3) {
+			return (rule, minSup, input, output) -> {
+				try {
+					handle.invoke(rule, minSup, output);
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			};
+		} else {
+			return (rule, minSup, input, output) -> {
+				try {
+					handle.invoke(rule, minSup, input, output);
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			};
+		}
+	}
+
+	/**
+	 * @return The sequence of mining operators applied to every rule.
+	 */
+	public OperatorPipeline getOperatorPipeline() {
+		return operatorPipeline;
+	}
+
+	public ForkJoinPool getOperatorPool() {
+		return operatorPool;
+	}
+
+	public void setOperatorPool(ForkJoinPool operatorPool) {
+		this.operatorPool = operatorPool;
+	}
+
+	/**
+	 * It determines whether a batch of independent tasks should be submitted to the
+	 * operator pool.
+	 * 
+	 * @param nTasks
+	 * @return
+	 */
+	protected boolean useOperatorPool(int nTasks) {
+		return this.operatorPool != null && nTasks > 1;
+	}
+
+	/**
+	 * It runs a batch of independent tasks and returns their results in the same order. The
+	 * tasks are submitted to the operator pool if there is one, otherwise they are run
+	 * sequentially by the calling thread.
+	 * 
+	 * @param tasks
+	 * @return
+	 */
+	protected <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<>(tasks.size());
+		if (!useOperatorPool(tasks.size())) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return results;
+		}
+
+		for (Future<T> future : this.operatorPool.invokeAll(tasks)) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the operator pool", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return results;
 	}
 
 	/**
@@ -861,6 +1014,8 @@ public class MiningAssistant {
 		if (this.exploitMaxLengthOption
 				|| rule.getRealLength() < this.maxDepth - 1
 				|| queryFreshVariables.size() < 2) {
+			// The dangling rules are distinct objects, thus they can be instantiated in parallel
+			List<Callable<List<Rule>>> tasks = new ArrayList<>(danglingEdges.size());
 			for (Rule candidate : danglingEdges) {
 				// Find the dangling position of the query
 				int lastTriplePatternIndex = candidate.getLastRealTriplePatternIndex();
@@ -876,15 +1031,19 @@ public class MiningAssistant {
 					throw new IllegalArgumentException("The query " + rule.getRuleString() +
 							" does not contain fresh variables in the last triple pattern.");
 				}
-				if (optimAdaptiveInstantiations) {
+				final int position = danglingPosition;
+				final double threshold = optimAdaptiveInstantiations ? candidate.getSupport() / 5 : minSupportThreshold;
+				tasks.add(() -> {
+					List<Rule> instantiations = new ArrayList<>();
 					getInstantiatedAtoms(candidate, candidate,
-							lastTriplePatternIndex, danglingPosition,
-							candidate.getSupport() / 5, output);
-				} else {
-					getInstantiatedAtoms(candidate, candidate,
-							lastTriplePatternIndex, danglingPosition,
-							minSupportThreshold, output);
-				}
+							lastTriplePatternIndex, position,
+							threshold, instantiations);
+					return instantiations;
+				});
+			}
+
+			for (List<Rule> instantiations : invokeAll(tasks)) {
+				output.addAll(instantiations);
 			}
 		}
 	}
@@ -1499,6 +1658,25 @@ public class MiningAssistant {
 		}
 	}
 
+	/**
+	 * Same as {@link #setAdditionalParents(Rule, MultiMap)} but the candidate parents
+	 * are looked up in a subsumption index. It does not require any external
+	 * synchronization.
+	 *
+	 * @param currentRule
+	 * @param subsumptionIndex
+	 */
+	public void setAdditionalParents(Rule currentRule, SubsumptionIndex subsumptionIndex) {
+		int currentGeneration = currentRule.getGeneration();
+		for (Rule parent : subsumptionIndex.getCandidateParents(currentRule)) {
+			int generation = parent.getGeneration();
+			// Go up until you find a parent that was output
+			if (generation > 1 && generation < currentGeneration && parent.subsumes(currentRule)) {
+				currentRule.addParent(parent);
+			}
+		}
+	}
+
 	/**
 	 * It returns a string representation of the rule depending on the assistant
 	 * configurations
@@ -1512,28 +1690,32 @@ public class MiningAssistant {
 		return result.toString();
 	}
 
+	/**
+	 * It calls all the declared mining operators. The results are stored in buffers
+	 * owned by the calling thread, which are reused by the next call.
+	 * 
+	 * @param currentRule
+	 * @param threshold
+	 * @return
+	 */
+	public OperatorPipeline.Results applyOperatorPipeline(Rule currentRule, double threshold) {
+		return this.operatorPipeline.apply(currentRule, threshold);
+	}
+
 	/**
 	 * It call all the declared mining operators.
 	 * 
 	 * @param currentRule
 	 * @param threshold
-	 * @throws InvocationTargetException
-	 * @throws IllegalArgumentException
-	 * @throws IllegalAccessException
+	 * @deprecated Use {@link #applyOperatorPipeline(Rule, double)}, which does not allocate
+	 * a map per rule.
 	 */
-	public Map<String, Collection<Rule>> applyMiningOperators(Rule currentRule, double threshold)
-			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+	@Deprecated
+	public Map<String, Collection<Rule>> applyMiningOperators(Rule currentRule, double threshold) {
+		OperatorPipeline.Results results = this.operatorPipeline.apply(currentRule, threshold);
 		Map<String, Collection<Rule>> temporalResultsMap = new LinkedHashMap<>();
-		for (Method m : this.miningOperators) {
-			MiningOperator mo = m.getAnnotation(MiningOperator.class);
-			Collection<Rule> tmpResult = new ArrayList<>();
-			if (mo.dependency().equals("")) {
-				m.invoke(this, currentRule, threshold, tmpResult);
-			} else {
-				m.invoke(this, currentRule, threshold, temporalResultsMap.get(mo.dependency()), tmpResult);
-			}
-
-			temporalResultsMap.put(mo.name(), tmpResult);
+		for (int i = 0; i < results.size(); ++i) {
+			temporalResultsMap.put(this.operatorPipeline.getName(i), new ArrayList<>(results.get(i)));
 		}
 
 		return temporalResultsMap;
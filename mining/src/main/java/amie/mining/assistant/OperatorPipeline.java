@@ -0,0 +1,202 @@
+package amie.mining.assistant;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import amie.data.Profiler;
+import amie.rules.Rule;
+
+/**
+ * Sequence of mining operators, in the order given by a depth-first traversal of the
+ * operator dependency tree. The pipeline is built once per mining assistant. Each
+ * operator is identified by its position in the sequence, and the output of a call
+ * to {@link #apply(Rule, double)} is indexed by that position.
+ *
+ * Output buffers are allocated once per thread and reused across calls, thus the results
+ * of an application are only valid until the next call of {@link #apply(Rule, double)}
+ * in the same thread.
+ *
+ * @author galarrag
+ *
+ */
+public class OperatorPipeline {
+
+	/**
+	 * Names of the operators as declared in the {@link MiningOperator} annotation
+	 */
+	private final String[] names;
+
+	/**
+	 * Position of the operator each operator depends on, -1 if none.
+	 */
+	private final int[] parents;
+
+	private final RuleOperator[] operators;
+
+	/**
+	 * Names of the timers of the operators in the {@link Profiler}
+	 */
+	private final String[] timerNames;
+
+	/**
+	 * Groups of operators that do not depend on each other. Each
+	 * branch contains a root operator and its dependants in execution order.
+	 */
+	private final int[][] branches;
+
+	private final ThreadLocal<Results> buffers;
+
+	/**
+	 * Output of the application of the pipeline on a rule.
+	 */
+	public static class Results {
+		private final List<ArrayList<Rule>> outputs;
+
+		private Results(int nOperators) {
+			outputs = new ArrayList<>(nOperators);
+			for (int i = 0; i < nOperators; ++i) {
+				outputs.add(new ArrayList<>());
+			}
+		}
+
+		private void clear() {
+			for (ArrayList<Rule> output : outputs) {
+				output.clear();
+			}
+		}
+
+		/**
+		 * Refinements produced by the operator at the given position
+		 * @param operatorId
+		 * @return
+		 */
+		public List<Rule> get(int operatorId) {
+			return outputs.get(operatorId);
+		}
+
+		public int size() {
+			return outputs.size();
+		}
+	}
+
+	/**
+	 *
+	 * @param names Operator names in execution order
+	 * @param dependencies For each operator the name of the operator it depends on or the
+	 * empty string
+	 * @param operators The bound operators
+	 */
+	public OperatorPipeline(List<String> names, List<String> dependencies, List<RuleOperator> operators) {
+		int n = names.size();
+		this.names = names.toArray(new String[n]);
+		this.operators = operators.toArray(new RuleOperator[n]);
+		this.timerNames = new String[n];
+		for (int i = 0; i < n; ++i) {
+			this.timerNames[i] = "operator." + this.names[i];
+		}
+		this.parents = new int[n];
+		int[] roots = new int[n];
+		int nBranches = 0;
+		for (int i = 0; i < n; ++i) {
+			String dependency = dependencies.get(i);
+			parents[i] = dependency.isEmpty() ? -1 : indexOf(dependency);
+			if (!dependency.isEmpty() && (parents[i] < 0 || parents[i] >= i)) {
+				throw new IllegalArgumentException("The operator " + names.get(i) +
+						" depends on " + dependency + ", which is not applied before it");
+			}
+			if (parents[i] == -1) {
+				roots[i] = nBranches++;
+			} else {
+				roots[i] = roots[parents[i]];
+			}
+		}
+		int[] branchSizes = new int[nBranches];
+		for (int i = 0; i < n; ++i) {
+			++branchSizes[roots[i]];
+		}
+		this.branches = new int[nBranches][];
+		for (int b = 0; b < nBranches; ++b) {
+			this.branches[b] = new int[branchSizes[b]];
+		}
+		Arrays.fill(branchSizes, 0);
+		for (int i = 0; i < n; ++i) {
+			this.branches[roots[i]][branchSizes[roots[i]]++] = i;
+		}
+		this.buffers = ThreadLocal.withInitial(() -> new Results(this.names.length));
+	}
+
+	/**
+	 * Position of the operator with the given name, -1 if there is no such operator
+	 * in the pipeline.
+	 * @param name
+	 * @return
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < names.length; ++i) {
+			if (names[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	public String getName(int operatorId) {
+		return names[operatorId];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Number of groups of operators that can be applied independently.
+	 * @return
+	 */
+	public int getNumberOfBranches() {
+		return branches.length;
+	}
+
+	/**
+	 * It applies all the operators on the rule. The returned object belongs to the calling thread
+	 * and is overwritten by the next call.
+	 * @param rule
+	 * @param minSupportThreshold
+	 * @return
+	 */
+	public Results apply(Rule rule, double minSupportThreshold) {
+		Results results = buffers.get();
+		results.clear();
+		for (int b = 0; b < branches.length; ++b) {
+			applyBranch(b, rule, minSupportThreshold, results);
+		}
+		return results;
+	}
+
+	/**
+	 * It applies the operators of a single branch. Operators of different branches do not
+	 * depend on each other, so branches may be applied in any order.
+	 * @param branch
+	 * @param rule
+	 * @param minSupportThreshold
+	 * @param results
+	 */
+	public void applyBranch(int branch, Rule rule, double minSupportThreshold, Results results) {
+		for (int i : branches[branch]) {
+			List<Rule> input = parents[i] == -1 ? null : results.get(parents[i]);
+			if (Profiler.isEnabled()) {
+				long start = System.nanoTime();
+				operators[i].apply(rule, minSupportThreshold, input, results.outputs.get(i));
+				Profiler.record(timerNames[i], start, results.outputs.get(i).size());
+			} else {
+				operators[i].apply(rule, minSupportThreshold, input, results.outputs.get(i));
+			}
+		}
+	}
+
+	public void output(PrintStream st) {
+		for (int i = 0; i < names.length; ++i) {
+			st.println("--" + names[i] + (parents[i] == -1 ? "" : " (after " + names[parents[i]] + ")"));
+		}
+	}
+}
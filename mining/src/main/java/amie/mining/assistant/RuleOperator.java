@@ -0,0 +1,28 @@
+package amie.mining.assistant;
+
+import java.util.Collection;
+
+import amie.rules.Rule;
+
+/**
+ * Typed form of a mining operator. Operators declared with the {@link MiningOperator}
+ * annotation are bound once to an instance of this interface when the assistant is
+ * built, so that applying them to a rule does not go through reflection.
+ *
+ * @author galarrag
+ *
+ */
+@FunctionalInterface
+public interface RuleOperator {
+
+	/**
+	 * It applies the operator on the given rule.
+	 * @param rule The rule to refine
+	 * @param minSupportThreshold The support threshold used for pruning
+	 * @param input Output of the operator this operator depends on, or null if the
+	 * operator has no dependency.
+	 * @param output The collection where the refinements are added.
+	 */
+	void apply(Rule rule, double minSupportThreshold, Collection<Rule> input, Collection<Rule> output);
+
+}
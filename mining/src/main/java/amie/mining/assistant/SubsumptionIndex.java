@@ -0,0 +1,167 @@
+package amie.mining.assistant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import amie.data.KB;
+import amie.rules.Rule;
+
+/**
+ * Index of output rules used to find the rules that subsume a given rule. A rule
+ * P =&gt; h can only subsume a rule P' =&gt; h' if h and h' are equivalent and the relations
+ * of P are a sub-multiset of the relations of P'. Rules are therefore indexed by their
+ * head key and the sorted array of their body relations, and the candidate parents
+ * of a rule are found by looking up every sub-multiset of its body relations. For long
+ * bodies, or when there are fewer keys with the head key than sub-multisets, the keys
+ * with the head key are scanned instead.
+ *
+ * The index can be read and updated concurrently.
+ *
+ * @author galarrag
+ *
+ */
+public class SubsumptionIndex {
+
+	/**
+	 * Code used for the relation of atoms whose relation is a variable.
+	 */
+	private static final int VARIABLE_RELATION = Integer.MIN_VALUE;
+
+	/**
+	 * Bodies with more atoms than this are never enumerated (2^12 sub-multisets).
+	 */
+	private static final int MAX_ENUMERATED_BODY = 12;
+
+	private final ConcurrentHashMap<Key, Queue<Rule>> index = new ConcurrentHashMap<>();
+
+	/**
+	 * Head key to the keys of the index with that head key
+	 */
+	private final ConcurrentHashMap<Integer, Set<Key>> keysByHead = new ConcurrentHashMap<>();
+
+	private static final class Key {
+		final int headKey;
+		final int[] relations;
+		final int hash;
+
+		Key(int headKey, int[] relations) {
+			this.headKey = headKey;
+			this.relations = relations;
+			this.hash = 31 * headKey + Arrays.hashCode(relations);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return headKey == other.headKey && Arrays.equals(relations, other.relations);
+		}
+	}
+
+	/**
+	 * @return The sorted relations of the body of the rule
+	 */
+	private static int[] bodyRelations(Rule rule) {
+		List<int[]> body = rule.getAntecedent();
+		int[] relations = new int[body.size()];
+		for (int i = 0; i < relations.length; ++i) {
+			int relation = body.get(i)[1];
+			relations[i] = KB.isVariable(relation) ? VARIABLE_RELATION : relation;
+		}
+		Arrays.sort(relations);
+		return relations;
+	}
+
+	/**
+	 * Adds an output rule to the index.
+	 * @param rule
+	 */
+	public void add(Rule rule) {
+		Key key = new Key(rule.getHeadKey(), bodyRelations(rule));
+		index.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(rule);
+		keysByHead.computeIfAbsent(key.headKey, h -> ConcurrentHashMap.newKeySet()).add(key);
+	}
+
+	/**
+	 * @return True if the sorted array a is a proper sub-multiset of the sorted array b
+	 */
+	private static boolean isProperSubset(int[] a, int[] b) {
+		if (a.length >= b.length)
+			return false;
+		int j = 0;
+		for (int relation : a) {
+			while (j < b.length && b[j] < relation)
+				++j;
+			if (j == b.length || b[j] != relation)
+				return false;
+			++j;
+		}
+		return true;
+	}
+
+	/**
+	 * It returns the indexed rules that may subsume the given rule, i.e., those with
+	 * the same head key and whose body relations are a proper sub-multiset of the body
+	 * relations of the rule. Candidates must still be verified with {@link Rule#subsumes(Rule)}.
+	 * @param rule
+	 * @return
+	 */
+	public Collection<Rule> getCandidateParents(Rule rule) {
+		int[] relations = bodyRelations(rule);
+		Set<Key> keys = keysByHead.get(rule.getHeadKey());
+		if (relations.length == 0 || keys == null)
+			return Collections.emptyList();
+
+		List<Rule> candidates = new ArrayList<>();
+		if (relations.length > MAX_ENUMERATED_BODY || (1 << relations.length) > keys.size()) {
+			for (Key key : keys) {
+				if (isProperSubset(key.relations, relations))
+					candidates.addAll(index.get(key));
+			}
+			return candidates;
+		}
+
+		Set<Key> visited = new HashSet<>();
+		int nSubsets = 1 << relations.length;
+		// The last mask would be the full set, parents have at least one atom less
+		for (int mask = 0; mask < nSubsets - 1; ++mask) {
+			int[] subset = new int[Integer.bitCount(mask)];
+			int k = 0;
+			for (int i = 0; i < relations.length; ++i) {
+				if ((mask & (1 << i)) != 0)
+					subset[k++] = relations[i];
+			}
+			Key key = new Key(rule.getHeadKey(), subset);
+			if (visited.add(key)) {
+				Queue<Rule> rules = index.get(key);
+				if (rules != null)
+					candidates.addAll(rules);
+			}
+		}
+		return candidates;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Queue<Rule> rules : index.values()) {
+			size += rules.size();
+		}
+		return size;
+	}
+}
@@ -1,6 +1,7 @@
 package amie.mining.utils;
 
 import amie.data.remote.Caching;
+import amie.data.remote.Compression;
 import amie.data.AbstractKB;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
@@ -9,6 +10,7 @@ import org.apache.commons.cli.Options;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.StringJoiner;
 
 /**
  * Every possible options for AMIE.
@@ -35,6 +37,17 @@ public interface AMIEOptions {
 
         Option LIVE_METRICS = new Option("liveMetrics", "Enable live metrics.");
 
+        Option CONNECTIONS = new Option("connections", true,
+                        String.format("Sets the number of connections to the server shared by the mining threads " +
+                                        "in client mode (default is %s)", AbstractKB.DEFAULT_CONNECTIONS));
+        Option VIRTUAL_THREADS = new Option("virtualThreads",
+                        "Runs the mining threads on virtual threads in client mode (Java 21), so that many more " +
+                                        "threads than cores (-nc) can have queries in flight.");
+        Option COMPRESSION = new Option("compression", true,
+                        String.format("Sets the size in bytes from which the messages between the server and the " +
+                                        "clients are compressed, -1 to disable compression (default is %s)",
+                                        Compression.DEFAULT_THRESHOLD));
+
         Option MIN_SUPPORT = new Option("mins", "min-support", true,
                         "Minimum absolute support. Default: 100 positive examples");
 
@@ -53,7 +66,9 @@ public interface AMIEOptions {
                         "Print the rules at the end and not while they are discovered. Default: false");
 
         Option OUTPUT_FORMAT = new Option("ofmt", "output-format", true,
-                        "Controls the rules' output format. Default: TSV, all fields, atoms as triples");
+                        "Controls the rules' output format: default, anyburl, binary (columnar, requires " +
+                                        "-ofile) or the name of a formatter class. Default: TSV, all fields, atoms " +
+                                        "as triples");
 
         Option BODY_EXCLUDED = new Option("bexr", "body-excluded-relations", true,
                         "Do not use these relations as atoms in the body of rules. Example: <livesIn>,<bornIn>");
@@ -113,6 +128,72 @@ public interface AMIEOptions {
                         "Preferred number of cores. Round down to the actual number of cores in the system if a " +
                                         "higher value is provided.");
 
+        Option PARALLEL_OPERATORS = new Option("popr", "parallel-operators", false,
+                        "Evaluate the independent queries issued for a single rule in a fork-join pool shared by " +
+                                        "all mining threads. Default: false");
+
+        Option STATISTICS_DIR = new Option("sdir", "statistics-dir", true,
+                        "Directory where the overlap tables and cardinality histograms of the KB are stored, in a " +
+                                        "file named after a hash of the input files. They are loaded from there " +
+                                        "in later runs on the same files instead of being computed again.");
+
+        Option PROFILE = new Option("prof", "profile", true,
+                        "Profile the mining phase and write the timings of the mining operators and KB " +
+                                        "queries in JSON to the given file");
+
+        Option PROFILE_INTERVAL = new Option("profi", "profile-interval", true,
+                        "Seconds between two writes of the profile during the run, 0 to write it only at " +
+                                        "the end. Default: 60");
+
+        Option METRICS_PORT = new Option("mport", "metrics-port", true,
+                        "Serve live metrics of the mining phase in the Prometheus text format at " +
+                                        "http://localhost:<port>/metrics");
+
+        Option CHECKPOINT_FILE = new Option("chk", "checkpoint-file", true,
+                        "Periodically write the state of the mining phase to the given file");
+
+        Option CHECKPOINT_INTERVAL = new Option("chki", "checkpoint-interval", true,
+                        "Minutes between two checkpoints. Default: 30");
+
+        Option RESUME = new Option("resume", "resume", false,
+                        "Continue the run saved in the checkpoint file (-chk) instead of starting from scratch. " +
+                                        "The other parameters must be the same as in the interrupted run.");
+
+        Option SPILL_DIRECTORY = new Option("spill", "spill-directory", true,
+                        "Write the rules queued for the next generation to temporary files in the given " +
+                                        "directory when they do not fit in the buffer (-spillb)");
+
+        Option SPILL_BUFFER = new Option("spillb", "spill-buffer", true,
+                        "Maximum number of queued rules kept in memory when the queue is spilled to disk " +
+                                        "(-spill). Default: 1000000");
+
+        Option PREDICTIONS_FILE = new Option("pred", "predictions-file", true,
+                        "Apply the mined rules to the KB and write the predicted facts to the given file");
+
+        Option PREDICTION_AGGREGATION = new Option("predagg", "prediction-aggregation", true,
+                        "How the confidences of the rules that predict the same fact are combined (-pred): " +
+                                        "max or noisyor. Default: max");
+
+        Option INCREMENTAL = new Option("incr", "incremental", true,
+                        "Update the rules of a previous run, given in the file, with the facts added and " +
+                                        "removed since then (-delta) instead of mining from scratch");
+
+        Option DELTA_FILE = new Option("delta", "delta-file", true,
+                        "File of facts to add to (+) or remove from (-) the KB after loading it, one per line: " +
+                                        "+|-<TAB>subject<TAB>relation<TAB>object");
+
+        Option PARTITIONS = new Option("parts", "partitions", true,
+                        "Split the head relations into the given number of partitions of balanced cost, mine " +
+                                        "each partition in a worker process and merge their rules");
+
+        Option HEAD_COSTS = new Option("hcost", "head-costs", true,
+                        "File with the time spent on each head relation in previous runs, used to order the " +
+                                        "seed rules (-lpt) and balance the partitions (-parts), and updated at the end of the run");
+
+        Option LONGEST_FIRST = new Option("lpt", "longest-first", false,
+                        "Refine the rules of each generation by decreasing estimated cost, so that the most " +
+                                        "expensive rules do not delay the end of the generation");
+
         Option MIN_STD_CONFIDENCE = new Option("minc", "min-std-confidence", true,
                         "Minimum standard confidence threshold. "
                                         + "This value is not used for pruning, only for filtering of the results. Default: 0.0");
@@ -204,6 +285,25 @@ public interface AMIEOptions {
                         SERVER_ADDRESS,
                         PORT,
                         LIVE_METRICS,
+                        CONNECTIONS,
+                        VIRTUAL_THREADS,
+                        COMPRESSION,
+                        PARALLEL_OPERATORS,
+                        STATISTICS_DIR,
+                        PROFILE,
+                        PROFILE_INTERVAL,
+                        METRICS_PORT,
+                        CHECKPOINT_FILE,
+                        CHECKPOINT_INTERVAL,
+                        RESUME,
+                        SPILL_DIRECTORY,
+                        SPILL_BUFFER,
+                        PREDICTIONS_FILE,
+                        PREDICTION_AGGREGATION,
+                        INCREMENTAL,
+                        PARTITIONS,
+                        HEAD_COSTS,
+                        LONGEST_FIRST,
                         OUTPUT_FORMAT,
                         VERBOSE,
                         DISABLE_QUERY_REWRITING,
@@ -213,19 +313,16 @@ public interface AMIEOptions {
                 String result = "";
                 String config = Arrays.toString(cli.getArgs());
                 config = config.replace("/", "~");
-                Option[] optionsArr = cli.getOptions();
-                String optionCon = "";
-                for (int k = 0; k < optionsArr.length; k++) {
+                // Only the options kept are separated, so that ignored options do not change the identifier
+                StringJoiner optionJoiner = new StringJoiner("+");
+                for (Option option : cli.getOptions()) {
                         // Checking if option changes queries to remote KB or their results
-                        if (ignoredByCacheOptions.contains(optionsArr[k]))
+                        if (ignoredByCacheOptions.contains(option))
                                 continue;
-                        optionCon += optionsArr[k].getOpt();
-                        String value = optionsArr[k].getValue();
-                        if (value != null)
-                                optionCon += "&" + value;
-                        if (k < optionsArr.length - 1)
-                                optionCon += "+";
+                        String value = option.getValue();
+                        optionJoiner.add(value == null ? option.getOpt() : option.getOpt() + "&" + value);
                 }
+                String optionCon = optionJoiner.toString();
                 if (!(cli.getArgs().length == 0))
                         result += config;
                 if (!(cli.getArgs().length == 0) && !optionCon.isEmpty())
@@ -263,6 +360,23 @@ public interface AMIEOptions {
                 options.addOption(COUNT_ALWAYS_ON_SUBJECT);
                 options.addOption(BIAS);
                 options.addOption(N_THREADS);
+                options.addOption(PARALLEL_OPERATORS);
+                options.addOption(STATISTICS_DIR);
+                options.addOption(PROFILE);
+                options.addOption(PROFILE_INTERVAL);
+                options.addOption(METRICS_PORT);
+                options.addOption(CHECKPOINT_FILE);
+                options.addOption(CHECKPOINT_INTERVAL);
+                options.addOption(RESUME);
+                options.addOption(SPILL_DIRECTORY);
+                options.addOption(SPILL_BUFFER);
+                options.addOption(PREDICTIONS_FILE);
+                options.addOption(PREDICTION_AGGREGATION);
+                options.addOption(INCREMENTAL);
+                options.addOption(DELTA_FILE);
+                options.addOption(PARTITIONS);
+                options.addOption(HEAD_COSTS);
+                options.addOption(LONGEST_FIRST);
                 options.addOption(OPTIM_CONFIDENCE_BOUNDS);
                 options.addOption(VERBOSE);
                 options.addOption(OPTIM_FUNC_HEURISTIC);
@@ -298,6 +412,9 @@ public interface AMIEOptions {
                 options.addOption(CACHE);
                 options.addOption(PORT);
                 options.addOption(LIVE_METRICS);
+                options.addOption(CONNECTIONS);
+                options.addOption(VIRTUAL_THREADS);
+                options.addOption(COMPRESSION);
                 return options;
         }
 
@@ -323,6 +440,19 @@ public interface AMIEOptions {
                         return false;
                 }
 
+                if ((cli.hasOption(CONNECTIONS.getOpt()) || cli.hasOption(VIRTUAL_THREADS.getOpt()))
+                                && !isClientMode(cli)) {
+                        System.err.println("The number of connections and virtual threads only apply to client mode.");
+                        formatter.printHelp(AMIE_CMD_LINE_SYNTAX, commandLineOptions);
+                        return false;
+                }
+
+                if (cli.hasOption(COMPRESSION.getOpt()) && !(isClientMode(cli) || isServerMode(cli))) {
+                        System.err.println("Compression can only be set in remote KB client or server mode.");
+                        formatter.printHelp(AMIE_CMD_LINE_SYNTAX, commandLineOptions);
+                        return false;
+                }
+
                 if (isClientMode(cli) && isServerMode(cli)) {
                         System.err.println(
                                         "Remote KB client mode and remote KB server mode options are incompatible. Pick either one.");
@@ -0,0 +1,34 @@
+package amie.mining;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import amie.data.KB;
+import junit.framework.TestCase;
+
+public class TestRuleCostModel extends TestCase {
+	KB kb = new KB();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<livesIn>", "<Lima>"));
+		kb.add(kb.triple("<Luis>", "<wasBornIn>", "<Guayaquil>"));
+	}
+
+	public void testRead() throws Exception {
+		File file = File.createTempFile("amie", ".costs");
+		file.deleteOnExit();
+		try (PrintStream out = new PrintStream(file, "UTF-8")) {
+			out.println("<livesIn>\t40");
+			// Recorded for another KB
+			out.println("<speaks>\t10");
+		}
+		RuleCostModel model = RuleCostModel.read(kb, file);
+		assertTrue(model.isRecorded(kb.map("<livesIn>")));
+		assertEquals(40.0, model.headCost(kb.map("<livesIn>")), 0.0);
+		// Scaled from the recorded costs: 20 ms per fact
+		assertEquals(20.0, model.headCost(kb.map("<wasBornIn>")), 1e-9);
+		assertEquals(-1, kb.schema.lookup("<speaks>"));
+	}
+}
@@ -0,0 +1,161 @@
+package amie.mining;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class TestSpillingFrontier extends TestCase {
+	KB kb = new KB();
+
+	File directory;
+
+	Rule parent1, parent2;
+
+	/**
+	 * Rule with a constant canonical hash code, so that all such rules collide.
+	 */
+	private static final class CollidingRule extends Rule {
+		CollidingRule(Rule rule, KB kb) {
+			super(rule, rule.getSupport(), kb);
+		}
+
+		@Override
+		public long canonicalHashCode() {
+			return 42;
+		}
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		directory = Files.createTempDirectory("amie-frontier").toFile();
+		parent1 = rule("?a <livesIn> ?b => ?a <isCitizenOf> ?b", 10);
+		parent2 = rule("?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", 8);
+	}
+
+	protected void tearDown() throws Exception {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+		super.tearDown();
+	}
+
+	private Rule rule(String s, double support, Rule... parents) {
+		Rule rule = new Rule(AMIEParser.rule(s, kb), support, kb);
+		for (Rule parent : parents)
+			rule.addParent(parent);
+		return rule;
+	}
+
+	/**
+	 * Rules and their parents. The last rule is equal to the first one but has other parents.
+	 */
+	private List<Rule> rules() {
+		List<Rule> rules = new ArrayList<>();
+		rules.add(rule("?a <livesIn> ?b  ?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", 5, parent1, parent2));
+		rules.add(rule("?a <livesIn> ?c  ?c <locatedIn> ?b => ?a <isCitizenOf> ?b", 4, parent1));
+		rules.add(rule("?a <wasBornIn> ?c  ?c <locatedIn> ?b => ?a <isCitizenOf> ?b", 3, parent2));
+		rules.add(rule("?a <livesIn> <Paris> => ?a <isCitizenOf> <France>", 2));
+		rules.add(rule("?a <livesIn> ?b  ?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", 5, parent2));
+		return rules;
+	}
+
+	/**
+	 * With a buffer of 2 rules, the duplicates end up in three runs and in the
+	 * buffer.
+	 */
+	private static <T> List<T> order(List<T> rules) {
+		List<T> order = new ArrayList<>();
+		int[] positions = { 0, 1, 0, 2, 1, 3, 4 };
+		for (int position : positions)
+			order.add(rules.get(position));
+		return order;
+	}
+
+	/**
+	 * @return The string of every rule and the strings of its parents
+	 */
+	private static Map<String, Set<String>> describe(Iterator<Rule> rules) {
+		Map<String, Set<String>> result = new HashMap<>();
+		while (rules.hasNext()) {
+			Rule rule = rules.next();
+			Set<String> parents = new HashSet<>();
+			for (Rule parent : rule.getAncestors())
+				parents.add(parent.getRuleString());
+			assertNull("Duplicate " + rule.getRuleString(), result.put(rule.getRuleString(), parents));
+		}
+		return result;
+	}
+
+	private static void fill(Frontier frontier, Collection<Rule> rules) {
+		for (Rule rule : rules)
+			frontier.add(rule);
+	}
+
+	/**
+	 * @return The drained rules of the spilling frontier
+	 */
+	private Map<String, Set<String>> assertSameDrain(List<Rule> added) {
+		InMemoryFrontier expected = new InMemoryFrontier();
+		SpillingFrontier actual = new SpillingFrontier(kb, directory, 2);
+		fill(expected, added);
+		fill(actual, added);
+		assertEquals(3, directory.listFiles().length);
+		Frontier.Drained expectedRules = expected.drain();
+		Frontier.Drained actualRules = actual.drain();
+		assertEquals(expectedRules.size, actualRules.size);
+		Map<String, Set<String>> drained = describe(actualRules.rules);
+		assertEquals(describe(expectedRules.rules), drained);
+		assertTrue(actual.isEmpty());
+		assertEquals(0, actual.size());
+		return drained;
+	}
+
+	public void testDrain() {
+		List<Rule> rules = rules();
+		Map<String, Set<String>> drained = assertSameDrain(order(rules));
+		assertEquals(4, drained.size());
+		// The first copy of a rule is kept with its parents
+		Set<String> parents = drained.get(rules.get(0).getRuleString());
+		assertTrue(parents.contains(parent1.getRuleString()));
+		assertTrue(parents.contains(parent2.getRuleString()));
+	}
+
+	public void testCollisions() {
+		List<Rule> rules = new ArrayList<>();
+		for (Rule rule : rules()) {
+			Rule colliding = new CollidingRule(rule, kb);
+			for (Rule parent : rule.getAncestors())
+				colliding.addParent(parent);
+			rules.add(colliding);
+		}
+		assertEquals(4, assertSameDrain(order(rules)).size());
+	}
+
+	public void testSnapshot() {
+		InMemoryFrontier expected = new InMemoryFrontier();
+		SpillingFrontier actual = new SpillingFrontier(kb, directory, 2);
+		List<Rule> added = order(rules());
+		fill(expected, added);
+		fill(actual, added);
+		assertEquals(describe(expected.snapshot().iterator()), describe(actual.snapshot().iterator()));
+		// The snapshot does not modify the frontier
+		Frontier.Drained drained = actual.drain();
+		assertEquals(4, drained.size);
+		assertEquals(describe(expected.drain().rules), describe(drained.rules));
+		// The frontier is reused by the next generation
+		fill(actual, order(rules()));
+		assertEquals(4, actual.drain().size);
+	}
+}
@@ -0,0 +1,66 @@
+package amie.mining.assistant;
+
+import java.util.Collection;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class TestSubsumptionIndex extends TestCase {
+	KB kb = new KB();
+
+	SubsumptionIndex index = new SubsumptionIndex();
+
+	Rule livesIn, wasBornIn, both, other;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		livesIn = AMIEParser.rule("?a <livesIn> ?b => ?a <isCitizenOf> ?b", kb);
+		wasBornIn = AMIEParser.rule("?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", kb);
+		both = AMIEParser.rule("?a <livesIn> ?b  ?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", kb);
+		other = AMIEParser.rule("?a <livesIn> ?b => ?a <worksIn> ?b", kb);
+		index.add(livesIn);
+		index.add(wasBornIn);
+		index.add(both);
+		index.add(other);
+	}
+
+	/**
+	 * Few keys per head: the keys are scanned.
+	 */
+	public void testScan() {
+		Rule rule = AMIEParser.rule("?a <livesIn> ?b  ?a <wasBornIn> ?b  ?a <livesIn> ?c => ?a <isCitizenOf> ?b", kb);
+		Collection<Rule> candidates = index.getCandidateParents(rule);
+		assertEquals(3, candidates.size());
+		assertTrue(candidates.contains(livesIn));
+		assertTrue(candidates.contains(wasBornIn));
+		assertTrue(candidates.contains(both));
+		assertTrue(index.getCandidateParents(livesIn).isEmpty());
+	}
+
+	/**
+	 * More keys than sub-multisets: the sub-multisets are looked up.
+	 */
+	public void testEnumeration() {
+		index.add(AMIEParser.rule("?a <speaks> ?b => ?a <isCitizenOf> ?b", kb));
+		Rule rule = AMIEParser.rule("?a <livesIn> ?b  ?a <livesIn> ?c => ?a <isCitizenOf> ?b", kb);
+		Collection<Rule> candidates = index.getCandidateParents(rule);
+		assertEquals(1, candidates.size());
+		assertTrue(candidates.contains(livesIn));
+	}
+
+	/**
+	 * Bodies too long to enumerate their sub-multisets
+	 */
+	public void testLongBody() {
+		StringBuilder body = new StringBuilder("?a <wasBornIn> ?b ");
+		for (int i = 0; i < 40; ++i) {
+			body.append(" ?a <r").append(i).append("> ?b ");
+		}
+		Rule rule = AMIEParser.rule(body + " => ?a <isCitizenOf> ?b", kb);
+		Collection<Rule> candidates = index.getCandidateParents(rule);
+		assertEquals(1, candidates.size());
+		assertTrue(candidates.contains(wasBornIn));
+	}
+}
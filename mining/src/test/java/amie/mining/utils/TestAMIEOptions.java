@@ -0,0 +1,29 @@
+package amie.mining.utils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.PosixParser;
+
+import junit.framework.TestCase;
+
+public class TestAMIEOptions extends TestCase {
+
+	private static String identifier(String... args) throws Exception {
+		CommandLine cli = new PosixParser().parse(AMIEOptions.DefineArgOptions(), args);
+		return AMIEOptions.FormatConfigIndentifier(cli);
+	}
+
+	public void testIdentifier() throws Exception {
+		assertEquals("[kb.tsv]-mins&5", identifier("-mins", "5", "kb.tsv"));
+		assertEquals("[kb.tsv]-mins&5+const", identifier("-mins", "5", "-const", "kb.tsv"));
+	}
+
+	/**
+	 * A resumed run must have the identifier of the run that wrote the checkpoint.
+	 */
+	public void testResumeKeepsIdentifier() throws Exception {
+		String identifier = identifier("-chk", "c.bin", "-mins", "5", "kb.tsv");
+		assertEquals("[kb.tsv]-mins&5", identifier);
+		assertEquals(identifier, identifier("-chk", "c.bin", "-mins", "5", "-resume", "kb.tsv"));
+		assertEquals(identifier, identifier("-resume", "-mins", "5", "-chk", "c.bin", "kb.tsv"));
+	}
+}
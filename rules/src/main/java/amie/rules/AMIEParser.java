@@ -11,6 +11,9 @@ import amie.data.KB;
 import amie.data.Schema;
 import amie.data.javatools.datatypes.Pair;
 import amie.data.javatools.filehandlers.TSVFile;
+import amie.rules.format.BinaryRules;
+import amie.rules.format.OutputColumn;
+import amie.rules.format.RuleFormatter;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
@@ -64,6 +67,73 @@ public class AMIEParser {
         return result;
     }
 
+    /**
+     * Parses a file of rules output by AMIE and sets the metrics found in the
+     * file, so that the confidences of the rules can be used, e.g., for prediction.
+     * The columns are identified by the header line; if there is none, the
+     * default columns are assumed. Files in the binary format of
+     * {@link BinaryRules} are also accepted.
+     *
+     * @param f
+     * @param kb
+     * @return
+     * @throws IOException
+     */
+    public static List<Rule> rulesWithMetrics(File f, AbstractKB kb) throws IOException {
+        if (BinaryRules.isBinary(f))
+            return BinaryRules.read(f).toRules(kb);
+
+        List<Rule> result = new ArrayList<>();
+        List<OutputColumn> columns = RuleFormatter.headers;
+        for (List<String> record : new TSVFile(f)) {
+            if (record.get(0).equals("Rule")) {
+                columns = new ArrayList<>();
+                for (String header : record) {
+                    columns.add(OutputColumn.valueOf(header.replace(" ", "")));
+                }
+                continue;
+            }
+            Rule rule = rule(record.get(0), kb);
+            if (rule == null)
+                continue;
+
+            double stdConfidence = Double.NaN;
+            boolean bodySizeSet = false;
+            for (int i = 1; i < Math.min(columns.size(), record.size()); ++i) {
+                // Numbers are written in the default locale
+                double value = Double.parseDouble(record.get(i).trim().replace(',', '.'));
+                switch (columns.get(i)) {
+                case HeadCoverage:
+                    rule.setHeadCoverage(value);
+                    break;
+                case Support:
+                    rule.setSupport(value);
+                    break;
+                case BodySize:
+                    rule.setBodySize((long) value);
+                    bodySizeSet = true;
+                    break;
+                case PcaBodySize:
+                    rule.setPcaBodySize(value);
+                    break;
+                case StandardConfidence:
+                    stdConfidence = value;
+                    break;
+                case FunctionalVariable:
+                    // The column contains the variable, not its position
+                    rule.setFunctionalVariablePosition(rule.getHead()[2] == (int) value ? 2 : 0);
+                    break;
+                default:
+                    break;
+                }
+            }
+            if (!bodySizeSet && stdConfidence > 0.0)
+                rule.setBodySize(Math.round(rule.getSupport() / stdConfidence));
+            result.add(rule);
+        }
+        return result;
+    }
+
     public static void main(String[] args) {
         KB kb = new KB(new Schema());
         System.out.println(AMIEParser.rule("=> ?a <hasChild> ?b", kb));
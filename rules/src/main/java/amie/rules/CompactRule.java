@@ -0,0 +1,139 @@
+package amie.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable and compact representation of a rule. All atoms are packed in a single
+ * array of the form [s0, r0, o0, s1, r1, o1, ...] where the first atom is the head.
+ *
+ * Compact rules are meant for the refinement of rules, where most candidates
+ * are discarded: the candidates are screened on the compact form of the rule
+ * and only those that pass are built as {@link Rule} objects.
+ *
+ * @author lgalarra
+ *
+ */
+public final class CompactRule {
+
+    /**
+     * The atoms of the rule, 3 integers per atom. The head comes first.
+     */
+    private final int[] atoms;
+
+    private final double support;
+
+    private CompactRule(int[] atoms, double support) {
+        this.atoms = atoms;
+        this.support = support;
+    }
+
+    /**
+     * Builds a compact rule from a list of atoms.
+     * @param triples The atoms, the head first
+     * @param support
+     * @return
+     */
+    public static CompactRule of(List<int[]> triples, double support) {
+        int[] atoms = new int[triples.size() * 3];
+        for (int i = 0; i < triples.size(); ++i) {
+            System.arraycopy(triples.get(i), 0, atoms, i * 3, 3);
+        }
+        return new CompactRule(atoms, support);
+    }
+
+    public static CompactRule of(Rule rule) {
+        return of(rule.getTriples(), rule.getSupport());
+    }
+
+    public double getSupport() {
+        return support;
+    }
+
+    /**
+     * @return The number of atoms including the head
+     */
+    public int getLength() {
+        return atoms.length / 3;
+    }
+
+    /**
+     * Returns one component of an atom.
+     * @param atomIdx Position of the atom, 0 is the head
+     * @param position 0 = subject, 1 = relation, 2 = object
+     * @return
+     */
+    public int get(int atomIdx, int position) {
+        return atoms[atomIdx * 3 + position];
+    }
+
+    /**
+     * @param atomIdx
+     * @return A copy of the atom at the given position
+     */
+    public int[] getAtom(int atomIdx) {
+        return Arrays.copyOfRange(atoms, atomIdx * 3, atomIdx * 3 + 3);
+    }
+
+    /**
+     * @return A copy of the packed atoms
+     */
+    public int[] getAtoms() {
+        return atoms.clone();
+    }
+
+    /**
+     * Returns the number of times the relation occurs in the atoms of the rule
+     */
+    public int cardinalityForRelation(int relation) {
+        int count = 0;
+        for (int i = 1; i < atoms.length; i += 3) {
+            if (atoms[i] == relation)
+                ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return True if the rule contains an atom equal to the given one.
+     */
+    public boolean containsAtom(int[] atom) {
+        for (int i = 0; i < atoms.length; i += 3) {
+            if (atoms[i] == atom[0] && atoms[i + 1] == atom[1] && atoms[i + 2] == atom[2])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Equivalent to calling {@link Rule#isRedundantRecursive()} on the rule obtained by
+     * adding the atom, i.e., the atom is redundant if the rule already contains it.
+     * @param atom
+     * @return
+     */
+    public boolean isRedundantWith(int[] atom) {
+        return containsAtom(atom);
+    }
+
+    /**
+     * @return The list of atoms of the rule as in {@link Rule#getTriples()}
+     */
+    public List<int[]> getTriples() {
+        List<int[]> triples = new ArrayList<>(getLength());
+        for (int i = 0; i < atoms.length; i += 3) {
+            triples.add(Arrays.copyOfRange(atoms, i, i + 3));
+        }
+        return triples;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < atoms.length; i += 3) {
+            sb.append('[').append(atoms[i]).append(' ').append(atoms[i + 1])
+                    .append(' ').append(atoms[i + 2]).append(']');
+        }
+        return sb.toString();
+    }
+}
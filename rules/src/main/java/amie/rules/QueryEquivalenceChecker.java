@@ -5,6 +5,7 @@ import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -72,4 +73,97 @@ public class QueryEquivalenceChecker {
         }
         return (false);
     }
+
+    /** Number of refinement rounds of the canonical hash, enough for the usual rule lengths */
+    private static final int CANONICAL_HASH_ROUNDS = 4;
+
+    /**
+     * A hash of the rule that does not depend on the names of its variables nor on the
+     * order of its body atoms, i.e., equivalent rules in the sense of
+     * {@link #areEquivalent(List, List)} have the same hash. It is computed by colour
+     * refinement on the graph of atoms and variables: variables start with the positions
+     * they take in the head, and at each round the colour of an atom is derived from its
+     * relation and the colours of its arguments, and the colour of a variable from the
+     * multiset of atoms and positions it occurs in.
+     */
+    public static long canonicalHash(List<int[]> rule) {
+        int n = rule.size();
+        if (n == 0) return (0L);
+        int[] head = rule.get(0);
+        int[] variables = new int[n * 3];
+        int nVariables = 0;
+        for (int[] atom : rule) {
+            for (int component : atom) {
+                if (isVariable(component) && indexOf(variables, nVariables, component) == -1) {
+                    variables[nVariables++] = component;
+                }
+            }
+        }
+
+        long[] colours = new long[nVariables];
+        for (int v = 0; v < nVariables; ++v) {
+            long colour = 1L;
+            for (int pos = 0; pos < head.length; ++pos) {
+                if (head[pos] == variables[v]) colour = mix(colour, pos + 2);
+            }
+            colours[v] = colour;
+        }
+
+        long[] atomColours = new long[n];
+        long[] occurrences = new long[n * 3];
+        int rounds = Math.min(n, CANONICAL_HASH_ROUNDS);
+        for (int round = 0; round <= rounds; ++round) {
+            for (int i = 0; i < n; ++i) {
+                int[] atom = rule.get(i);
+                long colour = i == 0 ? 0x48EADL : 0xB0D1L;
+                for (int component : atom) {
+                    colour = mix(colour, isVariable(component) ?
+                            colours[indexOf(variables, nVariables, component)] : mix(0xC057L, component));
+                }
+                atomColours[i] = colour;
+            }
+
+            if (round == rounds) break;
+
+            long[] newColours = new long[nVariables];
+            for (int v = 0; v < nVariables; ++v) {
+                int nOccurrences = 0;
+                for (int i = 0; i < n; ++i) {
+                    int[] atom = rule.get(i);
+                    for (int pos = 0; pos < atom.length; ++pos) {
+                        if (atom[pos] == variables[v]) occurrences[nOccurrences++] = mix(atomColours[i], pos);
+                    }
+                }
+                Arrays.sort(occurrences, 0, nOccurrences);
+                long colour = colours[v];
+                for (int k = 0; k < nOccurrences; ++k) {
+                    colour = mix(colour, occurrences[k]);
+                }
+                newColours[v] = colour;
+            }
+            colours = newColours;
+        }
+
+        Arrays.sort(atomColours, 1, n);
+        long hash = 0L;
+        for (long colour : atomColours) {
+            hash = mix(hash, colour);
+        }
+        return (hash);
+    }
+
+    private static int indexOf(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) return (i);
+        }
+        return (-1);
+    }
+
+    /** Combines two values (finalizer of the SplitMix64 generator) */
+    private static long mix(long h, long value) {
+        long z = h * 0x9E3779B97F4A7C15L + value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31));
+    }
 }
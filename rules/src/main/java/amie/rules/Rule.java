@@ -4,14 +4,20 @@
  */
 package amie.rules;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.regex.Pattern;
 
 import amie.data.AbstractKB;
@@ -82,7 +88,7 @@ public class Rule {
 
     /**
      * List of parents: queries that are equivalent to the current query but
-     * contain a body atom less.
+     * contain a body atom less. Allocated on the first call to addParent.
      */
     private Set<Rule> ancestors;
 
@@ -159,6 +165,11 @@ public class Rule {
      */
     private double _confidenceRunningTime;
 
+    /**
+     * Estimated time to refine the rule, used to order the rules of a generation
+     */
+    private double estimatedCost;
+
     private boolean finalized = false;
 
     public boolean isFinal() {
@@ -226,6 +237,57 @@ public class Rule {
                 atom1[2] == atom2[2]);
     }
 
+    /**
+     * It binds the variables of the atom to the values of the fact.
+     *
+     * @param atom
+     * @param fact
+     * @return The bindings as pairs variable-value, null if the fact does not
+     *         match the atom
+     */
+    public static int[] unify(int[] atom, int[] fact) {
+        int[] bindings = new int[6];
+        int n = 0;
+        for (int i = 0; i < 3; ++i) {
+            if (!KB.isVariable(atom[i])) {
+                if (atom[i] != fact[i])
+                    return null;
+                continue;
+            }
+            boolean bound = false;
+            for (int j = 0; j < n; j += 2) {
+                if (bindings[j] == atom[i]) {
+                    if (bindings[j + 1] != fact[i])
+                        return null;
+                    bound = true;
+                }
+            }
+            if (!bound) {
+                bindings[n++] = atom[i];
+                bindings[n++] = fact[i];
+            }
+        }
+        return n == bindings.length ? bindings : Arrays.copyOf(bindings, n);
+    }
+
+    /**
+     * It replaces the variables of the atom by the values they are bound to.
+     *
+     * @param atom
+     * @param bindings Pairs variable-value, see {@link #unify(int[], int[])}
+     * @return A new atom
+     */
+    public static int[] substitute(int[] atom, int[] bindings) {
+        int[] result = atom.clone();
+        for (int i = 0; i < 3; ++i) {
+            for (int j = 0; j < bindings.length; j += 2) {
+                if (result[i] == bindings[j])
+                    result[i] = bindings[j + 1];
+            }
+        }
+        return result;
+    }
+
     /**
      * Instantiates an empty rule.
      */
@@ -241,7 +303,7 @@ public class Rule {
         this.stdConfidenceUpperBound = 0.0;
         this.pcaConfidenceUpperBound = 0.0;
         this.pcaConfidenceEstimation = 0.0;
-        this.ancestors = new HashSet<>();
+        this.ancestors = null;
         this.generation = -1;
         this.kb = kb;
     }
@@ -268,7 +330,7 @@ public class Rule {
         this.stdConfidenceUpperBound = 0.0;
         this.pcaConfidenceUpperBound = 0.0;
         this.pcaConfidenceEstimation = 0.0;
-        this.ancestors = new HashSet<>();
+        this.ancestors = null;
         this.generation = -1;
         this.kb = kb;
     }
@@ -294,7 +356,7 @@ public class Rule {
         this.stdConfidenceUpperBound = 0.0;
         this.pcaConfidenceUpperBound = 0.0;
         this.pcaConfidenceEstimation = 0.0;
-        this.ancestors = new HashSet<>();
+        this.ancestors = null;
         this.generation = -1;
         this.kb = kb;
     }
@@ -315,7 +377,7 @@ public class Rule {
         this.stdConfidenceUpperBound = 0.0;
         this.pcaConfidenceUpperBound = 0.0;
         this.pcaConfidenceEstimation = 0.0;
-        this.ancestors = new HashSet<>();
+        this.ancestors = null;
         this.generation = -1;
         this.kb = kb;
     }
@@ -545,6 +607,14 @@ public class Rule {
         this.generation = generation;
     }
 
+    public double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    public void setEstimatedCost(double estimatedCost) {
+        this.estimatedCost = estimatedCost;
+    }
+
     /**
      * Returns the last triple pattern added to this rule.
      *
@@ -923,10 +993,18 @@ public class Rule {
             return false;
         }
 
-        Int2IntMap varsHistogram = variablesHistogram(ignoreSpecialAtoms);
+        // Rules are short, a quadratic scan is cheaper than building a histogram
+        for (int[] triple : triples) {
+            if (ignoreSpecialAtoms && triple[1] == kb.DIFFERENTFROMbs) {
+                continue;
+            }
+
+            if (KB.isVariable(triple[0]) && countAtomsWithVariable(triple[0], ignoreSpecialAtoms) < 2) {
+                return false;
+            }
 
-        for (int variable : varsHistogram.keySet()) {
-            if (varsHistogram.get(variable) < 2) {
+            if (triple[2] != triple[0] && KB.isVariable(triple[2])
+                    && countAtomsWithVariable(triple[2], ignoreSpecialAtoms) < 2) {
                 return false;
             }
         }
@@ -934,6 +1012,23 @@ public class Rule {
         return true;
     }
 
+    /**
+     * Number of atoms where the variable occurs as subject or object.
+     */
+    private int countAtomsWithVariable(int variable, boolean ignoreSpecialAtoms) {
+        int count = 0;
+        for (int[] triple : triples) {
+            if (ignoreSpecialAtoms && triple[1] == kb.DIFFERENTFROMbs) {
+                continue;
+            }
+
+            if (triple[0] == variable || triple[2] == variable) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
     /**
      * @return boolean. True if the rule has PCA confidence 1.0
      */
@@ -1044,6 +1139,9 @@ public class Rule {
      * @param parent
      */
     public void addParent(Rule parent) {
+        if (this.ancestors == null) {
+            this.ancestors = new HashSet<>(2);
+        }
         this.ancestors.add(parent);
     }
     //
@@ -1144,6 +1242,19 @@ public class Rule {
         return result;
     }
 
+    /**
+     * A 64-bit hash code that does not depend on variable names nor on the order
+     * of the body atoms. Unlike hashCode, it discriminates rules of the same head
+     * relation and support, thus two rules with the same canonical hash code
+     * are very likely equal. It is computed on demand as the atoms of the rule
+     * may change.
+     *
+     * @return
+     */
+    public long canonicalHashCode() {
+        return QueryEquivalenceChecker.canonicalHash(triples) * 31 + initialSupport;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1185,44 +1296,58 @@ public class Rule {
 
     public String getRuleString() {
         StringBuilder strBuilder = new StringBuilder();
-        for (int[] pattern : sortBody()) {
+        appendRuleString(strBuilder, kb::unmap);
+        return strBuilder.toString();
+    }
+
+    /**
+     * It appends the string returned by {@link #getRuleString()} to the builder.
+     *
+     * @param strBuilder
+     * @param names Translates the constants, relations and variables of the atoms
+     *              into strings, e.g., a cache of {@link AbstractKB#unmap(int)}.
+     */
+    public void appendRuleString(StringBuilder strBuilder, IntFunction<String> names) {
+        for (int[] pattern : sortBody(names)) {
             if (pattern[1] == kb.DIFFERENTFROMbs) {
-                strBuilder.append(kb.unmap(pattern[0]));
+                strBuilder.append(names.apply(pattern[0]));
                 strBuilder.append("!=");
-                strBuilder.append(kb.unmap(pattern[2]));
+                strBuilder.append(names.apply(pattern[2]));
                 strBuilder.append(" ");
                 continue;
             }
-            strBuilder.append(kb.unmap(pattern[0]));
+            strBuilder.append(names.apply(pattern[0]));
             strBuilder.append("  ");
-            strBuilder.append(kb.unmap(pattern[1]));
+            strBuilder.append(names.apply(pattern[1]));
             strBuilder.append("  ");
-            strBuilder.append(kb.unmap(pattern[2]));
+            strBuilder.append(names.apply(pattern[2]));
             strBuilder.append("  ");
         }
 
         strBuilder.append(" => ");
         int[] head = triples.get(0);
-        strBuilder.append(kb.unmap(head[0]));
+        strBuilder.append(names.apply(head[0]));
         strBuilder.append("  ");
-        strBuilder.append(kb.unmap(head[1]));
+        strBuilder.append(names.apply(head[1]));
         strBuilder.append("  ");
-        strBuilder.append(kb.unmap(head[2]));
-
-        return strBuilder.toString();
+        strBuilder.append(names.apply(head[2]));
     }
 
     public Collection<int[]> sortBody() {
+        return sortBody(kb::unmap);
+    }
+
+    private Collection<int[]> sortBody(IntFunction<String> names) {
         // Guarantee that atoms in rules are output in the same order across runs of the
         // program
         class TripleComparator implements Comparator<int[]> {
 
             public int compare(int[] t1, int[] t2) {
-                int predicateCompare = kb.unmap(t1[1]).compareTo(kb.unmap(t2[1]));
+                int predicateCompare = names.apply(t1[1]).compareTo(names.apply(t2[1]));
                 if (predicateCompare == 0) {
-                    int objectCompare = kb.unmap(t1[2]).compareTo(kb.unmap(t2[2]));
+                    int objectCompare = names.apply(t1[2]).compareTo(names.apply(t2[2]));
                     if (objectCompare == 0) {
-                        return kb.unmap(t1[0]).compareTo(kb.unmap(t2[0]));
+                        return names.apply(t1[0]).compareTo(names.apply(t2[0]));
                     }
                     return objectCompare;
                 }
@@ -1462,7 +1587,84 @@ public class Rule {
     }
 
     public Set<Rule> getAncestors() {
-        return ancestors;
+        return ancestors == null ? Collections.emptySet() : ancestors;
+    }
+
+    /**
+     * It writes the atoms and the metrics of the rule, but not its parents.
+     * Used to checkpoint the state of a mining run.
+     *
+     * @param out
+     * @param encoder Translates the constants, relations and variables of the atoms,
+     *                e.g., to identifiers that do not depend on the KB.
+     * @throws IOException
+     */
+    public void writeState(DataOutput out, IntUnaryOperator encoder) throws IOException {
+        out.writeInt(triples.size());
+        for (int[] triple : triples) {
+            for (int i = 0; i < 3; ++i) {
+                out.writeInt(encoder.applyAsInt(triple[i]));
+            }
+        }
+        out.writeDouble(headCoverage);
+        out.writeDouble(supportRatio);
+        out.writeDouble(support);
+        out.writeLong(initialSupport);
+        out.writeInt(functionalVariablePosition);
+        out.writeLong(bodySize);
+        out.writeLong(bodyMinusHeadSize);
+        out.writeDouble(pcaBodySize);
+        out.writeInt(highestVariable);
+        out.writeInt(highestVariableSuffix);
+        out.writeInt(generation);
+        out.writeDouble(stdConfidenceUpperBound);
+        out.writeDouble(pcaConfidenceUpperBound);
+        out.writeDouble(pcaConfidenceEstimation);
+        out.writeDouble(_pcaConfidenceRunningTime);
+        out.writeDouble(_confidenceRunningTime);
+        out.writeBoolean(finalized);
+    }
+
+    /**
+     * It reads a rule written by {@link #writeState(DataOutput, IntUnaryOperator)}.
+     *
+     * @param in
+     * @param decoder Inverse of the encoder used to write the rule
+     * @param kb
+     * @return
+     * @throws IOException
+     */
+    public static Rule readState(DataInput in, IntUnaryOperator decoder, AbstractKB kb) throws IOException {
+        Rule rule = new Rule(kb);
+        int nTriples = in.readInt();
+        for (int t = 0; t < nTriples; ++t) {
+            int[] triple = new int[3];
+            for (int i = 0; i < 3; ++i) {
+                triple[i] = decoder.applyAsInt(in.readInt());
+            }
+            rule.triples.add(triple);
+        }
+        rule.headCoverage = in.readDouble();
+        rule.supportRatio = in.readDouble();
+        rule.support = in.readDouble();
+        rule.initialSupport = in.readLong();
+        rule.functionalVariablePosition = in.readInt();
+        rule.bodySize = in.readLong();
+        rule.bodyMinusHeadSize = in.readLong();
+        rule.pcaBodySize = in.readDouble();
+        rule.highestVariable = in.readInt();
+        rule.highestVariableSuffix = in.readInt();
+        rule.generation = in.readInt();
+        rule.stdConfidenceUpperBound = in.readDouble();
+        rule.pcaConfidenceUpperBound = in.readDouble();
+        rule.pcaConfidenceEstimation = in.readDouble();
+        rule._pcaConfidenceRunningTime = in.readDouble();
+        rule._confidenceRunningTime = in.readDouble();
+        rule.finalized = in.readBoolean();
+        if (nTriples > 0) {
+            rule.computeHeadKey();
+        }
+        return rule;
     }
 
     public void setPcaBodySize(double size) {
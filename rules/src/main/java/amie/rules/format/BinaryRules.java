@@ -0,0 +1,465 @@
+package amie.rules.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Binary, columnar representation of a set of rules. The atoms are stored as
+ * indexes in a dictionary of the constants, relations and variables, and each
+ * metric is stored in its own array, so that the rules can be loaded without
+ * parsing them.
+ *
+ * A file consists of a header followed by blocks of at most {@link #BLOCK_SIZE}
+ * rules, so that rules can be written as they are mined. Each block contains the
+ * dictionary entries it introduces, the number of atoms of each rule (the head
+ * comes first), the atoms and the metric columns. All numbers are big-endian.
+ *
+ * @author lgalarra
+ *
+ */
+public class BinaryRules {
+
+	private static final byte[] MAGIC = "AMIE-RULES".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int VERSION = 1;
+
+	public static final int BLOCK_SIZE = 1 << 16;
+
+	private final String[] names;
+
+	/**
+	 * The atoms of rule i are in positions [atomOffsets[i], atomOffsets[i + 1])
+	 */
+	private final int[] atomOffsets;
+
+	/**
+	 * Subject, relation and object of each atom
+	 */
+	private final int[] atoms;
+
+	private final double[] support;
+
+	private final double[] headCoverage;
+
+	private final double[] stdConfidence;
+
+	private final double[] pcaConfidence;
+
+	private final long[] bodySize;
+
+	private final double[] pcaBodySize;
+
+	private final int[] functionalVariable;
+
+	private BinaryRules(String[] names, int[] atomOffsets, int[] atoms, double[] support, double[] headCoverage,
+			double[] stdConfidence, double[] pcaConfidence, long[] bodySize, double[] pcaBodySize,
+			int[] functionalVariable) {
+		this.names = names;
+		this.atomOffsets = atomOffsets;
+		this.atoms = atoms;
+		this.support = support;
+		this.headCoverage = headCoverage;
+		this.stdConfidence = stdConfidence;
+		this.pcaConfidence = pcaConfidence;
+		this.bodySize = bodySize;
+		this.pcaBodySize = pcaBodySize;
+		this.functionalVariable = functionalVariable;
+	}
+
+	/**
+	 * @return The number of rules
+	 */
+	public int size() {
+		return support.length;
+	}
+
+	public int getDictionarySize() {
+		return names.length;
+	}
+
+	/**
+	 * @param id An element of an atom
+	 * @return The constant, relation or variable with the given index in the dictionary
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return The number of atoms of the rule, including the head
+	 */
+	public int getNumberOfAtoms(int rule) {
+		return atomOffsets[rule + 1] - atomOffsets[rule];
+	}
+
+	/**
+	 * @param rule
+	 * @param atom 0 for the head
+	 * @return Dictionary indexes of the subject, relation and object of the atom
+	 */
+	public int[] getAtom(int rule, int atom) {
+		int offset = 3 * (atomOffsets[rule] + atom);
+		return new int[] { atoms[offset], atoms[offset + 1], atoms[offset + 2] };
+	}
+
+	public double getSupport(int rule) {
+		return support[rule];
+	}
+
+	public double getHeadCoverage(int rule) {
+		return headCoverage[rule];
+	}
+
+	public double getStdConfidence(int rule) {
+		return stdConfidence[rule];
+	}
+
+	public double getPcaConfidence(int rule) {
+		return pcaConfidence[rule];
+	}
+
+	public long getBodySize(int rule) {
+		return bodySize[rule];
+	}
+
+	public double getPcaBodySize(int rule) {
+		return pcaBodySize[rule];
+	}
+
+	public int getFunctionalVariablePosition(int rule) {
+		return functionalVariable[rule];
+	}
+
+	/**
+	 * It builds the rules in the given KB. Each entry of the dictionary is mapped
+	 * only once.
+	 * @param kb
+	 * @return
+	 */
+	public List<Rule> toRules(AbstractKB kb) {
+		int[] ids = new int[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			ids[i] = kb.map(names[i]);
+		}
+		List<Rule> rules = new ArrayList<>(size());
+		for (int r = 0; r < size(); ++r) {
+			int offset = 3 * atomOffsets[r];
+			int[] head = { ids[atoms[offset]], ids[atoms[offset + 1]], ids[atoms[offset + 2]] };
+			List<int[]> body = new ArrayList<>(getNumberOfAtoms(r) - 1);
+			for (offset += 3; offset < 3 * atomOffsets[r + 1]; offset += 3) {
+				body.add(new int[] { ids[atoms[offset]], ids[atoms[offset + 1]], ids[atoms[offset + 2]] });
+			}
+			Rule rule = new Rule(head, body, support[r], kb);
+			rule.setHeadCoverage(headCoverage[r]);
+			rule.setBodySize(bodySize[r]);
+			rule.setPcaBodySize(pcaBodySize[r]);
+			rule.setFunctionalVariablePosition(functionalVariable[r]);
+			rules.add(rule);
+		}
+		return rules;
+	}
+
+	/**
+	 * @param file
+	 * @return True if the file starts like a file written by a {@link Writer}
+	 * @throws IOException
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+			if (!readFully(channel, header))
+				return false;
+			for (byte b : MAGIC) {
+				if (header.get() != b)
+					return false;
+			}
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * It reads all the blocks of a file written by a {@link Writer}.
+	 * @param file
+	 * @return
+	 * @throws IOException If the file cannot be read or is not a binary rules file
+	 */
+	public static BinaryRules read(File file) throws IOException {
+		List<String> names = new ArrayList<>();
+		IntArrayList atomOffsets = new IntArrayList();
+		atomOffsets.add(0);
+		IntArrayList atoms = new IntArrayList();
+		DoubleArrayList support = new DoubleArrayList();
+		DoubleArrayList headCoverage = new DoubleArrayList();
+		DoubleArrayList stdConfidence = new DoubleArrayList();
+		DoubleArrayList pcaConfidence = new DoubleArrayList();
+		LongArrayList bodySize = new LongArrayList();
+		DoubleArrayList pcaBodySize = new DoubleArrayList();
+		IntArrayList functionalVariable = new IntArrayList();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+			if (!readFully(channel, header)) {
+				throw new IOException(file + " is not a binary rules file of this version");
+			}
+			for (byte b : MAGIC) {
+				if (header.get() != b)
+					throw new IOException(file + " is not a binary rules file of this version");
+			}
+			if (header.getInt() != VERSION)
+				throw new IOException(file + " is not a binary rules file of this version");
+
+			ByteBuffer length = ByteBuffer.allocate(4);
+			ByteBuffer block = ByteBuffer.allocate(0);
+			while (true) {
+				length.clear();
+				if (!readFully(channel, length))
+					break;
+				int blockLength = length.getInt();
+				if (block.capacity() < blockLength)
+					block = ByteBuffer.allocate(blockLength);
+				block.clear();
+				block.limit(blockLength);
+				if (!readFully(channel, block))
+					throw new EOFException("Truncated block in " + file);
+
+				int nNames = block.getInt();
+				for (int i = 0; i < nNames; ++i) {
+					int nBytes = block.getInt();
+					names.add(new String(block.array(), block.arrayOffset() + block.position(), nBytes,
+							StandardCharsets.UTF_8));
+					block.position(block.position() + nBytes);
+				}
+				int nRules = block.getInt();
+				int nAtoms = block.getInt();
+				int base = atomOffsets.getInt(atomOffsets.size() - 1);
+				for (int i = 0; i < nRules; ++i) {
+					base += block.getInt();
+					atomOffsets.add(base);
+				}
+				getInts(block, atoms, 3 * nAtoms);
+				getDoubles(block, support, nRules);
+				getDoubles(block, headCoverage, nRules);
+				getDoubles(block, stdConfidence, nRules);
+				getDoubles(block, pcaConfidence, nRules);
+				int size = bodySize.size();
+				bodySize.size(size + nRules);
+				block.asLongBuffer().get(bodySize.elements(), size, nRules);
+				block.position(block.position() + 8 * nRules);
+				getDoubles(block, pcaBodySize, nRules);
+				getInts(block, functionalVariable, nRules);
+			}
+		}
+		atomOffsets.trim();
+		atoms.trim();
+		support.trim();
+		headCoverage.trim();
+		stdConfidence.trim();
+		pcaConfidence.trim();
+		bodySize.trim();
+		pcaBodySize.trim();
+		functionalVariable.trim();
+		return new BinaryRules(names.toArray(new String[0]), atomOffsets.elements(), atoms.elements(),
+				support.elements(), headCoverage.elements(), stdConfidence.elements(), pcaConfidence.elements(),
+				bodySize.elements(), pcaBodySize.elements(), functionalVariable.elements());
+	}
+
+	/**
+	 * It fills the buffer up to its limit and flips it.
+	 * @return False if the end of the channel is reached before reading anything
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (buffer.position() == 0)
+					return false;
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	private static void getInts(ByteBuffer buffer, IntArrayList list, int n) {
+		int size = list.size();
+		list.size(size + n);
+		buffer.asIntBuffer().get(list.elements(), size, n);
+		buffer.position(buffer.position() + 4 * n);
+	}
+
+	private static void getDoubles(ByteBuffer buffer, DoubleArrayList list, int n) {
+		int size = list.size();
+		list.size(size + n);
+		buffer.asDoubleBuffer().get(list.elements(), size, n);
+		buffer.position(buffer.position() + 8 * n);
+	}
+
+	/**
+	 * Writes rules in blocks as they are added.
+	 */
+	public static class Writer implements Closeable {
+
+		private final AbstractKB kb;
+
+		private final OutputStream out;
+
+		/**
+		 * Index in the dictionary of each identifier of the KB
+		 */
+		private final Int2IntOpenHashMap dictionary = new Int2IntOpenHashMap();
+
+		private final List<String> newNames = new ArrayList<>();
+
+		private final IntArrayList atomCounts = new IntArrayList();
+
+		private final IntArrayList atoms = new IntArrayList();
+
+		private final DoubleArrayList support = new DoubleArrayList();
+
+		private final DoubleArrayList headCoverage = new DoubleArrayList();
+
+		private final DoubleArrayList stdConfidence = new DoubleArrayList();
+
+		private final DoubleArrayList pcaConfidence = new DoubleArrayList();
+
+		private final LongArrayList bodySize = new LongArrayList();
+
+		private final DoubleArrayList pcaBodySize = new DoubleArrayList();
+
+		private final IntArrayList functionalVariable = new IntArrayList();
+
+		private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(1 << 16);
+
+		private final DataOutputStream block = new DataOutputStream(blockBytes);
+
+		/**
+		 * @param out The header is written immediately
+		 * @param kb The KB of the rules
+		 * @throws IOException
+		 */
+		public Writer(OutputStream out, AbstractKB kb) throws IOException {
+			this.kb = kb;
+			this.out = out;
+			dictionary.defaultReturnValue(-1);
+			DataOutputStream header = new DataOutputStream(out);
+			header.write(MAGIC);
+			header.writeInt(VERSION);
+		}
+
+		private int encode(int id) {
+			int index = dictionary.get(id);
+			if (index == -1) {
+				index = dictionary.size();
+				dictionary.put(id, index);
+				newNames.add(kb.unmap(id));
+			}
+			return index;
+		}
+
+		/**
+		 * It adds a rule to the current block and writes the block if it is full.
+		 * @param rule
+		 * @throws IOException
+		 */
+		public void add(Rule rule) throws IOException {
+			List<int[]> triples = rule.getTriples();
+			atomCounts.add(triples.size());
+			for (int[] triple : triples) {
+				atoms.add(encode(triple[0]));
+				atoms.add(encode(triple[1]));
+				atoms.add(encode(triple[2]));
+			}
+			support.add(rule.getSupport());
+			headCoverage.add(rule.getHeadCoverage());
+			stdConfidence.add(rule.getStdConfidence());
+			pcaConfidence.add(rule.getPcaConfidence());
+			bodySize.add(rule.getBodySize());
+			pcaBodySize.add(rule.getPcaBodySize());
+			functionalVariable.add(rule.getFunctionalVariablePosition());
+			if (atomCounts.size() >= BLOCK_SIZE)
+				writeBlock();
+		}
+
+		private void writeBlock() throws IOException {
+			if (atomCounts.isEmpty())
+				return;
+			blockBytes.reset();
+			block.writeInt(newNames.size());
+			for (String name : newNames) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				block.writeInt(bytes.length);
+				block.write(bytes);
+			}
+			block.writeInt(atomCounts.size());
+			block.writeInt(atoms.size() / 3);
+			for (int i = 0; i < atomCounts.size(); ++i)
+				block.writeInt(atomCounts.getInt(i));
+			for (int i = 0; i < atoms.size(); ++i)
+				block.writeInt(atoms.getInt(i));
+			writeDoubles(support);
+			writeDoubles(headCoverage);
+			writeDoubles(stdConfidence);
+			writeDoubles(pcaConfidence);
+			for (int i = 0; i < bodySize.size(); ++i)
+				block.writeLong(bodySize.getLong(i));
+			writeDoubles(pcaBodySize);
+			for (int i = 0; i < functionalVariable.size(); ++i)
+				block.writeInt(functionalVariable.getInt(i));
+			block.flush();
+
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(blockBytes.size());
+			blockBytes.writeTo(out);
+
+			newNames.clear();
+			atomCounts.clear();
+			atoms.clear();
+			support.clear();
+			headCoverage.clear();
+			stdConfidence.clear();
+			pcaConfidence.clear();
+			bodySize.clear();
+			pcaBodySize.clear();
+			functionalVariable.clear();
+		}
+
+		private void writeDoubles(DoubleArrayList column) throws IOException {
+			for (int i = 0; i < column.size(); ++i)
+				block.writeDouble(column.getDouble(i));
+		}
+
+		/**
+		 * It writes the rules added so far, as a possibly incomplete block.
+		 * @throws IOException
+		 */
+		public void flush() throws IOException {
+			writeBlock();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			out.close();
+		}
+	}
+}
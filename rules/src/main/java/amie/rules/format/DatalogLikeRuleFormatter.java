@@ -1,5 +1,7 @@
 package amie.rules.format;
 
+import java.util.function.IntFunction;
+
 import amie.rules.Rule;
 
 public class DatalogLikeRuleFormatter extends DefaultRuleFormatter {
@@ -12,4 +14,9 @@ public class DatalogLikeRuleFormatter extends DefaultRuleFormatter {
 	public String format(Rule rule) {
 		return rule.getDatalogString(true);
 	}
+
+	@Override
+	public void format(Rule rule, IntFunction<String> names, StringBuilder out) {
+		out.append(format(rule));
+	}
 }
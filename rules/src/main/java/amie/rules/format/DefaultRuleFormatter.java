@@ -1,5 +1,7 @@
 package amie.rules.format;
 
+import java.util.function.IntFunction;
+
 import amie.rules.Rule;
 
 class DefaultRuleFormatter extends RuleFormatter {
@@ -13,6 +15,11 @@ class DefaultRuleFormatter extends RuleFormatter {
 		return rule.getRuleString();
 	}
 
+	@Override
+	public void format(Rule rule, IntFunction<String> names, StringBuilder out) {
+		rule.appendRuleString(out, names);
+	}
+
 	@Override
 	public OutputColumn[] columns() {
 		OutputColumn[] allMetrics = null;
@@ -1,9 +1,14 @@
 package amie.rules.format;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.IntFunction;
 
 import amie.rules.Rule;
 
@@ -38,8 +43,26 @@ public abstract class RuleFormatter {
 		formatMappings.put(OutputColumn.PcaConfEstimation, "%f");
 	}
 
+	/**
+	 * Decimal separator used by String.format in the default locale
+	 */
+	private static final char DECIMAL_SEPARATOR = DecimalFormatSymbols
+			.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+
 	public abstract String format(Rule rule);
 
+	/**
+	 * It appends the result of {@link #format(Rule)} to the builder. Formatters
+	 * may use the given function to translate the atoms of the rule.
+	 *
+	 * @param rule
+	 * @param names A function equivalent to {@link amie.data.AbstractKB#unmap(int)}
+	 * @param out
+	 */
+	public void format(Rule rule, IntFunction<String> names, StringBuilder out) {
+		out.append(format(rule));
+	}
+
 	public abstract OutputColumn[] columns();
 
 	protected RuleFormatter(boolean verbose) {
@@ -74,16 +97,65 @@ public abstract class RuleFormatter {
 
 	public String fullFormat(Rule rule) {
 		StringBuilder strBuilder = new StringBuilder();
-		ArrayList<String> selectedCols = new ArrayList<>();
+		fullFormat(rule, rule.kb::unmap, strBuilder);
+		return strBuilder.toString();
+	}
+
+	/**
+	 * It appends the result of {@link #fullFormat(Rule)} to the builder. The numeric
+	 * columns are formatted without String.format, which parses the format at
+	 * every call.
+	 *
+	 * @param rule
+	 * @param names A function equivalent to {@link amie.data.AbstractKB#unmap(int)},
+	 *              e.g., a cache of the names of the KB.
+	 * @param out
+	 */
+	public void fullFormat(Rule rule, IntFunction<String> names, StringBuilder out) {
+		String separator = getSeparator();
+		boolean first = true;
 		for (OutputColumn col : this.columns()) {
+			if (!first) {
+				out.append(separator);
+			}
+			first = false;
 			if (col == OutputColumn.Rule) {
-				selectedCols.add(format(rule));
+				format(rule, names, out);
 			} else {
-				selectedCols.add(String.format(formatMappings.get(col),
-						rule.getOutputColumn(col)));
+				appendColumn(out, formatMappings.get(col), rule.getOutputColumn(col));
 			}
 		}
-		strBuilder.append(String.join(getSeparator(), selectedCols));
-		return strBuilder.toString();
+	}
+
+	private static void appendColumn(StringBuilder out, String format, Object value) {
+		if (value instanceof Double && "%f".equals(format)) {
+			appendFixed(out, (Double) value, 6);
+		} else if (value instanceof Double && "%.0f".equals(format)) {
+			appendFixed(out, (Double) value, 0);
+		} else if ((value instanceof Long || value instanceof Integer) && "%d".equals(format)) {
+			out.append(((Number) value).longValue());
+		} else {
+			out.append(String.format(format, value));
+		}
+	}
+
+	/**
+	 * It appends the value as String.format("%.nf") does: the shortest decimal
+	 * representation of the double is rounded half up.
+	 */
+	private static void appendFixed(StringBuilder out, double value, int decimals) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append(value);
+			return;
+		}
+		String str = new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP)
+				.toPlainString();
+		if ((value < 0 || (value == 0 && 1 / value < 0)) && str.charAt(0) != '-') {
+			out.append('-');
+		}
+		if (DECIMAL_SEPARATOR != '.') {
+			str = str.replace('.', DECIMAL_SEPARATOR);
+		}
+		out.append(str);
 	}
 }
@@ -0,0 +1,53 @@
+package amie.rules.inference;
+
+/**
+ * Ways to combine the confidences of the rules that predict the same fact.
+ *
+ * @author lgalarra
+ *
+ */
+public enum Aggregation {
+	/**
+	 * The score of a fact is the highest confidence among the rules that predict it.
+	 */
+	MAX {
+		@Override
+		public double combine(double score, double confidence) {
+			return Math.max(score, confidence);
+		}
+	},
+	/**
+	 * The score of a fact is 1 - (1 - c1) * ... * (1 - cn), i.e., the probability that
+	 * at least one rule is right if the rules were independent.
+	 */
+	NOISY_OR {
+		@Override
+		public double combine(double score, double confidence) {
+			return score + confidence - score * confidence;
+		}
+	};
+
+	/**
+	 * @param score The score of a fact given the rules seen so far, 0 if none
+	 * @param confidence The confidence of another rule that predicts the fact
+	 * @return The score of the fact given all these rules
+	 */
+	public abstract double combine(double score, double confidence);
+
+	/**
+	 * @param name "max" or "noisyor", case insensitive
+	 * @return
+	 */
+	public static Aggregation parse(String name) {
+		switch (name.toLowerCase()) {
+		case "max":
+			return MAX;
+		case "noisyor":
+		case "noisy-or":
+		case "noisy_or":
+			return NOISY_OR;
+		default:
+			throw new IllegalArgumentException("Unknown aggregation " + name + ", expected max or noisyor");
+		}
+	}
+}
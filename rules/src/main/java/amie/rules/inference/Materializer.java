@@ -0,0 +1,300 @@
+package amie.rules.inference;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Computes the closure of a KB under a set of rules by forward chaining. The
+ * derived facts are added to the KB with {@link KB#add(int...)}, so the KB is
+ * modified.
+ *
+ * The evaluation is semi-naive: the first round applies every rule to the whole
+ * KB, and each later round only looks for the derivations that use at least one
+ * fact derived in the previous round (the delta). For each atom of the body that
+ * matches a fact of the delta, the variables of the atom are bound to the fact and
+ * the rest of the body is joined with the whole KB. Recursive rules thus reach the
+ * fixpoint without deriving again the facts of the earlier rounds.
+ *
+ * The rules of a round are applied in parallel, and their facts are added to the
+ * KB in the order of the rules at the end of the round, when no rule is being
+ * applied.
+ *
+ * @author lgalarra
+ *
+ */
+public class Materializer {
+
+	private final KB kb;
+
+	private final Predictor predictor;
+
+	private final List<Rule> rules = new ArrayList<>();
+
+	private final int maxFactsPerRelation;
+
+	private final Int2IntOpenHashMap derivedPerRelation = new Int2IntOpenHashMap();
+
+	private final List<int[]> derived = new ArrayList<>();
+
+	private int rounds = 0;
+
+	/**
+	 * @param kb
+	 * @param rules
+	 * @param metric
+	 * @param minConfidence Rules with a lower confidence are not applied
+	 * @param maxFactsPerRelation Maximum number of facts derived per relation, the
+	 *                            following ones are dropped.
+	 */
+	public Materializer(KB kb, List<Rule> rules, ConfidenceMetric metric, double minConfidence,
+			int maxFactsPerRelation) {
+		if (maxFactsPerRelation <= 0)
+			throw new IllegalArgumentException("The maximum number of facts per relation must be positive");
+		this.kb = kb;
+		this.predictor = new Predictor(kb, Aggregation.MAX, metric);
+		this.maxFactsPerRelation = maxFactsPerRelation;
+		for (Rule rule : rules) {
+			if (predictor.isApplicable(rule) && predictor.confidence(rule) >= minConfidence)
+				this.rules.add(rule);
+		}
+	}
+
+	/**
+	 * It adds to the map the instantiations of the head that the body implies and
+	 * are not in the KB.
+	 */
+	private void derive(int[] head, List<int[]> body, Int2ObjectMap<IntSet> result) {
+		boolean subjectBound = !KB.isVariable(head[0]);
+		boolean objectBound = !KB.isVariable(head[2]);
+		if (subjectBound && objectBound) {
+			if ((body.isEmpty() || kb.existsBS1(body)) && kb.count(head) == 0)
+				add(result, head[0], head[2]);
+		} else if (head[0] == head[2]) {
+			for (int entity : kb.difference(head[0], body, Collections.singletonList(head)))
+				add(result, entity, entity);
+		} else if (subjectBound) {
+			for (int object : kb.difference(head[2], body, Collections.singletonList(head)))
+				add(result, head[0], object);
+		} else if (objectBound) {
+			for (int subject : kb.difference(head[0], body, Collections.singletonList(head)))
+				add(result, subject, head[2]);
+		} else {
+			for (Int2ObjectMap.Entry<IntSet> entry : kb.difference(head[0], head[2], body, head).int2ObjectEntrySet()) {
+				for (int object : entry.getValue())
+					add(result, entry.getIntKey(), object);
+			}
+		}
+	}
+
+	private static void add(Int2ObjectMap<IntSet> result, int subject, int object) {
+		IntSet objects = result.get(subject);
+		if (objects == null) {
+			objects = new IntOpenHashSet();
+			result.put(subject, objects);
+		}
+		objects.add(object);
+	}
+
+	/**
+	 * @param rule
+	 * @param delta The facts derived in the previous round, by relation
+	 * @return The facts derived by the rule from at least one fact of the delta
+	 */
+	private Int2ObjectMap<IntSet> applyToDelta(Rule rule, Int2ObjectMap<List<int[]>> delta) {
+		Int2ObjectMap<IntSet> result = new Int2ObjectOpenHashMap<>();
+		List<int[]> body = rule.getBody();
+		for (int i = 0; i < body.size(); ++i) {
+			int[] atom = body.get(i);
+			List<List<int[]>> facts = new ArrayList<>();
+			if (KB.isVariable(atom[1])) {
+				facts.addAll(delta.values());
+			} else if (delta.containsKey(atom[1])) {
+				facts.add(delta.get(atom[1]));
+			}
+			for (List<int[]> relationFacts : facts) {
+				for (int[] fact : relationFacts) {
+					int[] bindings = Rule.unify(atom, fact);
+					if (bindings == null)
+						continue;
+					List<int[]> rest = new ArrayList<>(body.size() - 1);
+					for (int j = 0; j < body.size(); ++j) {
+						if (j != i)
+							rest.add(Rule.substitute(body.get(j), bindings));
+					}
+					derive(Rule.substitute(rule.getHead(), bindings), rest, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * It applies the rules until no new fact is derived, or until the maximum
+	 * number of rounds.
+	 * @param maxRounds 0 for no limit
+	 * @param nThreads
+	 * @return The derived facts, in the order they were added to the KB
+	 * @throws InterruptedException
+	 */
+	public List<int[]> materialize(int maxRounds, int nThreads) throws InterruptedException {
+		Int2ObjectMap<List<int[]>> delta = null;
+		rounds = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			while (maxRounds <= 0 || rounds < maxRounds) {
+				final Int2ObjectMap<List<int[]>> previous = delta;
+				List<Future<Int2ObjectMap<IntSet>>> results = new ArrayList<>(rules.size());
+				for (Rule rule : rules) {
+					results.add(pool.submit(() -> previous == null ? predictor.apply(rule)
+							: applyToDelta(rule, previous)));
+				}
+				// The KB must not change while rules are applied
+				List<Int2ObjectMap<IntSet>> facts = new ArrayList<>(rules.size());
+				for (int i = 0; i < rules.size(); ++i) {
+					try {
+						facts.add(results.get(i).get());
+					} catch (ExecutionException e) {
+						throw new IllegalStateException("Could not apply the rule " + rules.get(i), e.getCause());
+					}
+				}
+				delta = new Int2ObjectOpenHashMap<>();
+				for (int i = 0; i < rules.size(); ++i) {
+					addAll(rules.get(i).getHead()[1], facts.get(i), delta);
+				}
+				++rounds;
+				if (delta.isEmpty())
+					break;
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return derived;
+	}
+
+	private void addAll(int relation, Int2ObjectMap<IntSet> facts, Int2ObjectMap<List<int[]>> delta) {
+		for (Int2ObjectMap.Entry<IntSet> entry : facts.int2ObjectEntrySet()) {
+			for (int object : entry.getValue()) {
+				if (derivedPerRelation.get(relation) >= maxFactsPerRelation)
+					return;
+				int[] fact = new int[] { entry.getIntKey(), relation, object };
+				// Several rules may derive the same fact
+				if (!kb.add(fact))
+					continue;
+				derivedPerRelation.addTo(relation, 1);
+				derived.add(fact);
+				List<int[]> relationDelta = delta.get(relation);
+				if (relationDelta == null) {
+					relationDelta = new ArrayList<>();
+					delta.put(relation, relationDelta);
+				}
+				relationDelta.add(fact);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of rounds run by the last call to {@link #materialize(int, int)}
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * It writes the derived facts separated by tabs, one per line.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (int[] fact : derived) {
+				out.println(kb.unmap(fact[0]) + "\t" + kb.unmap(fact[1]) + "\t" + kb.unmap(fact[2]));
+			}
+			if (out.checkError())
+				throw new IOException("Could not write the facts to " + file);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ConfidenceMetric metric = ConfidenceMetric.PCAConfidence;
+		double minConfidence = 0.0;
+		int maxFacts = Integer.MAX_VALUE;
+		int maxRounds = 0;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		File output = null;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); ++i) {
+				switch (args[i]) {
+				case "-conf":
+					metric = args[++i].equalsIgnoreCase("std") ? ConfidenceMetric.StandardConfidence
+							: ConfidenceMetric.PCAConfidence;
+					break;
+				case "-minc":
+					minConfidence = Double.parseDouble(args[++i]);
+					break;
+				case "-maxf":
+					maxFacts = Integer.parseInt(args[++i]);
+					break;
+				case "-rounds":
+					maxRounds = Integer.parseInt(args[++i]);
+					break;
+				case "-nc":
+					nThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-o":
+					output = new File(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage());
+			i = args.length;
+		}
+		if (args.length - i < 2 || output == null) {
+			System.err.println("Materializer [-conf pca|std] [-minc confidence] [-maxf facts per relation] "
+					+ "[-rounds rounds] [-nc threads] -o output <rules> <kb files>");
+			System.exit(1);
+		}
+
+		KB kb = new KB();
+		List<File> files = new ArrayList<>();
+		for (int j = i + 1; j < args.length; ++j) {
+			files.add(new File(args[j]));
+		}
+		kb.load(files);
+		List<Rule> rules = AMIEParser.rulesWithMetrics(new File(args[i]), kb);
+
+		long time = System.currentTimeMillis();
+		Materializer materializer = new Materializer(kb, rules, metric, minConfidence, maxFacts);
+		List<int[]> derived = materializer.materialize(maxRounds, nThreads);
+		System.err.println(derived.size() + " facts derived by " + materializer.getRules().size() + " rules in "
+				+ materializer.getRounds() + " rounds, " + (System.currentTimeMillis() - time) + " ms");
+		materializer.write(output);
+	}
+}
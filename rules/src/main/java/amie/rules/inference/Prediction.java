@@ -0,0 +1,81 @@
+package amie.rules.inference;
+
+import amie.rules.Rule;
+
+/**
+ * A fact predicted by one or more rules, with its aggregated score.
+ *
+ * @author lgalarra
+ *
+ */
+public class Prediction {
+
+	private final int subject;
+
+	private final int relation;
+
+	private final int object;
+
+	private double score = 0.0;
+
+	private int nRules = 0;
+
+	private Rule bestRule;
+
+	private double bestConfidence = -1.0;
+
+	Prediction(int subject, int relation, int object) {
+		this.subject = subject;
+		this.relation = relation;
+		this.object = object;
+	}
+
+	/**
+	 * On ties, the best rule is the first one added.
+	 */
+	void add(Aggregation aggregation, Rule rule, double confidence) {
+		score = aggregation.combine(score, confidence);
+		++nRules;
+		if (confidence > bestConfidence) {
+			bestConfidence = confidence;
+			bestRule = rule;
+		}
+	}
+
+	public int getSubject() {
+		return subject;
+	}
+
+	public int getRelation() {
+		return relation;
+	}
+
+	public int getObject() {
+		return object;
+	}
+
+	/**
+	 * @return The aggregated confidence of the rules that predict the fact
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * @return The number of rules that predict the fact
+	 */
+	public int getNumberOfRules() {
+		return nRules;
+	}
+
+	/**
+	 * @return The rule with the highest confidence among those that predict the fact
+	 */
+	public Rule getBestRule() {
+		return bestRule;
+	}
+
+	public double getBestConfidence() {
+		return bestConfidence;
+	}
+}
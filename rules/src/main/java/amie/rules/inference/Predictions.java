@@ -0,0 +1,175 @@
+package amie.rules.inference;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import amie.data.AbstractKB;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * The facts predicted by a set of rules, indexed by relation and by the pair
+ * subject-object.
+ *
+ * @author lgalarra
+ *
+ */
+public class Predictions {
+
+	/**
+	 * Order of the output: highest scores first, ties broken by the identifiers of
+	 * the fact.
+	 */
+	public static final Comparator<Prediction> BY_SCORE = (a, b) -> {
+		int cmp = Double.compare(b.getScore(), a.getScore());
+		if (cmp != 0)
+			return cmp;
+		cmp = Integer.compare(a.getRelation(), b.getRelation());
+		if (cmp != 0)
+			return cmp;
+		cmp = Integer.compare(a.getSubject(), b.getSubject());
+		if (cmp != 0)
+			return cmp;
+		return Integer.compare(a.getObject(), b.getObject());
+	};
+
+	private final AbstractKB kb;
+
+	private final Aggregation aggregation;
+
+	private final Int2ObjectMap<Long2ObjectOpenHashMap<Prediction>> byRelation = new Int2ObjectOpenHashMap<>();
+
+	/**
+	 * @param kb The KB of the rules
+	 * @param aggregation
+	 * @param relations The relations that can be predicted, i.e., the relations in
+	 *                  the heads of the rules.
+	 */
+	Predictions(AbstractKB kb, Aggregation aggregation, IntSet relations) {
+		this.kb = kb;
+		this.aggregation = aggregation;
+		for (int relation : relations) {
+			byRelation.put(relation, new Long2ObjectOpenHashMap<>());
+		}
+	}
+
+	private static long key(int subject, int object) {
+		return ((long) subject << 32) | (object & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * It adds the facts predicted by a rule.
+	 * @param rule
+	 * @param confidence
+	 * @param bindings Map from the subjects to the objects of the predicted facts
+	 */
+	void add(Rule rule, double confidence, Int2ObjectMap<IntSet> bindings) {
+		int relation = rule.getHead()[1];
+		Long2ObjectOpenHashMap<Prediction> predictions = byRelation.get(relation);
+		for (Int2ObjectMap.Entry<IntSet> entry : bindings.int2ObjectEntrySet()) {
+			int subject = entry.getIntKey();
+			for (int object : entry.getValue()) {
+				long key = key(subject, object);
+				Prediction prediction = predictions.get(key);
+				if (prediction == null) {
+					prediction = new Prediction(subject, relation, object);
+					predictions.put(key, prediction);
+				}
+				prediction.add(aggregation, rule, confidence);
+			}
+		}
+	}
+
+	public Aggregation getAggregation() {
+		return aggregation;
+	}
+
+	/**
+	 * @return The prediction of the fact, null if no rule predicts it
+	 */
+	public Prediction get(int subject, int relation, int object) {
+		Long2ObjectOpenHashMap<Prediction> predictions = byRelation.get(relation);
+		return predictions == null ? null : predictions.get(key(subject, object));
+	}
+
+	/**
+	 * @param relation
+	 * @return The predictions for the relation, in no particular order
+	 */
+	public Collection<Prediction> get(int relation) {
+		Long2ObjectOpenHashMap<Prediction> predictions = byRelation.get(relation);
+		return predictions == null ? Collections.emptyList() : predictions.values();
+	}
+
+	public IntSet getRelations() {
+		return byRelation.keySet();
+	}
+
+	public long size() {
+		long size = 0;
+		for (Long2ObjectOpenHashMap<Prediction> predictions : byRelation.values()) {
+			size += predictions.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return All the predictions sorted by {@link #BY_SCORE}
+	 */
+	public List<Prediction> sorted() {
+		List<Prediction> result = new ArrayList<>((int) Math.min(Integer.MAX_VALUE - 8, size()));
+		for (Long2ObjectOpenHashMap<Prediction> predictions : byRelation.values()) {
+			result.addAll(predictions.values());
+		}
+		result.sort(BY_SCORE);
+		return result;
+	}
+
+	/**
+	 * It writes the predictions sorted by score, one per line:
+	 * subject, relation, object, score, number of rules and best rule, separated
+	 * by tabs.
+	 * @param out
+	 */
+	public void write(PrintStream out) {
+		StringBuilder line = new StringBuilder();
+		// Many facts share their best rule
+		Map<Rule, String> ruleStrings = new IdentityHashMap<>();
+		for (Prediction prediction : sorted()) {
+			line.setLength(0);
+			line.append(kb.unmap(prediction.getSubject())).append('\t');
+			line.append(kb.unmap(prediction.getRelation())).append('\t');
+			line.append(kb.unmap(prediction.getObject())).append('\t');
+			line.append(String.format("%f", prediction.getScore())).append('\t');
+			line.append(prediction.getNumberOfRules()).append('\t');
+			line.append(ruleStrings.computeIfAbsent(prediction.getBestRule(), Rule::getRuleString));
+			out.println(line);
+		}
+		out.flush();
+	}
+
+	/**
+	 * @param file The file is truncated
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			write(out);
+			if (out.checkError())
+				throw new IOException("Could not write the predictions to " + file);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package amie.rules.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Applies rules to a KB in order to predict new facts. Each rule predicts the
+ * instantiations of its head that are implied by its body but are not in the KB
+ * (see {@link KB#difference(int, int, List, int[])}). The facts predicted by several
+ * rules get a score that aggregates the confidences of the rules.
+ *
+ * The rules are applied in parallel by a pool of threads, and the facts they
+ * predict are merged in the order of the rules.
+ *
+ * @author lgalarra
+ *
+ */
+public class Predictor {
+
+	private final KB kb;
+
+	private final Aggregation aggregation;
+
+	private final ConfidenceMetric metric;
+
+	/**
+	 * @param kb
+	 * @param aggregation
+	 * @param metric The confidence of the rules used to score the predictions
+	 */
+	public Predictor(KB kb, Aggregation aggregation, ConfidenceMetric metric) {
+		this.kb = kb;
+		this.aggregation = aggregation;
+		this.metric = metric;
+	}
+
+	/**
+	 * @param rule
+	 * @return The confidence of the rule, NaN if it has not been computed
+	 */
+	public double confidence(Rule rule) {
+		if (metric == ConfidenceMetric.PCAConfidence) {
+			return rule.isPcaConfidenceComputed() ? rule.getPcaConfidence() : Double.NaN;
+		} else {
+			return rule.isStdConfidenceComputed() ? rule.getStdConfidence() : Double.NaN;
+		}
+	}
+
+	private static boolean occursInBody(Rule rule, int variable) {
+		for (int[] atom : rule.getBody()) {
+			if (atom[0] == variable || atom[2] == variable)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A rule can be applied if its body binds the variables of its head and
+	 * its confidence is known.
+	 * @param rule
+	 * @return
+	 */
+	public boolean isApplicable(Rule rule) {
+		int[] head = rule.getHead();
+		if (rule.getBody().isEmpty() || (!KB.isVariable(head[0]) && !KB.isVariable(head[2])))
+			return false;
+		if (KB.isVariable(head[0]) && !occursInBody(rule, head[0]))
+			return false;
+		if (KB.isVariable(head[2]) && !occursInBody(rule, head[2]))
+			return false;
+		double confidence = confidence(rule);
+		return !Double.isNaN(confidence) && confidence > 0.0;
+	}
+
+	/**
+	 * @param rule An applicable rule
+	 * @return Map from the subjects to the objects of the facts predicted by the
+	 * rule that are not in the KB.
+	 */
+	public Int2ObjectMap<IntSet> apply(Rule rule) {
+		int[] head = rule.getHead();
+		List<int[]> body = new ArrayList<>(rule.getBody());
+		if (KB.isVariable(head[0]) && KB.isVariable(head[2]) && head[0] != head[2])
+			return kb.difference(head[0], head[2], body, head);
+
+		Int2ObjectMap<IntSet> result = new Int2ObjectOpenHashMap<>();
+		List<int[]> headList = Collections.singletonList(head);
+		if (head[0] == head[2]) {
+			for (int entity : kb.difference(head[0], body, headList)) {
+				IntSet object = new IntOpenHashSet();
+				object.add(entity);
+				result.put(entity, object);
+			}
+		} else if (KB.isVariable(head[0])) {
+			for (int subject : kb.difference(head[0], body, headList)) {
+				IntSet object = new IntOpenHashSet();
+				object.add(head[2]);
+				result.put(subject, object);
+			}
+		} else {
+			IntSet objects = kb.difference(head[2], body, headList);
+			if (!objects.isEmpty())
+				result.put(head[0], objects);
+		}
+		return result;
+	}
+
+	/**
+	 * It applies the rules and aggregates the facts they predict. Rules that are
+	 * not applicable are ignored.
+	 * @param rules
+	 * @param nThreads
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Predictions predict(List<Rule> rules, int nThreads) throws InterruptedException {
+		IntSet relations = new IntOpenHashSet();
+		for (Rule rule : rules) {
+			relations.add(rule.getHead()[1]);
+		}
+		Predictions predictions = new Predictions(kb, aggregation, relations);
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<Int2ObjectMap<IntSet>>> results = new ArrayList<>(rules.size());
+			for (Rule rule : rules) {
+				results.add(isApplicable(rule) ? pool.submit(() -> apply(rule)) : null);
+			}
+			// The results are merged in the order of the rules, so that the scores do
+			// not depend on the order in which the threads finish
+			for (int i = 0; i < rules.size(); ++i) {
+				Future<Int2ObjectMap<IntSet>> result = results.get(i);
+				if (result == null)
+					continue;
+				Rule rule = rules.get(i);
+				try {
+					predictions.add(rule, confidence(rule), result.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Could not apply the rule " + rule, e.getCause());
+				}
+				results.set(i, null);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return predictions;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Aggregation aggregation = Aggregation.MAX;
+		ConfidenceMetric metric = ConfidenceMetric.PCAConfidence;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		File output = null;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); ++i) {
+				switch (args[i]) {
+				case "-agg":
+					aggregation = Aggregation.parse(args[++i]);
+					break;
+				case "-conf":
+					metric = args[++i].equalsIgnoreCase("std") ? ConfidenceMetric.StandardConfidence
+							: ConfidenceMetric.PCAConfidence;
+					break;
+				case "-nc":
+					nThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-o":
+					output = new File(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage());
+			i = args.length;
+		}
+		if (args.length - i < 2) {
+			System.err.println("Predictor [-agg max|noisyor] [-conf pca|std] [-nc threads] [-o output] <rules> <kb files>");
+			System.exit(1);
+		}
+
+		KB kb = new KB();
+		List<File> files = new ArrayList<>();
+		for (int j = i + 1; j < args.length; ++j) {
+			files.add(new File(args[j]));
+		}
+		kb.load(files);
+		List<Rule> rules = AMIEParser.rulesWithMetrics(new File(args[i]), kb);
+
+		long time = System.currentTimeMillis();
+		Predictions predictions = new Predictor(kb, aggregation, metric).predict(rules, nThreads);
+		System.err.println(predictions.size() + " facts predicted by " + rules.size() + " rules in "
+				+ (System.currentTimeMillis() - time) + " ms");
+		if (output == null) {
+			predictions.write(System.out);
+		} else {
+			predictions.write(output);
+		}
+	}
+}
@@ -0,0 +1,520 @@
+package amie.rules.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import amie.data.KB;
+import amie.data.javatools.filehandlers.TSVFile;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Evaluates a set of rules on the task of knowledge graph completion. For each
+ * test triple r(s, o), the rules answer the queries r(s, ?) and r(?, o) on the
+ * training KB, and the triple is scored by the rank of the right answer among the
+ * candidates (filtered protocol: the other known answers, from the training,
+ * validation and test triples, are not counted).
+ *
+ * The candidates are ranked by max-plus aggregation: each candidate has the list
+ * of the confidences of the rules that predict it in decreasing order, and the
+ * lists are compared lexicographically. The rules are applied in decreasing order
+ * of confidence with the known entity of the query instantiated in the body.
+ * A rule with a lower confidence than the rules applied so far only appends
+ * lower confidences to the lists, so it can only change the order of two
+ * candidates whose lists are equal. A query therefore stops before such a rule
+ * if no wrong candidate has the same list as a right answer, or if the answer is
+ * beaten by top-k wrong candidates; the ranks are the same as if all the rules
+ * were applied. Answers outside the top-k count as misses.
+ *
+ * The queries are answered in parallel, each query only once for all the test
+ * triples that share it.
+ *
+ * @author lgalarra
+ *
+ */
+public class RankingEvaluator {
+
+	public static final int DEFAULT_TOP_K = 100;
+
+	private final KB kb;
+
+	private final int topK;
+
+	/**
+	 * Applicable rules by head relation, sorted by decreasing confidence
+	 */
+	private final Int2ObjectMap<List<Rule>> rulesByRelation = new Int2ObjectOpenHashMap<>();
+
+	/**
+	 * Confidences of the rules, in the same order as in {@link #rulesByRelation}
+	 */
+	private final Int2ObjectMap<DoubleArrayList> confidencesByRelation = new Int2ObjectOpenHashMap<>();
+
+	/**
+	 * Known triples that are not in the KB, as relation-subject to objects
+	 */
+	private final Long2ObjectOpenHashMap<IntSet> knownObjects = new Long2ObjectOpenHashMap<>();
+
+	/**
+	 * A query r(e, ?), or r(?, e) if it asks for the subject.
+	 */
+	private static final class Query {
+		final int relation;
+
+		final int entity;
+
+		final boolean askSubject;
+
+		final IntArrayList answers = new IntArrayList();
+
+		/**
+		 * Positions of the answers in the list of test triples
+		 */
+		final IntArrayList triples = new IntArrayList();
+
+		Query(int relation, int entity, boolean askSubject) {
+			this.relation = relation;
+			this.entity = entity;
+			this.askSubject = askSubject;
+		}
+	}
+
+	/**
+	 * Ranks of the right answers in both directions for a list of test triples.
+	 */
+	public static final class Result {
+		/**
+		 * Aggregates over all the relations
+		 */
+		private static final int ALL_RELATIONS = Integer.MIN_VALUE;
+
+		private final int[][] triples;
+
+		private final double[] subjectRanks;
+
+		private final double[] objectRanks;
+
+		private final int topK;
+
+		private Result(int[][] triples, double[] subjectRanks, double[] objectRanks, int topK) {
+			this.triples = triples;
+			this.subjectRanks = subjectRanks;
+			this.objectRanks = objectRanks;
+			this.topK = topK;
+		}
+
+		/**
+		 * @param triple
+		 * @return The rank of the subject of the i-th test triple, 0 if it is not in the
+		 * top-k. Ties are given the mean of the ranks they span.
+		 */
+		public double getSubjectRank(int triple) {
+			return subjectRanks[triple];
+		}
+
+		/**
+		 * @param triple
+		 * @return The rank of the object of the i-th test triple, 0 if it is not in the
+		 * top-k. Ties are given the mean of the ranks they span.
+		 */
+		public double getObjectRank(int triple) {
+			return objectRanks[triple];
+		}
+
+		public int size() {
+			return triples.length;
+		}
+
+		private double aggregate(int relation, boolean subjects, boolean objects, int hitsAt) {
+			double sum = 0.0;
+			int n = 0;
+			for (int i = 0; i < triples.length; ++i) {
+				if (relation != ALL_RELATIONS && triples[i][1] != relation)
+					continue;
+				if (subjects) {
+					sum += score(subjectRanks[i], hitsAt);
+					++n;
+				}
+				if (objects) {
+					sum += score(objectRanks[i], hitsAt);
+					++n;
+				}
+			}
+			return n == 0 ? 0.0 : sum / n;
+		}
+
+		private static double score(double rank, int hitsAt) {
+			if (rank == 0.0)
+				return 0.0;
+			if (hitsAt == 0)
+				return 1.0 / rank;
+			return rank <= hitsAt ? 1.0 : 0.0;
+		}
+
+		/**
+		 * @return The mean reciprocal rank over both directions
+		 */
+		public double getMRR() {
+			return aggregate(ALL_RELATIONS, true, true, 0);
+		}
+
+		/**
+		 * @param k At most the top-k of the evaluation
+		 * @return The ratio of answers ranked k or better over both directions
+		 */
+		public double getHitsAt(int k) {
+			if (k > topK)
+				throw new IllegalArgumentException("Only the top-" + topK + " candidates were ranked");
+			return aggregate(ALL_RELATIONS, true, true, k);
+		}
+
+		/**
+		 * It prints the global metrics, followed by the mean reciprocal rank of
+		 * each relation in both directions.
+		 * @param out
+		 * @param kb
+		 */
+		public void print(PrintStream out, KB kb) {
+			out.println("*** EVALUATION RESULTS ****");
+			out.println("Num triples: " + triples.length);
+			out.println(String.format("MRR     %.6f", getMRR()));
+			for (int k : new int[] { 1, 3, 10 }) {
+				if (k <= topK)
+					out.println(String.format("hits@%-3d%.6f", k, getHitsAt(k)));
+			}
+			out.println();
+			out.println(String.format("%-25s\tMRR-h\tMRR-t\tNum triples", "relation"));
+			IntArrayList relations = new IntArrayList();
+			IntSet seen = new IntOpenHashSet();
+			for (int[] triple : triples) {
+				if (seen.add(triple[1]))
+					relations.add(triple[1]);
+			}
+			for (int relation : relations) {
+				int n = 0;
+				for (int[] triple : triples) {
+					if (triple[1] == relation)
+						++n;
+				}
+				out.println(String.format("%-25s\t%.3f\t%.3f\t%d", kb.unmap(relation),
+						aggregate(relation, true, false, 0), aggregate(relation, false, true, 0), n));
+			}
+		}
+	}
+
+	/**
+	 * @param kb The training triples
+	 * @param rules
+	 * @param metric The confidence of the rules used to rank the candidates
+	 * @param topK The number of candidates ranked per query
+	 */
+	public RankingEvaluator(KB kb, List<Rule> rules, ConfidenceMetric metric, int topK) {
+		if (topK <= 0)
+			throw new IllegalArgumentException("The number of ranked candidates must be positive");
+		this.kb = kb;
+		this.topK = topK;
+		Predictor predictor = new Predictor(kb, Aggregation.MAX, metric);
+		List<Rule> applicable = new ArrayList<>();
+		for (Rule rule : rules) {
+			if (predictor.isApplicable(rule))
+				applicable.add(rule);
+		}
+		// Stable, so rules with the same confidence keep their order
+		applicable.sort(Comparator.comparingDouble(predictor::confidence).reversed());
+		for (Rule rule : applicable) {
+			int relation = rule.getHead()[1];
+			List<Rule> relationRules = rulesByRelation.get(relation);
+			if (relationRules == null) {
+				relationRules = new ArrayList<>();
+				rulesByRelation.put(relation, relationRules);
+				confidencesByRelation.put(relation, new DoubleArrayList());
+			}
+			relationRules.add(rule);
+			confidencesByRelation.get(relation).add(predictor.confidence(rule));
+		}
+	}
+
+	private static long key(int relation, int entity) {
+		return ((long) relation << 32) | (entity & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * It reads a file of triples separated by tabs. The entities are mapped in the
+	 * dictionary of the KB.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public List<int[]> readTriples(File file) throws IOException {
+		List<int[]> triples = new ArrayList<>();
+		try (TSVFile tsv = new TSVFile(file)) {
+			for (List<String> record : tsv) {
+				if (record.size() < 3)
+					continue;
+				triples.add(new int[] { kb.map(record.get(0).trim()), kb.map(record.get(1).trim()),
+						kb.map(record.get(2).trim()) });
+			}
+		}
+		return triples;
+	}
+
+	/**
+	 * It adds triples that are known to be true but are not in the KB, e.g., the
+	 * validation and test triples. They are not counted as wrong candidates.
+	 * @param triples
+	 */
+	public void addKnown(List<int[]> triples) {
+		for (int[] triple : triples) {
+			IntSet objects = knownObjects.get(key(triple[1], triple[0]));
+			if (objects == null) {
+				objects = new IntOpenHashSet();
+				knownObjects.put(key(triple[1], triple[0]), objects);
+			}
+			objects.add(triple[2]);
+		}
+	}
+
+	private boolean isKnown(int subject, int relation, int object) {
+		if (kb.count(subject, relation, object) > 0)
+			return true;
+		IntSet objects = knownObjects.get(key(relation, subject));
+		return objects != null && objects.contains(object);
+	}
+
+	/**
+	 * @param rule
+	 * @param query
+	 * @return The answers of the rule to the query, including known answers
+	 */
+	private IntSet apply(Rule rule, Query query) {
+		int[] head = rule.getHead();
+		int known = query.askSubject ? head[2] : head[0];
+		int unknown = query.askSubject ? head[0] : head[2];
+		if (!KB.isVariable(known) && known != query.entity)
+			return null;
+
+		List<int[]> body = new ArrayList<>(rule.getBody().size());
+		for (int[] atom : rule.getBody()) {
+			int[] instantiated = atom.clone();
+			for (int i = 0; i < 3; ++i) {
+				if (instantiated[i] == known)
+					instantiated[i] = query.entity;
+			}
+			body.add(instantiated);
+		}
+		if (!KB.isVariable(unknown) || unknown == known) {
+			if (!kb.existsBS1(body))
+				return null;
+			IntSet answer = new IntOpenHashSet(1);
+			answer.add(KB.isVariable(unknown) ? query.entity : unknown);
+			return answer;
+		}
+		return kb.selectDistinct(unknown, body);
+	}
+
+	/**
+	 * It ranks the answers of the query and writes their ranks in the arrays.
+	 */
+	private void rank(Query query, double[] ranks) {
+		Int2ObjectOpenHashMap<DoubleArrayList> scores = new Int2ObjectOpenHashMap<>();
+		IntArrayList competitors = new IntArrayList();
+		List<Rule> rules = rulesByRelation.get(query.relation);
+		DoubleArrayList confidences = confidencesByRelation.get(query.relation);
+		if (rules != null) {
+			for (int i = 0; i < rules.size(); ++i) {
+				double confidence = confidences.getDouble(i);
+				if (i > 0 && confidence < confidences.getDouble(i - 1) && isDecided(query, scores, competitors))
+					break;
+				IntSet answers = apply(rules.get(i), query);
+				if (answers == null)
+					continue;
+				for (int candidate : answers) {
+					DoubleArrayList score = scores.get(candidate);
+					if (score == null) {
+						score = new DoubleArrayList(2);
+						scores.put(candidate, score);
+						boolean known = query.askSubject ? isKnown(candidate, query.relation, query.entity)
+								: isKnown(query.entity, query.relation, candidate);
+						if (!known)
+							competitors.add(candidate);
+					}
+					score.add(confidence);
+				}
+			}
+		}
+
+		for (int i = 0; i < query.answers.size(); ++i) {
+			DoubleArrayList score = scores.get(query.answers.getInt(i));
+			double rank = 0.0;
+			if (score != null) {
+				int better = 0;
+				int ties = 0;
+				for (int competitor : competitors) {
+					int cmp = compare(scores.get(competitor), score);
+					if (cmp > 0)
+						++better;
+					else if (cmp == 0)
+						++ties;
+				}
+				rank = 1.0 + better + ties / 2.0;
+				if (rank > topK)
+					rank = 0.0;
+			}
+			ranks[query.triples.getInt(i)] = rank;
+		}
+	}
+
+	/**
+	 * @return True if the rules with a lower confidence than the ones applied so far
+	 * cannot change the rank of any answer of the query.
+	 */
+	private boolean isDecided(Query query, Int2ObjectMap<DoubleArrayList> scores, IntArrayList competitors) {
+		for (int answer : query.answers) {
+			DoubleArrayList score = scores.get(answer);
+			if (score == null) {
+				// The answer can only come after the candidates found so far
+				if (competitors.size() < topK)
+					return false;
+				continue;
+			}
+			int better = 0;
+			int ties = 0;
+			for (int competitor : competitors) {
+				int cmp = compare(scores.get(competitor), score);
+				if (cmp > 0)
+					++better;
+				else if (cmp == 0)
+					++ties;
+			}
+			if (ties > 0 && better < topK)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Max-plus comparison of two lists of confidences in decreasing order.
+	 */
+	private static int compare(DoubleArrayList a, DoubleArrayList b) {
+		int n = Math.min(a.size(), b.size());
+		for (int i = 0; i < n; ++i) {
+			int cmp = Double.compare(a.getDouble(i), b.getDouble(i));
+			if (cmp != 0)
+				return cmp;
+		}
+		return Integer.compare(a.size(), b.size());
+	}
+
+	private static List<Query> queries(List<int[]> triples, boolean askSubject) {
+		Long2ObjectOpenHashMap<Query> queries = new Long2ObjectOpenHashMap<>();
+		List<Query> result = new ArrayList<>();
+		for (int i = 0; i < triples.size(); ++i) {
+			int[] triple = triples.get(i);
+			int entity = askSubject ? triple[2] : triple[0];
+			Query query = queries.get(key(triple[1], entity));
+			if (query == null) {
+				query = new Query(triple[1], entity, askSubject);
+				queries.put(key(triple[1], entity), query);
+				result.add(query);
+			}
+			query.answers.add(askSubject ? triple[0] : triple[2]);
+			query.triples.add(i);
+		}
+		return result;
+	}
+
+	/**
+	 * It ranks the subjects and objects of the test triples. The test triples must
+	 * have been added with {@link #addKnown(List)} unless they are in the KB.
+	 * @param test
+	 * @param nThreads
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Result evaluate(List<int[]> test, int nThreads) throws InterruptedException {
+		double[] subjectRanks = new double[test.size()];
+		double[] objectRanks = new double[test.size()];
+		List<Query> queries = queries(test, true);
+		int nSubjectQueries = queries.size();
+		queries.addAll(queries(test, false));
+
+		AtomicInteger next = new AtomicInteger();
+		Runnable job = () -> {
+			int i;
+			while ((i = next.getAndIncrement()) < queries.size()) {
+				rank(queries.get(i), i < nSubjectQueries ? subjectRanks : objectRanks);
+			}
+		};
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < nThreads; ++i) {
+			Thread thread = new Thread(job, "evaluator-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return new Result(test.toArray(new int[0][]), subjectRanks, objectRanks, topK);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ConfidenceMetric metric = ConfidenceMetric.PCAConfidence;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int topK = DEFAULT_TOP_K;
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); ++i) {
+				switch (args[i]) {
+				case "-conf":
+					metric = args[++i].equalsIgnoreCase("std") ? ConfidenceMetric.StandardConfidence
+							: ConfidenceMetric.PCAConfidence;
+					break;
+				case "-nc":
+					nThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-k":
+					topK = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(e.getMessage());
+			i = args.length;
+		}
+		if (args.length - i != 2) {
+			System.err.println("RankingEvaluator [-conf pca|std] [-nc threads] [-k top-k] <data dir> <rules>");
+			System.err.println("The data directory contains train.tsv, valid.tsv and test.tsv");
+			System.exit(1);
+		}
+
+		File data = new File(args[i]);
+		KB kb = new KB();
+		kb.load(new File(data, "train.tsv"));
+		List<Rule> rules = AMIEParser.rulesWithMetrics(new File(args[i + 1]), kb);
+		RankingEvaluator evaluator = new RankingEvaluator(kb, rules, metric, topK);
+		List<int[]> test = evaluator.readTriples(new File(data, "test.tsv"));
+		evaluator.addKnown(evaluator.readTriples(new File(data, "valid.tsv")));
+		evaluator.addKnown(test);
+
+		long time = System.currentTimeMillis();
+		Result result = evaluator.evaluate(test, nThreads);
+		System.err.println("Evaluated " + rules.size() + " rules on " + test.size() + " triples in "
+				+ (System.currentTimeMillis() - time) + " ms");
+		result.print(System.out, kb);
+	}
+}
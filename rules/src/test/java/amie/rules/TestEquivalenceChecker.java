@@ -560,4 +560,18 @@ public class TestEquivalenceChecker extends TestCase {
 	protected void tearDown() throws Exception {
 		super.tearDown();
 	}
+	
+	public void testCanonicalHash(){
+		for (Pair<List<int[]>, List<int[]>> p : cases) {
+			long h1 = QueryEquivalenceChecker.canonicalHash(p.first);
+			long h2 = QueryEquivalenceChecker.canonicalHash(p.second);
+			if (QueryEquivalenceChecker.areEquivalent(p.first, p.second)) {
+				assertEquals(h1, h2);
+			}
+		}
+		assertTrue(QueryEquivalenceChecker.canonicalHash(cases.get(3).first) != 
+				QueryEquivalenceChecker.canonicalHash(cases.get(3).second));
+		assertTrue(QueryEquivalenceChecker.canonicalHash(cases.get(12).first) != 
+				QueryEquivalenceChecker.canonicalHash(cases.get(12).second));
+	}
 }
@@ -0,0 +1,83 @@
+package amie.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import amie.data.KB;
+import junit.framework.TestCase;
+
+public class TestRuleState extends TestCase {
+	KB kb = new KB();
+
+	Rule rule;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		rule = AMIEParser.rule("?a <livesIn> ?c  ?c <locatedIn> ?b => ?a <isCitizenOf> ?b", kb);
+		rule.setSupport(12);
+		rule.setHeadCoverage(0.25);
+		rule.setSupportRatio(0.125);
+		rule.setBodySize(40);
+		rule.setPcaBodySize(16);
+		rule.setFunctionalVariablePosition(2);
+		rule.setGeneration(3);
+		rule.setConfidenceUpperBound(0.5);
+		rule.setPcaConfidenceUpperBound(0.875);
+		rule.setPcaEstimation(0.75);
+	}
+
+	private static Rule roundTrip(Rule rule, IntUnaryOperator encoder, IntUnaryOperator decoder, KB kb)
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			rule.writeState(out, encoder);
+		}
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			return Rule.readState(in, decoder, kb);
+		}
+	}
+
+	private void assertSameState(Rule expected, Rule actual) {
+		assertEquals(expected.getFullRuleString(), actual.getFullRuleString());
+		assertEquals(expected.getSupport(), actual.getSupport(), 0.0);
+		assertEquals(expected.getHeadCoverage(), actual.getHeadCoverage(), 0.0);
+		assertEquals(expected.getBodySize(), actual.getBodySize());
+		assertEquals(expected.getPcaBodySize(), actual.getPcaBodySize(), 0.0);
+		assertEquals(expected.getFunctionalVariablePosition(), actual.getFunctionalVariablePosition());
+		assertEquals(expected.getGeneration(), actual.getGeneration());
+		assertEquals(expected.isFinal(), actual.isFinal());
+	}
+
+	public void testRoundTrip() throws Exception {
+		Rule read = roundTrip(rule, IntUnaryOperator.identity(), IntUnaryOperator.identity(), kb);
+		assertSameState(rule, read);
+		assertEquals(rule, read);
+		assertEquals(rule.getHeadKey(), read.getHeadKey());
+		assertEquals(2, read.getFunctionalVariablePosition());
+		assertEquals(kb.map("?b"), read.getFunctionalVariable());
+		assertEquals(3, read.getGeneration());
+		assertEquals(0.75, read.getPcaConfidence(), 0.0);
+	}
+
+	/**
+	 * The rule is read in a KB with a different dictionary, as when a checkpoint is
+	 * resumed.
+	 */
+	public void testRoundTripWithDictionary() throws Exception {
+		List<String> dictionary = new ArrayList<>();
+		KB other = new KB();
+		other.add(other.triple("<Paris>", "<locatedIn>", "<France>"));
+		Rule read = roundTrip(rule, id -> {
+			dictionary.add(kb.unmap(id));
+			return dictionary.size() - 1;
+		}, index -> other.map(dictionary.get(index)), other);
+		assertSameState(rule, read);
+		assertEquals(other.map("<isCitizenOf>"), read.getHead()[1]);
+		assertEquals(other.map("?b"), read.getFunctionalVariable());
+	}
+}
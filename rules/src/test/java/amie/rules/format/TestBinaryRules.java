@@ -0,0 +1,115 @@
+package amie.rules.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class TestBinaryRules extends TestCase {
+	KB kb = new KB();
+
+	private Rule rule(String s, double support, long bodySize, double pcaBodySize, int functionalVariable) {
+		Rule rule = AMIEParser.rule(s, kb);
+		rule.setSupport(support);
+		rule.setHeadCoverage(support / 100);
+		rule.setBodySize(bodySize);
+		rule.setPcaBodySize(pcaBodySize);
+		rule.setFunctionalVariablePosition(functionalVariable);
+		return rule;
+	}
+
+	/**
+	 * It writes each list of rules in its own block.
+	 */
+	private File write(List<List<Rule>> blocks) throws IOException {
+		File file = File.createTempFile("amie", ".rules");
+		file.deleteOnExit();
+		try (BinaryRules.Writer writer = new BinaryRules.Writer(new FileOutputStream(file), kb)) {
+			for (List<Rule> block : blocks) {
+				for (Rule rule : block) {
+					writer.add(rule);
+				}
+				writer.flush();
+			}
+		}
+		return file;
+	}
+
+	private static void assertSameRule(Rule expected, Rule actual) {
+		assertEquals(expected.getRuleString(), actual.getRuleString());
+		assertEquals(expected.getSupport(), actual.getSupport(), 0.0);
+		assertEquals(expected.getHeadCoverage(), actual.getHeadCoverage(), 0.0);
+		assertEquals(expected.getBodySize(), actual.getBodySize());
+		assertEquals(expected.getPcaBodySize(), actual.getPcaBodySize(), 0.0);
+		assertEquals(expected.getFunctionalVariablePosition(), actual.getFunctionalVariablePosition());
+	}
+
+	public void testRoundTrip() throws Exception {
+		List<Rule> first = new ArrayList<>();
+		first.add(rule("?a <livesIn> ?b => ?a <isCitizenOf> ?b", 10, 20, 12, 0));
+		first.add(rule("?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", 8, 16, 10, 2));
+		// The second block uses entries of the first one and introduces new ones
+		List<Rule> second = new ArrayList<>();
+		second.add(rule("?a <livesIn> ?c  ?c <locatedIn> ?b => ?a <isCitizenOf> ?b", 5, 30, 7, 0));
+		second.add(rule("?a <livesIn> <Paris> => ?a <speaks> <French>", 3, 4, 3, 0));
+		List<List<Rule>> blocks = new ArrayList<>();
+		blocks.add(first);
+		blocks.add(second);
+		File file = write(blocks);
+
+		assertTrue(BinaryRules.isBinary(file));
+		BinaryRules binary = BinaryRules.read(file);
+		assertEquals(4, binary.size());
+		assertEquals(3, binary.getNumberOfAtoms(2));
+		assertEquals(0.5, binary.getStdConfidence(0), 0.0);
+		assertEquals(0.8, binary.getPcaConfidence(1), 0.0);
+
+		// The rules are built in a KB with a different dictionary
+		KB other = new KB();
+		other.add(other.triple("<Luis>", "<speaks>", "<Spanish>"));
+		List<Rule> rules = binary.toRules(other);
+		List<Rule> expected = new ArrayList<>(first);
+		expected.addAll(second);
+		assertEquals(expected.size(), rules.size());
+		for (int i = 0; i < rules.size(); ++i) {
+			assertSameRule(expected.get(i), rules.get(i));
+		}
+		assertEquals(other.map("<French>"), rules.get(3).getHead()[2]);
+	}
+
+	public void testFullBlocks() throws Exception {
+		List<Rule> rules = new ArrayList<>();
+		for (int i = 0; i < BinaryRules.BLOCK_SIZE + 2; ++i) {
+			rules.add(rule("?a <livesIn> ?b => ?a <r" + (i % 1000) + "> ?b", i, i + 1, i + 1, 0));
+		}
+		List<List<Rule>> blocks = new ArrayList<>();
+		blocks.add(rules);
+		BinaryRules binary = BinaryRules.read(write(blocks));
+		assertEquals(rules.size(), binary.size());
+		List<Rule> read = binary.toRules(kb);
+		for (int i : new int[] { 0, BinaryRules.BLOCK_SIZE - 1, BinaryRules.BLOCK_SIZE, rules.size() - 1 }) {
+			assertSameRule(rules.get(i), read.get(i));
+		}
+	}
+
+	public void testNotBinary() throws Exception {
+		File file = File.createTempFile("amie", ".tsv");
+		file.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write("?a  <livesIn>  ?b   => ?a  <isCitizenOf>  ?b\t0.1\n".getBytes(StandardCharsets.UTF_8));
+		}
+		assertFalse(BinaryRules.isBinary(file));
+		try {
+			BinaryRules.read(file);
+			fail("A text file must be rejected");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package amie.rules.inference;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import junit.framework.TestCase;
+
+public class TestMaterializer extends TestCase {
+
+	private static final String[] RULES = { "?a <hasParent> ?b => ?a <hasAncestor> ?b",
+			"?a <hasAncestor> ?c ?c <hasParent> ?b => ?a <hasAncestor> ?b",
+			"?a <hasAncestor> ?b => ?b <hasDescendant> ?a" };
+
+	private static KB kb() {
+		KB kb = new KB();
+		String[] people = { "<Ana>", "<Luis>", "<Eva>", "<Juan>", "<Rosa>", "<Pedro>" };
+		for (int i = 0; i < people.length - 1; ++i) {
+			kb.add(kb.triple(people[i], "<hasParent>", people[i + 1]));
+		}
+		kb.add(kb.triple("<Marta>", "<hasParent>", "<Eva>"));
+		return kb;
+	}
+
+	private static List<Rule> rules(KB kb) {
+		List<Rule> rules = new ArrayList<>();
+		for (String s : RULES) {
+			Rule rule = AMIEParser.rule(s, kb);
+			rule.setSupport(1);
+			rule.setPcaBodySize(2);
+			rules.add(rule);
+		}
+		return rules;
+	}
+
+	private static Set<String> facts(KB kb, String relation) {
+		Set<String> result = new HashSet<>();
+		for (Int2ObjectMap.Entry<IntSet> entry : kb.resultsTwoVariables("?s", "?o",
+				new String[] { "?s", relation, "?o" }).int2ObjectEntrySet()) {
+			for (int object : entry.getValue())
+				result.add(kb.unmap(entry.getIntKey()) + " " + kb.unmap(object));
+		}
+		return result;
+	}
+
+	/**
+	 * The semi-naive evaluation derives the same facts as applying every rule to
+	 * the whole KB until nothing changes.
+	 */
+	public void testFixpoint() throws Exception {
+		KB kb = kb();
+		Materializer materializer = new Materializer(kb, rules(kb), ConfidenceMetric.PCAConfidence, 0.0,
+				Integer.MAX_VALUE);
+		List<int[]> derived = materializer.materialize(0, 2);
+
+		KB naive = kb();
+		Predictor predictor = new Predictor(naive, Aggregation.MAX, ConfidenceMetric.PCAConfidence);
+		List<Rule> naiveRules = rules(naive);
+		int nDerived = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Rule rule : naiveRules) {
+				int relation = rule.getHead()[1];
+				for (Int2ObjectMap.Entry<IntSet> entry : predictor.apply(rule).int2ObjectEntrySet()) {
+					for (int object : entry.getValue()) {
+						if (naive.add(entry.getIntKey(), relation, object)) {
+							changed = true;
+							++nDerived;
+						}
+					}
+				}
+			}
+		}
+
+		assertEquals(nDerived, derived.size());
+		// 5 + 4 + 3 + 2 + 1 ancestors in the chain, plus the 4 of Marta
+		assertEquals(19, facts(kb, "<hasAncestor>").size());
+		assertEquals(facts(naive, "<hasAncestor>"), facts(kb, "<hasAncestor>"));
+		assertEquals(facts(naive, "<hasDescendant>"), facts(kb, "<hasDescendant>"));
+	}
+
+	public void testRounds() throws Exception {
+		KB kb = kb();
+		Materializer materializer = new Materializer(kb, rules(kb), ConfidenceMetric.PCAConfidence, 0.0,
+				Integer.MAX_VALUE);
+		materializer.materialize(0, 1);
+		assertTrue(materializer.getRounds() > 1);
+		// The closure is already in the KB
+		int size = materializer.materialize(0, 1).size();
+		assertEquals(1, materializer.getRounds());
+		assertEquals(size, materializer.materialize(2, 1).size());
+	}
+
+	public void testMaxFactsPerRelation() throws Exception {
+		KB kb = kb();
+		Materializer materializer = new Materializer(kb, rules(kb), ConfidenceMetric.PCAConfidence, 0.0, 3);
+		List<int[]> derived = materializer.materialize(0, 1);
+		assertEquals(6, derived.size());
+		assertEquals(3, facts(kb, "<hasAncestor>").size());
+	}
+}
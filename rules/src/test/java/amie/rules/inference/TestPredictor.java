@@ -0,0 +1,85 @@
+package amie.rules.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class TestPredictor extends TestCase {
+	KB kb = new KB();
+
+	List<Rule> rules = new ArrayList<>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(kb.triple("<Ana>", "<livesIn>", "<Paris>"));
+		kb.add(kb.triple("<Ana>", "<wasBornIn>", "<Paris>"));
+		kb.add(kb.triple("<Luis>", "<livesIn>", "<Lima>"));
+		kb.add(kb.triple("<Eva>", "<wasBornIn>", "<Quito>"));
+		kb.add(kb.triple("<Eva>", "<isCitizenOf>", "<Quito>"));
+		rules.add(rule("?a <livesIn> ?b => ?a <isCitizenOf> ?b", 3, 5));
+		rules.add(rule("?a <wasBornIn> ?b => ?a <isCitizenOf> ?b", 1, 2));
+		rules.add(rule("?a <livesIn> <Paris> => ?a <speaks> <French>", 4, 5));
+		// Not applicable, its confidence is unknown
+		rules.add(AMIEParser.rule("?a <livesIn> ?b => ?a <wasBornIn> ?b", kb));
+	}
+
+	private Rule rule(String s, double support, double pcaBodySize) {
+		Rule rule = AMIEParser.rule(s, kb);
+		rule.setSupport(support);
+		rule.setPcaBodySize(pcaBodySize);
+		return rule;
+	}
+
+	private Prediction get(Predictions predictions, String subject, String relation, String object) {
+		return predictions.get(kb.map(subject), kb.map(relation), kb.map(object));
+	}
+
+	public void testMax() throws Exception {
+		Predictor predictor = new Predictor(kb, Aggregation.MAX, ConfidenceMetric.PCAConfidence);
+		assertFalse(predictor.isApplicable(rules.get(3)));
+		Predictions predictions = predictor.predict(rules, 2);
+		assertEquals(3, predictions.size());
+		// Facts of the KB are not predicted
+		assertNull(get(predictions, "<Eva>", "<isCitizenOf>", "<Quito>"));
+		assertTrue(predictions.get(kb.map("<wasBornIn>")).isEmpty());
+
+		Prediction ana = get(predictions, "<Ana>", "<isCitizenOf>", "<Paris>");
+		assertEquals(0.6, ana.getScore(), 1e-9);
+		assertEquals(2, ana.getNumberOfRules());
+		assertSame(rules.get(0), ana.getBestRule());
+		assertEquals(0.6, get(predictions, "<Luis>", "<isCitizenOf>", "<Lima>").getScore(), 1e-9);
+		assertEquals(0.8, get(predictions, "<Ana>", "<speaks>", "<French>").getScore(), 1e-9);
+
+		List<Prediction> sorted = predictions.sorted();
+		assertEquals(kb.map("<speaks>"), sorted.get(0).getRelation());
+		assertEquals(0.6, sorted.get(2).getScore(), 1e-9);
+	}
+
+	public void testNoisyOr() throws Exception {
+		Predictor predictor = new Predictor(kb, Aggregation.NOISY_OR, ConfidenceMetric.PCAConfidence);
+		Predictions predictions = predictor.predict(rules, 1);
+		assertEquals(3, predictions.size());
+		// 1 - (1 - 0.6) * (1 - 0.5)
+		Prediction ana = get(predictions, "<Ana>", "<isCitizenOf>", "<Paris>");
+		assertEquals(0.8, ana.getScore(), 1e-9);
+		assertEquals(2, ana.getNumberOfRules());
+		assertSame(rules.get(0), ana.getBestRule());
+		assertEquals(0.6, get(predictions, "<Luis>", "<isCitizenOf>", "<Lima>").getScore(), 1e-9);
+		assertEquals(0.8, get(predictions, "<Ana>", "<speaks>", "<French>").getScore(), 1e-9);
+	}
+
+	public void testParse() {
+		assertEquals(Aggregation.MAX, Aggregation.parse("Max"));
+		assertEquals(Aggregation.NOISY_OR, Aggregation.parse("noisy-or"));
+		try {
+			Aggregation.parse("sum");
+			fail("Unknown aggregations must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
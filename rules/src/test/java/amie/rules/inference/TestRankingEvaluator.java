@@ -0,0 +1,80 @@
+package amie.rules.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import amie.data.KB;
+import amie.rules.AMIEParser;
+import amie.rules.ConfidenceMetric;
+import amie.rules.Rule;
+import junit.framework.TestCase;
+
+public class TestRankingEvaluator extends TestCase {
+	KB kb = new KB();
+
+	List<Rule> rules = new ArrayList<>();
+
+	List<int[]> test = new ArrayList<>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		kb.add(kb.triple("<Ana>", "<knows>", "<Bob>"));
+		kb.add(kb.triple("<Ana>", "<knows>", "<Eva>"));
+		kb.add(kb.triple("<Luis>", "<knows>", "<Eva>"));
+		kb.add(kb.triple("<Ana>", "<follows>", "<Bob>"));
+		rules.add(rule("?a <knows> ?b => ?a <likes> ?b", 9, 10));
+		rules.add(rule("?a <follows> ?b => ?a <likes> ?b", 1, 2));
+		test.add(kb.triple("<Ana>", "<likes>", "<Bob>"));
+		test.add(kb.triple("<Luis>", "<likes>", "<Eva>"));
+	}
+
+	private Rule rule(String s, double support, double pcaBodySize) {
+		Rule rule = AMIEParser.rule(s, kb);
+		rule.setSupport(support);
+		rule.setPcaBodySize(pcaBodySize);
+		return rule;
+	}
+
+	public void testRanks() throws Exception {
+		RankingEvaluator evaluator = new RankingEvaluator(kb, rules, ConfidenceMetric.PCAConfidence, 10);
+		evaluator.addKnown(test);
+		RankingEvaluator.Result result = evaluator.evaluate(test, 2);
+		// likes(?, Bob): only Ana
+		assertEquals(1.0, result.getSubjectRank(0), 0.0);
+		// likes(?, Eva): Ana and Luis are predicted by the first rule only
+		assertEquals(1.5, result.getSubjectRank(1), 0.0);
+		// likes(Ana, ?): Bob is also predicted by the second rule, Eva is not
+		assertEquals(1.0, result.getObjectRank(0), 0.0);
+		// likes(Luis, ?): only Eva
+		assertEquals(1.0, result.getObjectRank(1), 0.0);
+		assertEquals((3 + 1 / 1.5) / 4, result.getMRR(), 1e-9);
+		assertEquals(0.75, result.getHitsAt(1), 1e-9);
+		assertEquals(1.0, result.getHitsAt(3), 1e-9);
+	}
+
+	/**
+	 * With one ranked candidate, the first rule already finds a wrong candidate for
+	 * likes(Ana, ?), but the second one breaks the tie in favor of Bob.
+	 */
+	public void testTiesBrokenByLowerRules() throws Exception {
+		RankingEvaluator evaluator = new RankingEvaluator(kb, rules, ConfidenceMetric.PCAConfidence, 1);
+		evaluator.addKnown(test);
+		RankingEvaluator.Result result = evaluator.evaluate(test, 1);
+		assertEquals(1.0, result.getObjectRank(0), 0.0);
+		// The tie of Luis with Ana is beyond the top-1
+		assertEquals(0.0, result.getSubjectRank(1), 0.0);
+		assertEquals(0.75, result.getMRR(), 1e-9);
+	}
+
+	public void testFilteredProtocol() throws Exception {
+		RankingEvaluator evaluator = new RankingEvaluator(kb, rules, ConfidenceMetric.PCAConfidence, 10);
+		evaluator.addKnown(test);
+		// Known answers are not counted as wrong candidates
+		List<int[]> valid = new ArrayList<>();
+		valid.add(kb.triple("<Ana>", "<likes>", "<Eva>"));
+		evaluator.addKnown(valid);
+		RankingEvaluator.Result result = evaluator.evaluate(test, 1);
+		assertEquals(1.0, result.getSubjectRank(1), 0.0);
+		assertEquals(1.0, result.getMRR(), 1e-9);
+	}
+}